@@ -21,6 +21,7 @@ import java.util.logging.Logger;
 import org.musicmount.builder.MusicMountBuildCommand;
 import org.musicmount.linker.MusicMountLinkCommand;
 import org.musicmount.live.MusicMountLiveCommand;
+import org.musicmount.tester.MusicMountBenchCommand;
 import org.musicmount.tester.MusicMountTestCommand;
 import org.musicmount.util.LoggingUtil;
 import org.musicmount.util.VersionUtil;
@@ -47,6 +48,7 @@ public class MusicMount {
 		System.err.println("       live     launch an in-memory MusicMount server");
 		System.err.println("       build    generate/update a static MusicMount site");
 		System.err.println("       test     web server to test a static MusicMount site");
+		System.err.println("       bench    run simulated clients against a local MusicMount site");
 		System.err.close();
 		System.exit(1);	
 	}
@@ -73,6 +75,9 @@ public class MusicMount {
 		case "test":
 			MusicMountTestCommand.execute(executeCommand, executeArgs);
 			break;
+		case "bench":
+			MusicMountBenchCommand.execute(executeCommand, executeArgs);
+			break;
 		case "live":
 			MusicMountLiveCommand.execute(executeCommand, executeArgs);
 			break;
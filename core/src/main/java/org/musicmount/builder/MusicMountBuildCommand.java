@@ -160,7 +160,11 @@ public class MusicMountBuildCommand {
 		System.err.println("       --noTrackIndex     do not generate a track index");
 		System.err.println("       --noVariousArtists exclude 'Various Artists' from album artist index");
 		System.err.println("       --directoryIndex   use 'path/' instead of 'path/index.ext'");
+		System.err.println("       --shardedIndex     split album/track index into one document per letter");
+		System.err.println("       --searchIndex      generate search index, one document per two-letter prefix");
+		System.err.println("       --deleteStale      delete files of albums/artists that no longer exist");
 		System.err.println("       --full             full parse, don't use asset store");
+		System.err.println("       --compact          save memory on very large libraries");
 		System.err.println("       --pretty           pretty-print JSON documents");
 		System.err.println("       --verbose          more detailed console output");
 //		System.err.println("       --normalize <form> normalize asset paths, 'NFC'|'NFD' (experimental)");
@@ -206,6 +210,18 @@ public class MusicMountBuildCommand {
 			case "--pretty":
 				builder.getConfig().setPretty(true);
 				break;
+			case "--shardedIndex":
+				builder.getConfig().setShardedIndex(true);
+				break;
+			case "--searchIndex":
+				builder.getConfig().setSearchIndex(true);
+				break;
+			case "--deleteStale":
+				builder.getConfig().setDeleteStale(true);
+				break;
+			case "--compact":
+				builder.getConfig().setCompact(true);
+				break;
 			case "--full":
 				builder.getConfig().setFull(true);
 				break;
@@ -29,6 +29,10 @@ public final class MusicMountBuildConfig implements Cloneable {
 	private boolean noTrackIndex = false;
 	private boolean noVariousArtists = false;
 	private boolean directoryIndex = false;
+	private boolean compact = false;
+	private boolean shardedIndex = false;
+	private boolean searchIndex = false;
+	private boolean deleteStale = false;
 	private Normalizer.Form normalizer = null;
 
 	@Override
@@ -111,6 +115,34 @@ public final class MusicMountBuildConfig implements Cloneable {
 		this.directoryIndex = directoryIndex;
 	}
 
+	public boolean isCompact() {
+		return compact;
+	}
+	public void setCompact(boolean compact) {
+		this.compact = compact;
+	}
+
+	public boolean isShardedIndex() {
+		return shardedIndex;
+	}
+	public void setShardedIndex(boolean shardedIndex) {
+		this.shardedIndex = shardedIndex;
+	}
+
+	public boolean isSearchIndex() {
+		return searchIndex;
+	}
+	public void setSearchIndex(boolean searchIndex) {
+		this.searchIndex = searchIndex;
+	}
+
+	public boolean isDeleteStale() {
+		return deleteStale;
+	}
+	public void setDeleteStale(boolean deleteStale) {
+		this.deleteStale = deleteStale;
+	}
+
 	public Normalizer.Form getNormalizer() {
 		return normalizer;
 	}
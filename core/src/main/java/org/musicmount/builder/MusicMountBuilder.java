@@ -17,12 +17,27 @@ package org.musicmount.builder;
 
 import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -30,19 +45,26 @@ import javax.imageio.ImageIO;
 
 import org.musicmount.builder.impl.AssetLocator;
 import org.musicmount.builder.impl.AssetStore;
+import org.musicmount.builder.impl.BuildManifest;
+import org.musicmount.builder.impl.CollectionSection;
 import org.musicmount.builder.impl.ImageFormatter;
+import org.musicmount.builder.impl.ImageType;
 import org.musicmount.builder.impl.LibraryParser;
 import org.musicmount.builder.impl.LocalStrings;
 import org.musicmount.builder.impl.ResourceLocator;
 import org.musicmount.builder.impl.AssetStoreRepository;
 import org.musicmount.builder.impl.ResponseFormatter;
+import org.musicmount.builder.impl.SearchIndex;
 import org.musicmount.builder.impl.SimpleAssetLocator;
 import org.musicmount.builder.impl.SimpleAssetParser;
 import org.musicmount.builder.impl.SimpleResourceLocator;
+import org.musicmount.builder.impl.TitleSortKeys;
 import org.musicmount.builder.model.Album;
 import org.musicmount.builder.model.Artist;
 import org.musicmount.builder.model.ArtistType;
+import org.musicmount.builder.model.Genre;
 import org.musicmount.builder.model.Library;
+import org.musicmount.builder.model.Track;
 import org.musicmount.io.Resource;
 import org.musicmount.util.LoggingProgressHandler;
 import org.musicmount.util.ProgressHandler;
@@ -68,6 +90,31 @@ public class MusicMountBuilder {
 	 */
 	static final String ASSET_STORE = ".musicmount.gz";	
 
+	/**
+	 * Name of title sort keys file.
+	 */
+	static final String SORT_KEYS = ".musicmount-sortkeys.gz";	
+
+	/**
+	 * Name of search index shard digests file.
+	 */
+	static final String SEARCH_INDEX_DIGESTS = ".musicmount-searchindex";	
+
+	/**
+	 * Search index shard prefix length.
+	 */
+	static final int SEARCH_INDEX_PREFIX_LENGTH = 2;
+
+	/**
+	 * Name of build files file (files of the previous build).
+	 */
+	static final String BUILD_FILES = ".musicmount-files";	
+
+	/**
+	 * Base name of build manifest file (files created, modified and deleted by the last build).
+	 */
+	static final String BUILD_MANIFEST = "manifest";	
+
 	private final MusicMountBuildConfig config;
 
 	private ProgressHandler progressHandler = new LoggingProgressHandler(LOGGER, Level.FINE);
@@ -113,7 +160,7 @@ public class MusicMountBuilder {
 		LOGGER.info("Mount folder: " + mountFolder.getPath());
 		LOGGER.info("Music path  : " + musicPath);
 
-		AssetStore assetStore = new AssetStore(API_VERSION, musicFolder);
+		AssetStore assetStore = new AssetStore(API_VERSION, musicFolder, config.isCompact());
 		Resource siteAssetStoreFile = mountFolder.resolve(ASSET_STORE);
 		boolean siteAssetStoreLoaded = false;
 		if (!config.isFull()) {
@@ -125,7 +172,7 @@ public class MusicMountBuilder {
 				}
 			} catch (Exception e) {
 				LOGGER.log(Level.WARNING, "Failed to load site asset store", e);
-				assetStore = new AssetStore(API_VERSION, musicFolder);
+				assetStore = new AssetStore(API_VERSION, musicFolder, config.isCompact());
 			}
 			if (!siteAssetStoreLoaded) { // check user's asset store repository if it has an asset store to load from (e.g. from "live" command)
 				Resource userAssetStoreFile = AssetStoreRepository.getAssetStoreResource(AssetStoreRepository.getUserAssetStoreRepository(), musicFolder);
@@ -137,7 +184,7 @@ public class MusicMountBuilder {
 						}
 					} catch (Exception e) {
 						LOGGER.log(Level.WARNING, "Failed to load user asset store", e);
-						assetStore = new AssetStore(API_VERSION, musicFolder);
+						assetStore = new AssetStore(API_VERSION, musicFolder, config.isCompact());
 					}
 				}
 			}
@@ -160,6 +207,19 @@ public class MusicMountBuilder {
 			progressHandler.endTask();
 		}
 
+		ResponseFormatter<?> responseFormatter = createResponseFormatter();
+		BuildManifest manifest = new BuildManifest(mountFolder, responseFormatter.getUpdateToken(), config.isFull());
+		Resource buildFilesFile = mountFolder.resolve(BUILD_FILES);
+		try { // also needed on full build to find stale files
+			if (buildFilesFile.exists()) {
+				try (InputStream input = buildFilesFile.getInputStream()) {
+					manifest.load(input);
+				}
+			}
+		} catch (Exception e) {
+			LOGGER.log(Level.WARNING, "Failed to load build files", e);
+		}
+
 		if (config.isNoImages()) {
 			assetStore.setRetina(null);
 		} else {
@@ -172,9 +232,40 @@ public class MusicMountBuilder {
 			Set<Album> imageAlbums = retinaChange || config.isFull() ? new HashSet<>(library.getAlbums()) : changedAlbums;
 			formatter.formatImages(library, resourceLocator, imageAlbums, maxImageThreads, progressHandler);
 			assetStore.setRetina(config.isRetina());
+			for (Album album : library.getAlbums()) {
+				for (ImageType type : ImageType.values()) {
+					String imagePath = resourceLocator.getAlbumImagePath(album, type);
+					if (imagePath != null) {
+						manifest.addFile(imagePath, imageAlbums.contains(album));
+					}
+				}
+			}
 		}
 		
-		generateResponseFiles(library, musicFolder, mountFolder, musicPath);
+		TitleSortKeys titleSortKeys = TitleSortKeys.getInstance(new LocalStrings(Locale.ENGLISH));
+		Resource sortKeysFile = mountFolder.resolve(SORT_KEYS);
+		if (!config.isFull() && titleSortKeys.size() == 0) { // not yet loaded by previous build
+			try {
+				if (sortKeysFile.exists()) {
+					titleSortKeys.load(sortKeysFile);
+				}
+			} catch (Exception e) {
+				LOGGER.log(Level.WARNING, "Failed to load sort keys", e);
+			}
+		}
+
+		generateResponseFiles(library, musicFolder, mountFolder, musicPath, responseFormatter, manifest);
+
+		generateBuildManifest(responseFormatter, manifest, mountFolder);
+
+		titleSortKeys.prune(); // drop keys of titles not used by recent builds (idle periods are saved with the keys)
+		if (titleSortKeys.isModified()) {
+			try {
+				titleSortKeys.save(sortKeysFile);
+			} catch (Exception e) {
+				LOGGER.log(Level.WARNING, "Failed to save sort keys", e);
+			}
+		}
 
 		if (!siteAssetStoreLoaded || changedAlbums.size() > 0) {
 			try {
@@ -187,20 +278,85 @@ public class MusicMountBuilder {
 		LOGGER.info("Done.");
 	}
 
-	void generateResponseFiles(Library library, Resource musicFolder, Resource mountFolder, String musicPath) throws Exception {
-		if (progressHandler != null) {
-			progressHandler.beginTask(config.isNoTrackIndex() ? 3 : 4, "Generating JSON...");
+	/*
+	 * run index section tasks in parallel, rethrow first failure
+	 */
+	void generateIndexSections(List<Callable<Void>> tasks) throws Exception {
+		if (tasks.isEmpty()) {
+			return;
 		}
+		int numberOfThreads = Math.min(tasks.size(), Math.min(maxImageThreads, Runtime.getRuntime().availableProcessors()));
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, numberOfThreads));
+		try {
+			for (Future<Void> future : executor.invokeAll(tasks)) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
 
+	ResponseFormatter<?> createResponseFormatter() {
 		LocalStrings localStrings = new LocalStrings(Locale.ENGLISH);
-		ResponseFormatter<?> formatter;
 		if (config.isXml()) {
-			formatter = new ResponseFormatter.XML(API_VERSION, localStrings, config.isDirectoryIndex(), config.isUnknownGenre(), config.isGrouping(), config.isPretty());
+			return new ResponseFormatter.XML(API_VERSION, localStrings, config.isDirectoryIndex(), config.isUnknownGenre(), config.isGrouping(), config.isPretty());
 		} else {
-			formatter = new ResponseFormatter.JSON(API_VERSION, localStrings, config.isDirectoryIndex(), config.isUnknownGenre(), config.isGrouping(), config.isPretty());
+			return new ResponseFormatter.JSON(API_VERSION, localStrings, config.isDirectoryIndex(), config.isUnknownGenre(), config.isGrouping(), config.isPretty());
 		}
+	}
+
+	/*
+	 * write response file via manifest (if any)
+	 */
+	OutputStream createOutputStream(ResourceLocator resourceLocator, String path, BuildManifest manifest) throws IOException {
+		return createOutputStream(resourceLocator, path, manifest, false);
+	}
+
+	/*
+	 * write response file via manifest (if any); rewrite even if unchanged if requested
+	 */
+	OutputStream createOutputStream(ResourceLocator resourceLocator, String path, BuildManifest manifest, boolean rewrite) throws IOException {
+		return manifest != null ? manifest.createOutputStream(path, rewrite) : createOutputStream(resourceLocator.getResource(path));
+	}
+
+	/**
+	 * Find (and delete) stale files, write build manifest and save build files.
+	 */
+	void generateBuildManifest(ResponseFormatter<?> formatter, BuildManifest manifest, Resource mountFolder) throws Exception {
+		manifest.removeStaleFiles(config.isDeleteStale());
+		if (!manifest.getStale().isEmpty()) {
+			LOGGER.info(String.format("Number of stale files: %d (use --deleteStale to delete)", manifest.getStale().size()));
+		}
+		LOGGER.fine(String.format("Number of files created: %d, modified: %d, deleted: %d",
+				manifest.getCreated().size(), manifest.getModified().size(), manifest.getDeleted().size()));
+		try (OutputStream output = createOutputStream(mountFolder.resolve(BUILD_MANIFEST + (config.isXml() ? ".xml" : ".json")))) {
+			formatter.formatBuildManifest(manifest, output);
+		}
+		try (OutputStream output = createOutputStream(mountFolder.resolve(BUILD_FILES))) {
+			manifest.save(output);
+		} catch (Exception e) {
+			LOGGER.log(Level.WARNING, "Failed to save build files", e);
+		}
+	}
+
+	void generateResponseFiles(Library library, Resource musicFolder, Resource mountFolder, String musicPath) throws Exception {
+		generateResponseFiles(library, musicFolder, mountFolder, musicPath, createResponseFormatter(), null);
+	}
+
+	/**
+	 * Generate response files. If a manifest is given, files are written via the manifest.
+	 */
+	void generateResponseFiles(Library library, Resource musicFolder, Resource mountFolder, String musicPath, final ResponseFormatter<?> formatter, final BuildManifest manifest) throws Exception {
+		if (progressHandler != null) {
+			progressHandler.beginTask((config.isNoTrackIndex() ? 4 : 5) + (config.isSearchIndex() ? 1 : 0), "Generating JSON...");
+		}
+
 		AssetLocator assetLocator = new SimpleAssetLocator(musicFolder, musicPath, config.getNormalizer());
-		ResourceLocator resourceLocator = new SimpleResourceLocator(mountFolder, config.isXml(), config.isNoImages(), config.isNoTrackIndex());
+		final ResourceLocator resourceLocator = new SimpleResourceLocator(mountFolder, config.isXml(), config.isNoImages(), config.isNoTrackIndex(), config.isShardedIndex(), config.isSearchIndex());
 
 		int workDone = -1;
 		
@@ -212,11 +368,11 @@ public class MusicMountBuilder {
 			if (LOGGER.isLoggable(Level.FINEST)) {
 				LOGGER.finest("Generating album collection for album artist: " + artist.getTitle());
 			}
-			try (OutputStream output = createOutputStream(resourceLocator.getResource(resourceLocator.getAlbumCollectionPath(artist)))) {
+			try (OutputStream output = createOutputStream(resourceLocator, resourceLocator.getAlbumCollectionPath(artist), manifest)) {
 				representativeAlbums.put(artist, formatter.formatAlbumCollection(artist, output, resourceLocator));
 			}
 		}
-		try (OutputStream output = createOutputStream(resourceLocator.getResource(resourceLocator.getArtistIndexPath(ArtistType.AlbumArtist)))) {
+		try (OutputStream output = createOutputStream(resourceLocator, resourceLocator.getArtistIndexPath(ArtistType.AlbumArtist), manifest)) {
 			formatter.formatArtistIndex(library.getAlbumArtists().values(), ArtistType.AlbumArtist, output, resourceLocator, representativeAlbums);
 		}
 		if (progressHandler != null) {
@@ -231,11 +387,11 @@ public class MusicMountBuilder {
 			if (LOGGER.isLoggable(Level.FINEST)) {
 				LOGGER.finest("Generating album collection for artist: " + artist.getTitle());
 			}
-			try (OutputStream output = createOutputStream(resourceLocator.getResource(resourceLocator.getAlbumCollectionPath(artist)))) {
+			try (OutputStream output = createOutputStream(resourceLocator, resourceLocator.getAlbumCollectionPath(artist), manifest)) {
 				representativeAlbums.put(artist, formatter.formatAlbumCollection(artist, output, resourceLocator));
 			}
 		}
-		try (OutputStream output = createOutputStream(resourceLocator.getResource(resourceLocator.getArtistIndexPath(ArtistType.TrackArtist)))) {
+		try (OutputStream output = createOutputStream(resourceLocator, resourceLocator.getArtistIndexPath(ArtistType.TrackArtist), manifest)) {
 			formatter.formatArtistIndex(library.getTrackArtists().values(), ArtistType.TrackArtist, output, resourceLocator, representativeAlbums);
 		}
 		if (progressHandler != null) {
@@ -249,23 +405,93 @@ public class MusicMountBuilder {
 			if (LOGGER.isLoggable(Level.FINEST)) {
 				LOGGER.finest("Generating album: " + album.getTitle());
 			}
-			try (OutputStream output = createOutputStream(resourceLocator.getResource(resourceLocator.getAlbumPath(album)))) {
+			try (OutputStream output = createOutputStream(resourceLocator, resourceLocator.getAlbumPath(album), manifest)) {
 				formatter.formatAlbum(album, output, resourceLocator, assetLocator);
 			}
 		}
-		try (OutputStream output = createOutputStream(resourceLocator.getResource(resourceLocator.getAlbumIndexPath()))) {
-			formatter.formatAlbumIndex(library.getAlbums(), output, resourceLocator);
+		if (config.isShardedIndex()) {
+			Iterable<CollectionSection<Album>> sections = formatter.createAlbumIndex(library.getAlbums());
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+			for (final CollectionSection<Album> section : sections) {
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						try (OutputStream output = createOutputStream(resourceLocator, resourceLocator.getAlbumIndexSectionPath(section), manifest)) {
+							formatter.formatAlbumIndexSection(section, output, resourceLocator);
+						}
+						return null;
+					}
+				});
+			}
+			generateIndexSections(tasks);
+			try (OutputStream output = createOutputStream(resourceLocator, resourceLocator.getAlbumIndexPath(), manifest)) {
+				formatter.formatAlbumIndexRoot(sections, output, resourceLocator);
+			}
+			Set<String> sectionPaths = new HashSet<String>();
+			for (CollectionSection<Album> section : sections) {
+				sectionPaths.add(resourceLocator.getAlbumIndexSectionPath(section));
+			}
+			deleteStaleIndexSections(resourceLocator, resourceLocator.getAlbumIndexPath(), sectionPaths);
+		} else {
+			try (OutputStream output = createOutputStream(resourceLocator, resourceLocator.getAlbumIndexPath(), manifest)) {
+				formatter.formatAlbumIndex(library.getAlbums(), output, resourceLocator);
+			}
+			deleteStaleIndexSections(resourceLocator, resourceLocator.getAlbumIndexPath(), Collections.<String>emptySet());
 		}
 		if (progressHandler != null) {
 			progressHandler.progress(++workDone, String.format("%5d albums", library.getAlbums().size()));
 		}
 		
+		/*
+		 * genres
+		 */
+		for (Genre genre : library.getGenres().values()) {
+			if (LOGGER.isLoggable(Level.FINEST)) {
+				LOGGER.finest("Generating album collection for genre: " + genre.getTitle());
+			}
+			try (OutputStream output = createOutputStream(resourceLocator, resourceLocator.getGenreCollectionPath(genre), manifest)) {
+				formatter.formatGenreCollection(genre, output, resourceLocator);
+			}
+		}
+		try (OutputStream output = createOutputStream(resourceLocator, resourceLocator.getGenreIndexPath(), manifest)) {
+			formatter.formatGenreIndex(library.getGenres().values(), output, resourceLocator);
+		}
+		if (progressHandler != null) {
+			progressHandler.progress(++workDone, String.format("%5d genres", library.getGenres().size()));
+		}
+
 		/*
 		 * track index
 		 */
 		if (!config.isNoTrackIndex()) {
-			try (OutputStream output = createOutputStream(resourceLocator.getResource(resourceLocator.getTrackIndexPath()))) {
-				formatter.formatTrackIndex(library.getTracks(), output, resourceLocator, null);
+			if (config.isShardedIndex()) {
+				Iterable<CollectionSection<Track>> sections = formatter.createTrackIndex(library.getTracks());
+				List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+				for (final CollectionSection<Track> section : sections) {
+					tasks.add(new Callable<Void>() {
+						@Override
+						public Void call() throws Exception {
+							try (OutputStream output = createOutputStream(resourceLocator, resourceLocator.getTrackIndexSectionPath(section), manifest)) {
+								formatter.formatTrackIndexSection(section, output, resourceLocator, null);
+							}
+							return null;
+						}
+					});
+				}
+				generateIndexSections(tasks);
+				try (OutputStream output = createOutputStream(resourceLocator, resourceLocator.getTrackIndexPath(), manifest)) {
+					formatter.formatTrackIndexRoot(sections, output, resourceLocator);
+				}
+				Set<String> sectionPaths = new HashSet<String>();
+				for (CollectionSection<Track> section : sections) {
+					sectionPaths.add(resourceLocator.getTrackIndexSectionPath(section));
+				}
+				deleteStaleIndexSections(resourceLocator, resourceLocator.getTrackIndexPath(), sectionPaths);
+			} else {
+				try (OutputStream output = createOutputStream(resourceLocator, resourceLocator.getTrackIndexPath(), manifest)) {
+					formatter.formatTrackIndex(library.getTracks(), output, resourceLocator, null);
+				}
+				deleteStaleIndexSections(resourceLocator, resourceLocator.getTrackIndexPath(), Collections.<String>emptySet());
 			}
 			if (progressHandler != null) {
 				progressHandler.progress(++workDone, String.format("%5d tracks", library.getTracks().size()));
@@ -273,9 +499,19 @@ public class MusicMountBuilder {
 		}
 
 		/*
-		 * service index last
+		 * search index
+		 */
+		if (config.isSearchIndex()) {
+			int shardCount = generateSearchIndex(library, formatter, resourceLocator, mountFolder, manifest);
+			if (progressHandler != null) {
+				progressHandler.progress(++workDone, String.format("%5d search index shards", shardCount));
+			}
+		}
+
+		/*
+		 * service index last, always rewritten: clients detect updates by its update token
 		 */
-		try (OutputStream output = createOutputStream(resourceLocator.getResource(resourceLocator.getServiceIndexPath()))) {
+		try (OutputStream output = createOutputStream(resourceLocator, resourceLocator.getServiceIndexPath(), manifest, true)) {
 			formatter.formatServiceIndex(resourceLocator, output);
 		}
 
@@ -283,4 +519,140 @@ public class MusicMountBuilder {
 			progressHandler.endTask();
 		}
 	}
+
+	/**
+	 * Delete index section files (e.g. "albums/index-a.json" next to "albums/index.json")
+	 * which have not been written by this build, e.g. sections whose letter disappeared
+	 * or all sections after sharding has been turned off.
+	 * @param resourceLocator resource locator
+	 * @param indexPath index document path
+	 * @param sectionPaths section paths written by this build
+	 * @throws IOException
+	 */
+	void deleteStaleIndexSections(ResourceLocator resourceLocator, String indexPath, Set<String> sectionPaths) throws IOException {
+		Resource indexFile = resourceLocator.getResource(indexPath);
+		Resource indexFolder = indexFile.getParent();
+		if (!indexFolder.isDirectory()) {
+			return;
+		}
+		String prefix = "index-";
+		String suffix = indexFile.getName().substring(indexFile.getName().lastIndexOf('.'));
+		Set<String> sectionNames = new HashSet<String>(); // section files are located in the index folder
+		for (String sectionPath : sectionPaths) {
+			sectionNames.add(resourceLocator.getResource(sectionPath).getName());
+		}
+		List<Resource> staleFiles = new ArrayList<Resource>();
+		try (DirectoryStream<Resource> directoryStream = indexFolder.newResourceDirectoryStream()) {
+			for (Resource file : directoryStream) {
+				if (file.getName().startsWith(prefix) && file.getName().endsWith(suffix) && !sectionNames.contains(file.getName())) {
+					staleFiles.add(file);
+				}
+			}
+		}
+		for (Resource file : staleFiles) {
+			LOGGER.finest("Deleting stale index section: " + file.getPath());
+			file.delete();
+		}
+	}
+
+	private static <T> List<T> shard(SortedMap<String, List<T>> shards, String prefix) {
+		if (shards == null) {
+			return null;
+		}
+		List<T> shard = shards.get(prefix);
+		return shard != null ? shard : Collections.<T>emptyList();
+	}
+
+	/**
+	 * Generate prefix search index. Shards whose content didn't change since the
+	 * last build are kept. Shards whose prefix disappeared are left to the manifest's stale files
+	 * (deleted with <code>--deleteStale</code>); without manifest, they are deleted.
+	 * @return number of shards
+	 */
+	int generateSearchIndex(Library library, final ResponseFormatter<?> formatter, final ResourceLocator resourceLocator, Resource mountFolder, final BuildManifest manifest) throws Exception {
+		final SortedMap<String, List<Artist>> albumArtistShards =
+				formatter.createArtistSearchIndex(library.getAlbumArtists().values(), ArtistType.AlbumArtist).shards(SEARCH_INDEX_PREFIX_LENGTH);
+		final SortedMap<String, List<Artist>> trackArtistShards =
+				formatter.createArtistSearchIndex(library.getTrackArtists().values(), ArtistType.TrackArtist).shards(SEARCH_INDEX_PREFIX_LENGTH);
+		final SortedMap<String, List<Album>> albumShards =
+				formatter.createAlbumSearchIndex(library.getAlbums()).shards(SEARCH_INDEX_PREFIX_LENGTH);
+		final SortedMap<String, List<Track>> trackShards = config.isNoTrackIndex() ? null :
+				formatter.createTrackSearchIndex(library.getTracks()).shards(SEARCH_INDEX_PREFIX_LENGTH);
+
+		SortedSet<String> prefixes = new TreeSet<String>();
+		prefixes.addAll(albumArtistShards.keySet());
+		prefixes.addAll(trackArtistShards.keySet());
+		prefixes.addAll(albumShards.keySet());
+		if (trackShards != null) {
+			prefixes.addAll(trackShards.keySet());
+		}
+
+		Resource digestsFile = mountFolder.resolve(SEARCH_INDEX_DIGESTS);
+		final Properties previousDigests = new Properties(); // also needed on full build to delete stale shards
+		try {
+			if (digestsFile.exists()) {
+				try (InputStream input = digestsFile.getInputStream()) {
+					previousDigests.load(input);
+				}
+			}
+		} catch (Exception e) {
+			LOGGER.log(Level.WARNING, "Failed to load search index digests", e);
+			previousDigests.clear();
+		}
+		final boolean full = config.isFull();
+
+		final Properties digests = new Properties();
+		Map<String, Integer> shardItemCounts = new LinkedHashMap<String, Integer>();
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (final String prefix : prefixes) {
+			final List<Artist> albumArtists = shard(albumArtistShards, prefix);
+			final List<Artist> trackArtists = shard(trackArtistShards, prefix);
+			final List<Album> albums = shard(albumShards, prefix);
+			final List<Track> tracks = shard(trackShards, prefix);
+			shardItemCounts.put(prefix, albumArtists.size() + trackArtists.size() + albums.size() + (tracks != null ? tracks.size() : 0));
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					String digest = formatter.searchIndexShardDigest(albumArtists, trackArtists, albums, tracks, resourceLocator);
+					String path = resourceLocator.getSearchIndexShardPath(prefix);
+					if (full || !digest.equals(previousDigests.getProperty(prefix)) || !resourceLocator.getResource(path).exists()) {
+						if (LOGGER.isLoggable(Level.FINEST)) {
+							LOGGER.finest("Generating search index shard: " + prefix);
+						}
+						try (OutputStream output = createOutputStream(resourceLocator, path, manifest)) {
+							formatter.formatSearchIndexShard(prefix, albumArtists, trackArtists, albums, tracks, output, resourceLocator);
+						}
+					} else if (manifest != null) {
+						manifest.addFile(path, false);
+					}
+					digests.setProperty(prefix, digest);
+					return null;
+				}
+			});
+		}
+		generateIndexSections(tasks);
+
+		if (manifest == null) { // otherwise, shards of disappeared prefixes are stale files of the manifest
+			for (String prefix : previousDigests.stringPropertyNames()) {
+				if (!prefixes.contains(prefix)) {
+					Resource file = resourceLocator.getResource(resourceLocator.getSearchIndexShardPath(prefix));
+					if (file.exists()) {
+						file.delete();
+					}
+				}
+			}
+		}
+
+		try (OutputStream output = createOutputStream(resourceLocator, resourceLocator.getSearchIndexPath(), manifest)) {
+			formatter.formatSearchIndexRoot(SEARCH_INDEX_PREFIX_LENGTH, shardItemCounts, output, resourceLocator);
+		}
+
+		try (OutputStream output = createOutputStream(digestsFile)) {
+			digests.store(output, "search index shard digests");
+		} catch (Exception e) {
+			LOGGER.log(Level.WARNING, "Failed to save search index digests", e);
+		}
+
+		return prefixes.size();
+	}
 }
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.builder.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.musicmount.io.Resource;
+
+/**
+ * Columnar asset storage for large libraries.
+ * Numbers are kept in primitive arrays, tag strings (album, artists, genre, etc.) are dictionary-encoded.
+ * {@link Asset} instances are created on demand and share their tag strings.
+ * Rows of removed assets are reused.
+ */
+class AssetColumns {
+	private static final int NONE = Integer.MIN_VALUE; // null number
+
+	private static final byte FLAG_COMPILATION = 1;
+	private static final byte FLAG_ARTWORK_AVAILABLE = 2;
+
+	/*
+	 * string dictionary: code 0 is reserved for null
+	 */
+	private final List<String> dictionary = new ArrayList<String>();
+	private final Map<String, Integer> dictionaryCodes = new HashMap<String, Integer>();
+
+	private Resource[] resources;
+	private String[] names;
+	private int[] albums;
+	private int[] albumArtists;
+	private int[] artists;
+	private int[] genres;
+	private int[] composers;
+	private int[] groupings;
+	private int[] discNumbers;
+	private int[] trackNumbers;
+	private int[] years;
+	private int[] durations;
+	private byte[] flags;
+
+	private int rows = 0; // number of used rows, including free rows
+	private int[] freeRows = new int[16];
+	private int freeRowsCount = 0;
+
+	AssetColumns() {
+		this(1024);
+	}
+
+	AssetColumns(int capacity) {
+		dictionary.add(null);
+		resources = new Resource[capacity];
+		names = new String[capacity];
+		albums = new int[capacity];
+		albumArtists = new int[capacity];
+		artists = new int[capacity];
+		genres = new int[capacity];
+		composers = new int[capacity];
+		groupings = new int[capacity];
+		discNumbers = new int[capacity];
+		trackNumbers = new int[capacity];
+		years = new int[capacity];
+		durations = new int[capacity];
+		flags = new byte[capacity];
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > resources.length) {
+			capacity = Math.max(capacity, resources.length + (resources.length >> 1));
+			resources = Arrays.copyOf(resources, capacity);
+			names = Arrays.copyOf(names, capacity);
+			albums = Arrays.copyOf(albums, capacity);
+			albumArtists = Arrays.copyOf(albumArtists, capacity);
+			artists = Arrays.copyOf(artists, capacity);
+			genres = Arrays.copyOf(genres, capacity);
+			composers = Arrays.copyOf(composers, capacity);
+			groupings = Arrays.copyOf(groupings, capacity);
+			discNumbers = Arrays.copyOf(discNumbers, capacity);
+			trackNumbers = Arrays.copyOf(trackNumbers, capacity);
+			years = Arrays.copyOf(years, capacity);
+			durations = Arrays.copyOf(durations, capacity);
+			flags = Arrays.copyOf(flags, capacity);
+		}
+	}
+
+	private int encode(String value) {
+		if (value == null) {
+			return 0;
+		}
+		Integer code = dictionaryCodes.get(value);
+		if (code == null) {
+			code = Integer.valueOf(dictionary.size());
+			dictionary.add(value);
+			dictionaryCodes.put(value, code);
+		}
+		return code.intValue();
+	}
+
+	private String decode(int code) {
+		return dictionary.get(code);
+	}
+
+	private static int encodeNumber(Integer value) {
+		return value == null ? NONE : value.intValue();
+	}
+
+	private static Integer decodeNumber(int value) {
+		return value == NONE ? null : Integer.valueOf(value);
+	}
+
+	/**
+	 * Add asset.
+	 * @param asset asset
+	 * @return row index
+	 */
+	int add(Asset asset) {
+		int row;
+		if (freeRowsCount > 0) {
+			row = freeRows[--freeRowsCount];
+		} else {
+			ensureCapacity(rows + 1);
+			row = rows++;
+		}
+		resources[row] = asset.getResource();
+		names[row] = asset.getName();
+		albums[row] = encode(asset.getAlbum());
+		albumArtists[row] = encode(asset.getAlbumArtist());
+		artists[row] = encode(asset.getArtist());
+		genres[row] = encode(asset.getGenre());
+		composers[row] = encode(asset.getComposer());
+		groupings[row] = encode(asset.getGrouping());
+		discNumbers[row] = encodeNumber(asset.getDiscNumber());
+		trackNumbers[row] = encodeNumber(asset.getTrackNumber());
+		years[row] = encodeNumber(asset.getYear());
+		durations[row] = encodeNumber(asset.getDuration());
+		flags[row] = (byte) ((asset.isCompilation() ? FLAG_COMPILATION : 0) | (asset.isArtworkAvailable() ? FLAG_ARTWORK_AVAILABLE : 0));
+		return row;
+	}
+
+	/**
+	 * Remove asset. The row may be reused by subsequent calls to {@link #add(Asset)}.
+	 * @param row row index
+	 */
+	void remove(int row) {
+		resources[row] = null;
+		names[row] = null;
+		if (freeRowsCount == freeRows.length) {
+			freeRows = Arrays.copyOf(freeRows, freeRowsCount * 2);
+		}
+		freeRows[freeRowsCount++] = row;
+	}
+
+	/**
+	 * Create asset view.
+	 * @param row row index
+	 * @return new asset instance
+	 */
+	Asset get(int row) {
+		Asset asset = new Asset(resources[row]);
+		asset.setName(names[row]);
+		asset.setAlbum(decode(albums[row]));
+		asset.setAlbumArtist(decode(albumArtists[row]));
+		asset.setArtist(decode(artists[row]));
+		asset.setGenre(decode(genres[row]));
+		asset.setComposer(decode(composers[row]));
+		asset.setGrouping(decode(groupings[row]));
+		asset.setDiscNumber(decodeNumber(discNumbers[row]));
+		asset.setTrackNumber(decodeNumber(trackNumbers[row]));
+		asset.setYear(decodeNumber(years[row]));
+		asset.setDuration(decodeNumber(durations[row]));
+		asset.setCompilation((flags[row] & FLAG_COMPILATION) != 0);
+		asset.setArtworkAvailable((flags[row] & FLAG_ARTWORK_AVAILABLE) != 0);
+		return asset;
+	}
+
+	Resource getResource(int row) {
+		return resources[row];
+	}
+
+	/**
+	 * @return number of assets
+	 */
+	int size() {
+		return rows - freeRowsCount;
+	}
+
+	/**
+	 * @return number of dictionary strings
+	 */
+	int dictionarySize() {
+		return dictionary.size() - 1;
+	}
+}
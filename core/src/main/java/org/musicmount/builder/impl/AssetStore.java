@@ -68,19 +68,24 @@ public class AssetStore {
 			Modified
 		}
 
-		final Asset asset;
+		final Resource resource;
+		final Asset asset; // null if stored in columns
+		final int row; // columns row
 
 		State state;
 		Long albumId;
 
-		AssetEntity(Long albumId, Asset asset, State state) {
+		AssetEntity(Long albumId, Resource resource, Asset asset, int row, State state) {
 			this.albumId = albumId;
+			this.resource = resource;
 			this.asset = asset;
+			this.row = row;
 			this.state = state;
 		}
 	}
 	
 	final Map<Resource, AssetEntity> entities = new LinkedHashMap<Resource, AssetEntity>();
+	final AssetColumns columns; // null unless compact
 	final Set<Long> deletedAlbumIds = new HashSet<Long>();
 	final Resource musicFolder;
 
@@ -90,8 +95,42 @@ public class AssetStore {
 	Boolean retina = null; // null means "unknown"
 
 	public AssetStore(String apiVersion, Resource musicFolder) {
+		this(apiVersion, musicFolder, false);
+	}
+
+	/**
+	 * Create asset store.
+	 * @param apiVersion API version
+	 * @param musicFolder music folder
+	 * @param compact use columnar storage (less memory for large libraries, assets are created on demand)
+	 */
+	public AssetStore(String apiVersion, Resource musicFolder, boolean compact) {
 		this.version = apiVersion + "-2";
 		this.musicFolder = musicFolder;
+		this.columns = compact ? new AssetColumns() : null;
+	}
+
+	public boolean isCompact() {
+		return columns != null;
+	}
+
+	AssetEntity createEntity(Long albumId, Asset asset, AssetEntity.State state) {
+		if (columns != null) {
+			return new AssetEntity(albumId, asset.getResource(), null, columns.add(asset), state);
+		}
+		return new AssetEntity(albumId, asset.getResource(), asset, -1, state);
+	}
+
+	AssetEntity removeEntity(Resource resource) {
+		AssetEntity entity = entities.remove(resource);
+		if (entity != null && columns != null) {
+			columns.remove(entity.row);
+		}
+		return entity;
+	}
+
+	Asset asset(AssetEntity entity) {
+		return entity.asset != null ? entity.asset : columns.get(entity.row);
 	}
 	
 	public Resource getMusicFolder() {
@@ -102,7 +141,7 @@ public class AssetStore {
 	 * visible for testing
 	 */
 	public Asset getAsset(Resource resource) {
-		return entities.containsKey(resource) ? entities.get(resource).asset : null;
+		return entities.containsKey(resource) ? asset(entities.get(resource)) : null;
 	}
 	
 	/*
@@ -126,9 +165,9 @@ public class AssetStore {
 	
 	public Iterable<Asset> assets() {
 		return new Iterable<Asset>() {
-			Iterator<AssetEntity> delegate = entities.values().iterator();
 			@Override
 			public Iterator<Asset> iterator() {
+				final Iterator<AssetEntity> delegate = entities.values().iterator();
 				return new Iterator<Asset>() {
 					@Override
 					public boolean hasNext() {
@@ -136,7 +175,7 @@ public class AssetStore {
 					}
 					@Override
 					public Asset next() {
-						return delegate.next().asset;
+						return asset(delegate.next());
 					}
 					@Override
 					public void remove() {
@@ -211,7 +250,9 @@ public class AssetStore {
 			/*
 			 * (3) assign album id to album and mark id as assigned (used)
 			 */
-			album.setAlbumId(albumId);
+			if (album.getAlbumId() != albumId) { // albums may be shared with library snapshots of published mounts
+				album.setAlbumId(albumId);
+			}
 
 			/*
 			 * (4) determine album change, update album id of entities covered by the album, collect covered entities
@@ -289,27 +330,28 @@ public class AssetStore {
 			for (AssetEntity entity : entities.values()) {
 				String assetPath;
 				try {
-					assetPath = musicFolder.getPath().relativize(entity.asset.getResource().getPath()).toString();
+					assetPath = musicFolder.getPath().relativize(entity.resource.getPath()).toString();
 				} catch (IllegalArgumentException e) {
-					LOGGER.warning("Could not determine path for asset resource: " + entity.asset.getResource());
+					LOGGER.warning("Could not determine path for asset resource: " + entity.resource);
 					continue;
 				}
+				Asset asset = asset(entity);
 				writer.writeStartElement("asset");
 				writeNumberProperty(writer, "albumId", entity.albumId);
-				writeStringProperty(writer, "album", entity.asset.getAlbum());
-				writeStringProperty(writer, "albumArtist", entity.asset.getAlbumArtist());
-				writeStringProperty(writer, "artist", entity.asset.getArtist());
-				writeBooleanProperty(writer, "artworkAvailable", entity.asset.isArtworkAvailable());
+				writeStringProperty(writer, "album", asset.getAlbum());
+				writeStringProperty(writer, "albumArtist", asset.getAlbumArtist());
+				writeStringProperty(writer, "artist", asset.getArtist());
+				writeBooleanProperty(writer, "artworkAvailable", asset.isArtworkAvailable());
 				writeStringProperty(writer, "assetPath", assetPath);
-				writeBooleanProperty(writer, "compilation", entity.asset.isCompilation());
-				writeStringProperty(writer, "composer", entity.asset.getComposer());
-				writeNumberProperty(writer, "discNumber", entity.asset.getDiscNumber());
-				writeNumberProperty(writer, "duration", entity.asset.getDuration());
-				writeStringProperty(writer, "genre", entity.asset.getGenre());
-				writeStringProperty(writer, "grouping", entity.asset.getGrouping());
-				writeStringProperty(writer, "name", entity.asset.getName());
-				writeNumberProperty(writer, "trackNumber", entity.asset.getTrackNumber());
-				writeNumberProperty(writer, "year", entity.asset.getYear());
+				writeBooleanProperty(writer, "compilation", asset.isCompilation());
+				writeStringProperty(writer, "composer", asset.getComposer());
+				writeNumberProperty(writer, "discNumber", asset.getDiscNumber());
+				writeNumberProperty(writer, "duration", asset.getDuration());
+				writeStringProperty(writer, "genre", asset.getGenre());
+				writeStringProperty(writer, "grouping", asset.getGrouping());
+				writeStringProperty(writer, "name", asset.getName());
+				writeNumberProperty(writer, "trackNumber", asset.getTrackNumber());
+				writeNumberProperty(writer, "year", asset.getYear());
 				writer.writeEndElement();
 			}
 			writer.writeEndElement();
@@ -339,12 +381,12 @@ public class AssetStore {
 		if (LOGGER.isLoggable(Level.FINER)) {
 			LOGGER.finer("Parsing asset: " + resource.getPath());
 		}
-		AssetEntity entity = entities.remove(resource);
+		AssetEntity entity = removeEntity(resource);
 		Asset asset = assetParser.parse(resource);
 		if (entity == null) { // new asset
-			entities.put(resource, entity = new AssetEntity(null, asset, AssetEntity.State.Created));
+			entities.put(resource, entity = createEntity(null, asset, AssetEntity.State.Created));
 		} else { // modified asset -> keep albumId
-			entities.put(resource, entity = new AssetEntity(entity.albumId, asset, AssetEntity.State.Modified));
+			entities.put(resource, entity = createEntity(entity.albumId, asset, AssetEntity.State.Modified));
 		}
 	}
 	
@@ -453,7 +495,7 @@ public class AssetStore {
 		 * remove entities for deleted/bad resources
 		 */
 		for (Resource resource : trashList) {
-			AssetEntity entity = entities.remove(resource);
+			AssetEntity entity = removeEntity(resource);
 			if (entity != null && entity.albumId != null) {
 				deletedAlbumIds.add(entity.albumId);
 			}
@@ -487,13 +529,8 @@ public class AssetStore {
 		return assetResources;
 	}
 
-	public void update(final AssetParser assetParser, int maxThreads, ProgressHandler progressHandler) throws IOException {
-		long updateTimestamp = System.currentTimeMillis();
-
-		/*
-		 * collect resources
-		 */
-		Set<Resource> assetResources = collectAssetResources(progressHandler, new DirectoryStream.Filter<Path>() {
+	private DirectoryStream.Filter<Path> assetFilter(final AssetParser assetParser) {
+		return new DirectoryStream.Filter<Path>() {
 			public boolean accept(Path path) {
 				try {
 					return !path.getFileName().toString().startsWith(".") && (assetParser.isAssetPath(path) || musicFolder.getProvider().isDirectory(path));
@@ -501,7 +538,16 @@ public class AssetStore {
 					return false;
 				}
 			}
-		});
+		};
+	}
+
+	public void update(final AssetParser assetParser, int maxThreads, ProgressHandler progressHandler) throws IOException {
+		long updateTimestamp = System.currentTimeMillis();
+
+		/*
+		 * collect resources
+		 */
+		Set<Resource> assetResources = collectAssetResources(progressHandler, assetFilter(assetParser));
 
 		/*
 		 * parse assets
@@ -514,6 +560,100 @@ public class AssetStore {
 		timestamp = updateTimestamp;
 	}
 
+	/*
+	 * answer true if path is outside the music folder or inside a hidden folder
+	 */
+	private boolean isExcluded(Path path) {
+		if (!path.startsWith(musicFolder.getPath())) {
+			return true;
+		}
+		for (Path name : musicFolder.getPath().relativize(path)) {
+			if (name.toString().startsWith(".")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void collectEntityResources(Set<Resource> resources, Path path) {
+		for (Resource resource : entities.keySet()) {
+			if (resource.getPath().startsWith(path)) {
+				resources.add(resource);
+			}
+		}
+	}
+
+	/**
+	 * Update assets at the given paths only, without scanning the whole music folder (e.g. paths reported by a folder watcher).
+	 * Existing asset files are parsed, existing folders are scanned for new, modified and removed assets.
+	 * Assets at or below paths that no longer exist are removed.
+	 * The timestamp is left alone: only a full update advances it, so it still covers files whose watcher events were lost.
+	 * @param assetParser asset parser
+	 * @param paths changed files or folders
+	 * @param progressHandler progress handler
+	 * @return resources of added, modified and removed assets
+	 * @throws IOException if scanning a folder fails
+	 */
+	public Set<Resource> update(AssetParser assetParser, Iterable<Path> paths, ProgressHandler progressHandler) throws IOException {
+		DirectoryStream.Filter<Path> assetFilter = assetFilter(assetParser);
+		Set<Resource> parseSet = new LinkedHashSet<>(); // new/modified resources
+		Set<Resource> trashSet = new LinkedHashSet<>(); // deleted/bad resources
+
+		for (Path path : paths) {
+			if (isExcluded(path)) {
+				continue;
+			}
+			Resource resource = musicFolder.getProvider().newResource(path);
+			if (!resource.exists()) {
+				collectEntityResources(trashSet, path);
+			} else if (resource.isDirectory()) {
+				Set<Resource> assetResources = new LinkedHashSet<>();
+				collectAssetResources(assetResources, resource, null, assetFilter);
+				Set<Resource> entityResources = new HashSet<>();
+				collectEntityResources(entityResources, path);
+				for (Resource entityResource : entityResources) {
+					if (!assetResources.contains(entityResource)) {
+						trashSet.add(entityResource);
+					}
+				}
+				for (Resource assetResource : assetResources) {
+					if (!entities.containsKey(assetResource) || assetResource.lastModified() > timestamp) {
+						parseSet.add(assetResource);
+					}
+				}
+			} else if (assetFilter.accept(path)) {
+				parseSet.add(resource);
+			}
+		}
+		parseSet.removeAll(trashSet);
+
+		if (progressHandler != null) {
+			progressHandler.beginTask(parseSet.size(), String.format("Parsing %d assets...", parseSet.size()));
+		}
+		for (Resource resource : parseSet) {
+			try {
+				updateEntity(resource, assetParser);
+			} catch (Exception e) {
+				trashSet.add(resource);
+				LOGGER.log(Level.WARNING, "Could not parse asset: " + resource.getPath(), e);
+			}
+		}
+		if (progressHandler != null) {
+			progressHandler.endTask();
+		}
+
+		for (Resource resource : trashSet) {
+			AssetEntity entity = removeEntity(resource);
+			if (entity != null && entity.albumId != null) {
+				deletedAlbumIds.add(entity.albumId);
+			}
+		}
+
+		Set<Resource> changedResources = new HashSet<>(parseSet);
+		changedResources.addAll(trashSet);
+		return changedResources;
+	}
+
 	private AssetEntity loadEntity(XMLStreamReader reader) throws IOException, XMLStreamException {
 		reader.require(XMLStreamConstants.START_ELEMENT, null, "asset");
 		reader.nextTag();
@@ -613,7 +753,7 @@ public class AssetStore {
 		asset.setTrackNumber(trackNumber);
 		asset.setYear(year);
 
-		return new AssetEntity(albumId, asset, AssetEntity.State.Synced);
+		return createEntity(albumId, asset, AssetEntity.State.Synced);
 	}
 
 	public void load(InputStream input) throws IOException, XMLStreamException {
@@ -639,9 +779,12 @@ public class AssetStore {
 				case "asset":
 					AssetEntity entity = loadEntity(reader);
 					if (entity != null) {
-						entities.put(entity.asset.getResource(), entity);
+						AssetEntity replacedEntity = entities.put(entity.resource, entity);
+						if (replacedEntity != null && columns != null) {
+							columns.remove(replacedEntity.row);
+						}
 						if (LOGGER.isLoggable(Level.FINEST)) {
-							LOGGER.finest("Asset has been loaded: " + entity.asset.getResource().getPath().toAbsolutePath());
+							LOGGER.finest("Asset has been loaded: " + entity.resource.getPath().toAbsolutePath());
 						}
 					}
 					break;
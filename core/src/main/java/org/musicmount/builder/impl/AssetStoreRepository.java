@@ -50,6 +50,15 @@ public class AssetStoreRepository {
 		}
 	}
 	
+	/**
+	 * Get title sort keys file (shared by all music folders).
+	 * @param repository
+	 * @return resource
+	 */
+	public static Resource getSortKeysResource(Resource repository) {
+		return repository != null ? repository.resolve("musicmount-sortkeys.gz") : null;
+	}
+
 	/**
 	 * Create temporary folder.
 	 * @return folder or <code>null</code>
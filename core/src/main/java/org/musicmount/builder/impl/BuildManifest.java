@@ -0,0 +1,394 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.builder.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.musicmount.io.Resource;
+
+/**
+ * Build manifest: files created, modified and deleted by a build compared to the previous build.
+ * <p>
+ * Response files are written via {@link #createOutputStream(String)}. If a response didn't change
+ * since the previous build (ignoring the update token), the existing file is kept, so unchanged
+ * responses are byte-identical across builds. Other generated files (images) are registered via
+ * {@link #addFile(String, boolean)}. Files of the previous build or files in generated folders
+ * which have not been written or registered by the current build are stale.
+ * </p>
+ * <p>
+ * File paths are relative to the mount folder, using '/' as separator. Files not recorded by the
+ * previous build are reported as created.
+ * </p>
+ */
+public class BuildManifest {
+	/**
+	 * Manifest entry: file path, size and MD5 digest (hex)
+	 */
+	public static class Entry {
+		private final String path;
+		private final long size;
+		private final String digest;
+		private final String contentDigest; // digest ignoring the update token
+
+		Entry(String path, long size, String digest, String contentDigest) {
+			this.path = path;
+			this.size = size;
+			this.digest = digest;
+			this.contentDigest = contentDigest;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public String getDigest() {
+			return digest;
+		}
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // every Java platform supports MD5
+		}
+	}
+
+	private static String toHexString(byte[] bytes) {
+		StringBuilder builder = new StringBuilder();
+		for (byte b : bytes) {
+			builder.append(String.format("%02x", b & 0xff));
+		}
+		return builder.toString();
+	}
+
+	/*
+	 * index of first occurrence of token in bytes or -1
+	 */
+	private static int indexOf(byte[] bytes, int length, byte[] token) {
+		if (token.length > 0) {
+			for (int i = 0; i <= length - token.length; i++) {
+				int j = 0;
+				while (j < token.length && bytes[i + j] == token[j]) {
+					j++;
+				}
+				if (j == token.length) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	private final Resource folder;
+	private final byte[] ignoredToken;
+	private final boolean full;
+
+	private final Map<String, Entry> previous = new HashMap<String, Entry>();
+	private final SortedMap<String, Entry> current = new TreeMap<String, Entry>();
+	private final SortedMap<String, Entry> created = new TreeMap<String, Entry>();
+	private final SortedMap<String, Entry> modified = new TreeMap<String, Entry>();
+	private final SortedMap<String, Entry> deleted = new TreeMap<String, Entry>();
+	private final SortedMap<String, Entry> stale = new TreeMap<String, Entry>();
+
+	/**
+	 * Create manifest.
+	 * @param folder mount folder
+	 * @param updateToken update token of the build's responses, ignored when comparing responses
+	 * @param full if <code>true</code>, all responses are rewritten
+	 */
+	public BuildManifest(Resource folder, String updateToken, boolean full) {
+		this.folder = folder;
+		this.ignoredToken = updateToken.getBytes(StandardCharsets.UTF_8);
+		this.full = full;
+	}
+
+	/**
+	 * @return mount folder
+	 */
+	public Resource getFolder() {
+		return folder;
+	}
+
+	/**
+	 * Load files of the previous build.
+	 * @param input file entries saved by {@link #save(OutputStream)}
+	 * @throws IOException
+	 */
+	public void load(InputStream input) throws IOException {
+		Properties properties = new Properties();
+		properties.load(input);
+		previous.clear();
+		for (String path : properties.stringPropertyNames()) {
+			String[] values = properties.getProperty(path).split(" ");
+			if (values.length == 3) {
+				try {
+					previous.put(path, new Entry(path, Long.parseLong(values[0]), values[1], values[2]));
+				} catch (NumberFormatException e) {
+					// ignore entry
+				}
+			}
+		}
+	}
+
+	/**
+	 * Save files of the current build.
+	 * @param output output stream
+	 * @throws IOException
+	 */
+	public synchronized void save(OutputStream output) throws IOException {
+		Properties properties = new Properties();
+		for (Entry entry : current.values()) {
+			properties.setProperty(entry.path, String.format("%d %s %s", entry.size, entry.digest, entry.contentDigest));
+		}
+		properties.store(output, "build files: size, digest, content digest");
+	}
+
+	private synchronized void add(Entry entry) {
+		current.put(entry.path, entry);
+		Entry previousEntry = previous.get(entry.path);
+		if (previousEntry == null) {
+			created.put(entry.path, entry);
+		} else if (!previousEntry.digest.equals(entry.digest)) {
+			modified.put(entry.path, entry);
+		}
+	}
+
+	private synchronized Entry getPrevious(String path) {
+		return previous.get(path);
+	}
+
+	/**
+	 * Create output stream for a response file. The response is written to the file
+	 * when the stream is closed, unless its content didn't change since the previous build.
+	 * @param path file path
+	 * @return output stream
+	 */
+	public OutputStream createOutputStream(String path) {
+		return createOutputStream(path, false);
+	}
+
+	/**
+	 * Create output stream for a response file. The response is written to the file when the stream is closed.
+	 * @param path file path
+	 * @param rewrite if <code>true</code>, the file is written even if its content didn't change since the previous build,
+	 * e.g. to publish the build's update token in the service index
+	 * @return output stream
+	 */
+	public OutputStream createOutputStream(final String path, final boolean rewrite) {
+		return new ByteArrayOutputStream() {
+			private boolean closed = false;
+			@Override
+			public void close() throws IOException {
+				if (!closed) {
+					closed = true;
+					writeFile(path, buf, count, rewrite);
+				}
+			}
+		};
+	}
+
+	void writeFile(String path, byte[] bytes, int length, boolean rewrite) throws IOException {
+		MessageDigest digest = createDigest();
+		digest.update(bytes, 0, length);
+		MessageDigest contentDigest = createDigest();
+		int tokenIndex = indexOf(bytes, length, ignoredToken);
+		if (tokenIndex < 0) {
+			contentDigest.update(bytes, 0, length);
+		} else {
+			contentDigest.update(bytes, 0, tokenIndex);
+			contentDigest.update(bytes, tokenIndex + ignoredToken.length, length - tokenIndex - ignoredToken.length);
+		}
+		Entry entry = new Entry(path, length, toHexString(digest.digest()), toHexString(contentDigest.digest()));
+
+		Resource file = folder.resolve(path);
+		Entry previousEntry = getPrevious(path);
+		if (!full && !rewrite && previousEntry != null && previousEntry.contentDigest.equals(entry.contentDigest)
+				&& file.exists() && file.length() == previousEntry.size) {
+			add(previousEntry); // keep file
+		} else {
+			if (!file.getParent().exists()) { // file.getParent() may be a symbolic link target (mount folder)
+				file.getParent().mkdirs();
+			}
+			try (OutputStream output = new BufferedOutputStream(file.getOutputStream())) {
+				output.write(bytes, 0, length);
+			}
+			add(entry);
+		}
+	}
+
+	/**
+	 * Register a file generated by the build (e.g. an image).
+	 * Missing files are ignored.
+	 * @param path file path
+	 * @param written <code>true</code> if the file has been (re-)written by the build
+	 * @throws IOException
+	 */
+	public void addFile(String path, boolean written) throws IOException {
+		Resource file = folder.resolve(path);
+		if (!file.exists()) {
+			return;
+		}
+		Entry previousEntry = getPrevious(path);
+		if (!written && previousEntry != null && file.length() == previousEntry.size) {
+			add(previousEntry);
+		} else {
+			MessageDigest digest = createDigest();
+			long size = 0;
+			try (InputStream input = file.getInputStream()) {
+				byte[] buffer = new byte[8192];
+				int length;
+				while ((length = input.read(buffer)) >= 0) {
+					digest.update(buffer, 0, length);
+					size += length;
+				}
+			}
+			String hexDigest = toHexString(digest.digest());
+			add(new Entry(path, size, hexDigest, hexDigest));
+		}
+	}
+
+	private String relativePath(Resource file) {
+		return folder.getPath().relativize(file.getPath()).toString().replace(file.getPath().getFileSystem().getSeparator(), "/");
+	}
+
+	private void collectFiles(Resource directory, Collection<String> paths) throws IOException {
+		try (DirectoryStream<Resource> directoryStream = directory.newResourceDirectoryStream()) {
+			for (Resource resource : directoryStream) {
+				if (resource.getName().startsWith(".")) {
+					continue;
+				}
+				if (resource.isDirectory()) {
+					collectFiles(resource, paths);
+				} else {
+					paths.add(relativePath(resource));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Find stale files, i.e. files of the previous build and files in folders generated by the
+	 * current build, which have not been written or registered by the current build.
+	 * Call after all files of the current build have been written or registered.
+	 * @param delete whether to delete stale files
+	 * @throws IOException
+	 */
+	public synchronized void removeStaleFiles(boolean delete) throws IOException {
+		SortedSet<String> directories = new TreeSet<String>();
+		for (String path : current.keySet()) {
+			int slash = path.indexOf('/');
+			if (slash > 0) {
+				directories.add(path.substring(0, slash));
+			}
+		}
+		SortedSet<String> paths = new TreeSet<String>(previous.keySet());
+		for (String directory : directories) {
+			Resource resource = folder.resolve(directory);
+			if (resource.isDirectory()) {
+				collectFiles(resource, paths);
+			}
+		}
+		paths.removeAll(current.keySet());
+
+		for (String path : paths) {
+			Resource file = folder.resolve(path);
+			Entry entry = previous.get(path);
+			if (file.exists()) {
+				if (entry == null) {
+					entry = new Entry(path, file.length(), null, null);
+				}
+				if (delete) {
+					file.delete();
+					deleteEmptyParents(file.getParent());
+					deleted.put(path, entry);
+				} else {
+					stale.put(path, entry);
+				}
+			} else if (entry != null) { // already deleted by build
+				deleted.put(path, entry);
+			}
+		}
+	}
+
+	private void deleteEmptyParents(Resource directory) throws IOException {
+		while (directory != null && !directory.getPath().equals(folder.getPath()) && directory.getPath().startsWith(folder.getPath())) {
+			try (DirectoryStream<Resource> directoryStream = directory.newResourceDirectoryStream()) {
+				if (directoryStream.iterator().hasNext()) {
+					return;
+				}
+			}
+			directory.delete();
+			directory = directory.getParent();
+		}
+	}
+
+	/**
+	 * @return files created by this build
+	 */
+	public synchronized Collection<Entry> getCreated() {
+		return Collections.unmodifiableCollection(created.values());
+	}
+
+	/**
+	 * @return files modified by this build
+	 */
+	public synchronized Collection<Entry> getModified() {
+		return Collections.unmodifiableCollection(modified.values());
+	}
+
+	/**
+	 * @return files deleted by this build
+	 */
+	public synchronized Collection<Entry> getDeleted() {
+		return Collections.unmodifiableCollection(deleted.values());
+	}
+
+	/**
+	 * @return stale files which have not been deleted
+	 */
+	public synchronized Collection<Entry> getStale() {
+		return Collections.unmodifiableCollection(stale.values());
+	}
+
+	/**
+	 * @return files of this build
+	 */
+	public synchronized Collection<Entry> getFiles() {
+		return Collections.unmodifiableCollection(current.values());
+	}
+}
@@ -15,7 +15,6 @@
  */
 package org.musicmount.builder.impl;
 
-import java.text.Normalizer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -40,7 +39,7 @@ public class CollectionSection<T extends Titled> implements Comparable<Collectio
 		for (T item : items) {
 			Character sectionKey = null;
 			if (item.getTitle() != null && item.getTitle().trim().length() > 0) {
-				char first = Normalizer.normalize(comparator.sortTitle(item), Normalizer.Form.NFD).charAt(0);
+				char first = comparator.sortKey(item).getSectionChar(); // first char of NFD-normalized sort title
 				if (Character.isLetter(first) && first < 128) {
 					sectionKey = Character.toUpperCase(first);
 				} else {
@@ -87,6 +86,23 @@ public class CollectionSection<T extends Titled> implements Comparable<Collectio
 	public ArrayList<T> getItems() {
 		return items;
 	}
+
+	/**
+	 * Answer section key for use in paths.
+	 * @return lower case letter for letter sections, <code>"num"</code> for '#', <code>"none"</code> for '?'
+	 */
+	public String getKey() {
+		if (title == null || title.isEmpty()) {
+			return null;
+		}
+		if (title.equals(NON_LETTER_SECTION_KEY.toString())) {
+			return "num";
+		}
+		if (title.equals(UNTITLED_SECTION_KEY.toString())) {
+			return "none";
+		}
+		return title.toLowerCase();
+	}
 	
 	public int compareTo(CollectionSection<T> o) {
 		if (title == o.title) {
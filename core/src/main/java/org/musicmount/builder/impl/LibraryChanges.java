@@ -0,0 +1,189 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.builder.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.musicmount.builder.model.Album;
+import org.musicmount.builder.model.Artist;
+import org.musicmount.builder.model.Library;
+
+/**
+ * Changes between two libraries: ids of added, removed and modified albums, album artists and track artists.
+ * Album ids are expected to be assigned by {@link AssetStore#sync(Iterable)}.
+ */
+public class LibraryChanges {
+	/**
+	 * Added, removed and modified ids of one item type.
+	 */
+	public static class Ids {
+		private final Set<Long> added = new TreeSet<Long>();
+		private final Set<Long> removed = new TreeSet<Long>();
+		private final Set<Long> modified = new TreeSet<Long>();
+
+		public Set<Long> getAdded() {
+			return Collections.unmodifiableSet(added);
+		}
+
+		public Set<Long> getRemoved() {
+			return Collections.unmodifiableSet(removed);
+		}
+
+		public Set<Long> getModified() {
+			return Collections.unmodifiableSet(modified);
+		}
+
+		public int size() {
+			return added.size() + removed.size() + modified.size();
+		}
+
+		/**
+		 * Append subsequent changes.
+		 * @param later changes following these changes
+		 */
+		void merge(Ids later) {
+			for (Long id : later.added) {
+				if (removed.remove(id)) { // removed, then added again
+					modified.add(id);
+				} else {
+					added.add(id);
+				}
+			}
+			for (Long id : later.removed) {
+				if (!added.remove(id)) { // added, then removed again: no change
+					modified.remove(id);
+					removed.add(id);
+				}
+			}
+			for (Long id : later.modified) {
+				if (!added.contains(id)) {
+					modified.add(id);
+				}
+			}
+		}
+	}
+
+	private static Set<Long> albumIds(Iterable<Album> albums) {
+		Set<Long> albumIds = new HashSet<Long>();
+		for (Album album : albums) {
+			albumIds.add(album.getAlbumId());
+		}
+		return albumIds;
+	}
+
+	private static boolean equals(String s1, String s2) {
+		return s1 == null ? s2 == null : s1.equals(s2);
+	}
+
+	/*
+	 * artists are compared by id: an artist is modified if its title or its albums changed
+	 */
+	private static void diffArtists(Ids ids, Iterable<? extends Artist> previous, Iterable<? extends Artist> current, Set<Long> modifiedAlbumIds) {
+		Map<Long, Artist> previousArtists = new HashMap<Long, Artist>();
+		for (Artist artist : previous) {
+			previousArtists.put(artist.getArtistId(), artist);
+		}
+		for (Artist artist : current) {
+			Artist previousArtist = previousArtists.remove(artist.getArtistId());
+			if (previousArtist == null) {
+				ids.added.add(artist.getArtistId());
+			} else {
+				Set<Long> albumIds = albumIds(artist.albums());
+				boolean modified = !equals(artist.getTitle(), previousArtist.getTitle()) || !albumIds.equals(albumIds(previousArtist.albums()));
+				if (!modified) {
+					albumIds.retainAll(modifiedAlbumIds);
+					modified = !albumIds.isEmpty();
+				}
+				if (modified) {
+					ids.modified.add(artist.getArtistId());
+				}
+			}
+		}
+		ids.removed.addAll(previousArtists.keySet());
+	}
+
+	/**
+	 * Compute changes between two libraries.
+	 * @param previous previous library
+	 * @param current current library
+	 * @param changedAlbums albums reported as changed by {@link AssetStore#sync(Iterable)}
+	 * @return changes
+	 */
+	public static LibraryChanges compute(Library previous, Library current, Iterable<Album> changedAlbums) {
+		LibraryChanges changes = new LibraryChanges();
+
+		Set<Long> previousAlbumIds = albumIds(previous.getAlbums());
+		Set<Long> currentAlbumIds = albumIds(current.getAlbums());
+		for (Long albumId : currentAlbumIds) {
+			if (!previousAlbumIds.contains(albumId)) {
+				changes.albums.added.add(albumId);
+			}
+		}
+		for (Long albumId : previousAlbumIds) {
+			if (!currentAlbumIds.contains(albumId)) {
+				changes.albums.removed.add(albumId);
+			}
+		}
+		for (Album album : changedAlbums) {
+			if (previousAlbumIds.contains(album.getAlbumId()) && currentAlbumIds.contains(album.getAlbumId())) {
+				changes.albums.modified.add(album.getAlbumId());
+			}
+		}
+
+		diffArtists(changes.albumArtists, previous.getAlbumArtists().values(), current.getAlbumArtists().values(), changes.albums.modified);
+		diffArtists(changes.trackArtists, previous.getTrackArtists().values(), current.getTrackArtists().values(), changes.albums.modified);
+
+		return changes;
+	}
+
+	private final Ids albums = new Ids();
+	private final Ids albumArtists = new Ids();
+	private final Ids trackArtists = new Ids();
+
+	public Ids getAlbums() {
+		return albums;
+	}
+
+	public Ids getAlbumArtists() {
+		return albumArtists;
+	}
+
+	public Ids getTrackArtists() {
+		return trackArtists;
+	}
+
+	/**
+	 * @return total number of changed ids
+	 */
+	public int size() {
+		return albums.size() + albumArtists.size() + trackArtists.size();
+	}
+
+	/**
+	 * Append subsequent changes to these changes.
+	 * @param later changes following these changes
+	 */
+	public void merge(LibraryChanges later) {
+		albums.merge(later.albums);
+		albumArtists.merge(later.albumArtists);
+		trackArtists.merge(later.trackArtists);
+	}
+}
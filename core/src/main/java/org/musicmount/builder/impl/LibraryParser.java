@@ -15,22 +15,53 @@
  */
 package org.musicmount.builder.impl;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.musicmount.builder.model.Album;
 import org.musicmount.builder.model.AlbumArtist;
+import org.musicmount.builder.model.Artist;
 import org.musicmount.builder.model.Disc;
+import org.musicmount.builder.model.Genre;
+import org.musicmount.builder.model.GenreCounts;
 import org.musicmount.builder.model.Library;
 import org.musicmount.builder.model.Track;
 import org.musicmount.builder.model.TrackArtist;
+import org.musicmount.io.Resource;
 
 public class LibraryParser {
 	static final Logger LOGGER = Logger.getLogger(LibraryParser.class.getName());
 
+	/**
+	 * Mutable genre counter
+	 */
+	static class GenreCounter {
+		final Map<String, Integer> counts = new HashMap<String, Integer>();
+		int unknownCount = 0;
+
+		void add(String genre) {
+			if (genre == null) {
+				unknownCount++;
+			} else {
+				Integer count = counts.get(genre);
+				counts.put(genre, Integer.valueOf(count == null ? 1 : count + 1));
+			}
+		}
+
+		GenreCounts toGenreCounts() {
+			return new GenreCounts(counts, unknownCount);
+		}
+	}
+
 	private static String trimToNonEmptyStringOrNull(String s) {
 		if (s != null) {
 			s = s.trim();
@@ -47,54 +78,225 @@ public class LibraryParser {
 		this.useTrackGrouping = useTrackGrouping;
 	}
 
-	void sortTracks(Library library) {
-		/*
-		 * sort tracks by disc number, track number, title, artist
-		 */
-		Comparator<Track> comparator = new Comparator<Track>() {
-			<T extends Comparable<T>> int compareNullLast(Comparable<T> o1, T o2) {
-				if (o1 != o2) {
-					if (o1 == null) {
-						return +1;
-					} else if (o2 == null) {
-						return -1;
-					} else {
-						int result = o1.compareTo(o2);
-						if (result != 0) {
-							return result;
-						}
+	/*
+	 * sort tracks by disc number, track number, title, artist
+	 */
+	private static final Comparator<Track> TRACK_COMPARATOR = new Comparator<Track>() {
+		<T extends Comparable<T>> int compareNullLast(Comparable<T> o1, T o2) {
+			if (o1 != o2) {
+				if (o1 == null) {
+					return +1;
+				} else if (o2 == null) {
+					return -1;
+				} else {
+					int result = o1.compareTo(o2);
+					if (result != 0) {
+						return result;
 					}
 				}
-				return 0;
 			}
+			return 0;
+		}
 
-			@Override
-			public int compare(Track o1, Track o2) {
-				int result = compareNullLast(o1.getDiscNumber(), o2.getDiscNumber());
-				if (result != 0) {
-					return result;
-				}
-				result = compareNullLast(o1.getTrackNumber(), o2.getTrackNumber());
-				if (result != 0) {
-					return result;
-				}
-				result = compareNullLast(o1.getTitle(), o2.getTitle());
-				if (result != 0) {
-					return result;
+		int compareUnknownLast(int o1, int o2) {
+			if (o1 != o2) {
+				if (o1 == Track.UNKNOWN) {
+					return +1;
+				} else if (o2 == Track.UNKNOWN) {
+					return -1;
+				} else {
+					return o1 < o2 ? -1 : +1;
 				}
-				return compareNullLast(o1.getArtist().getTitle(), o2.getArtist().getTitle());
 			}
-		};
-		
+			return 0;
+		}
+
+		@Override
+		public int compare(Track o1, Track o2) {
+			int result = compareUnknownLast(o1.getDiscNumber(), o2.getDiscNumber());
+			if (result != 0) {
+				return result;
+			}
+			result = compareUnknownLast(o1.getTrackNumber(), o2.getTrackNumber());
+			if (result != 0) {
+				return result;
+			}
+			result = compareNullLast(o1.getTitle(), o2.getTitle());
+			if (result != 0) {
+				return result;
+			}
+			return compareNullLast(o1.getArtist().getTitle(), o2.getArtist().getTitle());
+		}
+	};
+
+	/**
+	 * Artist id sequences.
+	 * Ids of existing artists are kept, new artists get ids above the current maximum.
+	 */
+	static class ArtistIds {
+		private static long nextId(Iterable<? extends Artist> artists) {
+			long maxId = -1;
+			for (Artist artist : artists) {
+				maxId = Math.max(maxId, artist.getArtistId());
+			}
+			return maxId + 1;
+		}
+
+		long nextAlbumArtistId;
+		long nextTrackArtistId;
+
+		ArtistIds(Library library) {
+			nextAlbumArtistId = nextId(library.getAlbumArtists().values());
+			nextTrackArtistId = nextId(library.getTrackArtists().values());
+		}
+	}
+
+	/**
+	 * Genre id sequence.
+	 * Ids of existing genres are kept, new genres get ids above the current maximum.
+	 */
+	static class GenreIds {
+		long nextGenreId;
+
+		GenreIds(Library library) {
+			long maxId = -1;
+			for (Genre genre : library.getGenres().values()) {
+				maxId = Math.max(maxId, genre.getGenreId());
+			}
+			nextGenreId = maxId + 1;
+		}
+	}
+
+	void sortTracks(Album album) {
+		for (Disc disc : album.getDiscs().values()) {
+			Collections.sort(disc.getTracks(), TRACK_COMPARATOR);
+		}
+		Collections.sort(album.getTracks(), TRACK_COMPARATOR);
+	}
+
+	void sortTracks(Library library) {
 		for (Album album : library.getAlbums()) {
-			for (Disc disc : album.getDiscs().values()) {
-				Collections.sort(disc.getTracks(), comparator);
+			sortTracks(album);
+		}
+	}
+
+	private GenreCounter genreCounter(Map<Artist, GenreCounter> genreCounters, Artist artist) {
+		GenreCounter genreCounter = genreCounters.get(artist);
+		if (genreCounter == null) {
+			genreCounters.put(artist, genreCounter = new GenreCounter());
+		}
+		return genreCounter;
+	}
+
+	/**
+	 * Compute album aggregates (year, compilation, artwork, genres).
+	 * Album tracks are expected to be sorted.
+	 * @param album album
+	 * @param artistGenreCounters if not <code>null</code>, album tracks are added to their artists' counters
+	 */
+	void aggregate(Album album, Map<Artist, GenreCounter> artistGenreCounters) {
+		if (artistGenreCounters != null && album.getArtist().getAlbums().get(album.getTitle()) != album) {
+			artistGenreCounters = null; // album has been merged into another album (no longer referenced by its artists)
+		}
+		int year = Track.UNKNOWN;
+		Resource artworkAssetResource = null;
+		GenreCounter albumGenreCounter = new GenreCounter();
+		for (Track track : album.getTracks()) {
+			if (year < track.getYear()) {
+				year = track.getYear();
+			}
+			if (artworkAssetResource == null && track.isArtworkAvailable()) {
+				artworkAssetResource = track.getResource();
+			}
+			albumGenreCounter.add(track.getGenre());
+			if (artistGenreCounters != null) {
+				genreCounter(artistGenreCounters, track.getArtist()).add(track.getGenre());
+				genreCounter(artistGenreCounters, album.getArtist()).add(track.getGenre());
 			}
 		}
+		album.setYear(year == Track.UNKNOWN ? null : Integer.valueOf(year));
+		album.setCompilation(!album.getTracks().isEmpty() && album.getTracks().get(0).isCompilation());
+		album.setArtworkAssetResource(artworkAssetResource);
+		album.setGenres(albumGenreCounter.toGenreCounts());
+	}
 
+	private void addGenre(Library library, String title, Album album, GenreIds genreIds) {
+		Genre genre = library.getGenres().get(title);
+		if (genre == null) {
+			library.getGenres().put(title, genre = new Genre(genreIds.nextGenreId++, title));
+		}
+		genre.getAlbums().add(album);
+		library.touch(genre);
+	}
+
+	/**
+	 * Add album to the genre collections of its genres (tracks without genre: <code>null</code> genre).
+	 * Album genres are expected to be aggregated. Merged albums are skipped.
+	 * @param library library
+	 * @param album album
+	 * @param genreIds genre ids
+	 */
+	void addGenres(Library library, Album album, GenreIds genreIds) {
+		if (album.getArtist().getAlbums().get(album.getTitle()) != album) {
+			return; // album has been merged into another album
+		}
+		for (String genre : album.getGenres().getGenres()) {
+			addGenre(library, genre, album, genreIds);
+		}
+		if (album.getGenres().getUnknownCount() > 0) {
+			addGenre(library, null, album, genreIds);
+		}
+	}
+
+	/**
+	 * Compute album and artist aggregates and genre collections in a single pass over the library tracks.
+	 * @param library library with sorted tracks
+	 */
+	void aggregate(Library library) {
+		Map<Artist, GenreCounter> artistGenreCounters = new HashMap<Artist, GenreCounter>();
+		GenreIds genreIds = new GenreIds(library);
 		for (Album album : library.getAlbums()) {
-			Collections.sort(album.getTracks(), comparator);
+			aggregate(album, artistGenreCounters);
+			addGenres(library, album, genreIds);
+		}
+		for (AlbumArtist artist : library.getAlbumArtists().values()) {
+			GenreCounter genreCounter = artistGenreCounters.get(artist);
+			artist.setGenres(genreCounter != null ? genreCounter.toGenreCounts() : GenreCounts.EMPTY);
+		}
+		for (TrackArtist artist : library.getTrackArtists().values()) {
+			GenreCounter genreCounter = artistGenreCounters.get(artist);
+			artist.setGenres(genreCounter != null ? genreCounter.toGenreCounts() : GenreCounts.EMPTY);
+		}
+	}
+
+	/*
+	 * album artist genres: tracks of all albums referenced by the artist
+	 */
+	private GenreCounts genres(AlbumArtist artist) {
+		GenreCounter genreCounter = new GenreCounter();
+		for (Album album : artist.getAlbums().values()) {
+			for (Track track : album.getTracks()) {
+				genreCounter.add(track.getGenre());
+			}
 		}
+		return genreCounter.toGenreCounts();
+	}
+
+	/*
+	 * track artist genres: the artist's tracks of all albums (except merged albums)
+	 */
+	private GenreCounts genres(TrackArtist artist) {
+		GenreCounter genreCounter = new GenreCounter();
+		for (Album album : artist.getAlbums()) {
+			if (album.getArtist().getAlbums().get(album.getTitle()) == album) {
+				for (Track track : album.getTracks()) {
+					if (track.getArtist() == artist) {
+						genreCounter.add(track.getGenre());
+					}
+				}
+			}
+		}
+		return genreCounter.toGenreCounts();
 	}
 
 	private TrackArtist uniqueTrackArtist(Album album) {
@@ -109,34 +311,19 @@ public class LibraryParser {
 		return artist;
 	}
 
-	public final Library parse(Iterable<Asset> assets) {
-		Library library = new Library();
-		
-		// add "various artists" with id 0
-		library.getAlbumArtists().put(null, new AlbumArtist(0, null));
-		
-		// add "unknown artist" with id 0
-		library.getTrackArtists().put(null, new TrackArtist(0, null));
-
-		// parse assets into library
-		for (Asset asset : assets) {
-			parse(library, asset);
-		}
-
-		/*
-		 * distribute compilations without album artist into "various artists" and
-		 * "unique artist" albums (which are moved to the corresponding album artist). 
-		 */
+	/*
+	 * distribute compilations without album artist into "various artists" and
+	 * "unique artist" albums (which are moved to the corresponding album artist). 
+	 */
+	private void distributeCompilations(Library library, Iterable<Album> variousArtistsAlbums, ArtistIds artistIds) {
 		AlbumArtist variousArtists = library.getAlbumArtists().get(null);
-		Iterator<Album> variousArtistsAlbumIterator = variousArtists.getAlbums().values().iterator();
-		while (variousArtistsAlbumIterator.hasNext()) {
-			Album album = variousArtistsAlbumIterator.next();
+		for (Album album : variousArtistsAlbums) {
 			TrackArtist uniqueTrackArtist = uniqueTrackArtist(album);
 			if (uniqueTrackArtist != null && uniqueTrackArtist.getTitle() != null) {
 				// get album artist
 				AlbumArtist albumArtist = library.getAlbumArtists().get(uniqueTrackArtist.getTitle());
 				if (albumArtist == null) {
-					albumArtist = new AlbumArtist(library.getAlbumArtists().size(), uniqueTrackArtist.getTitle());
+					albumArtist = new AlbumArtist(artistIds.nextAlbumArtistId++, uniqueTrackArtist.getTitle());
 					library.getAlbumArtists().put(uniqueTrackArtist.getTitle(), albumArtist);
 				}
 				Album targetAlbum = albumArtist.getAlbums().get(album.getTitle());
@@ -158,9 +345,29 @@ public class LibraryParser {
 				}
 
 				// remove album from variousArtists
-				variousArtistsAlbumIterator.remove();
+				variousArtists.getAlbums().remove(album.getTitle());
 			}
 		}
+	}
+
+	public final Library parse(Iterable<Asset> assets) {
+		Library library = new Library();
+		
+		// add "various artists" with id 0
+		library.getAlbumArtists().put(null, new AlbumArtist(0, null));
+		
+		// add "unknown artist" with id 0
+		library.getTrackArtists().put(null, new TrackArtist(0, null));
+
+		// parse assets into library
+		ArtistIds artistIds = new ArtistIds(library);
+		for (Asset asset : assets) {
+			parse(library, asset, artistIds);
+		}
+
+		// distribute compilations without album artist
+		AlbumArtist variousArtists = library.getAlbumArtists().get(null);
+		distributeCompilations(library, new ArrayList<Album>(variousArtists.getAlbums().values()), artistIds);
 
 		// remove empty "various artists"
 		if (library.getAlbumArtists().get(null).getAlbums().isEmpty()) {
@@ -175,9 +382,184 @@ public class LibraryParser {
 		// sort tracks
 		sortTracks(library);
 
+		// compute album/artist aggregates
+		aggregate(library);
+
 		return library;
 	}
 
+	/**
+	 * Update library with added, modified and removed assets.
+	 * Albums are identified by title (including the album artist); compilations may move between artists
+	 * and merge with other albums of the same title, but never interact with albums of another title.
+	 * Therefore, only albums whose title matches the old or new album title of a changed asset are rebuilt
+	 * (from all current assets with that album title), the rest of the library is left untouched.
+	 * Artist ids are kept; new artists get fresh ids, artists without albums are removed.
+	 * Album ids of rebuilt albums have to be reassigned by the caller (see {@link AssetStore#sync(Iterable)}).
+	 * @param library library, previously returned by {@link #parse(Iterable)}
+	 * @param assets all current assets (including added and modified assets)
+	 * @param changedResources resources of added, modified or removed assets
+	 * @return rebuilt albums
+	 */
+	public final List<Album> update(Library library, Iterable<Asset> assets, Set<Resource> changedResources) {
+		List<Album> updatedAlbums = new ArrayList<Album>();
+		if (changedResources.isEmpty()) {
+			return updatedAlbums;
+		}
+
+		/*
+		 * collect affected album titles (before and after change)
+		 */
+		Set<String> albumTitles = new HashSet<String>();
+		for (Track track : library.getTracks()) {
+			if (changedResources.contains(track.getResource())) {
+				albumTitles.add(track.getAlbum().getTitle());
+			}
+		}
+		List<Asset> albumAssets = new ArrayList<Asset>();
+		for (Asset asset : assets) {
+			if (changedResources.contains(asset.getResource())) {
+				albumTitles.add(trimToNonEmptyStringOrNull(asset.getAlbum()));
+			}
+		}
+		for (Asset asset : assets) {
+			if (albumTitles.contains(trimToNonEmptyStringOrNull(asset.getAlbum()))) {
+				albumAssets.add(asset);
+			}
+		}
+
+		/*
+		 * remove affected albums and their tracks; keep (possibly empty) artists for now to preserve their ids
+		 */
+		Set<AlbumArtist> affectedAlbumArtists = new HashSet<AlbumArtist>();
+		Set<TrackArtist> affectedTrackArtists = new HashSet<TrackArtist>();
+		Set<Album> removedAlbums = new HashSet<Album>();
+		Set<Track> removedTracks = new HashSet<Track>();
+		Iterator<Album> albumIterator = library.getAlbums().iterator();
+		while (albumIterator.hasNext()) {
+			Album album = albumIterator.next();
+			if (albumTitles.contains(album.getTitle())) {
+				albumIterator.remove();
+				removedAlbums.add(album);
+				if (album.getArtist().getAlbums().get(album.getTitle()) == album) {
+					album.getArtist().getAlbums().remove(album.getTitle());
+				}
+				affectedAlbumArtists.add(album.getArtist());
+				removedTracks.addAll(album.getTracks());
+				for (Disc disc : album.getDiscs().values()) { // includes tracks of merged albums
+					removedTracks.addAll(disc.getTracks());
+				}
+			}
+		}
+		for (Track track : removedTracks) {
+			affectedTrackArtists.add(track.getArtist());
+		}
+		for (TrackArtist artist : affectedTrackArtists) {
+			artist.getAlbums().removeAll(removedAlbums);
+		}
+		Iterator<Track> trackIterator = library.getTracks().iterator();
+		while (trackIterator.hasNext()) {
+			if (removedTracks.contains(trackIterator.next())) {
+				trackIterator.remove();
+			}
+		}
+
+		/*
+		 * re-parse assets of affected albums
+		 */
+		if (!library.getAlbumArtists().containsKey(null)) {
+			library.getAlbumArtists().put(null, new AlbumArtist(0, null));
+		}
+		if (!library.getTrackArtists().containsKey(null)) {
+			library.getTrackArtists().put(null, new TrackArtist(0, null));
+		}
+		ArtistIds artistIds = new ArtistIds(library);
+		for (Asset asset : albumAssets) {
+			parse(library, asset, artistIds);
+		}
+
+		// distribute affected compilations without album artist
+		AlbumArtist variousArtists = library.getAlbumArtists().get(null);
+		List<Album> variousArtistsAlbums = new ArrayList<Album>();
+		for (String albumTitle : albumTitles) {
+			if (variousArtists.getAlbums().containsKey(albumTitle)) {
+				variousArtistsAlbums.add(variousArtists.getAlbums().get(albumTitle));
+			}
+		}
+		distributeCompilations(library, variousArtistsAlbums, artistIds);
+
+		/*
+		 * sort tracks and compute aggregates of rebuilt albums
+		 */
+		for (Album album : library.getAlbums()) {
+			if (albumTitles.contains(album.getTitle())) {
+				sortTracks(album);
+				aggregate(album, null);
+				updatedAlbums.add(album);
+				affectedAlbumArtists.add(album.getArtist());
+				for (Track track : album.getTracks()) {
+					affectedTrackArtists.add(track.getArtist());
+				}
+			}
+		}
+
+		/*
+		 * update genre collections: remove albums, add rebuilt albums, remove empty genres
+		 */
+		for (Genre genre : library.getGenres().values()) {
+			if (genre.getAlbums().removeAll(removedAlbums)) {
+				library.touch(genre);
+			}
+		}
+		GenreIds genreIds = new GenreIds(library); // keep ids of genres emptied above
+		for (Album album : updatedAlbums) {
+			addGenres(library, album, genreIds);
+		}
+		Iterator<Genre> genreIterator = library.getGenres().values().iterator();
+		while (genreIterator.hasNext()) {
+			if (genreIterator.next().getAlbums().isEmpty()) {
+				genreIterator.remove();
+			}
+		}
+
+		/*
+		 * remove empty artists, update genres of affected artists (snapshots must copy them again)
+		 */
+		affectedAlbumArtists.add(variousArtists);
+		for (AlbumArtist artist : affectedAlbumArtists) {
+			library.touch(artist);
+		}
+		for (TrackArtist artist : affectedTrackArtists) {
+			library.touch(artist);
+		}
+		for (AlbumArtist artist : affectedAlbumArtists) {
+			if (artist.getAlbums().isEmpty()) {
+				if (library.getAlbumArtists().get(artist.getTitle()) == artist) {
+					library.getAlbumArtists().remove(artist.getTitle());
+				}
+			} else {
+				artist.setGenres(genres(artist));
+			}
+		}
+		if (library.getAlbumArtists().containsKey(null) && library.getAlbumArtists().get(null).getAlbums().isEmpty()) {
+			library.getAlbumArtists().remove(null);
+		}
+		for (TrackArtist artist : affectedTrackArtists) {
+			if (artist.getAlbums().isEmpty()) {
+				if (library.getTrackArtists().get(artist.getTitle()) == artist) {
+					library.getTrackArtists().remove(artist.getTitle());
+				}
+			} else {
+				artist.setGenres(genres(artist));
+			}
+		}
+		if (library.getTrackArtists().containsKey(null) && library.getTrackArtists().get(null).getAlbums().isEmpty()) {
+			library.getTrackArtists().remove(null);
+		}
+
+		return updatedAlbums;
+	}
+
 	private String trackName(Asset asset) {
 		String trackName = trimToNonEmptyStringOrNull(asset.getName());
 		if (useTrackGrouping && trackName != null) {
@@ -199,7 +581,7 @@ public class LibraryParser {
 		return trackName;
 	}
 
-	void parse(Library library, Asset asset) {
+	void parse(Library library, Asset asset, ArtistIds artistIds) {
 		String trackName = trackName(asset);
 		String albumName = trimToNonEmptyStringOrNull(asset.getAlbum());
 		String trackArtistName = trimToNonEmptyStringOrNull(asset.getArtist());
@@ -226,7 +608,7 @@ public class LibraryParser {
 		 */
 		AlbumArtist albumArtist = library.getAlbumArtists().get(albumArtistName);
 		if (albumArtist == null) {
-			albumArtist = new AlbumArtist(library.getAlbumArtists().size(), albumArtistName);
+			albumArtist = new AlbumArtist(artistIds.nextAlbumArtistId++, albumArtistName);
 			library.getAlbumArtists().put(albumArtistName, albumArtist);
 		}
 		
@@ -246,7 +628,7 @@ public class LibraryParser {
 		 */
 		TrackArtist trackArtist = library.getTrackArtists().get(trackArtistName);
 		if (trackArtist == null) {
-			trackArtist = new TrackArtist(library.getTrackArtists().size(), trackArtistName);
+			trackArtist = new TrackArtist(artistIds.nextTrackArtistId++, trackArtistName);
 			library.getTrackArtists().put(trackArtistName, trackArtist);
 		}
 		trackArtist.getAlbums().add(album);
@@ -275,10 +657,7 @@ public class LibraryParser {
 		/*
 		 * determine disc
 		 */
-		Integer discKey = track.getDiscNumber();
-		if (discKey == null) {
-			discKey = Integer.valueOf(0);
-		}
+		Integer discKey = Integer.valueOf(track.getDiscNumber() == Track.UNKNOWN ? 0 : track.getDiscNumber());
 		Disc disc = album.getDiscs().get(discKey);
 		if (disc == null) {
 			disc = new Disc(discKey.intValue());
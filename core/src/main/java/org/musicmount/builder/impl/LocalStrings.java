@@ -75,6 +75,10 @@ public class LocalStrings {
 		return bundle.getString("Tracks");
 	}
 	
+	public String getGenreIndexTitle() {
+		return bundle.getString("GenreIndexTitle");
+	}
+
 	public String getArtistIndexTitle(ArtistType artistType) {
 		return bundle.getString(artistType == ArtistType.AlbumArtist ? "AlbumArtistIndexTitle" : "TrackArtistIndexTitle");
 	}
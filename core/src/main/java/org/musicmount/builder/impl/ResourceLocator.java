@@ -18,6 +18,8 @@ package org.musicmount.builder.impl;
 import org.musicmount.builder.model.Album;
 import org.musicmount.builder.model.Artist;
 import org.musicmount.builder.model.ArtistType;
+import org.musicmount.builder.model.Genre;
+import org.musicmount.builder.model.Track;
 import org.musicmount.io.Resource;
 
 public interface ResourceLocator {
@@ -28,6 +30,24 @@ public interface ResourceLocator {
 	public String getAlbumIndexPath();	
 	public String getTrackIndexPath();	
 
+	/*
+	 * sharded indexes: answer null if indexes are not sharded
+	 */
+	public String getAlbumIndexSectionPath(CollectionSection<Album> section);
+	public String getTrackIndexSectionPath(CollectionSection<Track> section);
+
+	/*
+	 * prefix search index: answer null if no search index is generated
+	 */
+	public String getSearchIndexPath();
+	public String getSearchIndexShardPath(String prefix);
+
+	/*
+	 * genre collections
+	 */
+	public String getGenreIndexPath();
+	public String getGenreCollectionPath(Genre genre);
+
 	public String getAlbumCollectionPath(Artist artist);
 	public String getAlbumPath(Album album);
 	public String getAlbumImagePath(Album album, ImageType type);
@@ -17,13 +17,16 @@ package org.musicmount.builder.impl;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -35,7 +38,8 @@ import org.musicmount.builder.model.Album;
 import org.musicmount.builder.model.Artist;
 import org.musicmount.builder.model.ArtistType;
 import org.musicmount.builder.model.Disc;
-import org.musicmount.builder.model.Playlist;
+import org.musicmount.builder.model.Genre;
+import org.musicmount.builder.model.GenreCounts;
 import org.musicmount.builder.model.Track;
 
 import de.odysseus.staxon.json.JsonXMLConfigBuilder;
@@ -59,6 +63,12 @@ public abstract class ResponseFormatter<T extends XMLStreamWriter> {
 			writer.writeEndElement();
 		}
 
+		void writeBooleanProperty(JsonXMLStreamWriter writer, String name, boolean value) throws XMLStreamException {
+			writer.writeStartElement(name);
+			writer.writeBoolean(value);
+			writer.writeEndElement();
+		}
+
 		void writeStartArray(JsonXMLStreamWriter writer) throws XMLStreamException {
 			writer.writeProcessingInstruction(JsonXMLStreamConstants.MULTIPLE_PI_TARGET);
 		}
@@ -82,6 +92,10 @@ public abstract class ResponseFormatter<T extends XMLStreamWriter> {
 			writeStringProperty(writer, name, value.toString());
 		}
 
+		void writeBooleanProperty(XMLStreamWriter writer, String name, boolean value) throws XMLStreamException {
+			writeStringProperty(writer, name, String.valueOf(value));
+		}
+
 		void writeStartArray(XMLStreamWriter writer) throws XMLStreamException {
 			// do nothing
 		}
@@ -111,6 +125,13 @@ public abstract class ResponseFormatter<T extends XMLStreamWriter> {
 		this.useGrouping = useGrouping;
 	}
 	
+	/**
+	 * @return update token included in responses
+	 */
+	public String getUpdateToken() {
+		return updateToken;
+	}
+
 	void writeStringProperty(T writer, String name, String value) throws XMLStreamException {
 		writer.writeStartElement(name);
 		writer.writeCharacters(value);
@@ -134,6 +155,8 @@ public abstract class ResponseFormatter<T extends XMLStreamWriter> {
 
 	abstract void writeNumberProperty(T writer, String name, Number value) throws XMLStreamException;
 
+	abstract void writeBooleanProperty(T writer, String name, boolean value) throws XMLStreamException;
+
 	abstract void writeStartArray(T writer) throws XMLStreamException;
 
 	abstract T createStreamWriter(OutputStream output) throws XMLStreamException;
@@ -149,51 +172,8 @@ public abstract class ResponseFormatter<T extends XMLStreamWriter> {
 		return path.substring(0, slash + 1);
 	}
 
-	private List<String> genreList(Playlist playlist) {
-		// collect genre counts
-		final Map<String, Integer> map = new HashMap<String, Integer>();
-		int unknownCount = 0;
-		for (Track track : playlist.getTracks()) {
-			String genre = track.getGenre();
-			if (genre == null) {
-				unknownCount++;
-			} else {
-				Integer count = map.get(genre);
-				map.put(genre, Integer.valueOf(count == null ? 1 : count + 1));
-			}
-		}
-		if (includeUnknownGenre && unknownCount > 0) {
-			map.put(localStrings.getUnknownGenre(), unknownCount);
-		}
-		// sort decreasing by counts
-		ArrayList<String> result = new ArrayList<String>(map.keySet());
-		Collections.sort(result, new Comparator<String>() {
-			@Override
-			public int compare(String o1, String o2) {
-				int cmp = map.get(o2).compareTo(map.get(o1));
-				if (cmp == 0) {
-					cmp = o1.compareTo(o2);
-				}
-				return cmp;
-			}
-		});
-		return result;
-	}
-
-	private List<String> genreList(Artist artist) {
-		Playlist playlist = new Playlist();
-		for (Album album : artist.albums()) {
-			if (artist.getArtistType() == ArtistType.TrackArtist) {
-				for (Track track : album.getTracks()) {
-					if (track.getArtist() == artist) {
-						playlist.getTracks().add(track);
-					}
-				}
-			} else { // take all tracks into account
-				playlist.getTracks().addAll(album.getTracks());
-			}
-		}
-		return genreList(playlist);
+	private List<String> genreList(GenreCounts genres) {
+		return genres.getGenres(includeUnknownGenre ? localStrings.getUnknownGenre() : null);
 	}
 
 	private String getDefaultArtistTitle(ArtistType artistType) {
@@ -209,15 +189,81 @@ public abstract class ResponseFormatter<T extends XMLStreamWriter> {
 	}
 
 	public Integer albumYear(Album album, Integer defaultValue) {
-		Integer maximumYear = null;
-		for (Track track : album.getTracks()) {
-			if (maximumYear == null || track.getYear() != null && maximumYear.compareTo(track.getYear()) < 0) {
-				maximumYear = track.getYear();
+		return album.getYear() != null ? album.getYear() : defaultValue;
+	}
+	
+	private void writeArtistItem(T writer, Artist item, ResourceLocator resourceLocator, ImageType imageType, ArtistType artistType, Map<Artist, Album> representativeAlbums) throws IOException, XMLStreamException {
+		writer.writeStartElement("item");
+		writeStringProperty(writer, "title", item.getTitle() == null ? getDefaultArtistTitle(artistType) : item.getTitle());
+		Album representativeAlbum = representativeAlbums != null ? representativeAlbums.get(item) : null;
+		String imagePath = representativeAlbum != null ? resourceLocator.getAlbumImagePath(representativeAlbum, imageType) : null;
+		if (imagePath != null) {
+			writeStringProperty(writer, "imagePath", imagePath);
+		}
+		writeStringProperty(writer, "albumCollectionPath", getDocumentPath(resourceLocator.getAlbumCollectionPath(item)));
+		List<String> genreList = genreList(item.getGenres());
+		if (genreList.size() > 0) {
+			writeStartArray(writer);
+			for (String genre : genreList) {
+				writeStringProperty(writer, "genre", genre);
 			}
 		}
-		return maximumYear != null ? maximumYear : defaultValue;
+		writeNumberProperty(writer, "albumCount", item.albumsCount());					
+		writer.writeEndElement();
 	}
-	
+
+	private void writeAlbumItem(T writer, Album item, ResourceLocator resourceLocator, ImageType imageType, boolean writeCompilationInfo) throws IOException, XMLStreamException {
+		writer.writeStartElement("item");
+		writeStringProperty(writer, "title", item.getTitle() == null ? getDefaultAlbumTitle() : item.getTitle());
+		String imagePath = resourceLocator.getAlbumImagePath(item, imageType);
+		if (imagePath != null) {
+			writeStringProperty(writer, "imagePath", imagePath);
+		}
+		if (writeCompilationInfo && item.isCompilation() && item.getArtist().getTitle() != null) {
+			writeStringProperty(writer, "info", localStrings.getCompilation());
+		}
+		writeStringProperty(writer, "artist", item.getArtist().getTitle() == null ? getDefaultArtistTitle(ArtistType.AlbumArtist) : item.getArtist().getTitle());
+		writeStringProperty(writer, "albumPath", getDocumentPath(resourceLocator.getAlbumPath(item)));
+		List<String> genreList = genreList(item.getGenres());
+		if (genreList.size() > 0) {
+			writeStartArray(writer);
+			for (String genre : genreList) {
+				writeStringProperty(writer, "genre", genre);
+			}
+		}
+		Integer year = albumYear(item, null);
+		if (year != null) {
+			writeNumberProperty(writer, "year", year);					
+		}
+		writer.writeEndElement();
+	}
+
+	private void writeTrackItem(T writer, Track item, ResourceLocator resourceLocator, AssetLocator assetLocator, ImageType imageType) throws IOException, XMLStreamException {
+		writer.writeStartElement("item");
+		writeStringProperty(writer, "title", item.getTitle() == null ? getDefaultTrackTitle() : item.getTitle());
+		writeStringProperty(writer, "artist", item.getArtist().getTitle() == null ? getDefaultArtistTitle(ArtistType.TrackArtist) : item.getArtist().getTitle());
+		if (item.getGenre() != null || includeUnknownGenre) {
+			writeStringProperty(writer, "genre", item.getGenre() != null ? item.getGenre() : localStrings.getUnknownGenre());
+		}
+		if (item.getDuration() != Track.UNKNOWN) {
+			writeNumberProperty(writer, "duration", item.getDuration());
+		}
+		if (item.getAlbum() != null) {
+			String imagePath = resourceLocator.getAlbumImagePath(item.getAlbum(), imageType);
+			if (imagePath != null) {
+				writeStringProperty(writer, "imagePath", imagePath);
+			}
+			writeStringProperty(writer, "albumPath", getDocumentPath(resourceLocator.getAlbumPath(item.getAlbum())));
+		}
+		if (assetLocator != null) {
+			String assetPath = assetLocator.getAssetPath(item.getResource());
+			if (assetPath != null) {
+				writeStringProperty(writer, "assetPath", assetPath);
+			}
+		}
+		writer.writeEndElement();
+	}
+
 	private void formatArtistSections(T writer, Iterable<CollectionSection<Artist>> sections, ResourceLocator resourceLocator, ImageType imageType, ArtistType artistType, Map<Artist, Album> representativeAlbums) throws IOException, XMLStreamException {
 		writeStartArray(writer);
 		for (CollectionSection<Artist> section : sections) {
@@ -227,23 +273,7 @@ public abstract class ResponseFormatter<T extends XMLStreamWriter> {
 			}
 			writeStartArray(writer);
 			for (Artist item : section.getItems()) {
-				writer.writeStartElement("item");
-				writeStringProperty(writer, "title", item.getTitle() == null ? getDefaultArtistTitle(artistType) : item.getTitle());
-				Album representativeAlbum = representativeAlbums != null ? representativeAlbums.get(item) : null;
-				String imagePath = representativeAlbum != null ? resourceLocator.getAlbumImagePath(representativeAlbum, imageType) : null;
-				if (imagePath != null) {
-					writeStringProperty(writer, "imagePath", imagePath);
-				}
-				writeStringProperty(writer, "albumCollectionPath", getDocumentPath(resourceLocator.getAlbumCollectionPath(item)));
-				List<String> genreList = genreList(item);
-				if (genreList.size() > 0) {
-					writeStartArray(writer);
-					for (String genre : genreList) {
-						writeStringProperty(writer, "genre", genre);
-					}
-				}
-				writeNumberProperty(writer, "albumCount", item.albumsCount());					
-				writer.writeEndElement();
+				writeArtistItem(writer, item, resourceLocator, imageType, artistType, representativeAlbums);
 			}
 			writer.writeEndElement();
 		}
@@ -258,29 +288,7 @@ public abstract class ResponseFormatter<T extends XMLStreamWriter> {
 			}
 			writeStartArray(writer);
 			for (Album item : section.getItems()) {
-				writer.writeStartElement("item");
-				writeStringProperty(writer, "title", item.getTitle() == null ? getDefaultAlbumTitle() : item.getTitle());
-				String imagePath = resourceLocator.getAlbumImagePath(item, imageType);
-				if (imagePath != null) {
-					writeStringProperty(writer, "imagePath", imagePath);
-				}
-				if (writeCompilationInfo && item.isCompilation() && item.getArtist().getTitle() != null) {
-					writeStringProperty(writer, "info", localStrings.getCompilation());
-				}
-				writeStringProperty(writer, "artist", item.getArtist().getTitle() == null ? getDefaultArtistTitle(ArtistType.AlbumArtist) : item.getArtist().getTitle());
-				writeStringProperty(writer, "albumPath", getDocumentPath(resourceLocator.getAlbumPath(item)));
-				List<String> genreList = genreList(item);
-				if (genreList.size() > 0) {
-					writeStartArray(writer);
-					for (String genre : genreList(item)) {
-						writeStringProperty(writer, "genre", genre);
-					}
-				}
-				Integer year = albumYear(item, null);
-				if (year != null) {
-					writeNumberProperty(writer, "year", year);					
-				}
-				writer.writeEndElement();
+				writeAlbumItem(writer, item, resourceLocator, imageType, writeCompilationInfo);
 			}
 			writer.writeEndElement();
 		}
@@ -295,29 +303,7 @@ public abstract class ResponseFormatter<T extends XMLStreamWriter> {
 			}
 			writeStartArray(writer);
 			for (Track item : section.getItems()) {
-				writer.writeStartElement("item");
-				writeStringProperty(writer, "title", item.getTitle() == null ? getDefaultTrackTitle() : item.getTitle());
-				writeStringProperty(writer, "artist", item.getArtist().getTitle() == null ? getDefaultArtistTitle(ArtistType.TrackArtist) : item.getArtist().getTitle());
-				if (item.getGenre() != null || includeUnknownGenre) {
-					writeStringProperty(writer, "genre", item.getGenre() != null ? item.getGenre() : localStrings.getUnknownGenre());
-				}
-				if (item.getDuration() != null) {
-					writeNumberProperty(writer, "duration", item.getDuration());
-				}
-				if (item.getAlbum() != null) {
-					String imagePath = resourceLocator.getAlbumImagePath(item.getAlbum(), imageType);
-					if (imagePath != null) {
-						writeStringProperty(writer, "imagePath", imagePath);
-					}
-					writeStringProperty(writer, "albumPath", getDocumentPath(resourceLocator.getAlbumPath(item.getAlbum())));
-				}
-				if (assetLocator != null) {
-					String assetPath = assetLocator.getAssetPath(item.getResource());
-					if (assetPath != null) {
-						writeStringProperty(writer, "assetPath", assetPath);
-					}
-				}
-				writer.writeEndElement();
+				writeTrackItem(writer, item, resourceLocator, assetLocator, imageType);
 			}
 			writer.writeEndElement();
 		}
@@ -387,29 +373,51 @@ public abstract class ResponseFormatter<T extends XMLStreamWriter> {
 		if (trackIndexPath != null) {
 			writeStringProperty(writer, "trackIndexPath", getDocumentPath(trackIndexPath));
 		}
+		String searchIndexPath = resourceLocator.getSearchIndexPath();
+		if (searchIndexPath != null) {
+			writeStringProperty(writer, "searchIndexPath", getDocumentPath(searchIndexPath));
+		}
+		String genreIndexPath = resourceLocator.getGenreIndexPath();
+		if (genreIndexPath != null) {
+			writeStringProperty(writer, "genreIndexPath", getDocumentPath(genreIndexPath));
+		}
 		endResponse(writer);
 	}
 
-	public void formatArtistIndex(Iterable<? extends Artist> artists, ArtistType artistType, OutputStream output, ResourceLocator resourceLocator, Map<Artist, Album> representativeAlbums) throws IOException, XMLStreamException {
-		T writer = createStreamWriter(output);
-		startResponse(writer, "artistCollection");
-		writeStringProperty(writer, "title", localStrings.getArtistIndexTitle(artistType));
-		TitledComparator<Artist> comparator = new TitledComparator<Artist>(localStrings, getDefaultArtistTitle(artistType), new Comparator<Artist>() {
+	private TitledComparator<Artist> artistComparator(ArtistType artistType) {
+		return new TitledComparator<Artist>(localStrings, getDefaultArtistTitle(artistType), new Comparator<Artist>() {
 			@Override
 			public int compare(Artist o1, Artist o2) { // sort equally titled artists descending by album count
 				return -Integer.valueOf(o1.albumsCount()).compareTo(Integer.valueOf(o2.albumsCount()));
 			}
 		});
-		Iterable<CollectionSection<Artist>> sections = CollectionSection.createIndex(artists, comparator);
+	}
+
+	public void formatArtistIndex(Iterable<? extends Artist> artists, ArtistType artistType, OutputStream output, ResourceLocator resourceLocator, Map<Artist, Album> representativeAlbums) throws IOException, XMLStreamException {
+		T writer = createStreamWriter(output);
+		startResponse(writer, "artistCollection");
+		writeStringProperty(writer, "title", localStrings.getArtistIndexTitle(artistType));
+		Iterable<CollectionSection<Artist>> sections = CollectionSection.createIndex(artists, artistComparator(artistType));
 		formatArtistSections(writer, sections, resourceLocator, ImageType.Thumbnail, artistType, representativeAlbums);
 		endResponse(writer);
 	}
 	
-	public void formatAlbumIndex(Iterable<Album> albums, OutputStream output, ResourceLocator resourceLocator) throws IOException, XMLStreamException {
-		T writer = createStreamWriter(output);
-		startResponse(writer, "albumCollection");
-		writeStringProperty(writer, "title", "Albums");
-		TitledComparator<Album> comparator = new TitledComparator<Album>(localStrings, getDefaultAlbumTitle(), new Comparator<Album>() {
+	private void formatSectionReferences(T writer, Iterable<? extends CollectionSection<?>> sections, List<String> sectionPaths) throws IOException, XMLStreamException {
+		writeStartArray(writer);
+		Iterator<String> sectionPathIterator = sectionPaths.iterator();
+		for (CollectionSection<?> section : sections) {
+			writer.writeStartElement("section");
+			if (section.getTitle() != null) {
+				writeStringProperty(writer, "title", section.getTitle());
+			}
+			writeStringProperty(writer, "sectionPath", getDocumentPath(sectionPathIterator.next()));
+			writeNumberProperty(writer, "itemCount", section.getItems().size());
+			writer.writeEndElement();
+		}
+	}
+
+	private TitledComparator<Album> albumComparator() {
+		return new TitledComparator<Album>(localStrings, getDefaultAlbumTitle(), new Comparator<Album>() {
 			@Override
 			public int compare(Album o1, Album o2) { // sort equally titled albums by album artist
 				String title1 = o1.getArtist().getTitle() == null ? getDefaultArtistTitle(ArtistType.AlbumArtist) : o1.getArtist().getTitle();
@@ -417,16 +425,56 @@ public abstract class ResponseFormatter<T extends XMLStreamWriter> {
 				return title1.compareTo(title2);
 			}
 		});
-		Iterable<CollectionSection<Album>> sections = CollectionSection.createIndex(albums, comparator);
+	}
+
+	/**
+	 * Partition albums into album index sections.
+	 * @param albums albums
+	 * @return sorted sections
+	 */
+	public Iterable<CollectionSection<Album>> createAlbumIndex(Iterable<Album> albums) {
+		return CollectionSection.createIndex(albums, albumComparator());
+	}
+
+	public void formatAlbumIndex(Iterable<Album> albums, OutputStream output, ResourceLocator resourceLocator) throws IOException, XMLStreamException {
+		Iterable<CollectionSection<Album>> sections = createAlbumIndex(albums);
+		T writer = createStreamWriter(output);
+		startResponse(writer, "albumCollection");
+		writeStringProperty(writer, "title", localStrings.getAlbumIndexTitle());
 		formatAlbumSections(writer, sections, resourceLocator, ImageType.Thumbnail, true);
 		endResponse(writer);
 	}
 
-	public void formatTrackIndex(Iterable<Track> tracks, OutputStream output, ResourceLocator resourceLocator, AssetLocator assetLocator) throws IOException, XMLStreamException {
+	/**
+	 * Format root document of sharded album index, referencing the section documents.
+	 * @param sections album index sections
+	 * @param output output stream
+	 * @param resourceLocator resource locator, providing section paths
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public void formatAlbumIndexRoot(Iterable<CollectionSection<Album>> sections, OutputStream output, ResourceLocator resourceLocator) throws IOException, XMLStreamException {
+		List<String> sectionPaths = new ArrayList<String>();
+		for (CollectionSection<Album> section : sections) {
+			sectionPaths.add(resourceLocator.getAlbumIndexSectionPath(section));
+		}
 		T writer = createStreamWriter(output);
-		startResponse(writer, "trackCollection");
-		writeStringProperty(writer, "title", "Tracks");
-		TitledComparator<Track> comparator = new TitledComparator<Track>(localStrings, getDefaultTrackTitle(), new Comparator<Track>() {
+		startResponse(writer, "albumCollection");
+		writeStringProperty(writer, "title", localStrings.getAlbumIndexTitle());
+		formatSectionReferences(writer, sections, sectionPaths);
+		endResponse(writer);
+	}
+
+	public void formatAlbumIndexSection(CollectionSection<Album> section, OutputStream output, ResourceLocator resourceLocator) throws IOException, XMLStreamException {
+		T writer = createStreamWriter(output);
+		startResponse(writer, "albumCollection");
+		writeStringProperty(writer, "title", localStrings.getAlbumIndexTitle());
+		formatAlbumSections(writer, Collections.singletonList(section), resourceLocator, ImageType.Thumbnail, true);
+		endResponse(writer);
+	}
+
+	private TitledComparator<Track> trackComparator() {
+		return new TitledComparator<Track>(localStrings, getDefaultTrackTitle(), new Comparator<Track>() {
 			@Override
 			public int compare(Track o1, Track o2) { // sort equally titled tracks by artist
 				String title1 = o1.getArtist().getTitle() == null ? getDefaultArtistTitle(ArtistType.TrackArtist) : o1.getArtist().getTitle();
@@ -434,11 +482,485 @@ public abstract class ResponseFormatter<T extends XMLStreamWriter> {
 				return title1.compareTo(title2);
 			}
 		});
-		Iterable<CollectionSection<Track>> sections = CollectionSection.createIndex(tracks, comparator);
+	}
+
+	/**
+	 * Partition tracks into track index sections.
+	 * @param tracks tracks
+	 * @return sorted sections
+	 */
+	public Iterable<CollectionSection<Track>> createTrackIndex(Iterable<Track> tracks) {
+		return CollectionSection.createIndex(tracks, trackComparator());
+	}
+
+	public void formatTrackIndex(Iterable<Track> tracks, OutputStream output, ResourceLocator resourceLocator, AssetLocator assetLocator) throws IOException, XMLStreamException {
+		Iterable<CollectionSection<Track>> sections = createTrackIndex(tracks);
+		T writer = createStreamWriter(output);
+		startResponse(writer, "trackCollection");
+		writeStringProperty(writer, "title", localStrings.getTracks());
 		formatTrackSections(writer, sections, resourceLocator, assetLocator, ImageType.Thumbnail);
 		endResponse(writer);
 	}
 
+	/**
+	 * Format root document of sharded track index, referencing the section documents.
+	 * @param sections track index sections
+	 * @param output output stream
+	 * @param resourceLocator resource locator, providing section paths
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public void formatTrackIndexRoot(Iterable<CollectionSection<Track>> sections, OutputStream output, ResourceLocator resourceLocator) throws IOException, XMLStreamException {
+		List<String> sectionPaths = new ArrayList<String>();
+		for (CollectionSection<Track> section : sections) {
+			sectionPaths.add(resourceLocator.getTrackIndexSectionPath(section));
+		}
+		T writer = createStreamWriter(output);
+		startResponse(writer, "trackCollection");
+		writeStringProperty(writer, "title", localStrings.getTracks());
+		formatSectionReferences(writer, sections, sectionPaths);
+		endResponse(writer);
+	}
+
+	public void formatTrackIndexSection(CollectionSection<Track> section, OutputStream output, ResourceLocator resourceLocator, AssetLocator assetLocator) throws IOException, XMLStreamException {
+		T writer = createStreamWriter(output);
+		startResponse(writer, "trackCollection");
+		writeStringProperty(writer, "title", localStrings.getTracks());
+		formatTrackSections(writer, Collections.singletonList(section), resourceLocator, assetLocator, ImageType.Thumbnail);
+		endResponse(writer);
+	}
+
+	/**
+	 * Create search index over artist titles, ordered like the artist index.
+	 * @param artists artists
+	 * @param artistType artist type
+	 * @return search index
+	 */
+	public SearchIndex<Artist> createArtistSearchIndex(Iterable<? extends Artist> artists, ArtistType artistType) {
+		return new SearchIndex<Artist>(artists, artistComparator(artistType), localStrings.getLocale());
+	}
+
+	/**
+	 * Create search index over album titles, ordered like the album index.
+	 * @param albums albums
+	 * @return search index
+	 */
+	public SearchIndex<Album> createAlbumSearchIndex(Iterable<Album> albums) {
+		return new SearchIndex<Album>(albums, albumComparator(), localStrings.getLocale());
+	}
+
+	/**
+	 * Create search index over track titles, ordered like the track index.
+	 * @param tracks tracks
+	 * @return search index
+	 */
+	public SearchIndex<Track> createTrackSearchIndex(Iterable<Track> tracks) {
+		return new SearchIndex<Track>(tracks, trackComparator(), localStrings.getLocale());
+	}
+
+	private void formatArtistSearchResult(T writer, String name, SearchIndex.Result<Artist> result, ArtistType artistType, ResourceLocator resourceLocator, Map<Artist, Album> representativeAlbums) throws IOException, XMLStreamException {
+		writer.writeStartElement(name);
+		writeStringProperty(writer, "title", localStrings.getArtistIndexTitle(artistType));
+		writeNumberProperty(writer, "total", result.getTotal());
+		writeStartArray(writer);
+		for (Artist item : result.getItems()) {
+			writeArtistItem(writer, item, resourceLocator, ImageType.Thumbnail, artistType, representativeAlbums);
+		}
+		writer.writeEndElement();
+	}
+
+	/**
+	 * Format a page of search results. Results of a type are omitted if <code>null</code>.
+	 * @param query search query
+	 * @param offset offset of the result page
+	 * @param albumArtists album artist results
+	 * @param trackArtists track artist results
+	 * @param albums album results
+	 * @param tracks track results
+	 * @param output output stream
+	 * @param resourceLocator resource locator
+	 * @param assetLocator asset locator
+	 * @param representativeAlbums artist images
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public void formatSearchResult(String query, int offset, SearchIndex.Result<Artist> albumArtists, SearchIndex.Result<Artist> trackArtists, SearchIndex.Result<Album> albums, SearchIndex.Result<Track> tracks,
+			OutputStream output, ResourceLocator resourceLocator, AssetLocator assetLocator, Map<Artist, Album> representativeAlbums) throws IOException, XMLStreamException {
+		T writer = createStreamWriter(output);
+		startResponse(writer, "searchResult");
+		writeStringProperty(writer, "query", query);
+		writeNumberProperty(writer, "offset", offset);
+		if (albumArtists != null) {
+			formatArtistSearchResult(writer, "albumArtists", albumArtists, ArtistType.AlbumArtist, resourceLocator, representativeAlbums);
+		}
+		if (trackArtists != null) {
+			formatArtistSearchResult(writer, "artists", trackArtists, ArtistType.TrackArtist, resourceLocator, representativeAlbums);
+		}
+		if (albums != null) {
+			writer.writeStartElement("albums");
+			writeStringProperty(writer, "title", localStrings.getAlbumIndexTitle());
+			writeNumberProperty(writer, "total", albums.getTotal());
+			writeStartArray(writer);
+			for (Album item : albums.getItems()) {
+				writeAlbumItem(writer, item, resourceLocator, ImageType.Thumbnail, true);
+			}
+			writer.writeEndElement();
+		}
+		if (tracks != null) {
+			writer.writeStartElement("tracks");
+			writeStringProperty(writer, "title", localStrings.getTracks());
+			writeNumberProperty(writer, "total", tracks.getTotal());
+			writeStartArray(writer);
+			for (Track item : tracks.getItems()) {
+				writeTrackItem(writer, item, resourceLocator, assetLocator, ImageType.Thumbnail);
+			}
+			writer.writeEndElement();
+		}
+		endResponse(writer);
+	}
+
+	/**
+	 * Format root document of the prefix search index, referencing the shard documents.
+	 * @param prefixLength shard prefix length
+	 * @param shardItemCounts number of items by shard prefix
+	 * @param output output stream
+	 * @param resourceLocator resource locator, providing shard paths
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public void formatSearchIndexRoot(int prefixLength, Map<String, Integer> shardItemCounts, OutputStream output, ResourceLocator resourceLocator) throws IOException, XMLStreamException {
+		T writer = createStreamWriter(output);
+		startResponse(writer, "searchIndex");
+		writeNumberProperty(writer, "prefixLength", prefixLength);
+		writeStartArray(writer);
+		for (Map.Entry<String, Integer> entry : shardItemCounts.entrySet()) {
+			writer.writeStartElement("shard");
+			writeStringProperty(writer, "prefix", entry.getKey());
+			writeStringProperty(writer, "shardPath", getDocumentPath(resourceLocator.getSearchIndexShardPath(entry.getKey())));
+			writeNumberProperty(writer, "itemCount", entry.getValue());
+			writer.writeEndElement();
+		}
+		endResponse(writer);
+	}
+
+	private void updateDigest(MessageDigest digest, String value) {
+		if (value != null) {
+			digest.update(value.getBytes(StandardCharsets.UTF_8));
+		}
+		digest.update((byte) 0);
+	}
+
+	/*
+	 * write search index entry to writer and/or digest (either may be null)
+	 */
+	private void writeSearchIndexEntry(T writer, MessageDigest digest, String title, String artist, String pathName, String path) throws XMLStreamException {
+		if (digest != null) {
+			updateDigest(digest, title);
+			updateDigest(digest, artist);
+			updateDigest(digest, path);
+		}
+		if (writer != null) {
+			writer.writeStartElement("item");
+			writeStringProperty(writer, "title", title);
+			if (artist != null) {
+				writeStringProperty(writer, "artist", artist);
+			}
+			if (path != null) {
+				writeStringProperty(writer, pathName, path);
+			}
+			writer.writeEndElement();
+		}
+	}
+
+	private void startSearchIndexSection(T writer, MessageDigest digest, String name, String title) throws XMLStreamException {
+		if (digest != null) {
+			updateDigest(digest, name);
+		}
+		if (writer != null) {
+			writer.writeStartElement(name);
+			writeStringProperty(writer, "title", title);
+			writeStartArray(writer);
+		}
+	}
+
+	private void endSearchIndexSection(T writer) throws XMLStreamException {
+		if (writer != null) {
+			writer.writeEndElement();
+		}
+	}
+
+	private void writeArtistSearchIndexSection(T writer, MessageDigest digest, String name, List<? extends Artist> artists, ArtistType artistType, ResourceLocator resourceLocator) throws XMLStreamException {
+		startSearchIndexSection(writer, digest, name, localStrings.getArtistIndexTitle(artistType));
+		for (Artist item : artists) {
+			String title = item.getTitle() == null ? getDefaultArtistTitle(artistType) : item.getTitle();
+			writeSearchIndexEntry(writer, digest, title, null, "albumCollectionPath", getDocumentPath(resourceLocator.getAlbumCollectionPath(item)));
+		}
+		endSearchIndexSection(writer);
+	}
+
+	/*
+	 * write search index shard content to writer and/or digest (either may be null)
+	 */
+	private void writeSearchIndexShard(T writer, MessageDigest digest, List<? extends Artist> albumArtists, List<? extends Artist> trackArtists, List<Album> albums, List<Track> tracks,
+			ResourceLocator resourceLocator) throws XMLStreamException {
+		if (albumArtists != null && !albumArtists.isEmpty()) {
+			writeArtistSearchIndexSection(writer, digest, "albumArtists", albumArtists, ArtistType.AlbumArtist, resourceLocator);
+		}
+		if (trackArtists != null && !trackArtists.isEmpty()) {
+			writeArtistSearchIndexSection(writer, digest, "artists", trackArtists, ArtistType.TrackArtist, resourceLocator);
+		}
+		if (albums != null && !albums.isEmpty()) {
+			startSearchIndexSection(writer, digest, "albums", localStrings.getAlbumIndexTitle());
+			for (Album item : albums) {
+				String title = item.getTitle() == null ? getDefaultAlbumTitle() : item.getTitle();
+				String artist = item.getArtist().getTitle() == null ? getDefaultArtistTitle(ArtistType.AlbumArtist) : item.getArtist().getTitle();
+				writeSearchIndexEntry(writer, digest, title, artist, "albumPath", getDocumentPath(resourceLocator.getAlbumPath(item)));
+			}
+			endSearchIndexSection(writer);
+		}
+		if (tracks != null && !tracks.isEmpty()) {
+			startSearchIndexSection(writer, digest, "tracks", localStrings.getTracks());
+			for (Track item : tracks) {
+				String title = item.getTitle() == null ? getDefaultTrackTitle() : item.getTitle();
+				String artist = item.getArtist().getTitle() == null ? getDefaultArtistTitle(ArtistType.TrackArtist) : item.getArtist().getTitle();
+				String albumPath = item.getAlbum() != null ? getDocumentPath(resourceLocator.getAlbumPath(item.getAlbum())) : null;
+				writeSearchIndexEntry(writer, digest, title, artist, "albumPath", albumPath);
+			}
+			endSearchIndexSection(writer);
+		}
+	}
+
+	/**
+	 * Format a search index shard, i.e. all items having a title word starting with the shard prefix.
+	 * Items of a type are omitted if <code>null</code> or empty.
+	 * @param prefix shard prefix
+	 * @param albumArtists album artists
+	 * @param trackArtists track artists
+	 * @param albums albums
+	 * @param tracks tracks
+	 * @param output output stream
+	 * @param resourceLocator resource locator
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public void formatSearchIndexShard(String prefix, List<? extends Artist> albumArtists, List<? extends Artist> trackArtists, List<Album> albums, List<Track> tracks,
+			OutputStream output, ResourceLocator resourceLocator) throws IOException, XMLStreamException {
+		T writer = createStreamWriter(output);
+		startResponse(writer, "searchIndexShard");
+		writeStringProperty(writer, "prefix", prefix);
+		writeSearchIndexShard(writer, null, albumArtists, trackArtists, albums, tracks, resourceLocator);
+		endResponse(writer);
+	}
+
+	/**
+	 * Compute digest over the content of a search index shard.
+	 * Unlike the formatted document, the digest does not depend on the update token,
+	 * so it can be used to decide whether a shard needs to be regenerated.
+	 * @param albumArtists album artists
+	 * @param trackArtists track artists
+	 * @param albums albums
+	 * @param tracks tracks
+	 * @param resourceLocator resource locator
+	 * @return hex digest
+	 */
+	public String searchIndexShardDigest(List<? extends Artist> albumArtists, List<? extends Artist> trackArtists, List<Album> albums, List<Track> tracks, ResourceLocator resourceLocator) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // every Java platform supports MD5
+		}
+		try {
+			writeSearchIndexShard(null, digest, albumArtists, trackArtists, albums, tracks, resourceLocator);
+		} catch (XMLStreamException e) {
+			throw new IllegalStateException(e); // no writer, should not happen
+		}
+		StringBuilder builder = new StringBuilder();
+		for (byte b : digest.digest()) {
+			builder.append(String.format("%02x", b & 0xff));
+		}
+		return builder.toString();
+	}
+
+	private void writeChangedIds(T writer, String name, Collection<Long> ids, String idName) throws XMLStreamException {
+		if (!ids.isEmpty()) {
+			writer.writeStartElement(name);
+			writeStartArray(writer);
+			for (Long id : ids) {
+				writeNumberProperty(writer, idName, id);
+			}
+			writer.writeEndElement();
+		}
+	}
+
+	private void writeChangedAlbums(T writer, String name, Collection<Long> albumIds, Map<Long, Album> albums, ResourceLocator resourceLocator) throws XMLStreamException {
+		if (!albumIds.isEmpty()) {
+			writer.writeStartElement(name);
+			writeStartArray(writer);
+			for (Long albumId : albumIds) {
+				Album album = albums.get(albumId);
+				if (album != null) {
+					writer.writeStartElement("item");
+					writeNumberProperty(writer, "albumId", albumId);
+					writeStringProperty(writer, "albumPath", getDocumentPath(resourceLocator.getAlbumPath(album)));
+					writer.writeEndElement();
+				}
+			}
+			writer.writeEndElement();
+		}
+	}
+
+	private void writeChangedArtists(T writer, String name, Collection<Long> artistIds, Map<Long, ? extends Artist> artists, ResourceLocator resourceLocator) throws XMLStreamException {
+		if (!artistIds.isEmpty()) {
+			writer.writeStartElement(name);
+			writeStartArray(writer);
+			for (Long artistId : artistIds) {
+				Artist artist = artists.get(artistId);
+				if (artist != null) {
+					writer.writeStartElement("item");
+					writeNumberProperty(writer, "artistId", artistId);
+					writeStringProperty(writer, "albumCollectionPath", getDocumentPath(resourceLocator.getAlbumCollectionPath(artist)));
+					writer.writeEndElement();
+				}
+			}
+			writer.writeEndElement();
+		}
+	}
+
+	private void writeArtistChanges(T writer, String name, LibraryChanges.Ids changes, Map<Long, ? extends Artist> artists, ResourceLocator resourceLocator) throws XMLStreamException {
+		if (changes.size() > 0) {
+			writer.writeStartElement(name);
+			writeChangedArtists(writer, "added", changes.getAdded(), artists, resourceLocator);
+			writeChangedArtists(writer, "modified", changes.getModified(), artists, resourceLocator);
+			writeChangedIds(writer, "removed", changes.getRemoved(), "artistId");
+			writer.writeEndElement();
+		}
+	}
+
+	/**
+	 * Format changes since a previous version. Added and modified items are referenced by id and document path,
+	 * removed items by id only. If the changes are unknown, the client is told to refresh all documents.
+	 * @param token token of the current version
+	 * @param changes changes or <code>null</code> if unknown
+	 * @param albums current albums by id
+	 * @param albumArtists current album artists by id
+	 * @param trackArtists current track artists by id
+	 * @param output output stream
+	 * @param resourceLocator resource locator
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public void formatChanges(String token, LibraryChanges changes, Map<Long, Album> albums, Map<Long, ? extends Artist> albumArtists, Map<Long, ? extends Artist> trackArtists,
+			OutputStream output, ResourceLocator resourceLocator) throws IOException, XMLStreamException {
+		T writer = createStreamWriter(output);
+		startResponse(writer, "changes");
+		writeStringProperty(writer, "token", token);
+		writeBooleanProperty(writer, "refresh", changes == null);
+		if (changes != null) {
+			if (changes.getAlbums().size() > 0) {
+				writer.writeStartElement("albums");
+				writeChangedAlbums(writer, "added", changes.getAlbums().getAdded(), albums, resourceLocator);
+				writeChangedAlbums(writer, "modified", changes.getAlbums().getModified(), albums, resourceLocator);
+				writeChangedIds(writer, "removed", changes.getAlbums().getRemoved(), "albumId");
+				writer.writeEndElement();
+			}
+			writeArtistChanges(writer, "albumArtists", changes.getAlbumArtists(), albumArtists, resourceLocator);
+			writeArtistChanges(writer, "artists", changes.getTrackArtists(), trackArtists, resourceLocator);
+		}
+		endResponse(writer);
+	}
+
+	private void writeManifestEntries(T writer, String name, Collection<BuildManifest.Entry> entries) throws XMLStreamException {
+		if (!entries.isEmpty()) {
+			writer.writeStartElement(name);
+			writeStartArray(writer);
+			for (BuildManifest.Entry entry : entries) {
+				writer.writeStartElement("file");
+				writeStringProperty(writer, "path", entry.getPath());
+				writeNumberProperty(writer, "size", entry.getSize());
+				if (entry.getDigest() != null) {
+					writeStringProperty(writer, "md5", entry.getDigest());
+				}
+				writer.writeEndElement();
+			}
+			writer.writeEndElement();
+		}
+	}
+
+	/**
+	 * Format build manifest: files created, modified and deleted by a build and stale files which have been kept.
+	 * @param manifest build manifest
+	 * @param output output stream
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public void formatBuildManifest(BuildManifest manifest, OutputStream output) throws IOException, XMLStreamException {
+		T writer = createStreamWriter(output);
+		startResponse(writer, "buildManifest");
+		writeNumberProperty(writer, "fileCount", manifest.getFiles().size());
+		writeManifestEntries(writer, "created", manifest.getCreated());
+		writeManifestEntries(writer, "modified", manifest.getModified());
+		writeManifestEntries(writer, "deleted", manifest.getDeleted());
+		writeManifestEntries(writer, "stale", manifest.getStale());
+		endResponse(writer);
+	}
+
+	private TitledComparator<Genre> genreComparator() {
+		return new TitledComparator<Genre>(localStrings, localStrings.getUnknownGenre(), new Comparator<Genre>() {
+			@Override
+			public int compare(Genre o1, Genre o2) { // sort equally titled genres descending by album count
+				return -Integer.valueOf(o1.albumsCount()).compareTo(Integer.valueOf(o2.albumsCount()));
+			}
+		});
+	}
+
+	/**
+	 * Format genre index, referencing one album collection per genre.
+	 * The genre of tracks without genre is included only if unknown genres are reported.
+	 * @param genres genres
+	 * @param output output stream
+	 * @param resourceLocator resource locator, providing genre collection paths
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public void formatGenreIndex(Iterable<Genre> genres, OutputStream output, ResourceLocator resourceLocator) throws IOException, XMLStreamException {
+		List<Genre> items = new ArrayList<Genre>();
+		for (Genre genre : genres) {
+			if (genre.getTitle() != null || includeUnknownGenre) {
+				items.add(genre);
+			}
+		}
+		T writer = createStreamWriter(output);
+		startResponse(writer, "genreCollection");
+		writeStringProperty(writer, "title", localStrings.getGenreIndexTitle());
+		writeStartArray(writer);
+		for (CollectionSection<Genre> section : CollectionSection.createIndex(items, genreComparator())) {
+			writer.writeStartElement("section");
+			if (section.getTitle() != null) {
+				writeStringProperty(writer, "title", section.getTitle());
+			}
+			writeStartArray(writer);
+			for (Genre item : section.getItems()) {
+				writer.writeStartElement("item");
+				writeStringProperty(writer, "title", item.getTitle() == null ? localStrings.getUnknownGenre() : item.getTitle());
+				writeStringProperty(writer, "albumCollectionPath", getDocumentPath(resourceLocator.getGenreCollectionPath(item)));
+				writeNumberProperty(writer, "albumCount", item.albumsCount());
+				writer.writeEndElement();
+			}
+			writer.writeEndElement();
+		}
+		endResponse(writer);
+	}
+
+	public void formatGenreCollection(Genre genre, OutputStream output, ResourceLocator resourceLocator) throws IOException, XMLStreamException {
+		Iterable<CollectionSection<Album>> sections = createAlbumIndex(genre.getAlbums());
+		T writer = createStreamWriter(output);
+		startResponse(writer, "albumCollection");
+		writeStringProperty(writer, "title", genre.getTitle() == null ? localStrings.getUnknownGenre() : genre.getTitle());
+		formatAlbumSections(writer, sections, resourceLocator, ImageType.Thumbnail, true);
+		endResponse(writer);
+	}
+
 	public Album formatAlbumCollection(Artist artist, OutputStream output, ResourceLocator resourceLocator) throws IOException, XMLStreamException {
 		String title = artist.getTitle() == null ? getDefaultArtistTitle(artist.getArtistType()) : artist.getTitle();
 		Iterable<CollectionSection<Album>> sections = createAlbumCollectionSections(artist);
@@ -463,16 +985,44 @@ public abstract class ResponseFormatter<T extends XMLStreamWriter> {
 	public void formatAlbum(Album album, OutputStream output, ResourceLocator resourceLocator, AssetLocator assetLocator) throws IOException, XMLStreamException {
 		T writer = createStreamWriter(output);
 		startResponse(writer, "album");
+		writeAlbum(writer, album, resourceLocator, assetLocator);
+		endResponse(writer);
+	}
+
+	/**
+	 * Format several albums into one response. Each album is written as in {@link #formatAlbum(Album, OutputStream, ResourceLocator, AssetLocator)},
+	 * prefixed by its album id.
+	 * @param albums albums
+	 * @param output output stream
+	 * @param resourceLocator resource locator
+	 * @param assetLocator asset locator
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public void formatAlbums(Iterable<Album> albums, OutputStream output, ResourceLocator resourceLocator, AssetLocator assetLocator) throws IOException, XMLStreamException {
+		T writer = createStreamWriter(output);
+		startResponse(writer, "albums");
+		writeStartArray(writer);
+		for (Album album : albums) {
+			writer.writeStartElement("album");
+			writeNumberProperty(writer, "albumId", album.getAlbumId());
+			writeAlbum(writer, album, resourceLocator, assetLocator);
+			writer.writeEndElement();
+		}
+		endResponse(writer);
+	}
+
+	private void writeAlbum(T writer, Album album, ResourceLocator resourceLocator, AssetLocator assetLocator) throws IOException, XMLStreamException {
 		writeStringProperty(writer, "title", album.getTitle() == null ? getDefaultAlbumTitle() : album.getTitle());
 		if (album.isCompilation() && album.getArtist().getTitle() != null) {
 			writeStringProperty(writer, "info", localStrings.getCompilation());
 		}
 		writeStringProperty(writer, "artist", album.getArtist().getTitle() == null ? getDefaultArtistTitle(ArtistType.AlbumArtist) : album.getArtist().getTitle());
 //		writeStringProperty(writer, "albumPath", resourceLocator.getAlbumPath(album));
-		List<String> genreList = genreList(album);
+		List<String> genreList = genreList(album.getGenres());
 		if (genreList.size() > 0) {
 			writeStartArray(writer);
-			for (String genre : genreList(album)) {
+			for (String genre : genreList) {
 				writeStringProperty(writer, "genre", genre);
 			}
 		}
@@ -490,7 +1040,7 @@ public abstract class ResponseFormatter<T extends XMLStreamWriter> {
 		 */
 		String trackImagePath = resourceLocator.getAlbumImagePath(album, ImageType.Thumbnail);
 		writer.writeStartElement("trackCollection");
-		writeStringProperty(writer, "title", "Tracks");
+		writeStringProperty(writer, "title", localStrings.getTracks());
 		writeStartArray(writer);
 		for (Disc disc : album.getDiscs().values()) {
 			writer.writeStartElement("section");
@@ -502,14 +1052,9 @@ public abstract class ResponseFormatter<T extends XMLStreamWriter> {
 			ArrayList<Track> items = new ArrayList<Track>(disc.getTracks());
 			Collections.sort(items, new Comparator<Track>() {
 				public int compare(Track t1, Track t2) {
-					if (t1.getTrackNumber() == null && t2.getTrackNumber() == null) {
-						return 0;
-					} else if (t1.getTrackNumber() == null) {
-						return -1;
-					} else if (t2.getTrackNumber() == null) {
-						return +1;
-					}
-					return t1.getTrackNumber().compareTo(t2.getTrackNumber());
+					int n1 = t1.getTrackNumber();
+					int n2 = t2.getTrackNumber();
+					return n1 < n2 ? -1 : n1 == n2 ? 0 : +1; // unknown (minimum value) first
 				}
 			});
 			writeStartArray(writer);
@@ -533,10 +1078,10 @@ public abstract class ResponseFormatter<T extends XMLStreamWriter> {
 				if (item.getComposer() != null) {
 					writeStringProperty(writer, "composer", item.getComposer());
 				}
-				if (item.getTrackNumber() != null) {
+				if (item.getTrackNumber() != Track.UNKNOWN) {
 					writeNumberProperty(writer, "trackNumber", item.getTrackNumber());
 				}
-				if (item.getDuration() != null) {
+				if (item.getDuration() != Track.UNKNOWN) {
 					writeNumberProperty(writer, "duration", item.getDuration());
 				}
 				String assetPath = assetLocator.getAssetPath(item.getResource());
@@ -548,6 +1093,5 @@ public abstract class ResponseFormatter<T extends XMLStreamWriter> {
 			writer.writeEndElement(); // section
 		}
 		writer.writeEndElement(); // trackCollection
-		endResponse(writer);
 	}
 }
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.builder.impl;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import org.musicmount.builder.model.Titled;
+
+/**
+ * Prefix search index over item titles.
+ * Items are kept in {@link TitledComparator} order; titles are normalized like sort titles
+ * ("The Beatles" -&gt; "beatles, the"), lower-cased and stripped of diacritics, then split into words.
+ * An item matches a query if every query word is a prefix of one of the item's title words.
+ * 
+ * @param <T> titled type
+ */
+public class SearchIndex<T extends Titled> {
+	private static final Pattern DIACRITICS = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+	private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+	/**
+	 * Normalize text (title or query) for searching.
+	 * @param text text
+	 * @param locale locale used for lower-casing
+	 * @return lower-cased text without diacritics
+	 */
+	public static String normalize(String text, Locale locale) {
+		return DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("").toLowerCase(locale);
+	}
+
+	/**
+	 * Split normalized text into distinct words.
+	 * @param text normalized text
+	 * @return words
+	 */
+	public static Set<String> words(String text) {
+		Set<String> words = new LinkedHashSet<String>();
+		for (String word : NON_WORD.split(text)) {
+			if (word.length() > 0) {
+				words.add(word);
+			}
+		}
+		return words;
+	}
+
+	/**
+	 * A page of search results
+	 * @param <T> titled type
+	 */
+	public static class Result<T> {
+		private final List<T> items;
+		private final int total;
+
+		Result(List<T> items, int total) {
+			this.items = items;
+			this.total = total;
+		}
+
+		/**
+		 * @return items of the requested page
+		 */
+		public List<T> getItems() {
+			return items;
+		}
+
+		/**
+		 * @return total number of matching items
+		 */
+		public int getTotal() {
+			return total;
+		}
+	}
+
+	private final Locale locale;
+	private final Object[] items; // sorted
+	private final String[] terms; // sorted
+	private final int[][] postings; // item indices (ascending) by term index
+
+	/**
+	 * Create index.
+	 * @param items items
+	 * @param comparator item order, also providing sort titles
+	 * @param locale locale used for lower-casing
+	 */
+	public SearchIndex(Iterable<? extends T> items, TitledComparator<T> comparator, Locale locale) {
+		this.locale = locale;
+
+		List<T> sortedItems = new ArrayList<T>();
+		for (T item : items) {
+			sortedItems.add(item);
+		}
+		Collections.sort(sortedItems, comparator);
+		this.items = sortedItems.toArray();
+
+		Map<String, List<Integer>> termItems = new HashMap<String, List<Integer>>();
+		for (int index = 0; index < this.items.length; index++) {
+			for (String word : words(normalize(comparator.sortTitle(sortedItems.get(index)), locale))) {
+				List<Integer> wordItems = termItems.get(word);
+				if (wordItems == null) {
+					termItems.put(word, wordItems = new ArrayList<Integer>());
+				}
+				wordItems.add(index);
+			}
+		}
+		this.terms = termItems.keySet().toArray(new String[termItems.size()]);
+		Arrays.sort(this.terms);
+		this.postings = new int[terms.length][];
+		for (int termIndex = 0; termIndex < terms.length; termIndex++) {
+			List<Integer> termPostings = termItems.get(terms[termIndex]);
+			postings[termIndex] = new int[termPostings.size()];
+			for (int i = 0; i < postings[termIndex].length; i++) {
+				postings[termIndex][i] = termPostings.get(i);
+			}
+		}
+	}
+
+	private SearchIndex(Locale locale, Object[] items, String[] terms, int[][] postings) {
+		this.locale = locale;
+		this.items = items;
+		this.terms = terms;
+		this.postings = postings;
+	}
+
+	/**
+	 * Create index of corresponding items (e.g. copies with equal titles), sharing terms and postings with this index.
+	 * @param items items in index order, see {@link #getItems()}
+	 * @return new index
+	 */
+	public SearchIndex<T> withItems(List<? extends T> items) {
+		if (items.size() != this.items.length) {
+			throw new IllegalArgumentException("Number of items doesn't match index size");
+		}
+		return new SearchIndex<T>(locale, items.toArray(), terms, postings);
+	}
+
+	/**
+	 * @return indexed items (in index order)
+	 */
+	@SuppressWarnings("unchecked")
+	public List<T> getItems() {
+		return Collections.unmodifiableList((List<T>) (List<?>) Arrays.asList(items));
+	}
+
+	/**
+	 * @return number of indexed items
+	 */
+	public int size() {
+		return items.length;
+	}
+
+	/**
+	 * @return number of distinct title words
+	 */
+	public int getTermCount() {
+		return terms.length;
+	}
+
+	private BitSet matches(String prefix) {
+		BitSet matches = new BitSet(items.length);
+		int termIndex = Arrays.binarySearch(terms, prefix);
+		if (termIndex < 0) {
+			termIndex = -termIndex - 1;
+		}
+		while (termIndex < terms.length && terms[termIndex].startsWith(prefix)) {
+			for (int index : postings[termIndex]) {
+				matches.set(index);
+			}
+			termIndex++;
+		}
+		return matches;
+	}
+
+	/**
+	 * Partition items by title word prefixes.
+	 * An item is contained in the shard of every prefix of one of its title words.
+	 * Words shorter than the prefix length make up a shard on their own.
+	 * @param prefixLength prefix length (in code points)
+	 * @return items (in index order) by normalized prefix
+	 */
+	@SuppressWarnings("unchecked")
+	public SortedMap<String, List<T>> shards(int prefixLength) {
+		SortedMap<String, BitSet> shardMatches = new TreeMap<String, BitSet>();
+		for (int termIndex = 0; termIndex < terms.length; termIndex++) {
+			String term = terms[termIndex];
+			String prefix = term.codePointCount(0, term.length()) > prefixLength ? term.substring(0, term.offsetByCodePoints(0, prefixLength)) : term;
+			BitSet matches = shardMatches.get(prefix);
+			if (matches == null) {
+				shardMatches.put(prefix, matches = new BitSet(items.length));
+			}
+			for (int index : postings[termIndex]) {
+				matches.set(index);
+			}
+		}
+		SortedMap<String, List<T>> shards = new TreeMap<String, List<T>>();
+		for (Map.Entry<String, BitSet> entry : shardMatches.entrySet()) {
+			List<T> shard = new ArrayList<T>(entry.getValue().cardinality());
+			for (int index = entry.getValue().nextSetBit(0); index >= 0; index = entry.getValue().nextSetBit(index + 1)) {
+				shard.add((T) items[index]);
+			}
+			shards.put(entry.getKey(), shard);
+		}
+		return shards;
+	}
+
+	/**
+	 * Search items.
+	 * @param query query, words are matched as title word prefixes
+	 * @param offset index of the first result item to return
+	 * @param limit maximum number of result items to return
+	 * @return page of items matching all query words (in index order) and total number of matches
+	 */
+	@SuppressWarnings("unchecked")
+	public Result<T> search(String query, int offset, int limit) {
+		List<String> words = new ArrayList<String>(words(normalize(query, locale)));
+		if (words.isEmpty()) {
+			return new Result<T>(Collections.<T>emptyList(), 0);
+		}
+		Collections.sort(words, new Comparator<String>() { // longer words are more selective
+			@Override
+			public int compare(String o1, String o2) {
+				return o2.length() - o1.length();
+			}
+		});
+		BitSet matches = null;
+		for (String word : words) {
+			if (matches == null) {
+				matches = matches(word);
+			} else {
+				matches.and(matches(word));
+			}
+			if (matches.isEmpty()) {
+				break;
+			}
+		}
+
+		List<T> page = new ArrayList<T>();
+		int position = 0;
+		for (int index = matches.nextSetBit(0); index >= 0 && page.size() < limit; index = matches.nextSetBit(index + 1)) {
+			if (position++ >= offset) {
+				page.add((T) items[index]);
+			}
+		}
+		return new Result<T>(page, matches.cardinality());
+	}
+}
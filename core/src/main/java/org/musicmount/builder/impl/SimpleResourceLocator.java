@@ -18,6 +18,8 @@ package org.musicmount.builder.impl;
 import org.musicmount.builder.model.Album;
 import org.musicmount.builder.model.Artist;
 import org.musicmount.builder.model.ArtistType;
+import org.musicmount.builder.model.Genre;
+import org.musicmount.builder.model.Track;
 import org.musicmount.io.Resource;
 
 public class SimpleResourceLocator implements ResourceLocator {
@@ -25,12 +27,24 @@ public class SimpleResourceLocator implements ResourceLocator {
 	private final String extension;
 	private final boolean noImages;
 	private final boolean noTrackIndex;
+	private final boolean shardedIndex;
+	private final boolean searchIndex;
 	
 	public SimpleResourceLocator(Resource outputFolder, boolean xml, boolean noImages, boolean noTrackIndex) {
+		this(outputFolder, xml, noImages, noTrackIndex, false);
+	}		
+
+	public SimpleResourceLocator(Resource outputFolder, boolean xml, boolean noImages, boolean noTrackIndex, boolean shardedIndex) {
+		this(outputFolder, xml, noImages, noTrackIndex, shardedIndex, false);
+	}		
+
+	public SimpleResourceLocator(Resource outputFolder, boolean xml, boolean noImages, boolean noTrackIndex, boolean shardedIndex, boolean searchIndex) {
 		this.outputFolder = outputFolder;
 		this.extension = xml ? "xml" : "json";
 		this.noImages = noImages;
 		this.noTrackIndex = noTrackIndex;
+		this.shardedIndex = shardedIndex;
+		this.searchIndex = searchIndex;
 	}		
 
 	private String getArtistPathPrefix(ArtistType artistType) {
@@ -73,6 +87,56 @@ public class SimpleResourceLocator implements ResourceLocator {
 		return noTrackIndex ? null : String.format("tracks/index.%s", extension);
 	}
 
+	@Override
+	public String getAlbumIndexSectionPath(CollectionSection<Album> section) {
+		return shardedIndex ? String.format("albums/index-%s.%s", section.getKey(), extension) : null;
+	}
+
+	@Override
+	public String getTrackIndexSectionPath(CollectionSection<Track> section) {
+		return shardedIndex && !noTrackIndex ? String.format("tracks/index-%s.%s", section.getKey(), extension) : null;
+	}
+
+	@Override
+	public String getSearchIndexPath() {
+		return searchIndex ? String.format("search/index.%s", extension) : null;
+	}
+
+	@Override
+	public String getSearchIndexShardPath(String prefix) {
+		if (!searchIndex) {
+			return null;
+		}
+		/*
+		 * keep [a-z0-9], escape other characters as "_xxxx" hex code point
+		 */
+		StringBuilder builder = new StringBuilder("search/");
+		for (int offset = 0; offset < prefix.length(); offset = prefix.offsetByCodePoints(offset, 1)) {
+			int codePoint = prefix.codePointAt(offset);
+			if (codePoint >= 'a' && codePoint <= 'z' || codePoint >= '0' && codePoint <= '9') {
+				builder.append((char) codePoint);
+			} else {
+				builder.append(String.format("_%04x", codePoint));
+			}
+		}
+		return builder.append('.').append(extension).toString();
+	}
+
+	@Override
+	public String getGenreIndexPath() {
+		return String.format("genres/index.%s", extension);
+	}
+
+	@Override
+	public String getGenreCollectionPath(Genre genre) {
+		return new StringBuilder()
+			.append("genres/")
+			.append(getIdPath(genre.getGenreId()))
+			.append("-albums.")
+			.append(extension)
+			.toString();
+	}
+
 	@Override
 	public String getArtistIndexPath(ArtistType artistType) {
 		return String.format("%s/index.%s", getArtistPathPrefix(artistType), extension);
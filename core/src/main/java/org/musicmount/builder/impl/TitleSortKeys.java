@@ -0,0 +1,308 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.builder.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.Collator;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.musicmount.io.Resource;
+
+/**
+ * Shared cache of title sort keys.
+ * There's one instance per locale; keys are computed once per title string and shared by all
+ * {@link TitledComparator}s of that locale. The cache may be saved to and loaded from a file.
+ * Its size is bounded; keys not used for a number of {@link #prune()} periods are dropped.
+ * Idle periods are saved with the keys, so pruning also works if each period runs in a new process (e.g. command line builds).
+ */
+public class TitleSortKeys {
+	/**
+	 * Store format version
+	 */
+	private static final String FORMAT_VERSION = "2";
+
+	/**
+	 * Titles longer than this are not saved
+	 */
+	private static final int MAX_SAVED_TITLE_LENGTH = 1024;
+
+	/**
+	 * Maximum number of cached keys; further keys are calculated but not cached
+	 */
+	static final int MAX_SIZE = 256 * 1024;
+
+	/**
+	 * Keys not used during this number of consecutive {@link #prune()} periods are removed
+	 */
+	static final int MAX_IDLE_PERIODS = 4;
+
+	private static final Map<Locale, TitleSortKeys> INSTANCES = new HashMap<Locale, TitleSortKeys>();
+
+	/**
+	 * Get shared instance for the given local strings.
+	 * @param localStrings locale and sort title prefixes
+	 * @return sort keys
+	 */
+	public static TitleSortKeys getInstance(LocalStrings localStrings) {
+		synchronized (INSTANCES) {
+			TitleSortKeys instance = INSTANCES.get(localStrings.getLocale());
+			if (instance == null) {
+				INSTANCES.put(localStrings.getLocale(), instance = new TitleSortKeys(localStrings));
+			}
+			return instance;
+		}
+	}
+
+	/**
+	 * Sort key of a title
+	 */
+	public static final class SortKey implements Comparable<SortKey> {
+		private final String sortTitle;
+		private final byte[] collationKey;
+		private final char sectionChar;
+
+		/*
+		 * number of prune periods since this key has been used
+		 */
+		private volatile int idlePeriods;
+
+		SortKey(String sortTitle, byte[] collationKey) {
+			this(sortTitle, collationKey, sortTitle.isEmpty() ? ' ' : Normalizer.normalize(sortTitle, Normalizer.Form.NFD).charAt(0));
+		}
+
+		SortKey(String sortTitle, byte[] collationKey, char sectionChar) {
+			this.sortTitle = sortTitle;
+			this.collationKey = collationKey;
+			this.sectionChar = sectionChar;
+		}
+
+		/**
+		 * @return sort title (e.g. "Beatles, The")
+		 */
+		public String getSortTitle() {
+			return sortTitle;
+		}
+
+		/**
+		 * @return first character of the NFD-normalized sort title
+		 */
+		public char getSectionChar() {
+			return sectionChar;
+		}
+
+		@Override
+		public int compareTo(SortKey o) {
+			byte[] key1 = collationKey;
+			byte[] key2 = o.collationKey;
+			int length = Math.min(key1.length, key2.length);
+			for (int i = 0; i < length; i++) {
+				int result = (key1[i] & 0xff) - (key2[i] & 0xff);
+				if (result != 0) {
+					return result;
+				}
+			}
+			return key1.length - key2.length;
+		}
+	}
+
+	private final Locale locale;
+	private final Collator collator;
+	private final String[] sortTitlePrefixes;
+	private final ConcurrentHashMap<String, SortKey> sortKeys = new ConcurrentHashMap<String, SortKey>();
+
+	private volatile boolean modified = false;
+
+	TitleSortKeys(LocalStrings localStrings) {
+		this.locale = localStrings.getLocale();
+		this.collator = Collator.getInstance(locale);
+		this.collator.setStrength(Collator.SECONDARY);
+		this.collator.setDecomposition(Collator.CANONICAL_DECOMPOSITION);
+		this.sortTitlePrefixes = localStrings.getSortTitlePrefixes();
+	}
+
+	String calculateSortTitle(String title) {
+		for (String prefix : sortTitlePrefixes) {
+			if (title.length() > prefix.length() && title.toUpperCase().startsWith(prefix.toUpperCase())) {
+				String suffix = title.substring(prefix.length()).trim();
+				if (suffix.length() > 0) {
+					title = suffix + ", " + title.substring(0, prefix.length()).trim();
+					break;
+				}
+			}
+		}
+		int letterOrDigit = 0;
+		while (letterOrDigit < title.length()) {
+			char c = title.charAt(letterOrDigit);
+			if (Character.isLetter(c) || Character.isDigit(c)) {
+				break;
+			}
+			letterOrDigit++;
+		}
+		return letterOrDigit < title.length() ? title.substring(letterOrDigit) : title;
+	}
+
+	/**
+	 * Get sort key for given title.
+	 * @param title title (not <code>null</code>)
+	 * @return sort key
+	 */
+	public SortKey getSortKey(String title) {
+		SortKey sortKey = sortKeys.get(title);
+		if (sortKey != null) {
+			if (sortKey.idlePeriods != 0) {
+				sortKey.idlePeriods = 0;
+			}
+		} else {
+			String sortTitle = calculateSortTitle(title);
+			byte[] collationKey;
+			synchronized (collator) { // collators are not thread-safe
+				collationKey = collator.getCollationKey(sortTitle).toByteArray();
+			}
+			if (sortKeys.size() >= MAX_SIZE) {
+				return new SortKey(sortTitle, collationKey);
+			}
+			SortKey existingSortKey = sortKeys.putIfAbsent(title, sortKey = new SortKey(sortTitle, collationKey));
+			if (existingSortKey != null) {
+				sortKey = existingSortKey;
+			} else {
+				modified = true;
+			}
+		}
+		return sortKey;
+	}
+
+	public int size() {
+		return sortKeys.size();
+	}
+
+	/**
+	 * @return <code>true</code> if keys have been added or pruned since the last load/save
+	 */
+	public boolean isModified() {
+		return modified;
+	}
+
+	public void clear() {
+		sortKeys.clear();
+		modified = false;
+	}
+
+	/**
+	 * Start a new usage period and remove keys which have not been used during
+	 * the last {@link #MAX_IDLE_PERIODS} periods (e.g. titles no longer in the library).
+	 * @return number of removed keys
+	 */
+	public int prune() {
+		int count = 0;
+		Iterator<SortKey> iterator = sortKeys.values().iterator();
+		while (iterator.hasNext()) {
+			SortKey sortKey = iterator.next();
+			if (sortKey.idlePeriods >= MAX_IDLE_PERIODS) {
+				iterator.remove();
+				count++;
+			} else {
+				sortKey.idlePeriods++;
+			}
+		}
+		if (count > 0 || !sortKeys.isEmpty()) { // removed keys or changed idle periods
+			modified = true;
+		}
+		return count;
+	}
+
+	/*
+	 * Persisted keys are only valid for the same locale, sort title prefixes and collator implementation
+	 */
+	private String signature() {
+		return String.format("%s;%s;%s;%s", FORMAT_VERSION, locale, Arrays.toString(sortTitlePrefixes), System.getProperty("java.version"));
+	}
+
+	public void save(OutputStream output) throws IOException {
+		/*
+		 * reset flag before iterating: keys added while writing set it again and will be saved next time
+		 */
+		modified = false;
+		boolean saved = false;
+		try {
+			DataOutputStream data = new DataOutputStream(output);
+			data.writeUTF(signature());
+			for (Map.Entry<String, SortKey> entry : sortKeys.entrySet()) {
+				if (entry.getKey().length() <= MAX_SAVED_TITLE_LENGTH) {
+					SortKey sortKey = entry.getValue();
+					data.writeBoolean(true);
+					data.writeUTF(entry.getKey());
+					data.writeUTF(sortKey.sortTitle);
+					data.writeChar(sortKey.sectionChar);
+					data.writeInt(sortKey.collationKey.length);
+					data.write(sortKey.collationKey);
+					data.writeByte(sortKey.idlePeriods);
+				}
+			}
+			data.writeBoolean(false);
+			data.flush();
+			saved = true;
+		} finally {
+			if (!saved) {
+				modified = true;
+			}
+		}
+	}
+
+	public void load(InputStream input) throws IOException {
+		DataInputStream data = new DataInputStream(input);
+		if (!signature().equals(data.readUTF())) {
+			throw new IOException("incompatible sort keys");
+		}
+		Map<String, SortKey> loadedSortKeys = new HashMap<String, SortKey>();
+		while (data.readBoolean() && loadedSortKeys.size() < MAX_SIZE) {
+			String title = data.readUTF();
+			String sortTitle = data.readUTF();
+			char sectionChar = data.readChar();
+			byte[] collationKey = new byte[data.readInt()];
+			data.readFully(collationKey);
+			SortKey sortKey = new SortKey(sortTitle, collationKey, sectionChar);
+			sortKey.idlePeriods = data.readUnsignedByte();
+			loadedSortKeys.put(title, sortKey);
+		}
+		sortKeys.putAll(loadedSortKeys);
+	}
+
+	public void save(Resource file) throws IOException {
+		try (OutputStream output = new BufferedOutputStream(new GZIPOutputStream(file.getOutputStream()))) {
+			save(output);
+		}
+	}
+
+	public void load(Resource file) throws IOException {
+		try (InputStream input = new BufferedInputStream(new GZIPInputStream(file.getInputStream()))) {
+			load(input);
+		}
+	}
+}
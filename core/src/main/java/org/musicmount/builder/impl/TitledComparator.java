@@ -15,24 +15,23 @@
  */
 package org.musicmount.builder.impl;
 
-import java.text.CollationKey;
-import java.text.Collator;
 import java.util.Comparator;
 import java.util.HashMap;
 
+import org.musicmount.builder.impl.TitleSortKeys.SortKey;
 import org.musicmount.builder.model.Titled;
 
 /**
  *Comparator for <code>Titled</code> objects.
+ * Sort keys are taken from the shared {@link TitleSortKeys} instance for the locale.
  * 
  * @param <T> titled type
  */
 public class TitledComparator<T extends Titled> implements Comparator<T> {
-	private final Collator collator;
-	private final String[] sortTitlePrefixes;
+	private final TitleSortKeys titleSortKeys;
 	private final String defaultTitle;
 	private final Comparator<? super T> secondaryItemComparator;
-	private final HashMap<T, CollationKey> collationKeys = new HashMap<>();
+	private final HashMap<T, SortKey> sortKeys = new HashMap<>();
 
 	/**
 	 * @param localStrings locale and sort title prefixes ('a', 'the', ...)
@@ -40,54 +39,29 @@ public class TitledComparator<T extends Titled> implements Comparator<T> {
 	 * @param secondaryItemComparator used to compare items with equal titles (may be <code>null</code>)
 	 */
 	public TitledComparator(LocalStrings localStrings, final String defaultTitle, final Comparator<? super T> secondaryItemComparator) {
-		this.collator = Collator.getInstance(localStrings.getLocale());
-		this.collator.setStrength(Collator.SECONDARY);
-		this.collator.setDecomposition(Collator.CANONICAL_DECOMPOSITION);
-		this.sortTitlePrefixes = localStrings.getSortTitlePrefixes();
+		this.titleSortKeys = TitleSortKeys.getInstance(localStrings);
 		this.defaultTitle = defaultTitle;
 		this.secondaryItemComparator = secondaryItemComparator;
 	}
 
 	@Override
 	public int compare(T o1, T o2) {
-		int result = collationKey(o1).compareTo(collationKey(o2));
+		int result = sortKey(o1).compareTo(sortKey(o2));
 		if (result == 0 && secondaryItemComparator != null) {
 			result = secondaryItemComparator.compare(o1, o2);
 		}
 		return result;
 	}
 
-	String calculateSortTitle(T titled) {
-		String title = titled.getTitle() == null ? defaultTitle : titled.getTitle();
-		for (String prefix : sortTitlePrefixes) {
-			if (title.length() > prefix.length() && title.toUpperCase().startsWith(prefix.toUpperCase())) {
-				String suffix = title.substring(prefix.length()).trim();
-				if (suffix.length() > 0) {
-					title = suffix + ", " + title.substring(0, prefix.length()).trim();
-					break;
-				}
-			}
+	SortKey sortKey(T titled) {
+		SortKey sortKey = sortKeys.get(titled);
+		if (sortKey == null) {
+			sortKeys.put(titled, sortKey = titleSortKeys.getSortKey(titled.getTitle() == null ? defaultTitle : titled.getTitle()));
 		}
-		int letterOrDigit = 0;
-		while (letterOrDigit < title.length()) {
-			char c = title.charAt(letterOrDigit);
-			if (Character.isLetter(c) || Character.isDigit(c)) {
-				break;
-			}
-			letterOrDigit++;
-		}
-		return letterOrDigit < title.length() ? title.substring(letterOrDigit) : title;
-	}
-
-	CollationKey collationKey(T titled) {
-		CollationKey collationKey = collationKeys.get(titled);
-		if (collationKey == null) {
-			collationKeys.put(titled, collationKey = collator.getCollationKey(calculateSortTitle(titled)));
-		}
-		return collationKey;
+		return sortKey;
 	}
 
 	public String sortTitle(T titled) {
-		return collationKey(titled).getSourceString();
+		return sortKey(titled).getSortTitle();
 	}
 }
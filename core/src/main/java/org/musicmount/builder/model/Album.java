@@ -27,6 +27,11 @@ public class Album extends Playlist implements Titled {
 	
 	private AlbumArtist artist;
 	private long albumId;
+
+	private Integer year;
+	private boolean compilation;
+	private Resource artworkAssetResource;
+	private GenreCounts genres = GenreCounts.EMPTY;
 	
 	public Album(String title) {
 		this.title = title;
@@ -56,17 +61,42 @@ public class Album extends Playlist implements Titled {
 		this.artist = artist;
 	}
 	
+	/**
+	 * @return maximum track year (may be <code>null</code>)
+	 */
+	public Integer getYear() {
+		return year;
+	}
+	
+	public void setYear(Integer year) {
+		this.year = year;
+	}
+
 	public boolean isCompilation() {
-		return getTracks().get(0).isCompilation();
+		return compilation;
+	}
+	
+	public void setCompilation(boolean compilation) {
+		this.compilation = compilation;
 	}
 
+	/**
+	 * @return resource of first track with artwork (may be <code>null</code>)
+	 */
 	public Resource artworkAssetResource() {
-		for (Track track : getTracks()) {
-			if (track.isArtworkAvailable()) {
-				return track.getResource();
-			}
-		}
-		return null;
+		return artworkAssetResource;
+	}
+	
+	public void setArtworkAssetResource(Resource artworkAssetResource) {
+		this.artworkAssetResource = artworkAssetResource;
+	}
+	
+	public GenreCounts getGenres() {
+		return genres;
+	}
+	
+	public void setGenres(GenreCounts genres) {
+		this.genres = genres;
 	}
 	
 	@Override
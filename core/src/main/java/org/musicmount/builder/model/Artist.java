@@ -21,6 +21,8 @@ public abstract class Artist implements Titled {
 	private final String title;
 	private final ArtistType artistType;
 
+	private GenreCounts genres = GenreCounts.EMPTY;
+
 	public Artist(long id, String title, ArtistType artistType) {
 		this.artistId = id;
 		this.title = title;
@@ -41,4 +43,15 @@ public abstract class Artist implements Titled {
 	public String getTitle() {
 		return title;
 	}
+
+	/**
+	 * @return genre counts of the artist's tracks (album artist: all album tracks)
+	 */
+	public GenreCounts getGenres() {
+		return genres;
+	}
+	
+	public void setGenres(GenreCounts genres) {
+		this.genres = genres;
+	}
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.builder.model;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Genre collection: albums with at least one track of the genre.
+ * The genre with <code>null</code> title collects albums with tracks without genre.
+ */
+public class Genre implements Titled {
+	private final long genreId;
+	private final String title;
+	private final Set<Album> albums = new LinkedHashSet<Album>();
+
+	public Genre(long genreId, String title) {
+		this.genreId = genreId;
+		this.title = title;
+	}
+
+	public long getGenreId() {
+		return genreId;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public Set<Album> getAlbums() {
+		return albums;
+	}
+
+	public int albumsCount() {
+		return albums.size();
+	}
+
+	@Override
+	public String toString() {
+		return "Genre(" + getTitle() + ")";
+	}
+}
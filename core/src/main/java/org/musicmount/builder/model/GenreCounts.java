@@ -0,0 +1,100 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.builder.model;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable genre counts of a set of tracks.
+ * Genres are kept sorted by decreasing count (equal counts sorted by name).
+ */
+public class GenreCounts {
+	public static final GenreCounts EMPTY = new GenreCounts(Collections.<String, Integer>emptyMap(), 0);
+
+	private static List<String> sort(final Map<String, Integer> counts) {
+		ArrayList<String> result = new ArrayList<String>(counts.keySet());
+		Collections.sort(result, new Comparator<String>() {
+			@Override
+			public int compare(String o1, String o2) {
+				int cmp = counts.get(o2).compareTo(counts.get(o1));
+				if (cmp == 0) {
+					cmp = o1.compareTo(o2);
+				}
+				return cmp;
+			}
+		});
+		return Collections.unmodifiableList(result);
+	}
+
+	private final Map<String, Integer> counts;
+	private final List<String> genres;
+	private final int unknownCount;
+
+	/*
+	 * genre list including unknown genre as last requested (formatters always ask with the same title)
+	 */
+	private volatile SimpleImmutableEntry<String, List<String>> genresWithUnknown;
+
+	/**
+	 * @param counts track counts per genre
+	 * @param unknownCount number of tracks without genre
+	 */
+	public GenreCounts(Map<String, Integer> counts, int unknownCount) {
+		this.counts = counts;
+		this.genres = sort(counts);
+		this.unknownCount = unknownCount;
+	}
+
+	public int getCount(String genre) {
+		Integer count = counts.get(genre);
+		return count == null ? 0 : count.intValue();
+	}
+
+	public int getUnknownCount() {
+		return unknownCount;
+	}
+
+	/**
+	 * @return known genres, sorted by decreasing count
+	 */
+	public List<String> getGenres() {
+		return genres;
+	}
+
+	/**
+	 * Answer sorted genre list, including tracks without genre as <code>unknownGenre</code>.
+	 * @param unknownGenre title for tracks without genre (<code>null</code> to skip these tracks)
+	 * @return genres, sorted by decreasing count
+	 */
+	public List<String> getGenres(String unknownGenre) {
+		if (unknownGenre == null || unknownCount == 0) {
+			return genres;
+		}
+		SimpleImmutableEntry<String, List<String>> entry = genresWithUnknown;
+		if (entry == null || !entry.getKey().equals(unknownGenre)) {
+			Map<String, Integer> map = new HashMap<String, Integer>(counts);
+			map.put(unknownGenre, getCount(unknownGenre) + unknownCount);
+			genresWithUnknown = entry = new SimpleImmutableEntry<String, List<String>>(unknownGenre, sort(map));
+		}
+		return entry.getValue();
+	}
+}
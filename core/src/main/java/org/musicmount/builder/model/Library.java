@@ -16,6 +16,7 @@
 package org.musicmount.builder.model;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -24,6 +25,7 @@ public class Library extends Playlist {
 	private final Map<String, AlbumArtist> albumArtists = new LinkedHashMap<String, AlbumArtist>();
 	private final Map<String, TrackArtist> trackArtists = new LinkedHashMap<String, TrackArtist>();
 	private final List<Album> albums = new ArrayList<Album>();
+	private final Map<String, Genre> genres = new LinkedHashMap<String, Genre>();
 	
 	public Map<String, AlbumArtist> getAlbumArtists() {
 		return albumArtists;
@@ -36,4 +38,69 @@ public class Library extends Playlist {
 	public List<Album> getAlbums() {
 		return albums;
 	}
+
+	/**
+	 * @return genre collections by genre title (<code>null</code> key: tracks without genre)
+	 */
+	public Map<String, Genre> getGenres() {
+		return genres;
+	}
+
+	/*
+	 * artist and genre copies of the last snapshot, reused by the next snapshot unless touched
+	 */
+	private final Map<Titled, Titled> snapshotCopies = new HashMap<Titled, Titled>();
+
+	/**
+	 * Mark an artist or genre of this library as modified, so that the next {@link #snapshot()} copies it again.
+	 * Incremental updates must touch every artist and genre whose albums or genres they change.
+	 * @param artistOrGenre modified artist or genre
+	 */
+	public void touch(Titled artistOrGenre) {
+		snapshotCopies.remove(artistOrGenre);
+	}
+
+	/**
+	 * Create a snapshot of this library, which remains unaffected by subsequent incremental updates.
+	 * Incremental updates replace rebuilt albums and tracks rather than modifying them, so the snapshot shares albums and tracks
+	 * with this library. Artists and genres are modified in place, so the snapshot copies those touched since the last snapshot
+	 * and shares the other copies with the last snapshot. Albums and tracks of the snapshot still refer to artists of this library,
+	 * which may only be used for their (immutable) titles, ids and types.
+	 * @return library snapshot
+	 */
+	public Library snapshot() {
+		Library library = new Library();
+		library.getTracks().addAll(getTracks());
+		library.getAlbums().addAll(albums);
+		for (Map.Entry<String, AlbumArtist> entry : albumArtists.entrySet()) {
+			AlbumArtist copy = (AlbumArtist) snapshotCopies.get(entry.getValue());
+			if (copy == null) {
+				copy = new AlbumArtist(entry.getValue().getArtistId(), entry.getValue().getTitle());
+				copy.setGenres(entry.getValue().getGenres());
+				copy.getAlbums().putAll(entry.getValue().getAlbums());
+				snapshotCopies.put(entry.getValue(), copy);
+			}
+			library.getAlbumArtists().put(entry.getKey(), copy);
+		}
+		for (Map.Entry<String, TrackArtist> entry : trackArtists.entrySet()) {
+			TrackArtist copy = (TrackArtist) snapshotCopies.get(entry.getValue());
+			if (copy == null) {
+				copy = new TrackArtist(entry.getValue().getArtistId(), entry.getValue().getTitle());
+				copy.setGenres(entry.getValue().getGenres());
+				copy.getAlbums().addAll(entry.getValue().getAlbums());
+				snapshotCopies.put(entry.getValue(), copy);
+			}
+			library.getTrackArtists().put(entry.getKey(), copy);
+		}
+		for (Map.Entry<String, Genre> entry : genres.entrySet()) {
+			Genre copy = (Genre) snapshotCopies.get(entry.getValue());
+			if (copy == null) {
+				copy = new Genre(entry.getValue().getGenreId(), entry.getValue().getTitle());
+				copy.getAlbums().addAll(entry.getValue().getAlbums());
+				snapshotCopies.put(entry.getValue(), copy);
+			}
+			library.getGenres().put(entry.getKey(), copy);
+		}
+		return library;
+	}
 }
@@ -18,17 +18,29 @@ package org.musicmount.builder.model;
 import org.musicmount.io.Resource;
 
 public class Track implements Titled {
+	/**
+	 * Value of unknown numbers (duration, disc number, track number, year)
+	 */
+	public static final int UNKNOWN = Integer.MIN_VALUE;
+
+	private static int intValue(Integer value) {
+		return value == null ? UNKNOWN : value.intValue();
+	}
+
+	/*
+	 * numbers are stored as primitives to save memory in large libraries
+	 */
 	private final String title;
 	private final Resource resource;
 	private final boolean artworkAvailable;
 	private final boolean compilation;
 	private final String composer;
-	private final Integer discNumber;
-	private final Integer duration;
+	private final int discNumber;
+	private final int duration;
 	private final String genre;
 	private final String grouping;
-	private final Integer trackNumber;
-	private final Integer year;
+	private final int trackNumber;
+	private final int year;
 
 	private TrackArtist artist;
 	private Album album;
@@ -51,12 +63,12 @@ public class Track implements Titled {
 		this.artworkAvailable = artworkAvailable;
 		this.compilation = compilation;
 		this.composer = composer;
-		this.discNumber = discNumber;
-		this.duration = duration;
+		this.discNumber = intValue(discNumber);
+		this.duration = intValue(duration);
 		this.genre = genre;
 		this.grouping = grouping;
-		this.trackNumber = trackNumber;
-		this.year = year;
+		this.trackNumber = intValue(trackNumber);
+		this.year = intValue(year);
 	}
 	
 	public Resource getResource() {
@@ -80,19 +92,31 @@ public class Track implements Titled {
 		return composer;
 	}	
 
-	public Integer getDuration() {
+	/**
+	 * @return duration or {@link #UNKNOWN}
+	 */
+	public int getDuration() {
 		return duration;
 	}
 
-	public Integer getDiscNumber() {
+	/**
+	 * @return disc number or {@link #UNKNOWN}
+	 */
+	public int getDiscNumber() {
 		return discNumber;
 	}
 
-	public Integer getTrackNumber() {
+	/**
+	 * @return track number or {@link #UNKNOWN}
+	 */
+	public int getTrackNumber() {
 		return trackNumber;
 	}
 
-	public Integer getYear() {
+	/**
+	 * @return year or {@link #UNKNOWN}
+	 */
+	public int getYear() {
 		return year;
 	}
 
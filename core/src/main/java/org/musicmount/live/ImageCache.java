@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.live;
+
+import java.util.Collection;
+
+import org.musicmount.builder.impl.ImageType;
+import org.musicmount.util.ByteArrayCache;
+
+/**
+ * Encoded album images by album id and image type, shared by consecutive mounts.
+ * When a mount is activated, images of albums changed since the previous mount are dropped.
+ * Mounts which have been replaced by a newer mount may still read images, but no longer add them,
+ * so images rendered from outdated album data never survive a swap.
+ */
+public class ImageCache {
+	private final ByteArrayCache<String> cache;
+
+	private long version = -1; // version of current mount
+
+	/**
+	 * @param maxBytes maximum number of cached bytes
+	 */
+	public ImageCache(long maxBytes) {
+		this.cache = new ByteArrayCache<>(maxBytes);
+	}
+
+	private String key(long albumId, ImageType type) {
+		return albumId + ":" + type.name();
+	}
+
+	/**
+	 * Make the given mount the current mount and drop images of changed albums.
+	 * @param mountVersion version of the new mount
+	 * @param changedAlbumIds ids of albums added, removed or modified since the previous mount or <code>null</code> to drop all images
+	 */
+	public synchronized void activate(long mountVersion, Collection<Long> changedAlbumIds) {
+		version = mountVersion;
+		if (changedAlbumIds == null) {
+			cache.clear();
+		} else {
+			for (Long albumId : changedAlbumIds) {
+				for (ImageType type : ImageType.values()) {
+					cache.remove(key(albumId, type));
+				}
+			}
+		}
+	}
+
+	public byte[] get(long albumId, ImageType type) {
+		return cache.get(key(albumId, type));
+	}
+
+	public boolean contains(long albumId, ImageType type) {
+		return cache.contains(key(albumId, type));
+	}
+
+	/**
+	 * Put image unless the given mount has been replaced.
+	 * @param mountVersion version of the mount which rendered the image
+	 * @param albumId album id
+	 * @param type image type
+	 * @param image encoded image
+	 * @return <code>true</code> if the image has been cached
+	 */
+	public synchronized boolean put(long mountVersion, long albumId, ImageType type, byte[] image) {
+		return mountVersion == version && cache.put(key(albumId, type), image);
+	}
+
+	public int size() {
+		return cache.size();
+	}
+
+	public long getBytes() {
+		return cache.getBytes();
+	}
+
+	public long getMaxBytes() {
+		return cache.getMaxBytes();
+	}
+
+	public long getHitCount() {
+		return cache.getHitCount();
+	}
+
+	public long getMissCount() {
+		return cache.getMissCount();
+	}
+
+	@Override
+	public String toString() {
+		return cache.toString();
+	}
+}
@@ -15,52 +15,228 @@
  */
 package org.musicmount.live;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.servlet.ServletException;
 import javax.xml.stream.XMLStreamException;
 
 import org.musicmount.builder.impl.AssetLocator;
+import org.musicmount.builder.impl.CollectionSection;
 import org.musicmount.builder.impl.ImageFormatter;
 import org.musicmount.builder.impl.ImageType;
+import org.musicmount.builder.impl.LibraryChanges;
 import org.musicmount.builder.impl.ResourceLocator;
+import org.musicmount.builder.impl.SearchIndex;
 import org.musicmount.builder.impl.ResponseFormatter;
 import org.musicmount.builder.model.Album;
 import org.musicmount.builder.model.AlbumArtist;
 import org.musicmount.builder.model.Artist;
 import org.musicmount.builder.model.ArtistType;
+import org.musicmount.builder.model.Genre;
 import org.musicmount.builder.model.Library;
+import org.musicmount.builder.model.Titled;
+import org.musicmount.builder.model.Track;
 import org.musicmount.builder.model.TrackArtist;
 import org.musicmount.io.Resource;
+import org.musicmount.util.ByteArrayCache;
 
 public class LiveMount {
+	static final Logger LOGGER = Logger.getLogger(LiveMount.class.getName());
+
+	/**
+	 * Maximum number of bytes held by a mount's response cache
+	 */
+	static final long RESPONSE_CACHE_SIZE = 32L * 1024 * 1024;
+
+	/**
+	 * Larger responses are not cached but spooled to temporary files
+	 */
+	static final long MAX_CACHED_RESPONSE_SIZE = RESPONSE_CACHE_SIZE / 8;
+
+	/**
+	 * Maximum number of bytes held by an image cache
+	 */
+	static final long IMAGE_CACHE_SIZE = 64L * 1024 * 1024;
+
+	private static final AtomicLong VERSIONS = new AtomicLong();
+
+	/**
+	 * Distinguishes version tokens of this server instance from those issued before a restart
+	 */
+	private static final String INSTANCE = Long.toString(System.currentTimeMillis(), 36);
+
+	/*
+	 * directory of spool files, created on demand and deleted on shutdown (guarded by class lock)
+	 */
+	private static Path spoolDirectory;
+
+	/**
+	 * Search result types
+	 */
+	public enum SearchType {
+		AlbumArtist,
+		TrackArtist,
+		Album,
+		Track
+	}
+
+	/**
+	 * Response content written to a temporary file
+	 */
+	public static final class SpooledResponse {
+		private final Path file;
+		private final int length;
+		private final long checksum;
+
+		SpooledResponse(Path file, int length, long checksum) {
+			this.file = file;
+			this.length = length;
+			this.checksum = checksum;
+		}
+
+		public Path getFile() {
+			return file;
+		}
+
+		public int getLength() {
+			return length;
+		}
+
+		public long getChecksum() {
+			return checksum;
+		}
+	}
 
 	private final Library library;
 	private final ResponseFormatter<?> responseFormatter;
 	private final ImageFormatter imageFormatter;
 	private final AssetLocator assetLocator;
 	private final boolean noTrackIndex;
+	private final boolean shardedIndex;
+
+	private final long version = VERSIONS.incrementAndGet();
+	private final long lastModified = System.currentTimeMillis();
 
 	private final Map<Long, Album> albumLookup;
+	private final Map<Long, Genre> genreLookup;
 	private final Map<Long, AlbumArtist> albumArtistLookup;
 	private final Map<Long, TrackArtist> trackArtistLookup;
 	private final Map<Album, Resource> artworkAssetResources;
 	private final Map<Artist, Album> representativeAlbums;
 
-	public LiveMount(Library library, ResponseFormatter<?> responseFormatter, ImageFormatter imageFormatter, AssetLocator assetLocator, boolean noTrackIndex) {
+	/*
+	 * changes leading to this mount by version of the previous mount (oldest first)
+	 */
+	private final Map<Long, LibraryChanges> changes;
+
+	private final SearchIndex<Artist> albumArtistSearchIndex;
+	private final SearchIndex<Artist> trackArtistSearchIndex;
+	private final SearchIndex<Album> albumSearchIndex;
+	private final SearchIndex<Track> trackSearchIndex;
+
+	/*
+	 * rendered responses by request path and query; the cache lives as long as this mount,
+	 * so replacing the mount invalidates all cached responses
+	 */
+	private final ByteArrayCache<String> responseCache = new ByteArrayCache<>(RESPONSE_CACHE_SIZE);
+
+	/*
+	 * responses too large to be cached by request path and query; they are spooled while rendered once
+	 * and streamed from disk, trading a temporary file per document for rendering on every request
+	 */
+	private final Map<String, SpooledResponse> spooledResponses = new ConcurrentHashMap<>();
+	private boolean disposed;
+
+	/*
+	 * encoded images by album id and image type, shared with other mounts of the same builder
+	 */
+	private final ImageCache imageCache;
+
+	/*
+	 * sharded index sections by key, created on demand
+	 */
+	private Map<String, CollectionSection<Album>> albumIndexSections;
+	private Map<String, CollectionSection<Track>> trackIndexSections;
+
+	public LiveMount(Library library, ResponseFormatter<?> responseFormatter, ImageFormatter imageFormatter, AssetLocator assetLocator, boolean noTrackIndex, boolean shardedIndex) {
+		this(library, responseFormatter, imageFormatter, assetLocator, noTrackIndex, shardedIndex, Collections.<Long, LibraryChanges>emptyMap());
+	}
+
+	/**
+	 * Create mount.
+	 * @param library library
+	 * @param responseFormatter response formatter
+	 * @param imageFormatter image formatter
+	 * @param assetLocator asset locator
+	 * @param noTrackIndex do not provide track index
+	 * @param shardedIndex split album/track index into sections
+	 * @param changes changes between consecutive previous mounts up to this one by version of the mount they start from, oldest first
+	 */
+	public LiveMount(Library library, ResponseFormatter<?> responseFormatter, ImageFormatter imageFormatter, AssetLocator assetLocator, boolean noTrackIndex, boolean shardedIndex, Map<Long, LibraryChanges> changes) {
+		this(library, responseFormatter, imageFormatter, assetLocator, noTrackIndex, shardedIndex, changes, null);
+	}
+
+	/**
+	 * Create mount.
+	 * @param library library
+	 * @param responseFormatter response formatter
+	 * @param imageFormatter image formatter
+	 * @param assetLocator asset locator
+	 * @param noTrackIndex do not provide track index
+	 * @param shardedIndex split album/track index into sections
+	 * @param changes changes between consecutive previous mounts up to this one by version of the mount they start from, oldest first
+	 * @param imageCache image cache shared with previous mounts (to be activated by the caller) or <code>null</code> to use a private cache
+	 */
+	public LiveMount(Library library, ResponseFormatter<?> responseFormatter, ImageFormatter imageFormatter, AssetLocator assetLocator, boolean noTrackIndex, boolean shardedIndex, Map<Long, LibraryChanges> changes, ImageCache imageCache) {
+		this(library, responseFormatter, imageFormatter, assetLocator, noTrackIndex, shardedIndex, changes, imageCache, null);
+	}
+
+	/**
+	 * Create mount.
+	 * @param library library
+	 * @param responseFormatter response formatter
+	 * @param imageFormatter image formatter
+	 * @param assetLocator asset locator
+	 * @param noTrackIndex do not provide track index
+	 * @param shardedIndex split album/track index into sections
+	 * @param changes changes between consecutive previous mounts up to this one by version of the mount they start from, oldest first
+	 * @param imageCache image cache shared with previous mounts (to be activated by the caller) or <code>null</code> to use a private cache
+	 * @param previous previous mount, whose search indexes are reused for unchanged items (may be <code>null</code>)
+	 */
+	public LiveMount(Library library, ResponseFormatter<?> responseFormatter, ImageFormatter imageFormatter, AssetLocator assetLocator, boolean noTrackIndex, boolean shardedIndex, Map<Long, LibraryChanges> changes, ImageCache imageCache, LiveMount previous) {
+		if (imageCache == null) {
+			imageCache = new ImageCache(IMAGE_CACHE_SIZE);
+			imageCache.activate(version, null);
+		}
+		this.imageCache = imageCache;
 		this.library = library;
 		this.responseFormatter = responseFormatter;
 		this.imageFormatter = imageFormatter;
 		this.assetLocator = assetLocator;
 		this.noTrackIndex = noTrackIndex;
+		this.shardedIndex = shardedIndex;
+		this.changes = changes;
 
 		this.albumArtistLookup = new HashMap<>();
 		this.trackArtistLookup = new HashMap<>();
 		this.albumLookup = new HashMap<>();
+		this.genreLookup = new HashMap<>();
 		this.representativeAlbums = new HashMap<>();
 		this.artworkAssetResources = new HashMap<>();
 
@@ -71,6 +247,9 @@ public class LiveMount {
 				artworkAssetResources.put(album, artworkAssetResource);
 			}
 		}
+		for (Genre genre : library.getGenres().values()) {
+			genreLookup.put(genre.getGenreId(), genre);
+		}
 		for (AlbumArtist albumArtist : library.getAlbumArtists().values()) {
 			albumArtistLookup.put(albumArtist.getArtistId(), albumArtist);
 			representativeAlbums.put(albumArtist, albumArtist.albums().iterator().next());
@@ -79,11 +258,126 @@ public class LiveMount {
 			trackArtistLookup.put(trackArtist.getArtistId(), trackArtist);
 			representativeAlbums.put(trackArtist, trackArtist.albums().iterator().next());
 		}
+
+		/*
+		 * reuse search indexes of the previous mount if their items haven't changed since
+		 */
+		LibraryChanges previousChanges = previous != null ? changes.get(previous.getVersion()) : null;
+		boolean albumsUnchanged = previousChanges != null && previousChanges.getAlbums().size() == 0;
+		boolean albumArtistsUnchanged = previousChanges != null && previousChanges.getAlbumArtists().size() == 0;
+		boolean trackArtistsUnchanged = previousChanges != null && previousChanges.getTrackArtists().size() == 0;
+
+		SearchIndex<Artist> albumArtistSearchIndex = albumArtistsUnchanged ? rebindSearchIndex(previous.albumArtistSearchIndex, library.getAlbumArtists().values()) : null;
+		this.albumArtistSearchIndex = albumArtistSearchIndex != null ? albumArtistSearchIndex : responseFormatter.createArtistSearchIndex(library.getAlbumArtists().values(), ArtistType.AlbumArtist);
+		SearchIndex<Artist> trackArtistSearchIndex = trackArtistsUnchanged ? rebindSearchIndex(previous.trackArtistSearchIndex, library.getTrackArtists().values()) : null;
+		this.trackArtistSearchIndex = trackArtistSearchIndex != null ? trackArtistSearchIndex : responseFormatter.createArtistSearchIndex(library.getTrackArtists().values(), ArtistType.TrackArtist);
+		SearchIndex<Album> albumSearchIndex = albumsUnchanged && albumArtistsUnchanged ? rebindSearchIndex(previous.albumSearchIndex, library.getAlbums()) : null;
+		this.albumSearchIndex = albumSearchIndex != null ? albumSearchIndex : responseFormatter.createAlbumSearchIndex(library.getAlbums());
+		SearchIndex<Track> trackSearchIndex = albumsUnchanged && trackArtistsUnchanged ? rebindSearchIndex(previous.trackSearchIndex, library.getTracks()) : null;
+		this.trackSearchIndex = trackSearchIndex != null ? trackSearchIndex : responseFormatter.createTrackSearchIndex(library.getTracks());
+	}
+
+	/*
+	 * key identifying an item across mounts
+	 */
+	private static Object searchKey(Titled item) {
+		if (item instanceof Album) {
+			return ((Album) item).getAlbumId();
+		} else if (item instanceof Artist) {
+			return ((Artist) item).getArtistId();
+		} else {
+			return ((Track) item).getResource();
+		}
+	}
+
+	/*
+	 * Bind a search index of the previous mount to the corresponding items of this mount.
+	 * Answer null if items don't correspond one-to-one with equal titles.
+	 */
+	private static <T extends Titled> SearchIndex<T> rebindSearchIndex(SearchIndex<T> index, Iterable<? extends T> items) {
+		Map<Object, T> itemsByKey = new HashMap<>();
+		for (T item : items) {
+			itemsByKey.put(searchKey(item), item);
+		}
+		if (itemsByKey.size() != index.size()) {
+			return null;
+		}
+		List<T> reboundItems = new ArrayList<>(index.size());
+		for (T item : index.getItems()) {
+			T reboundItem = itemsByKey.get(searchKey(item));
+			if (reboundItem == null || !Objects.equals(item.getTitle(), reboundItem.getTitle())) {
+				return null;
+			}
+			reboundItems.add(reboundItem);
+		}
+		return index.withItems(reboundItems);
+	}
+
+	/**
+	 * @return version number, increasing with every mount created
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return token identifying this mount's version, to be passed to {@link #getChangesSince(String)} of a later mount
+	 */
+	public String getVersionToken() {
+		return INSTANCE + "." + version;
+	}
+
+	/**
+	 * Merge changes from the mount identified by the given token up to this mount.
+	 * @param token version token of a previous mount
+	 * @return changes or <code>null</code> if unknown (e.g. history has been trimmed or the token is invalid)
+	 */
+	public LibraryChanges getChangesSince(String token) {
+		if (token == null || !token.startsWith(INSTANCE + ".")) {
+			return null;
+		}
+		long since;
+		try {
+			since = Long.parseLong(token.substring(INSTANCE.length() + 1));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		if (since == version) {
+			return new LibraryChanges();
+		}
+		if (!changes.containsKey(since)) {
+			return null;
+		}
+		LibraryChanges result = null;
+		for (Map.Entry<Long, LibraryChanges> entry : changes.entrySet()) {
+			if (result == null && entry.getKey() == since) {
+				result = new LibraryChanges();
+			}
+			if (result != null) {
+				result.merge(entry.getValue());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return time when this mount has been created
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	public Library getLibrary() {
+		return library;
 	}
 
 	public Album getAlbum(Long albumId) {
 		return albumLookup.get(albumId);
 	}
+
+	public Genre getGenre(Long genreId) {
+		return genreLookup.get(genreId);
+	}
 	
 	private Iterable<? extends Artist> getArtists(ArtistType artistType) {
 		switch (artistType) {
@@ -114,9 +408,129 @@ public class LiveMount {
 		return artworkAssetResources.containsKey(album);
 	}
 	
+	public ByteArrayCache<String> getResponseCache() {
+		return responseCache;
+	}
+
+	/**
+	 * @param key request path and query
+	 * @return spooled response or <code>null</code>
+	 */
+	public SpooledResponse getSpooledResponse(String key) {
+		return spooledResponses.get(key);
+	}
+
+	/**
+	 * Create a spool file in a temporary directory shared by all mounts.
+	 * Spool files are deleted when their mount is disposed; remaining files are deleted on shutdown.
+	 * @return new empty file
+	 * @throws IOException if the file cannot be created
+	 */
+	static Path createSpoolFile() throws IOException {
+		synchronized (LiveMount.class) {
+			if (spoolDirectory == null || !Files.isDirectory(spoolDirectory)) {
+				final Path directory = Files.createTempDirectory("musicmount-");
+				Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							if (Files.exists(directory)) {
+								try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+									for (Path file : files) {
+										Files.deleteIfExists(file);
+									}
+								}
+								Files.delete(directory);
+							}
+						} catch (IOException e) {
+							LOGGER.warning("Could not delete temporary directory: " + directory);
+						}
+					}
+				}));
+				spoolDirectory = directory;
+			}
+			return Files.createTempFile(spoolDirectory, "response-", ".tmp");
+		}
+	}
+
+	/**
+	 * Register a spool file holding a response too large to be cached, replacing a previous one.
+	 * @param key request path and query
+	 * @param file spool file (see {@link #createSpoolFile()})
+	 * @param length file length
+	 * @param checksum CRC32 checksum of file content
+	 * @return <code>false</code> if this mount has been disposed; the caller has to delete the file then
+	 */
+	public synchronized boolean addSpooledResponse(String key, Path file, int length, long checksum) {
+		if (disposed) {
+			return false;
+		}
+		SpooledResponse previous = spooledResponses.put(key, new SpooledResponse(file, length, checksum));
+		if (previous != null) {
+			try {
+				Files.deleteIfExists(previous.getFile());
+			} catch (IOException e) {
+				LOGGER.log(Level.FINE, "Could not delete " + previous.getFile(), e);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Delete spooled responses when this mount has been replaced (or will never be served).
+	 * Requests still using this mount have to render spooled responses again.
+	 */
+	public synchronized void dispose() {
+		disposed = true;
+		for (SpooledResponse response : spooledResponses.values()) {
+			try {
+				Files.deleteIfExists(response.getFile());
+			} catch (IOException e) {
+				LOGGER.log(Level.FINE, "Could not delete " + response.getFile(), e);
+			}
+		}
+		spooledResponses.clear();
+	}
+
+	public ImageCache getImageCache() {
+		return imageCache;
+	}
+
 	public boolean isNoTrackIndex() {
 		return noTrackIndex;
 	}
+
+	public boolean isShardedIndex() {
+		return shardedIndex;
+	}
+
+	private synchronized Map<String, CollectionSection<Album>> getAlbumIndexSections() {
+		if (albumIndexSections == null) {
+			albumIndexSections = new LinkedHashMap<>();
+			for (CollectionSection<Album> section : responseFormatter.createAlbumIndex(library.getAlbums())) {
+				albumIndexSections.put(section.getKey(), section);
+			}
+		}
+		return albumIndexSections;
+	}
+
+	private synchronized Map<String, CollectionSection<Track>> getTrackIndexSections() {
+		if (trackIndexSections == null) {
+			trackIndexSections = new LinkedHashMap<>();
+			for (CollectionSection<Track> section : responseFormatter.createTrackIndex(library.getTracks())) {
+				trackIndexSections.put(section.getKey(), section);
+			}
+		}
+		return trackIndexSections;
+	}
+
+	public CollectionSection<Album> getAlbumIndexSection(String key) {
+		return getAlbumIndexSections().get(key);
+	}
+
+	public CollectionSection<Track> getTrackIndexSection(String key) {
+		return getTrackIndexSections().get(key);
+	}
 	
 	public void formatServiceIndex(ResourceLocator resourceLocator, OutputStream output) throws IOException, ServletException {
 		try {
@@ -128,7 +542,19 @@ public class LiveMount {
 
 	public void formatAlbumIndex(ResourceLocator resourceLocator, OutputStream output) throws IOException, ServletException {
 		try {
-			responseFormatter.formatAlbumIndex(library.getAlbums(), output, resourceLocator);
+			if (shardedIndex) {
+				responseFormatter.formatAlbumIndexRoot(getAlbumIndexSections().values(), output, resourceLocator);
+			} else {
+				responseFormatter.formatAlbumIndex(library.getAlbums(), output, resourceLocator);
+			}
+		} catch (XMLStreamException e) {
+			throw new ServletException(e);
+		}
+	}
+
+	public void formatAlbumIndexSection(ResourceLocator resourceLocator, OutputStream output, CollectionSection<Album> section) throws IOException, ServletException {
+		try {
+			responseFormatter.formatAlbumIndexSection(section, output, resourceLocator);
 		} catch (XMLStreamException e) {
 			throw new ServletException(e);
 		}
@@ -144,7 +570,19 @@ public class LiveMount {
 	
 	public void formatTrackIndex(ResourceLocator resourceLocator, OutputStream output) throws IOException, ServletException {
 		try {
-			responseFormatter.formatTrackIndex(library.getTracks(), output, resourceLocator, null);
+			if (shardedIndex) {
+				responseFormatter.formatTrackIndexRoot(getTrackIndexSections().values(), output, resourceLocator);
+			} else {
+				responseFormatter.formatTrackIndex(library.getTracks(), output, resourceLocator, null);
+			}
+		} catch (XMLStreamException e) {
+			throw new ServletException(e);
+		}
+	}
+
+	public void formatTrackIndexSection(ResourceLocator resourceLocator, OutputStream output, CollectionSection<Track> section) throws IOException, ServletException {
+		try {
+			responseFormatter.formatTrackIndexSection(section, output, resourceLocator, null);
 		} catch (XMLStreamException e) {
 			throw new ServletException(e);
 		}
@@ -158,6 +596,22 @@ public class LiveMount {
 		}
 	}
 
+	public void formatGenreIndex(ResourceLocator resourceLocator, OutputStream output) throws IOException, ServletException {
+		try {
+			responseFormatter.formatGenreIndex(library.getGenres().values(), output, resourceLocator);
+		} catch (XMLStreamException e) {
+			throw new ServletException(e);
+		}
+	}
+
+	public void formatGenreCollection(ResourceLocator resourceLocator, OutputStream output, Genre genre) throws IOException, ServletException {
+		try {
+			responseFormatter.formatGenreCollection(genre, output, resourceLocator);
+		} catch (XMLStreamException e) {
+			throw new ServletException(e);
+		}
+	}
+
 	public void formatAlbum(ResourceLocator resourceLocator, OutputStream output, Album album) throws IOException, ServletException {
 		try {
 			responseFormatter.formatAlbum(album, output, resourceLocator, assetLocator);
@@ -166,7 +620,90 @@ public class LiveMount {
 		}
 	}
 
+	public void formatAlbums(ResourceLocator resourceLocator, OutputStream output, Iterable<Album> albums) throws IOException, ServletException {
+		try {
+			responseFormatter.formatAlbums(albums, output, resourceLocator, assetLocator);
+		} catch (XMLStreamException e) {
+			throw new ServletException(e);
+		}
+	}
+
+	/**
+	 * Format a page of search results.
+	 * @param resourceLocator resource locator
+	 * @param output output stream
+	 * @param query search query
+	 * @param type result type or <code>null</code> to search all types
+	 * @param offset index of first result (per type)
+	 * @param limit maximum number of results (per type)
+	 * @throws IOException
+	 * @throws ServletException
+	 */
+	public void formatSearchResult(ResourceLocator resourceLocator, OutputStream output, String query, SearchType type, int offset, int limit) throws IOException, ServletException {
+		try {
+			responseFormatter.formatSearchResult(query, offset,
+					type == null || type == SearchType.AlbumArtist ? albumArtistSearchIndex.search(query, offset, limit) : null,
+					type == null || type == SearchType.TrackArtist ? trackArtistSearchIndex.search(query, offset, limit) : null,
+					type == null || type == SearchType.Album ? albumSearchIndex.search(query, offset, limit) : null,
+					type == null || type == SearchType.Track ? trackSearchIndex.search(query, offset, limit) : null,
+					output, resourceLocator, assetLocator, representativeAlbums);
+		} catch (XMLStreamException e) {
+			throw new ServletException(e);
+		}
+	}
+
+	/**
+	 * Format changes since a previous mount.
+	 * @param resourceLocator resource locator
+	 * @param output output stream
+	 * @param token version token of a previous mount
+	 * @throws IOException
+	 * @throws ServletException
+	 */
+	public void formatChanges(ResourceLocator resourceLocator, OutputStream output, String token) throws IOException, ServletException {
+		try {
+			responseFormatter.formatChanges(getVersionToken(), getChangesSince(token), albumLookup, albumArtistLookup, trackArtistLookup, output, resourceLocator);
+		} catch (XMLStreamException e) {
+			throw new ServletException(e);
+		}
+	}
+
+	private byte[] image(ImageType type, Album album) throws IOException {
+		byte[] image = imageCache.get(album.getAlbumId(), type);
+		if (image == null) {
+			ByteArrayOutputStream output = new ByteArrayOutputStream(16 * 1024);
+			imageFormatter.formatAsset(artworkAssetResources.get(album), type, output);
+			image = output.toByteArray();
+			imageCache.put(version, album.getAlbumId(), type, image);
+		}
+		return image;
+	}
+
 	public void formatImage(OutputStream output, ImageType type, Album album) throws IOException {
-		imageFormatter.formatAsset(artworkAssetResources.get(album), type, output);
+		output.write(image(type, album));
+	}
+
+	/**
+	 * Render images of given type into the image cache.
+	 * Stops when the thread is interrupted or half of the cache is filled, leaving room for on-demand images.
+	 * @param type image type
+	 * @return number of rendered images
+	 */
+	public int prerenderImages(ImageType type) {
+		int count = 0;
+		for (Album album : artworkAssetResources.keySet()) {
+			if (Thread.currentThread().isInterrupted() || imageCache.getBytes() > imageCache.getMaxBytes() / 2) {
+				break;
+			}
+			if (!imageCache.contains(album.getAlbumId(), type)) {
+				try {
+					image(type, album);
+					count++;
+				} catch (IOException e) {
+					LOGGER.log(Level.FINER, "Could not render image for album: " + album.getTitle(), e);
+				}
+			}
+		}
+		return count;
 	}
 }
@@ -15,21 +15,40 @@
  */
 package org.musicmount.live;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.stream.XMLStreamException;
 
 import org.musicmount.builder.MusicMountBuildConfig;
 import org.musicmount.builder.impl.AssetLocator;
 import org.musicmount.builder.impl.AssetStore;
 import org.musicmount.builder.impl.AssetStoreRepository;
 import org.musicmount.builder.impl.ImageFormatter;
+import org.musicmount.builder.impl.LibraryChanges;
 import org.musicmount.builder.impl.LibraryParser;
 import org.musicmount.builder.impl.LocalStrings;
 import org.musicmount.builder.impl.ResponseFormatter;
 import org.musicmount.builder.impl.SimpleAssetLocator;
 import org.musicmount.builder.impl.SimpleAssetParser;
+import org.musicmount.builder.impl.TitleSortKeys;
 import org.musicmount.builder.model.Album;
 import org.musicmount.builder.model.Library;
 import org.musicmount.io.Resource;
@@ -45,6 +64,16 @@ public class LiveMountBuilder {
 	 */
 	static final String API_VERSION = VersionUtil.getSpecificationVersion();	
 
+	/**
+	 * Maximum number of mount changes kept
+	 */
+	static final int MAX_CHANGES_HISTORY_SIZE = 100;
+
+	/**
+	 * Maximum total number of ids held by kept mount changes
+	 */
+	static final int MAX_CHANGES_HISTORY_IDS = 100000;
+
 	static FileResource getDefaultRepository() {
 		FileResource repo = AssetStoreRepository.getUserAssetStoreRepository();
 		if (repo == null) {
@@ -60,6 +89,32 @@ public class LiveMountBuilder {
 	private final Resource repository;
 	private final MusicMountBuildConfig config;
 
+	/*
+	 * state of the last update, patched by incremental updates; the asset store stays resident
+	 */
+	private FileResource musicFolder;
+	private AssetStore assetStore;
+	private Library library;
+
+	/*
+	 * last mount, its library and changes between consecutive mounts by version of the mount they start from
+	 */
+	private LiveMount mount;
+	private Library mountLibrary;
+	private FileResource mountMusicFolder;
+	private final LinkedHashMap<Long, LibraryChanges> changes = new LinkedHashMap<>();
+
+	/*
+	 * album images shared by all mounts, survives mount swaps
+	 */
+	private final ImageCache imageCache = new ImageCache(LiveMount.IMAGE_CACHE_SIZE);
+
+	/*
+	 * background saving of the asset store
+	 */
+	private ExecutorService saveExecutor;
+	private boolean savePending;
+
 	public LiveMountBuilder() {
 		this(new MusicMountBuildConfig());
 	}
@@ -81,21 +136,151 @@ public class LiveMountBuilder {
 		return repository;
 	}
 	
-	public LiveMount update(FileResource musicFolder, String musicPath, ProgressHandler progressHandler) throws IOException {
-		Resource assetStoreFile = AssetStoreRepository.getAssetStoreResource(repository, musicFolder);
-		
-		AssetStore assetStore = new AssetStore(API_VERSION, musicFolder);
-		if (!config.isFull() && assetStoreFile != null) {
+	/*
+	 * Load persisted sort keys on first update, save keys added by previous mounts' requests later on.
+	 * Keys of titles no longer in use are pruned before saving.
+	 */
+	private void updateSortKeys(TitleSortKeys titleSortKeys) {
+		Resource sortKeysFile = AssetStoreRepository.getSortKeysResource(repository);
+		if (sortKeysFile == null) {
+			return;
+		}
+		if (titleSortKeys.size() == 0) {
 			try {
-				if (assetStoreFile.exists()) {
-					assetStore.load(assetStoreFile, progressHandler);
+				if (sortKeysFile.exists()) {
+					titleSortKeys.load(sortKeysFile);
 				}
 			} catch (Exception e) {
-				LOGGER.log(Level.WARNING, "Failed to load asset store", e);
-				assetStore = new AssetStore(API_VERSION, musicFolder);
+				LOGGER.log(Level.WARNING, "Failed to load sort keys", e);
+			}
+		} else if (titleSortKeys.prune() > 0 || titleSortKeys.isModified()) {
+			try {
+				if (!sortKeysFile.getParent().exists()) {
+					sortKeysFile.getParent().mkdirs();
+				}
+				titleSortKeys.save(sortKeysFile);
+			} catch (Exception e) {
+				LOGGER.log(Level.WARNING, "Failed to save sort keys", e);
+			}
+		}
+	}
+
+	/*
+	 * Save the asset store in the background.
+	 * Requests are coalesced: while a save is pending, it will pick up the latest state anyway.
+	 */
+	private synchronized void saveAssetStore() {
+		if (savePending || AssetStoreRepository.getAssetStoreResource(repository, musicFolder) == null) {
+			return;
+		}
+		if (saveExecutor == null) {
+			final ThreadFactory threadFactory = Executors.defaultThreadFactory();
+			saveExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = threadFactory.newThread(runnable);
+					thread.setName("musicmount-save-" + thread.getName());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		savePending = true;
+		saveExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				save();
+			}
+		});
+	}
+
+	/*
+	 * Serialize the asset store while holding the lock, write the file without blocking updates:
+	 * data goes to a temporary file, which then replaces the store file.
+	 */
+	private void save() {
+		Resource assetStoreFile;
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		synchronized (this) {
+			savePending = false;
+			assetStoreFile = AssetStoreRepository.getAssetStoreResource(repository, musicFolder);
+			long start = System.currentTimeMillis();
+			try (OutputStream output = assetStoreFile.getName().endsWith(".gz") ? new GZIPOutputStream(data) : data) {
+				assetStore.save(output);
+			} catch (IOException | XMLStreamException e) {
+				LOGGER.log(Level.WARNING, "Failed to save asset store", e);
+				return;
+			}
+			LOGGER.fine(String.format("Serialized asset store in %dms", System.currentTimeMillis() - start));
+		}
+		try {
+			if (!assetStoreFile.getParent().exists()) {
+				assetStoreFile.getParent().mkdirs();
+			}
+			Resource tempFile = assetStoreFile.getParent().resolve(assetStoreFile.getName() + ".tmp");
+			try (OutputStream output = tempFile.getOutputStream()) {
+				data.writeTo(output);
+			}
+			try { // replace atomically, so readers never see a partially written store
+				Files.move(tempFile.getPath(), assetStoreFile.getPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile.getPath(), assetStoreFile.getPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to save asset store", e);
+		}
+	}
+
+	/**
+	 * Finish pending background saves of the asset store.
+	 * The builder may still be used afterwards.
+	 */
+	public void close() {
+		ExecutorService executor;
+		synchronized (this) {
+			executor = saveExecutor;
+			saveExecutor = null;
+		}
+		if (executor != null) {
+			executor.shutdown();
+			try {
+				if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+					LOGGER.warning("Timeout while saving asset store");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Full update: scan the music folder and build a new library.
+	 * @param musicFolder music folder
+	 * @param musicPath music path
+	 * @param progressHandler progress handler
+	 * @return new mount
+	 * @throws IOException if scanning the music folder fails
+	 */
+	public synchronized LiveMount update(FileResource musicFolder, String musicPath, ProgressHandler progressHandler) throws IOException {
+		AssetStore assetStore = this.musicFolder != null && this.musicFolder.equals(musicFolder) ? this.assetStore : null; // keep resident store
+		if (assetStore == null) {
+			mountLibrary = null; // changes are only tracked for the same music folder
+			changes.clear();
+			Resource assetStoreFile = AssetStoreRepository.getAssetStoreResource(repository, musicFolder);
+			assetStore = new AssetStore(API_VERSION, musicFolder, config.isCompact());
+			if (!config.isFull() && assetStoreFile != null) {
+				try {
+					if (assetStoreFile.exists()) {
+						assetStore.load(assetStoreFile, progressHandler);
+					}
+				} catch (Exception e) {
+					LOGGER.log(Level.WARNING, "Failed to load asset store", e);
+					assetStore = new AssetStore(API_VERSION, musicFolder, config.isCompact());
+				}
 			}
 		}
 		int loadedAssetStoreSize = assetStore.size();
+		this.library = null; // next update must be a full update unless this one completes
 
 		assetStore.update(new SimpleAssetParser(), 1, progressHandler); // throws IOException
 
@@ -103,9 +288,6 @@ public class LiveMountBuilder {
 			progressHandler.beginTask(-1, "Building music libary...");
 		}
 		Library library = new LibraryParser(config.isGrouping()).parse(assetStore.assets());
-		if (config.isNoVariousArtists()) { // remove "various artists" album artist (hack)
-			library.getAlbumArtists().remove(null);
-		}
 		Set<Album> changedAlbums = assetStore.sync(library.getAlbums());
 		if (loadedAssetStoreSize > 0) {
 			LOGGER.fine(String.format("Number of albums changed: %d", changedAlbums.size()));
@@ -114,28 +296,106 @@ public class LiveMountBuilder {
 			progressHandler.endTask();
 		}
 
-		if (assetStoreFile != null && (changedAlbums.size() > 0 || assetStore.size() < loadedAssetStoreSize)) {
-			try {
-				if (!assetStoreFile.getParent().exists()) {
-					assetStoreFile.getParent().mkdirs();
-				}
-				assetStore.save(assetStoreFile, progressHandler);
-			} catch (Exception e) {
-				LOGGER.log(Level.WARNING, "Failed to save asset store", e);
-				if (progressHandler != null) {
-					progressHandler.endTask();
-				}
+		this.musicFolder = musicFolder;
+		this.assetStore = assetStore;
+		this.library = library;
+
+		if (changedAlbums.size() > 0 || assetStore.size() < loadedAssetStoreSize) {
+			saveAssetStore();
+		}
+
+		return createMount(musicPath, changedAlbums);
+	}
+
+	/**
+	 * Incremental update: re-parse the given paths only and patch the library of the previous update.
+	 * Falls back to a full update if there's no previous update of the given music folder.
+	 * @param musicFolder music folder
+	 * @param musicPath music path
+	 * @param changedPaths added, modified or deleted files or folders
+	 * @param progressHandler progress handler
+	 * @return new mount
+	 * @throws IOException if scanning a changed folder fails
+	 */
+	public synchronized LiveMount update(FileResource musicFolder, String musicPath, Set<Path> changedPaths, ProgressHandler progressHandler) throws IOException {
+		if (library == null || !musicFolder.equals(this.musicFolder)) {
+			return update(musicFolder, musicPath, progressHandler);
+		}
+		Set<Album> changedAlbums = Collections.emptySet();
+		try {
+			Set<Resource> changedResources = assetStore.update(new SimpleAssetParser(), changedPaths, progressHandler); // throws IOException
+			if (!changedResources.isEmpty()) {
+				new LibraryParser(config.isGrouping()).update(library, assetStore.assets(), changedResources);
+				changedAlbums = assetStore.sync(library.getAlbums());
+				LOGGER.fine(String.format("Number of assets changed: %d, number of albums changed: %d", changedResources.size(), changedAlbums.size()));
+				saveAssetStore();
 			}
+		} catch (IOException | RuntimeException e) {
+			library = null; // state may be inconsistent, next update must be a full update
+			throw e;
 		}
-		
+		return createMount(musicPath, changedAlbums);
+	}
+
+	/*
+	 * Record changes from the last mount's library, drop oldest changes exceeding the history limits.
+	 */
+	private LibraryChanges addChanges(Library library, Set<Album> changedAlbums) {
+		if (mountLibrary == null) {
+			return null;
+		}
+		LibraryChanges libraryChanges = LibraryChanges.compute(mountLibrary, library, changedAlbums);
+		changes.put(mount.getVersion(), libraryChanges);
+		int ids = 0;
+		for (LibraryChanges mountChanges : changes.values()) {
+			ids += mountChanges.size();
+		}
+		Iterator<LibraryChanges> iterator = changes.values().iterator();
+		while (iterator.hasNext() && (changes.size() > MAX_CHANGES_HISTORY_SIZE || ids > MAX_CHANGES_HISTORY_IDS)) {
+			ids -= iterator.next().size();
+			iterator.remove();
+		}
+		return libraryChanges;
+	}
+
+	/*
+	 * Create mount from a snapshot of the current library, which will not be affected by subsequent incremental updates.
+	 */
+	private LiveMount createMount(String musicPath, Set<Album> changedAlbums) {
+		Library library = this.library.snapshot();
+		if (config.isNoVariousArtists()) { // remove "various artists" album artist (hack)
+			library.getAlbumArtists().remove(null);
+		}
+		LibraryChanges libraryChanges = addChanges(library, changedAlbums);
+
+		LocalStrings localStrings = new LocalStrings();
+		updateSortKeys(TitleSortKeys.getInstance(localStrings));
+
 		ResponseFormatter<?> responseFormatter;
 		if (config.isXml()) {
-			responseFormatter = new ResponseFormatter.XML(API_VERSION, new LocalStrings(), config.isDirectoryIndex(), config.isUnknownGenre(), config.isGrouping(), config.isPretty());
+			responseFormatter = new ResponseFormatter.XML(API_VERSION, localStrings, config.isDirectoryIndex(), config.isUnknownGenre(), config.isGrouping(), config.isPretty());
 		} else {
-			responseFormatter = new ResponseFormatter.JSON(API_VERSION, new LocalStrings(), config.isDirectoryIndex(), config.isUnknownGenre(), config.isGrouping(), config.isPretty());
+			responseFormatter = new ResponseFormatter.JSON(API_VERSION, localStrings, config.isDirectoryIndex(), config.isUnknownGenre(), config.isGrouping(), config.isPretty());
 		}
 		AssetLocator assetLocator = new SimpleAssetLocator(musicFolder, musicPath, config.getNormalizer());
 		ImageFormatter imageFormatter = new ImageFormatter(new SimpleAssetParser(), config.isRetina());
-		return new LiveMount(library, responseFormatter, imageFormatter, assetLocator, config.isNoTrackIndex());
+		LiveMount mount = new LiveMount(library, responseFormatter, imageFormatter, assetLocator, config.isNoTrackIndex(), config.isShardedIndex(), new LinkedHashMap<>(changes), imageCache, this.mount);
+
+		/*
+		 * keep images of unchanged albums; drop all images if album ids of the previous mount don't apply
+		 */
+		Set<Long> changedAlbumIds = null;
+		if (libraryChanges != null && musicFolder.equals(mountMusicFolder)) {
+			changedAlbumIds = new HashSet<>();
+			changedAlbumIds.addAll(libraryChanges.getAlbums().getAdded());
+			changedAlbumIds.addAll(libraryChanges.getAlbums().getRemoved());
+			changedAlbumIds.addAll(libraryChanges.getAlbums().getModified());
+		}
+		imageCache.activate(mount.getVersion(), changedAlbumIds);
+
+		this.mount = mount;
+		mountLibrary = library;
+		mountMusicFolder = musicFolder;
+		return mount;
 	}
 }
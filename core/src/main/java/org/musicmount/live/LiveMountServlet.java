@@ -15,110 +15,613 @@
  */
 package org.musicmount.live;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.musicmount.builder.impl.CollectionSection;
 import org.musicmount.builder.impl.ImageType;
 import org.musicmount.builder.impl.ResourceLocator;
 import org.musicmount.builder.model.Album;
 import org.musicmount.builder.model.Artist;
 import org.musicmount.builder.model.ArtistType;
+import org.musicmount.builder.model.Genre;
+import org.musicmount.builder.model.Track;
 import org.musicmount.io.Resource;
+import org.musicmount.live.LiveMount.SearchType;
+import org.musicmount.server.ServerMetrics;
+import org.musicmount.util.BufferPool;
+import org.musicmount.util.ByteArrayCache;
+import org.musicmount.util.SingleFlight;
 
-public class LiveMountServlet extends HttpServlet implements ResourceLocator {
+public class LiveMountServlet extends HttpServlet {
 	private static final long serialVersionUID = 1L;
 
+	static final Logger LOGGER = Logger.getLogger(LiveMountServlet.class.getName());
+
 	private static final String SERVICE_INDEX_PATH = "serviceIndex";
 	private static final String ARTIST_INDEX_PATH = "artistIndex";
 	private static final String ALBUM_INDEX_PATH = "albumIndex";
 	private static final String TRACK_INDEX_PATH = "trackIndex";
 	private static final String ALBUM_PATH = "album";
+	private static final String ALBUMS_PATH = "albums";
 	private static final String ALBUM_COLLECTION_PATH = "albumCollection";
 	private static final String ALBUM_IMAGE_PATH = "albumImage";
+	private static final String SEARCH_PATH = "search";
+	private static final String CHANGES_PATH = "changes";
+	private static final String GENRE_INDEX_PATH = "genreIndex";
+	private static final String GENRE_COLLECTION_PATH = "genreCollection";
+	private static final String METRICS_PATH = "metrics";
 
 	private static final String ARTIST_TYPE_PARAM = "artistType";
 	private static final String IMAGE_TYPE_PARAM = "imageType";
 
 	private static final String ARTIST_ID_PARAM = "artistId";
 	private static final String ALBUM_ID_PARAM = "albumId";
+	private static final String ALBUM_IDS_PARAM = "albumIds";
+	private static final String GENRE_ID_PARAM = "genreId";
 
-	private LiveMount mount;
+	private static final String SECTION_PARAM = "section";
 
-	public LiveMountServlet(LiveMount mount) {
-		this.mount = mount;
+	private static final String QUERY_PARAM = "query";
+	private static final String TYPE_PARAM = "type";
+	private static final String OFFSET_PARAM = "offset";
+	private static final String LIMIT_PARAM = "limit";
+
+	private static final String SINCE_PARAM = "since";
+
+	private static final int DEFAULT_SEARCH_LIMIT = 25;
+	private static final int MAX_SEARCH_LIMIT = 100;
+
+	/*
+	 * maximum number of album ids per batch request, larger batches are rejected
+	 */
+	static final int MAX_BATCH_SIZE = 50;
+
+	private static final String JSON_CONTENT_TYPE = "text/json";
+
+	private static final String GZIP_TAG = ".gz";
+
+	/*
+	 * copy buffers for streamed documents
+	 */
+	private static final BufferPool BUFFER_POOL = new BufferPool(32 * 1024, 32);
+
+	private static final int DEFAULT_RENDER_QUEUE_SIZE = 100;
+	private static final int RETRY_AFTER_SECONDS = 1;
+
+	/*
+	 * Rendered image
+	 */
+	private static class Response {
+		final String contentType;
+		final ByteArrayCache.Entry content;
+
+		Response(String contentType, ByteArrayCache.Entry content) {
+			this.contentType = contentType;
+			this.content = content;
+		}
+	}
+
+	/*
+	 * Writes to two streams; closing it closes neither.
+	 */
+	private static class TeeOutputStream extends OutputStream {
+		private final OutputStream first;
+		private final OutputStream second;
+
+		TeeOutputStream(OutputStream first, OutputStream second) {
+			this.first = first;
+			this.second = second;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			first.write(b);
+			second.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			first.write(b, off, len);
+			second.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			first.flush();
+			second.flush();
+		}
+	}
+
+	private static OutputStream tee(OutputStream first, OutputStream second) {
+		return first == null ? second : second == null ? first : new TeeOutputStream(first, second);
+	}
+
+	/*
+	 * Collects gzip-encoded document content for the response cache: in memory up to the maximum cached
+	 * response size, then in a spool file. Spooling errors are logged and stop collecting, they don't affect
+	 * streaming the document to the client. Closing it does nothing, see commit() and discard().
+	 */
+	private static class CacheOutputStream extends OutputStream {
+		private final long maxCachedSize;
+		private final CRC32 checksum = new CRC32();
+		private ByteArrayOutputStream memory = new ByteArrayOutputStream(1024);
+		private Path file;
+		private OutputStream fileOutput;
+		private int length;
+		private boolean failed;
+
+		CacheOutputStream(long maxCachedSize) {
+			this.maxCachedSize = maxCachedSize;
+		}
+
+		@Override
+		public void write(int b) {
+			write(new byte[]{ (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			checksum.update(b, off, len);
+			length += len;
+			if (failed) {
+				return;
+			}
+			if (file == null && memory.size() + len <= maxCachedSize) {
+				memory.write(b, off, len);
+				return;
+			}
+			try {
+				if (file == null) { // too large to be cached
+					file = LiveMount.createSpoolFile();
+					fileOutput = Files.newOutputStream(file);
+					memory.writeTo(fileOutput);
+					memory = null;
+				}
+				fileOutput.write(b, off, len);
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Could not spool document", e);
+				failed = true;
+				discard();
+			}
+		}
+
+		int getLength() {
+			return length;
+		}
+
+		long getChecksum() {
+			return checksum.getValue();
+		}
+
+		/*
+		 * Put collected content into the mount's response cache or register the spool file with the mount.
+		 */
+		void commit(LiveMount mount, String cacheKey) {
+			if (failed) {
+				return;
+			}
+			if (file == null) {
+				mount.getResponseCache().put(cacheKey, new ByteArrayCache.Entry(memory.toByteArray()));
+				return;
+			}
+			try {
+				fileOutput.close();
+				fileOutput = null;
+				if (mount.addSpooledResponse(cacheKey, file, length, checksum.getValue())) {
+					file = null; // owned by mount
+				}
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Could not spool " + cacheKey, e);
+			} finally {
+				discard();
+			}
+		}
+
+		/*
+		 * Delete spool file, if any.
+		 */
+		void discard() {
+			if (fileOutput != null) {
+				try {
+					fileOutput.close();
+				} catch (IOException e) {
+					LOGGER.log(Level.FINE, "Could not close " + file, e);
+				}
+				fileOutput = null;
+			}
+			if (file != null) {
+				try {
+					Files.deleteIfExists(file);
+				} catch (IOException e) {
+					LOGGER.log(Level.FINE, "Could not delete " + file, e);
+				}
+				file = null;
+			}
+		}
+	}
+
+	/*
+	 * Streams a document to the client through a pooled buffer; headers are set when the buffer is written for the first time.
+	 * A document fitting into the buffer is sent with its length and final entity tag, larger documents are sent chunked.
+	 * Once writing to the client has failed, further content is discarded and the failure is thrown by finish():
+	 * rendering continues, so the document may still be cached.
+	 */
+	private static class ClientOutputStream extends OutputStream {
+		private final HttpServletResponse resp;
+		private final long lastModified;
+		private final boolean gzip;
+		private String entityTag;
+		private byte[] buffer = BUFFER_POOL.acquire();
+		private int count;
+		private OutputStream output;
+		private IOException failure;
+
+		/*
+		 * @param entityTag entity tag of the document if sent chunked (null for volatile documents)
+		 */
+		ClientOutputStream(HttpServletResponse resp, String entityTag, long lastModified, boolean gzip) {
+			this.resp = resp;
+			this.entityTag = entityTag;
+			this.lastModified = lastModified;
+			this.gzip = gzip;
+		}
+
+		/*
+		 * @param entityTag final entity tag, used if the document fits into the buffer
+		 */
+		void setEntityTag(String entityTag) {
+			this.entityTag = entityTag;
+		}
+
+		private void writeBuffer(int contentLength) throws IOException {
+			if (output == null) {
+				setDocumentHeaders(resp, entityTag, lastModified, gzip);
+				if (contentLength >= 0) {
+					resp.setContentLength(contentLength);
+				}
+				output = resp.getOutputStream();
+			}
+			if (count > 0) {
+				output.write(buffer, 0, count);
+				count = 0;
+			}
+		}
+
+		@Override
+		public void write(int b) {
+			write(new byte[]{ (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			if (failure != null) {
+				return;
+			}
+			try {
+				if (len > buffer.length - count) {
+					writeBuffer(-1);
+					if (len >= buffer.length) {
+						output.write(b, off, len);
+						return;
+					}
+				}
+				System.arraycopy(b, off, buffer, count, len);
+				count += len;
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+
+		/*
+		 * Write remaining content.
+		 */
+		void finish() throws IOException {
+			if (failure == null) {
+				try {
+					writeBuffer(output == null ? count : -1);
+					output.flush();
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		}
+
+		/*
+		 * Return buffer to the pool; content not written so far is discarded.
+		 */
+		void release() {
+			if (buffer != null) {
+				BUFFER_POOL.release(buffer);
+				buffer = null;
+			}
+		}
 	}
+
+	/*
+	 * Resource locator for documents of a mount.
+	 */
+	static class MountResourceLocator implements ResourceLocator {
+		private final LiveMount mount;
+
+		MountResourceLocator(LiveMount mount) {
+			this.mount = mount;
+		}
+
+		@Override
+		public Resource getResource(String path) {
+			return null;
+		}
+
+		@Override
+		public String getServiceIndexPath() {
+			return SERVICE_INDEX_PATH;
+		}
+
+		@Override
+		public String getAlbumIndexPath() {
+			return ALBUM_INDEX_PATH;
+		}
+
+		@Override
+		public String getTrackIndexPath() {
+			return mount.isNoTrackIndex() ? null : TRACK_INDEX_PATH;
+		}
+
+		@Override
+		public String getAlbumIndexSectionPath(CollectionSection<Album> section) {
+			if (!mount.isShardedIndex()) {
+				return null;
+			}
+			return new StringBuilder(ALBUM_INDEX_PATH)
+				.append('?')
+				.append(SECTION_PARAM).append('=').append(section.getKey())
+				.toString();
+		}
+
+		@Override
+		public String getTrackIndexSectionPath(CollectionSection<Track> section) {
+			if (!mount.isShardedIndex() || mount.isNoTrackIndex()) {
+				return null;
+			}
+			return new StringBuilder(TRACK_INDEX_PATH)
+				.append('?')
+				.append(SECTION_PARAM).append('=').append(section.getKey())
+				.toString();
+		}
+
+		@Override
+		public String getSearchIndexPath() {
+			return null; // live mounts are searched via SEARCH_PATH
+		}
+
+		@Override
+		public String getSearchIndexShardPath(String prefix) {
+			return null;
+		}
+
+		@Override
+		public String getGenreIndexPath() {
+			return GENRE_INDEX_PATH;
+		}
+
+		@Override
+		public String getGenreCollectionPath(Genre genre) {
+			return new StringBuilder(GENRE_COLLECTION_PATH)
+				.append('?')
+				.append(GENRE_ID_PARAM).append('=').append(genre.getGenreId())
+				.toString();
+		}
+
+		@Override
+		public String getArtistIndexPath(ArtistType artistType) {
+			return new StringBuilder(ARTIST_INDEX_PATH)
+				.append('?')
+				.append(ARTIST_TYPE_PARAM).append('=').append(artistType.name())
+				.toString();
+		}
 	
-	public LiveMount getMount() {
-		return mount;
+		@Override
+		public String getAlbumCollectionPath(Artist artist) {
+			return new StringBuilder(ALBUM_COLLECTION_PATH)
+				.append('?')
+				.append(ARTIST_TYPE_PARAM).append('=').append(artist.getArtistType().name())
+				.append('&')
+				.append(ARTIST_ID_PARAM).append('=').append(artist.getArtistId())
+				.toString();
+		}
+
+		@Override
+		public String getAlbumImagePath(Album album, ImageType type) {
+			if (!mount.isArtworkPresent(album)) {
+				return null;
+			}
+			return new StringBuilder(ALBUM_IMAGE_PATH)
+				.append('?')
+				.append(IMAGE_TYPE_PARAM).append('=').append(type.name())
+				.append('&')
+				.append(ALBUM_ID_PARAM).append('=').append(album.getAlbumId())
+				.toString();
+		}
+
+		@Override
+		public String getAlbumPath(Album album) {
+			return new StringBuilder(ALBUM_PATH)
+				.append('?')
+				.append(ALBUM_ID_PARAM).append('=').append(album.getAlbumId())
+				.toString();
+		}
+	}
+
+	/*
+	 * Request parameters (of an actual request or of a document path)
+	 */
+	private interface Parameters {
+		String get(String name);
 	}
-	void setMount(LiveMount mount) {
-		this.mount = mount;
+
+	private static Parameters parameters(final HttpServletRequest req) {
+		return new Parameters() {
+			@Override
+			public String get(String name) {
+				return req.getParameter(name);
+			}
+		};
 	}
 
-	@Override
-	public Resource getResource(String path) {
-		return null;
+	private static Parameters parameters(String query) {
+		final Map<String, String> parameters = new HashMap<>();
+		if (query != null) {
+			for (String parameter : query.split("&")) {
+				int index = parameter.indexOf('=');
+				if (index > 0) {
+					parameters.put(parameter.substring(0, index), parameter.substring(index + 1));
+				}
+			}
+		}
+		return new Parameters() {
+			@Override
+			public String get(String name) {
+				return parameters.get(name);
+			}
+		};
 	}
 
-	@Override
-	public String getServiceIndexPath() {
-		return SERVICE_INDEX_PATH;
+	/*
+	 * concurrent identical requests share one rendering
+	 */
+	private final SingleFlight<String, Boolean> documentRenderings = new SingleFlight<>();
+	private final SingleFlight<String, Response> imageRenderings = new SingleFlight<>();
+
+	/*
+	 * larger documents are spooled instead of cached (lowered by tests)
+	 */
+	long maxCachedResponseSize = LiveMount.MAX_CACHED_RESPONSE_SIZE;
+
+	/*
+	 * current mount; requests take a snapshot once and use it throughout
+	 */
+	private final AtomicReference<LiveMount> mount = new AtomicReference<>();
+
+	/*
+	 * server metrics, if available
+	 */
+	private volatile ServerMetrics metrics;
+
+	private final int renderThreads;
+	private final int renderQueueSize;
+
+	/*
+	 * render pool for images, created on init, cleared on destroy; read once per request
+	 */
+	private volatile ThreadPoolExecutor renderExecutor;
+
+	public LiveMountServlet(LiveMount mount) {
+		this(mount, Math.max(2, Runtime.getRuntime().availableProcessors()), DEFAULT_RENDER_QUEUE_SIZE);
 	}
 
-	@Override
-	public String getAlbumIndexPath() {
-		return ALBUM_INDEX_PATH;
+	/**
+	 * @param mount initial mount
+	 * @param renderThreads number of image rendering threads
+	 * @param renderQueueSize maximum number of image requests waiting for a rendering thread
+	 */
+	public LiveMountServlet(LiveMount mount, int renderThreads, int renderQueueSize) {
+		this.mount.set(mount);
+		this.renderThreads = renderThreads;
+		this.renderQueueSize = renderQueueSize;
 	}
 
 	@Override
-	public String getTrackIndexPath() {
-		return mount.isNoTrackIndex() ? null : TRACK_INDEX_PATH;
+	public void init() throws ServletException {
+		final ThreadFactory threadFactory = Executors.defaultThreadFactory();
+		renderExecutor = new ThreadPoolExecutor(renderThreads, renderThreads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(renderQueueSize),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = threadFactory.newThread(runnable);
+						thread.setName("musicmount-render-" + thread.getName());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
 	}
 
 	@Override
-	public String getArtistIndexPath(ArtistType artistType) {
-		return new StringBuilder(ARTIST_INDEX_PATH)
-			.append('?')
-			.append(ARTIST_TYPE_PARAM).append('=').append(artistType.name())
-			.toString();
+	public void destroy() {
+		ThreadPoolExecutor renderExecutor = this.renderExecutor;
+		if (renderExecutor != null) {
+			this.renderExecutor = null;
+			renderExecutor.shutdownNow();
+		}
 	}
 	
-	@Override
-	public String getAlbumCollectionPath(Artist artist) {
-		return new StringBuilder(ALBUM_COLLECTION_PATH)
-			.append('?')
-			.append(ARTIST_TYPE_PARAM).append('=').append(artist.getArtistType().name())
-			.append('&')
-			.append(ARTIST_ID_PARAM).append('=').append(artist.getArtistId())
-			.toString();
+	public LiveMount getMount() {
+		return mount.get();
 	}
 
-	@Override
-	public String getAlbumImagePath(Album album, ImageType type) {
-		if (!mount.isArtworkPresent(album)) {
-			return null;
-		}
-		return new StringBuilder(ALBUM_IMAGE_PATH)
-			.append('?')
-			.append(IMAGE_TYPE_PARAM).append('=').append(type.name())
-			.append('&')
-			.append(ALBUM_ID_PARAM).append('=').append(album.getAlbumId())
-			.toString();
+	/**
+	 * @param metrics server metrics to be served as <code>metrics</code> document (may be <code>null</code>)
+	 */
+	public void setMetrics(ServerMetrics metrics) {
+		this.metrics = metrics;
 	}
 
-	@Override
-	public String getAlbumPath(Album album) {
-		return new StringBuilder(ALBUM_PATH)
-			.append('?')
-			.append(ALBUM_ID_PARAM).append('=').append(album.getAlbumId())
-			.toString();
+	/**
+	 * Replace the current mount, unless it has been replaced by a newer mount in the meantime.
+	 * Requests in progress complete with the mount they started with; the replaced mount is disposed.
+	 * @param mount new mount
+	 * @return <code>true</code> if the mount has been replaced
+	 */
+	boolean setMount(LiveMount mount) {
+		while (true) {
+			LiveMount current = this.mount.get();
+			if (current != null && current.getVersion() >= mount.getVersion()) {
+				return false;
+			}
+			if (this.mount.compareAndSet(current, mount)) {
+				if (current != null) {
+					current.dispose();
+				}
+				return true;
+			}
+		}
 	}
-	
+
 	private ArtistType parseArtistType(String string) {
 		try {
 			return ArtistType.valueOf(string);
@@ -135,7 +638,23 @@ public class LiveMountServlet extends HttpServlet implements ResourceLocator {
 		}
 	}
 	
-	private Artist findArtist(String artistTypeName, String artistIdString) {
+	private SearchType parseSearchType(String string) {
+		try {
+			return SearchType.valueOf(string);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private int parseInt(String string, int defaultValue, int minValue, int maxValue) {
+		try {
+			return string == null ? defaultValue : Math.max(minValue, Math.min(maxValue, Integer.parseInt(string)));
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	private Artist findArtist(LiveMount mount, String artistTypeName, String artistIdString) {
 		try {
 			return mount.getArtist(parseArtistType(artistTypeName), Long.valueOf(artistIdString));
 		} catch (NumberFormatException e) {
@@ -143,7 +662,15 @@ public class LiveMountServlet extends HttpServlet implements ResourceLocator {
 		}
 	}
 
-	private Album findAlbum(String albumIdString) {
+	private Genre findGenre(LiveMount mount, String genreIdString) {
+		try {
+			return mount.getGenre(Long.valueOf(genreIdString));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private Album findAlbum(LiveMount mount, String albumIdString) {
 		try {
 			return mount.getAlbum(Long.valueOf(albumIdString));
 		} catch (NumberFormatException e) {
@@ -151,91 +678,684 @@ public class LiveMountServlet extends HttpServlet implements ResourceLocator {
 		}
 	}
 
-	@Override
-	protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-		String path = req.getPathInfo();
-		if (path == null) {
-			path = "";
-		} else {
-			if (path.startsWith("/")) {
-				path = path.substring(1);
+	/*
+	 * Parse comma-separated album ids into ascending, distinct ids.
+	 * Answer null if an id is malformed or the batch is empty or too large.
+	 */
+	private SortedSet<Long> parseAlbumIds(String string) {
+		if (string == null) {
+			return null;
+		}
+		SortedSet<Long> albumIds = new TreeSet<>();
+		for (String albumIdString : string.split(",")) {
+			try {
+				albumIds.add(Long.valueOf(albumIdString.trim()));
+			} catch (NumberFormatException e) {
+				return null;
 			}
-			if (path.endsWith("/")) {
-				path = path.substring(0, path.length() - 1);
+			if (albumIds.size() > MAX_BATCH_SIZE) {
+				return null;
 			}
 		}
-		if (path.length() == 0) {
-			path = SERVICE_INDEX_PATH;
-		}
+		return albumIds.isEmpty() ? null : albumIds; // e.g. ","
+	}
 
-		ByteArrayOutputStream content = new ByteArrayOutputStream(1024);
+	/*
+	 * Format response content.
+	 * Answer content type or null if the requested resource doesn't exist.
+	 */
+	private String formatResponse(String path, Parameters parameters, OutputStream output, LiveMount mount) throws ServletException, IOException {
+		ResourceLocator locator = new MountResourceLocator(mount);
 		switch (path) {
 		case SERVICE_INDEX_PATH:
-			mount.formatServiceIndex(this, content);
-			resp.setContentType("text/json");
-			resp.setCharacterEncoding("UTF-8");
-			break;
+			mount.formatServiceIndex(locator, output);
+			return JSON_CONTENT_TYPE;
 		case ARTIST_INDEX_PATH:
-			ArtistType artistType = parseArtistType(req.getParameter(ARTIST_TYPE_PARAM));
+			ArtistType artistType = parseArtistType(parameters.get(ARTIST_TYPE_PARAM));
 			if (artistType != null) {
-				mount.formatArtistIndex(this, content, artistType);
-				resp.setContentType("text/json");
-				resp.setCharacterEncoding("UTF-8");
-			} else {
-				resp.sendError(404);
+				mount.formatArtistIndex(locator, output, artistType);
+				return JSON_CONTENT_TYPE;
 			}
-			break;
+			return null;
 		case ALBUM_INDEX_PATH:
-			mount.formatAlbumIndex(this, content);
-			resp.setContentType("text/json");
-			resp.setCharacterEncoding("UTF-8");
-			break;
+			String albumSectionKey = parameters.get(SECTION_PARAM);
+			if (albumSectionKey == null) {
+				mount.formatAlbumIndex(locator, output);
+				return JSON_CONTENT_TYPE;
+			}
+			CollectionSection<Album> albumSection = mount.isShardedIndex() ? mount.getAlbumIndexSection(albumSectionKey) : null;
+			if (albumSection != null) {
+				mount.formatAlbumIndexSection(locator, output, albumSection);
+				return JSON_CONTENT_TYPE;
+			}
+			return null;
 		case TRACK_INDEX_PATH:
-			mount.formatTrackIndex(this, content);
-			resp.setContentType("text/json");
-			resp.setCharacterEncoding("UTF-8");
-			break;
+			String trackSectionKey = parameters.get(SECTION_PARAM);
+			if (trackSectionKey == null) {
+				mount.formatTrackIndex(locator, output);
+				return JSON_CONTENT_TYPE;
+			}
+			CollectionSection<Track> trackSection = mount.isShardedIndex() ? mount.getTrackIndexSection(trackSectionKey) : null;
+			if (trackSection != null) {
+				mount.formatTrackIndexSection(locator, output, trackSection);
+				return JSON_CONTENT_TYPE;
+			}
+			return null;
 		case ALBUM_COLLECTION_PATH:
-			Artist artist = findArtist(req.getParameter(ARTIST_TYPE_PARAM), req.getParameter(ARTIST_ID_PARAM));
+			Artist artist = findArtist(mount, parameters.get(ARTIST_TYPE_PARAM), parameters.get(ARTIST_ID_PARAM));
 			if (artist != null) {
-				mount.formatAlbumCollection(this, content, artist);
-				resp.setContentType("text/json");
-				resp.setCharacterEncoding("UTF-8");
-			} else {
-				resp.sendError(404);
+				mount.formatAlbumCollection(locator, output, artist);
+				return JSON_CONTENT_TYPE;
+			}
+			return null;
+		case GENRE_INDEX_PATH:
+			mount.formatGenreIndex(locator, output);
+			return JSON_CONTENT_TYPE;
+		case GENRE_COLLECTION_PATH:
+			Genre genre = findGenre(mount, parameters.get(GENRE_ID_PARAM));
+			if (genre != null) {
+				mount.formatGenreCollection(locator, output, genre);
+				return JSON_CONTENT_TYPE;
 			}
-			break;
+			return null;
 		case ALBUM_PATH:
-			Album album = findAlbum(req.getParameter(ALBUM_ID_PARAM));
+			Album album = findAlbum(mount, parameters.get(ALBUM_ID_PARAM));
 			if (album != null) {
-				mount.formatAlbum(this, content, album);
-				resp.setContentType("text/json");
-				resp.setCharacterEncoding("UTF-8");
-			} else {
-				resp.sendError(404);
+				mount.formatAlbum(locator, output, album);
+				return JSON_CONTENT_TYPE;
+			}
+			return null;
+		case ALBUMS_PATH:
+			SortedSet<Long> albumIds = parseAlbumIds(parameters.get(ALBUM_IDS_PARAM));
+			if (albumIds != null) {
+				List<Album> albums = new ArrayList<>(albumIds.size());
+				for (Long albumId : albumIds) {
+					album = mount.getAlbum(albumId);
+					if (album != null) { // unknown ids are skipped
+						albums.add(album);
+					}
+				}
+				mount.formatAlbums(locator, output, albums);
+				return JSON_CONTENT_TYPE;
 			}
-			break;
+			return null;
 		case ALBUM_IMAGE_PATH:
-			ImageType imageType = parseImageType(req.getParameter(IMAGE_TYPE_PARAM));
+			ImageType imageType = parseImageType(parameters.get(IMAGE_TYPE_PARAM));
 			if (imageType != null) {
-				album = findAlbum(req.getParameter(ALBUM_ID_PARAM));
+				album = findAlbum(mount, parameters.get(ALBUM_ID_PARAM));
 				if (mount.isArtworkPresent(album)) {
-					mount.formatImage(content, imageType, album);
-					resp.setContentType(imageType.getMimeType());
-				} else {
-					resp.sendError(404);
+					mount.formatImage(output, imageType, album);
+					return imageType.getMimeType();
 				}
-			} else {
-				resp.sendError(404);					
 			}
-			break;
+			return null;
+		case SEARCH_PATH:
+			String query = parameters.get(QUERY_PARAM);
+			String typeName = parameters.get(TYPE_PARAM);
+			SearchType type = typeName != null ? parseSearchType(typeName) : null;
+			if (query != null && (typeName == null || type != null)) {
+				int offset = parseInt(parameters.get(OFFSET_PARAM), 0, 0, Integer.MAX_VALUE);
+				int limit = parseInt(parameters.get(LIMIT_PARAM), DEFAULT_SEARCH_LIMIT, 0, MAX_SEARCH_LIMIT);
+				mount.formatSearchResult(locator, output, query, type, offset, limit);
+				return JSON_CONTENT_TYPE;
+			}
+			return null;
+		case CHANGES_PATH:
+			mount.formatChanges(locator, output, parameters.get(SINCE_PARAM)); // no or unknown token: refresh
+			return JSON_CONTENT_TYPE;
+		case METRICS_PATH:
+			ServerMetrics metrics = this.metrics;
+			if (metrics != null) {
+				metrics.writeJSON(output);
+				return JSON_CONTENT_TYPE;
+			}
+			return null;
+		default:
+			return null;
+		}
+	}
+
+	/*
+	 * Check whether the requested resource exists without formatting it (see formatResponse()).
+	 * Used to answer validators of the current mount; volatile documents are never validated.
+	 */
+	private boolean isPresent(String path, Parameters parameters, LiveMount mount) {
+		switch (path) {
+		case SERVICE_INDEX_PATH:
+		case GENRE_INDEX_PATH:
+			return true;
+		case ARTIST_INDEX_PATH:
+			return parseArtistType(parameters.get(ARTIST_TYPE_PARAM)) != null;
+		case ALBUM_INDEX_PATH:
+			String albumSectionKey = parameters.get(SECTION_PARAM);
+			return albumSectionKey == null || mount.isShardedIndex() && mount.getAlbumIndexSection(albumSectionKey) != null;
+		case TRACK_INDEX_PATH:
+			String trackSectionKey = parameters.get(SECTION_PARAM);
+			return trackSectionKey == null || mount.isShardedIndex() && mount.getTrackIndexSection(trackSectionKey) != null;
+		case ALBUM_COLLECTION_PATH:
+			return findArtist(mount, parameters.get(ARTIST_TYPE_PARAM), parameters.get(ARTIST_ID_PARAM)) != null;
+		case GENRE_COLLECTION_PATH:
+			return findGenre(mount, parameters.get(GENRE_ID_PARAM)) != null;
+		case ALBUM_PATH:
+			return findAlbum(mount, parameters.get(ALBUM_ID_PARAM)) != null;
+		case ALBUMS_PATH:
+			return parseAlbumIds(parameters.get(ALBUM_IDS_PARAM)) != null;
+		case ALBUM_IMAGE_PATH:
+			return parseImageType(parameters.get(IMAGE_TYPE_PARAM)) != null && mount.isArtworkPresent(findAlbum(mount, parameters.get(ALBUM_ID_PARAM)));
 		default:
-			resp.sendError(404);					
+			return false;
+		}
+	}
+
+	/*
+	 * JSON documents are cached and compressed.
+	 * Images are neither: they are already compressed and rarely requested twice by the same client.
+	 */
+	private boolean isDocument(String path) {
+		return !ALBUM_IMAGE_PATH.equals(path);
+	}
+
+	/*
+	 * Search results, changes and metrics depend on arbitrary queries or change all the time:
+	 * they are neither cached nor validated.
+	 */
+	private boolean isVolatile(String path) {
+		return SEARCH_PATH.equals(path) || CHANGES_PATH.equals(path) || METRICS_PATH.equals(path);
+	}
+
+	private boolean isCached(String path) {
+		return isDocument(path) && !isVolatile(path);
+	}
+
+	/*
+	 * Batch requests for the same albums share one cache entry, regardless of the order of ids.
+	 */
+	private String getCacheKey(String path, HttpServletRequest req) {
+		if (ALBUMS_PATH.equals(path)) {
+			SortedSet<Long> albumIds = parseAlbumIds(req.getParameter(ALBUM_IDS_PARAM));
+			if (albumIds != null) {
+				StringBuilder builder = new StringBuilder(path).append('?').append(ALBUM_IDS_PARAM).append('=');
+				int length = builder.length();
+				for (Long albumId : albumIds) {
+					if (builder.length() > length) {
+						builder.append(',');
+					}
+					builder.append(albumId);
+				}
+				return builder.toString();
+			}
+		}
+		return req.getQueryString() == null ? path : path + '?' + req.getQueryString();
+	}
+
+	private static boolean isGzipAccepted(HttpServletRequest req) {
+		String acceptEncoding = req.getHeader("Accept-Encoding");
+		if (acceptEncoding != null) {
+			for (String coding : acceptEncoding.split(",")) {
+				String[] codingAndParams = coding.split(";");
+				String name = codingAndParams[0].trim();
+				if ("gzip".equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name)) {
+					return codingAndParams.length < 2 || !codingAndParams[1].trim().matches("q=0(\\.0*)?");
+				}
+			}
+		}
+		return false;
+	}
+
+	private static String encodingTag(boolean gzip) {
+		return gzip ? GZIP_TAG : "";
+	}
+
+	/*
+	 * Render document, streaming it to the client (if any) while collecting its gzip-encoded content for the
+	 * response cache (if the document is cached).
+	 * Answer false if the requested document doesn't exist; nothing has been sent to the client then.
+	 */
+	private boolean renderDocument(String path, Parameters parameters, String cacheKey, LiveMount mount, ClientOutputStream client, boolean gzip) throws ServletException, IOException {
+		CacheOutputStream cache = isCached(path) ? new CacheOutputStream(maxCachedResponseSize) : null;
+		GZIPOutputStream gzipOutput = null;
+		try {
+			OutputStream gzipTarget = tee(gzip ? client : null, cache);
+			if (gzipTarget != null) {
+				gzipOutput = new GZIPOutputStream(gzipTarget, 8192);
+			}
+			OutputStream output = gzip ? gzipOutput : tee(client, gzipOutput);
+			if (formatResponse(path, parameters, output, mount) == null) {
+				return false;
+			}
+			if (gzipOutput != null) {
+				gzipOutput.close(); // finish gzip stream
+			}
+			if (cache != null) {
+				if (client != null) {
+					String contentTag = contentTag(cache.getLength(), cache.getChecksum()) + encodingTag(gzip);
+					client.setEntityTag(mountTag(mount) + "-" + contentTag);
+				}
+				cache.commit(mount, cacheKey);
+				cache = null;
+			}
+			return true;
+		} finally {
+			if (gzipOutput != null) {
+				gzipOutput.close(); // release deflater
+			}
+			if (cache != null) {
+				cache.discard();
+			}
+		}
+	}
+
+	/*
+	 * Render cached document or wait for a concurrent rendering of the same document.
+	 * Answer null if a concurrent rendering has been joined: the document has been cached then, if possible.
+	 */
+	private Boolean renderCached(final String path, final Parameters parameters, final String cacheKey, final LiveMount mount, final ClientOutputStream client, final boolean gzip) throws ServletException, IOException {
+		final boolean[] rendered = new boolean[1];
+		boolean found;
+		try {
+			found = documentRenderings.execute(mount.getVersion() + ":" + cacheKey, new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					rendered[0] = true;
+					return renderDocument(path, parameters, cacheKey, mount, client, gzip);
+				}
+			});
+		} catch (IOException | ServletException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new ServletException(e);
+		}
+		return found && !rendered[0] ? null : found;
+	}
+
+	/*
+	 * Render image or wait for a concurrent rendering of the same image.
+	 * Answer null if the requested image doesn't exist.
+	 */
+	private Response renderImage(final String path, final Parameters parameters, final String cacheKey, final LiveMount mount) throws ServletException, IOException {
+		try {
+			return imageRenderings.execute(mount.getVersion() + ":" + cacheKey, new Callable<Response>() {
+				@Override
+				public Response call() throws Exception {
+					ByteArrayOutputStream output = new ByteArrayOutputStream(1024);
+					String contentType = formatResponse(path, parameters, output, mount);
+					return contentType != null ? new Response(contentType, new ByteArrayCache.Entry(output.toByteArray())) : null;
+				}
+			});
+		} catch (IOException | ServletException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new ServletException(e);
+		}
+	}
+
+	/**
+	 * Render the index documents of a new mount into its response cache before it replaces the current mount.
+	 * @param mount new mount
+	 * @throws ServletException if rendering fails
+	 * @throws IOException if rendering fails
+	 */
+	public void warmUp(LiveMount mount) throws ServletException, IOException {
+		ResourceLocator locator = new MountResourceLocator(mount);
+		List<String> paths = new ArrayList<>();
+		paths.add(locator.getServiceIndexPath());
+		paths.add(locator.getAlbumIndexPath());
+		paths.add(locator.getGenreIndexPath());
+		for (ArtistType artistType : ArtistType.values()) {
+			paths.add(locator.getArtistIndexPath(artistType));
+		}
+		for (String cacheKey : paths) {
+			if (mount.getResponseCache().contains(cacheKey) || mount.getSpooledResponse(cacheKey) != null) {
+				continue;
+			}
+			int queryIndex = cacheKey.indexOf('?');
+			String path = queryIndex < 0 ? cacheKey : cacheKey.substring(0, queryIndex);
+			renderCached(path, parameters(queryIndex < 0 ? null : cacheKey.substring(queryIndex + 1)), cacheKey, mount, null, false);
+		}
+	}
+
+	/*
+	 * Entity tags look like "<mount version>.<mount timestamp>-<content length>.<content checksum>[.gz]".
+	 * The first part identifies the mount: documents don't change during the lifetime of a mount.
+	 * The second part identifies the content: unchanged documents keep matching after a mount update.
+	 * Documents sent chunked on their first rendering are tagged "<mount version>.<mount timestamp>[.gz]".
+	 * Gzip-encoded representations get a ".gz" suffix.
+	 */
+	private static String mountTag(LiveMount mount) {
+		return mount.getVersion() + "." + Long.toHexString(mount.getLastModified());
+	}
+
+	private static String contentTag(int length, long checksum) {
+		return Integer.toHexString(length) + "." + Long.toHexString(checksum);
+	}
+
+	/*
+	 * Answer true if the given tag has been issued for the current mount and the requested encoding.
+	 */
+	private static boolean isMountTag(String tag, String mountTag, String encodingTag) {
+		if (tag.endsWith(GZIP_TAG) != GZIP_TAG.equals(encodingTag)) {
+			return false;
+		}
+		return tag.equals(mountTag + encodingTag) || tag.startsWith(mountTag + "-");
+	}
+
+	/*
+	 * Parse If-None-Match header value into entity tags (unquoted, weakness indicators removed)
+	 */
+	private static List<String> parseEntityTags(String header) {
+		if (header == null) {
+			return null;
+		}
+		List<String> entityTags = new ArrayList<>();
+		for (String entityTag : header.split(",")) {
+			entityTag = entityTag.trim();
+			if (entityTag.startsWith("W/")) {
+				entityTag = entityTag.substring(2);
+			}
+			if (entityTag.length() > 1 && entityTag.startsWith("\"") && entityTag.endsWith("\"")) {
+				entityTag = entityTag.substring(1, entityTag.length() - 1);
+			}
+			if (entityTag.length() > 0) {
+				entityTags.add(entityTag);
+			}
+		}
+		return entityTags;
+	}
+
+	private static long getIfModifiedSince(HttpServletRequest req) {
+		try {
+			return req.getDateHeader("If-Modified-Since");
+		} catch (IllegalArgumentException e) {
+			return -1;
+		}
+	}
+
+	/*
+	 * Evaluate validators of a resolved document: tags issued for the current mount match.
+	 * If a content tag is given, tags issued for previous mounts with the same content match, too.
+	 */
+	private static boolean isNotModified(HttpServletRequest req, List<String> ifNoneMatch, LiveMount mount, String encodingTag, String contentTag) {
+		if (ifNoneMatch != null) {
+			String mountTag = mountTag(mount);
+			for (String tag : ifNoneMatch) {
+				if ("*".equals(tag) || isMountTag(tag, mountTag, encodingTag) || contentTag != null && tag.substring(tag.indexOf('-') + 1).equals(contentTag)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		long ifModifiedSince = getIfModifiedSince(req);
+		return ifModifiedSince >= 0 && ifModifiedSince / 1000 >= mount.getLastModified() / 1000; // second precision
+	}
+
+	private void sendNotModified(HttpServletResponse resp, LiveMount mount, String entityTag) {
+		resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		if (entityTag != null) {
+			resp.setHeader("ETag", '"' + entityTag + '"');
+		}
+		resp.setDateHeader("Last-Modified", mount.getLastModified());
+	}
+
+	/*
+	 * Answer validators of the current mount for an uncached resource without rendering it:
+	 * resources don't change during the lifetime of a mount, so only their existence has to be checked.
+	 * Answer true if 304 has been sent.
+	 */
+	private boolean sendNotModifiedIfPresent(String path, Parameters parameters, HttpServletRequest req, HttpServletResponse resp, LiveMount mount, List<String> ifNoneMatch, String encodingTag) {
+		String mountTag = mountTag(mount);
+		String entityTag = null;
+		if (ifNoneMatch != null) {
+			for (String tag : ifNoneMatch) {
+				if (isMountTag(tag, mountTag, encodingTag)) {
+					entityTag = tag;
+					break;
+				} else if ("*".equals(tag)) {
+					entityTag = mountTag + encodingTag;
+					break;
+				}
+			}
+			if (entityTag == null) {
+				return false;
+			}
+		} else if (!isNotModified(req, null, mount, encodingTag, null)) {
+			return false;
+		}
+		if (!isPresent(path, parameters, mount)) {
+			return false;
+		}
+		sendNotModified(resp, mount, entityTag);
+		return true;
+	}
+
+	/*
+	 * Answer true if a tag may have been issued for a previous mount, i.e. may match by content.
+	 */
+	private static boolean isForeignTag(List<String> ifNoneMatch, LiveMount mount) {
+		if (ifNoneMatch != null) {
+			String mountTag = mountTag(mount);
+			for (String tag : ifNoneMatch) {
+				if (tag.indexOf('-') > 0 && !tag.startsWith(mountTag + "-")) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Set document headers; volatile documents (without entity tag) must not be cached by clients.
+	 */
+	private static void setDocumentHeaders(HttpServletResponse resp, String entityTag, long lastModified, boolean gzip) {
+		if (entityTag == null) {
+			resp.setHeader("Cache-Control", "no-cache");
+		} else {
+			resp.setHeader("ETag", '"' + entityTag + '"');
+			resp.setDateHeader("Last-Modified", lastModified);
+		}
+		resp.setContentType(JSON_CONTENT_TYPE);
+		resp.setCharacterEncoding("UTF-8");
+		resp.setHeader("Vary", "Accept-Encoding");
+		if (gzip) {
+			resp.setHeader("Content-Encoding", "gzip");
+		}
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		String path = req.getPathInfo();
+		if (path == null) {
+			path = "";
+		} else {
+			if (path.startsWith("/")) {
+				path = path.substring(1);
+			}
+			if (path.endsWith("/")) {
+				path = path.substring(0, path.length() - 1);
+			}
+		}
+		if (path.length() == 0) {
+			path = SERVICE_INDEX_PATH;
 		}
 
-		if (content.size() > 0 && !resp.isCommitted()) {
-			resp.setContentLength(content.size());
-			resp.getOutputStream().write(content.toByteArray());
+		LiveMount mount = this.mount.get(); // snapshot
+		ThreadPoolExecutor renderExecutor = this.renderExecutor; // may be cleared concurrently by destroy()
+		if (ALBUM_IMAGE_PATH.equals(path) && renderExecutor != null && req.isAsyncSupported()) {
+			serveAsync(renderExecutor, path, req, resp, mount);
+		} else {
+			serve(path, req, resp, mount);
+		}
+	}
+
+	/*
+	 * Serve request on the render pool, releasing the container thread.
+	 * Answer 503 if the render pool rejects the request, i.e. its queue is full or it has been shut down.
+	 */
+	private void serveAsync(ThreadPoolExecutor renderExecutor, final String path, HttpServletRequest req, HttpServletResponse resp, final LiveMount mount) throws IOException {
+		final AsyncContext asyncContext = req.startAsync();
+		try {
+			renderExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					HttpServletResponse asyncResp = (HttpServletResponse) asyncContext.getResponse();
+					try {
+						serve(path, (HttpServletRequest) asyncContext.getRequest(), asyncResp, mount);
+					} catch (Exception e) {
+						LOGGER.log(Level.WARNING, "Could not serve " + path, e);
+						if (!asyncResp.isCommitted()) {
+							try {
+								asyncResp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+							} catch (IOException e2) {
+								LOGGER.log(Level.FINE, "Could not send error", e2);
+							}
+						}
+					} finally {
+						asyncContext.complete();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			try {
+				resp.setHeader("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+				resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			} finally {
+				asyncContext.complete();
+			}
+		}
+	}
+
+	/*
+	 * Send cached document from the response cache or from its spool file.
+	 * Answer false if the document is neither cached nor spooled (or its spool file has been deleted in the meantime).
+	 */
+	private boolean sendCached(String cacheKey, HttpServletRequest req, HttpServletResponse resp, LiveMount mount, List<String> ifNoneMatch, boolean gzip) throws IOException {
+		ByteArrayCache.Entry content = mount.getResponseCache().getEntry(cacheKey);
+		LiveMount.SpooledResponse spooled = content == null ? mount.getSpooledResponse(cacheKey) : null;
+		if (content == null && spooled == null) {
+			return false;
+		}
+		int length = content != null ? content.getBytes().length : spooled.getLength();
+		long checksum = content != null ? content.getChecksum() : spooled.getChecksum();
+
+		/*
+		 * validators issued for previous mounts match if the content is unchanged
+		 */
+		String contentTag = contentTag(length, checksum) + encodingTag(gzip);
+		String entityTag = mountTag(mount) + "-" + contentTag;
+		if (isNotModified(req, ifNoneMatch, mount, encodingTag(gzip), contentTag)) {
+			sendNotModified(resp, mount, entityTag);
+			return true;
+		}
+
+		InputStream input;
+		if (content != null) {
+			input = new ByteArrayInputStream(content.getBytes());
+		} else {
+			try {
+				input = Files.newInputStream(spooled.getFile());
+			} catch (NoSuchFileException e) { // mount has been disposed
+				return false;
+			}
+		}
+		try {
+			setDocumentHeaders(resp, entityTag, mount.getLastModified(), gzip);
+			if (gzip) {
+				resp.setContentLength(length);
+			} else { // the container will use chunked transfer encoding
+				input = new GZIPInputStream(input, 8192);
+			}
+			byte[] buffer = BUFFER_POOL.acquire();
+			try {
+				OutputStream output = resp.getOutputStream();
+				int count;
+				while ((count = input.read(buffer)) > 0) {
+					output.write(buffer, 0, count);
+				}
+				output.flush();
+			} finally {
+				BUFFER_POOL.release(buffer);
+			}
+		} finally {
+			input.close();
+		}
+		return true;
+	}
+
+	private void serve(String path, HttpServletRequest req, HttpServletResponse resp, LiveMount mount) throws ServletException, IOException {
+		if (!isDocument(path)) {
+			serveImage(path, req, resp, mount);
+			return;
+		}
+		boolean gzip = isGzipAccepted(req);
+		String cacheKey = getCacheKey(path, req);
+		Parameters parameters = parameters(req);
+		List<String> ifNoneMatch = isVolatile(path) ? null : parseEntityTags(req.getHeader("If-None-Match"));
+
+		if (isCached(path) && sendCached(cacheKey, req, resp, mount, ifNoneMatch, gzip)) {
+			return;
+		}
+		if (!isVolatile(path) && sendNotModifiedIfPresent(path, parameters, req, resp, mount, ifNoneMatch, encodingTag(gzip))) {
+			return;
+		}
+		if (isCached(path) && isForeignTag(ifNoneMatch, mount)) {
+			/*
+			 * tags issued for previous mounts need the content tag: render into the cache first
+			 */
+			if (Boolean.FALSE.equals(renderCached(path, parameters, cacheKey, mount, null, false))) {
+				resp.sendError(404);
+				return;
+			}
+			if (sendCached(cacheKey, req, resp, mount, ifNoneMatch, gzip)) {
+				return;
+			}
+		}
+
+		/*
+		 * stream document while rendering it
+		 */
+		ClientOutputStream client = new ClientOutputStream(resp, isVolatile(path) ? null : mountTag(mount) + encodingTag(gzip), mount.getLastModified(), gzip);
+		try {
+			Boolean found = isCached(path) ? renderCached(path, parameters, cacheKey, mount, client, gzip) : null;
+			if (found == null) { // not cached or joined a concurrent rendering
+				if (isCached(path) && sendCached(cacheKey, req, resp, mount, ifNoneMatch, gzip)) {
+					return;
+				}
+				found = renderDocument(path, parameters, cacheKey, mount, client, gzip);
+			}
+			if (!found) {
+				resp.sendError(404);
+				return;
+			}
+			client.finish();
+		} finally {
+			client.release();
+		}
+	}
+
+	private void serveImage(String path, HttpServletRequest req, HttpServletResponse resp, LiveMount mount) throws ServletException, IOException {
+		Parameters parameters = parameters(req);
+		List<String> ifNoneMatch = parseEntityTags(req.getHeader("If-None-Match"));
+		if (sendNotModifiedIfPresent(path, parameters, req, resp, mount, ifNoneMatch, "")) {
+			return;
+		}
+		Response response = renderImage(path, parameters, getCacheKey(path, req), mount);
+		if (response == null) {
+			resp.sendError(404);
+			return;
+		}
+
+		byte[] bytes = response.content.getBytes();
+		String contentTag = contentTag(bytes.length, response.content.getChecksum());
+		String entityTag = mountTag(mount) + "-" + contentTag;
+		if (isNotModified(req, ifNoneMatch, mount, "", contentTag)) {
+			sendNotModified(resp, mount, entityTag);
+			return;
+		}
+		resp.setHeader("ETag", '"' + entityTag + '"');
+		resp.setDateHeader("Last-Modified", mount.getLastModified());
+		resp.setContentType(response.contentType);
+		if (bytes.length > 0 && !resp.isCommitted()) {
+			resp.setContentLength(bytes.length);
+			resp.getOutputStream().write(bytes);
 			resp.getOutputStream().flush();		
 		}
 	}
@@ -17,6 +17,9 @@ package org.musicmount.live;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ExecutorService;
@@ -25,6 +28,7 @@ import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.musicmount.builder.impl.ImageType;
 import org.musicmount.io.file.FileResource;
 import org.musicmount.util.FolderTreeWatcher;
 import org.musicmount.util.ProgressHandler;
@@ -50,12 +54,24 @@ public class LiveMountUpdater {
 			this.command = new Runnable() {
 				@Override
 				public void run() {
-					LOGGER.info("Updating live mount...");
+					Set<Path> paths = takeChangedPaths();
+					LOGGER.info(String.format("Updating live mount (%d changed paths)...", paths.size()));
 					try {
-						servlet.setMount(builder.update(musicFolder, musicPath, ProgressHandler.NOOP));
-						LOGGER.info("Done.");
+						LiveMount mount = builder.update(musicFolder, musicPath, paths, ProgressHandler.NOOP);
+						try { // previous mount keeps serving while the new mount is being warmed up
+							servlet.warmUp(mount);
+						} catch (Exception e) {
+							LOGGER.log(Level.WARNING, "Could not warm up live mount", e);
+						}
+						if (servlet.setMount(mount)) {
+							LOGGER.info(String.format("Done (mount version %d).", mount.getVersion()));
+							prerender(mount);
+						} else { // superseded by a newer mount
+							mount.dispose();
+						}
 					} catch (Exception e) {
 						LOGGER.log(Level.WARNING, "Could not update live mount", e);
+						addChangedPaths(paths); // retry with next change (full update)
 					}
 				}
 			};
@@ -92,26 +108,65 @@ public class LiveMountUpdater {
 
 	private long lastChange = 0;
 
+	/*
+	 * paths reported by the folder watcher since the last update
+	 */
+	private final Set<Path> changedPaths = new HashSet<Path>();
+
 	private Timer updateTimer;
 	private Thread watcherThread;
+
+	private boolean prerenderThumbnails = false;
+	private ExecutorService prerenderExecutor;
+	private Future<?> prerenderFuture;
 	
 	public LiveMountUpdater(long delayMillis) {
 		this.delayMillis = delayMillis;
 	}
 
+	public boolean isPrerenderThumbnails() {
+		return prerenderThumbnails;
+	}
+	/**
+	 * @param prerenderThumbnails whether to render album thumbnails in the background after the mount has been (re)built
+	 */
+	public void setPrerenderThumbnails(boolean prerenderThumbnails) {
+		this.prerenderThumbnails = prerenderThumbnails;
+	}
+
+	/*
+	 * Render thumbnails of the given mount in the background, cancelling pre-rendering of a previous mount.
+	 */
+	synchronized void prerender(final LiveMount mount) {
+		if (prerenderExecutor == null) {
+			return;
+		}
+		if (prerenderFuture != null) {
+			prerenderFuture.cancel(true);
+		}
+		prerenderFuture = prerenderExecutor.submit(new Runnable() {
+			@Override
+			public void run() {
+				long start = System.currentTimeMillis();
+				int count = mount.prerenderImages(ImageType.Thumbnail);
+				LOGGER.fine(String.format("Pre-rendered %d thumbnails in %dms", count, System.currentTimeMillis() - start));
+			}
+		});
+	}
+
 	public void start(FileResource musicFolder, String musicPath, LiveMountBuilder builder, LiveMountServlet servlet) throws IOException {
 		watcherThread = new Thread(new FolderTreeWatcher(musicFolder.getPath(), new FolderTreeWatcher.Delegate() {
 			@Override
 			public void pathModified(Path path) {
-				lastChange = System.currentTimeMillis();
+				pathChanged(path);
 			}
 			@Override
 			public void pathDeleted(Path path) {
-				lastChange = System.currentTimeMillis();
+				pathChanged(path);
 			}
 			@Override
 			public void pathAdded(Path path) {
-				lastChange = System.currentTimeMillis();
+				pathChanged(path);
 			}
 		}));
 		watcherThread.start();
@@ -119,8 +174,30 @@ public class LiveMountUpdater {
 		updateTimer = new Timer(true);
 		long periodMillis = Math.max(1000L, delayMillis / 10); // at most once a second
 		updateTimer.schedule(new UpdateTask(musicFolder, musicPath, builder, servlet), periodMillis, periodMillis);
+
+		if (prerenderThumbnails) {
+			synchronized (this) {
+				prerenderExecutor = Executors.newSingleThreadExecutor();
+			}
+			prerender(servlet.getMount());
+		}
 	}
 	
+	synchronized void pathChanged(Path path) {
+		changedPaths.add(path);
+		lastChange = System.currentTimeMillis();
+	}
+
+	synchronized void addChangedPaths(Collection<Path> paths) {
+		changedPaths.addAll(paths);
+	}
+
+	synchronized Set<Path> takeChangedPaths() {
+		Set<Path> paths = new HashSet<Path>(changedPaths);
+		changedPaths.clear();
+		return paths;
+	}
+
 	long getLastChange() {
 		return lastChange;
 	}
@@ -142,5 +219,12 @@ public class LiveMountUpdater {
 			watcherThread.interrupt();
 			watcherThread = null;
 		}
+		synchronized (this) {
+			if (prerenderExecutor != null) {
+				prerenderExecutor.shutdownNow();
+				prerenderExecutor = null;
+				prerenderFuture = null;
+			}
+		}
 	}
 }
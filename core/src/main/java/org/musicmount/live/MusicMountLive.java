@@ -28,14 +28,19 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.imageio.ImageIO;
+import javax.management.JMException;
 
 import org.musicmount.builder.MusicMountBuildConfig;
 import org.musicmount.io.file.FileResource;
+import org.musicmount.server.AsyncAccessLog;
 import org.musicmount.server.MusicMountServer;
 import org.musicmount.server.MusicMountServer.AccessLog;
 import org.musicmount.server.MusicMountServer.FolderContext;
 import org.musicmount.server.MusicMountServer.MountContext;
+import org.musicmount.server.MusicMountServerConfig;
 import org.musicmount.server.MusicMountServerJetty;
+import org.musicmount.server.ServerMetrics;
+import org.musicmount.server.ServerMetrics.CacheCounts;
 import org.musicmount.util.LoggingProgressHandler;
 import org.musicmount.util.ProgressHandler;
 import org.musicmount.util.VersionUtil;
@@ -58,34 +63,38 @@ public class MusicMountLive {
 	 */
 	static final String API_VERSION = VersionUtil.getSpecificationVersion();	
 
-	public static final AccessLog LOGGER_ACCESS_LOG = new AccessLog() {
+	public static final AsyncAccessLog LOGGER_ACCESS_LOG = new AsyncAccessLog() {
 		@Override
-		public void log(AccessLog.Entry entry) {
-			if (LOGGER.isLoggable(Level.FINE)) {
-				StringBuilder builder = new StringBuilder();
-				String uri = entry.getRequestURI();
+		protected boolean isEnabled() {
+			return LOGGER.isLoggable(Level.FINE);
+		}
+		@Override
+		protected void write(AccessLog.Entry entry) {
+			StringBuilder builder = new StringBuilder();
+			String uri = entry.getRequestURI();
+			if (uri.indexOf('%') >= 0) {
 				try {
 					uri = URLDecoder.decode(uri, StandardCharsets.UTF_8.name());
 				} catch (UnsupportedEncodingException e) {
 					// should not happen
 				}
-				final int methodAndURIFormatLength = 39; // magic... log line length = 100
-				int maxURILength = methodAndURIFormatLength - 1 - entry.getRequestMethod().length();
-				if (uri.length() > maxURILength) {
-					uri = "..." + uri.substring(uri.length() - maxURILength + 3);
-				}
-				String methodAndURI = String.format("%s %s", entry.getRequestMethod(), uri);
-				builder.append(String.format(String.format("%%-%ds", methodAndURIFormatLength), methodAndURI));
-				builder.append(String.format("%4d", entry.getResponseStatus()));
-				String contentLengthHeader = entry.getResponseHeader("Content-Length");
-				if (contentLengthHeader != null) {
-					builder.append(String.format(Locale.ENGLISH, "%,11dB", Long.valueOf(contentLengthHeader)));
-				} else {
-					builder.append("            ");
-				}
-				builder.append(String.format(Locale.ENGLISH, "%,7dms", entry.getResponseTimestamp() - entry.getRequestTimestamp()));
-				LOGGER.log(Level.FINE, builder.toString());
 			}
+			final int methodAndURIFormatLength = 39; // magic... log line length = 100
+			int maxURILength = methodAndURIFormatLength - 1 - entry.getRequestMethod().length();
+			if (uri.length() > maxURILength) {
+				uri = "..." + uri.substring(uri.length() - maxURILength + 3);
+			}
+			String methodAndURI = String.format("%s %s", entry.getRequestMethod(), uri);
+			builder.append(String.format(String.format("%%-%ds", methodAndURIFormatLength), methodAndURI));
+			builder.append(String.format("%4d", entry.getResponseStatus()));
+			String contentLengthHeader = entry.getResponseHeader("Content-Length");
+			if (contentLengthHeader != null) {
+				builder.append(String.format(Locale.ENGLISH, "%,11dB", Long.valueOf(contentLengthHeader)));
+			} else {
+				builder.append("            ");
+			}
+			builder.append(String.format(Locale.ENGLISH, "%,7dms", entry.getResponseTimestamp() - entry.getRequestTimestamp()));
+			LOGGER.log(Level.FINE, builder.toString());
 		}
 	};
 	
@@ -93,26 +102,58 @@ public class MusicMountLive {
 
 	private final MusicMountBuildConfig config;
 	private final MusicMountServer server;
+	private final ServerMetrics metrics;
 	private final LiveMountUpdater updater;
+	private LiveMountBuilder mountBuilder;
 
 	public MusicMountLive() {
 		this(new MusicMountBuildConfig());
 	}
 	
 	public MusicMountLive(MusicMountBuildConfig config) {
-		this(config, new MusicMountServerJetty(LOGGER_ACCESS_LOG));
+		this(config, new MusicMountServerConfig());
+	}
+
+	public MusicMountLive(MusicMountBuildConfig config, MusicMountServerConfig serverConfig) {
+		this(config, serverConfig, new ServerMetrics(LOGGER_ACCESS_LOG));
+	}
+
+	private MusicMountLive(MusicMountBuildConfig config, MusicMountServerConfig serverConfig, ServerMetrics metrics) {
+		this(config, new MusicMountServerJetty(metrics, serverConfig), metrics);
 	}
 	
 	public MusicMountLive(MusicMountBuildConfig config, MusicMountServer server) {
+		this(config, server, null);
+	}
+
+	private MusicMountLive(MusicMountBuildConfig config, MusicMountServer server, ServerMetrics metrics) {
 		this.config = config;
 		this.server = server;
+		this.metrics = metrics;
 		this.updater = new LiveMountUpdater(60 * 1000L); // delay update for 60 seconds after change  
 	}
 	
 	public MusicMountBuildConfig getConfig() {
 		return config;
 	}
+
+	/**
+	 * @return request metrics, or <code>null</code> if the server has been provided by the caller
+	 */
+	public ServerMetrics getMetrics() {
+		return metrics;
+	}
 	
+	/**
+	 * @return whether album thumbnails are rendered in the background after the mount has been (re)built
+	 */
+	public boolean isPrerenderThumbnails() {
+		return updater.isPrerenderThumbnails();
+	}
+	public void setPrerenderThumbnails(boolean prerenderThumbnails) {
+		updater.setPrerenderThumbnails(prerenderThumbnails);
+	}
+
 	public ProgressHandler getProgressHandler() {
 		return progressHandler;
 	}
@@ -159,8 +200,28 @@ public class MusicMountLive {
 		LOGGER.info("Starting Server...");
 		LOGGER.info("Music folder: " + musicFolder.getPath());
 
-		LiveMountBuilder mountBuilder = new LiveMountBuilder(config);
-		LiveMountServlet servlet = new LiveMountServlet(mountBuilder.update(musicFolder, getMusicPath(), progressHandler));
+		mountBuilder = new LiveMountBuilder(config.clone());
+		final LiveMountServlet servlet = new LiveMountServlet(mountBuilder.update(musicFolder, getMusicPath(), progressHandler));
+		mountBuilder.getConfig().setFull(false); // never do a full build when updating
+		if (metrics != null) {
+			metrics.setContextPaths(getMusicPath(), getMountPath());
+			metrics.setResponseCache(new CacheCounts() { // counts of current mount
+				@Override
+				public long getHitCount() {
+					return servlet.getMount().getResponseCache().getHitCount();
+				}
+				@Override
+				public long getMissCount() {
+					return servlet.getMount().getResponseCache().getMissCount();
+				}
+			});
+			servlet.setMetrics(metrics);
+			try {
+				metrics.register("live");
+			} catch (JMException e) {
+				LOGGER.log(Level.WARNING, "Could not register metrics MBeans", e);
+			}
+		}
 		
 		FolderContext music = new FolderContext(getMusicPath(), musicFolder.getPath().toFile());
 		MountContext mount = new MountContext(getMountPath(), servlet);
@@ -176,10 +237,8 @@ public class MusicMountLive {
 		LOGGER.info(String.format("--------------"));
 		LOGGER.info("Done.");
 
-		LiveMountBuilder updateBuilder = new LiveMountBuilder(config.clone(), mountBuilder.getRepository());
-		updateBuilder.getConfig().setFull(false); // never do a full build when updating
 		try {
-			updater.start(musicFolder, getMusicPath(), updateBuilder, servlet);
+			updater.start(musicFolder, getMusicPath(), mountBuilder, servlet); // keeps builder's asset store resident
 			LOGGER.info("Auto updater is ready.");
 		} catch (IOException e) {
 			LOGGER.log(Level.WARNING, "Auto updater could not be started", e);
@@ -199,7 +258,14 @@ public class MusicMountLive {
 		if (updater.isStarted()) {
 			updater.stop();
 		}
+		if (mountBuilder != null) {
+			mountBuilder.close(); // finish saving asset store
+		}
 		server.stop();
+		if (metrics != null) {
+			metrics.unregister();
+		}
+		LOGGER_ACCESS_LOG.close(); // flush pending entries
 		LOGGER.info("Done.");
 	}
 
@@ -19,8 +19,11 @@ import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.musicmount.builder.MusicMountBuildConfig;
 import org.musicmount.io.file.FileResource;
 import org.musicmount.io.file.FileResourceProvider;
+import org.musicmount.server.MusicMountServerConfig;
+import org.musicmount.server.MusicMountServerConfig.ConnectorType;
 import org.musicmount.util.BonjourService;
 import org.musicmount.util.LoggingUtil;
 
@@ -45,11 +48,22 @@ public class MusicMountLiveCommand {
 		System.err.println("       --unknownGenre     report missing genre as 'Unknown'");
 		System.err.println("       --noTrackIndex     do not generate a track index");
 		System.err.println("       --noVariousArtists exclude 'Various Artists' from album artist index");
+		System.err.println("       --shardedIndex     split album/track index into one document per letter");
 		System.err.println("       --port <port>      launch HTTP server on specified port (default 8080)");
 		System.err.println("       --user <user>      login user");
 		System.err.println("       --password <pass>  login password");
+		System.err.println("       --connector <type> connector type ('nio' or 'bio', default depends on server)");
+		System.err.println("       --acceptors <n>    number of acceptor threads");
+		System.err.println("       --minThreads <n>   minimum number of worker threads");
+		System.err.println("       --maxThreads <n>   maximum number of worker threads");
+		System.err.println("       --queueSize <n>    maximum number of requests waiting for a worker thread");
+		System.err.println("       --idleTimeout <s>  idle connection timeout in seconds");
+		System.err.println("       --musicLimit <n>   maximum number of concurrent requests for music files");
+		System.err.println("       --mountLimit <n>   maximum number of concurrent requests for mount documents");
 		System.err.println("       --bonjour          publish as bonjour service ('Live @ <hostName>')");
+		System.err.println("       --prerender        pre-render album thumbnails in the background");
 		System.err.println("       --full             full parse, don't use asset store");
+		System.err.println("       --compact          save memory on very large libraries");
 		System.err.println("       --verbose          more detailed console output");
 		System.err.close();
 		System.exit(1);
@@ -62,35 +76,46 @@ public class MusicMountLiveCommand {
 	 * @throws Exception something went wrong...
 	 */
 	public static void execute(String command, String... args) throws Exception {
-		MusicMountLive live = new MusicMountLive();
-		
+		MusicMountBuildConfig config = new MusicMountBuildConfig();
+		MusicMountServerConfig serverConfig = new MusicMountServerConfig();
+
 		int optionPort = 8080;
 		String optionUser = null;
 		String optionPassword = null;
 		boolean optionVerbose = false;
 		boolean optionBonjour = false;
+		boolean optionPrerender = false;
 
 		int optionsLength = 0;
 		boolean optionsDone = false;
 		while (optionsLength < args.length && !optionsDone) {
 			switch (args[optionsLength]) {
 			case "--retina":
-				live.getConfig().setRetina(true);
+				config.setRetina(true);
 				break;
 			case "--grouping":
-				live.getConfig().setGrouping(true);
+				config.setGrouping(true);
 				break;
 			case "--unknownGenre":
-				live.getConfig().setUnknownGenre(true);
+				config.setUnknownGenre(true);
 				break;
 			case "--noTrackIndex":
-				live.getConfig().setNoTrackIndex(true);
+				config.setNoTrackIndex(true);
 				break;
 			case "--noVariousArtists":
-				live.getConfig().setNoVariousArtists(true);
+				config.setNoVariousArtists(true);
+				break;
+			case "--shardedIndex":
+				config.setShardedIndex(true);
+				break;
+			case "--compact":
+				config.setCompact(true);
+				break;
+			case "--prerender":
+				optionPrerender = true;
 				break;
 			case "--full":
-				live.getConfig().setFull(true);
+				config.setFull(true);
 				break;
 			case "--port":
 				if (++optionsLength == args.length) {
@@ -110,6 +135,58 @@ public class MusicMountLiveCommand {
 				}
 				optionPassword = args[optionsLength];
 				break;
+			case "--connector":
+				if (++optionsLength == args.length) {
+					exitWithError(command, "invalid arguments");
+				}
+				try {
+					serverConfig.setConnectorType(ConnectorType.valueOf(args[optionsLength].toUpperCase()));
+				} catch (IllegalArgumentException e) {
+					exitWithError(command, "unknown connector type: " + args[optionsLength]);
+				}
+				break;
+			case "--acceptors":
+				if (++optionsLength == args.length) {
+					exitWithError(command, "invalid arguments");
+				}
+				serverConfig.setAcceptors(Integer.parseInt(args[optionsLength]));
+				break;
+			case "--minThreads":
+				if (++optionsLength == args.length) {
+					exitWithError(command, "invalid arguments");
+				}
+				serverConfig.setMinThreads(Integer.parseInt(args[optionsLength]));
+				break;
+			case "--maxThreads":
+				if (++optionsLength == args.length) {
+					exitWithError(command, "invalid arguments");
+				}
+				serverConfig.setMaxThreads(Integer.parseInt(args[optionsLength]));
+				break;
+			case "--queueSize":
+				if (++optionsLength == args.length) {
+					exitWithError(command, "invalid arguments");
+				}
+				serverConfig.setQueueSize(Integer.parseInt(args[optionsLength]));
+				break;
+			case "--idleTimeout":
+				if (++optionsLength == args.length) {
+					exitWithError(command, "invalid arguments");
+				}
+				serverConfig.setIdleTimeout(Integer.parseInt(args[optionsLength]));
+				break;
+			case "--musicLimit":
+				if (++optionsLength == args.length) {
+					exitWithError(command, "invalid arguments");
+				}
+				serverConfig.setMusicLimit(Integer.parseInt(args[optionsLength]));
+				break;
+			case "--mountLimit":
+				if (++optionsLength == args.length) {
+					exitWithError(command, "invalid arguments");
+				}
+				serverConfig.setMountLimit(Integer.parseInt(args[optionsLength]));
+				break;
 			case "--bonjour":
 				optionBonjour = true;
 				break;
@@ -151,6 +228,9 @@ public class MusicMountLiveCommand {
 		if ((optionUser == null) != (optionPassword == null)) {
 			exitWithError(command, String.format("either both or none of user/password must be given: %s/%s", optionUser, optionPassword));
 		}
+		if (serverConfig.getMinThreads() > 0 && serverConfig.getMaxThreads() > 0 && serverConfig.getMinThreads() > serverConfig.getMaxThreads()) {
+			exitWithError(command, String.format("minimum number of threads exceeds maximum: %d/%d", serverConfig.getMinThreads(), serverConfig.getMaxThreads()));
+		}
 		
 		/*
 		 * Configure logging
@@ -160,6 +240,8 @@ public class MusicMountLiveCommand {
 		/*
 		 * Start server
 		 */
+		MusicMountLive live = new MusicMountLive(config, serverConfig);
+		live.setPrerenderThumbnails(optionPrerender);
 		try {
 			live.start(musicFolder, optionPort, optionUser, optionPassword);
 		} catch (Exception e) {
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.musicmount.server.MusicMountServer.AccessLog;
+import org.musicmount.util.RingBuffer;
+
+/**
+ * Access log which writes entries on a background thread.
+ * The request thread only copies the entry and puts it into a bounded lock-free ring buffer.
+ * Once the buffer is half full, only every n-th entry is accepted (sampling);
+ * if it is full, entries are dropped. The number of skipped entries is reported periodically.
+ * Subclasses implement {@link #write(Entry)}, which is invoked on the background thread.
+ * Of the response headers, only <code>Content-Length</code> is available there (and the number of bytes sent).
+ * The background thread is started on demand and stopped by {@link #close()}.
+ */
+public abstract class AsyncAccessLog implements AccessLog {
+	static final Logger LOGGER = Logger.getLogger(AsyncAccessLog.class.getName());
+
+	public static final int DEFAULT_CAPACITY = 4096;
+	public static final int DEFAULT_SAMPLE_RATE = 10;
+
+	private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+	private static final long REPORT_MILLIS = 10 * 1000L;
+	private static final long CLOSE_MILLIS = 5 * 1000L;
+
+	/**
+	 * Copy of an entry, safe to read after the request has completed.
+	 */
+	static final class Snapshot implements Entry {
+		private final long requestTimestamp;
+		private final String requestURI;
+		private final String requestMethod;
+		private final int responseStatus;
+		private final long responseTimestamp;
+		private final String contentLength;
+		private final long bytesSent;
+
+		Snapshot(Entry entry) {
+			this.requestTimestamp = entry.getRequestTimestamp();
+			this.requestURI = entry.getRequestURI();
+			this.requestMethod = entry.getRequestMethod();
+			this.responseStatus = entry.getResponseStatus();
+			this.responseTimestamp = entry.getResponseTimestamp();
+			this.contentLength = entry.getResponseHeader("Content-Length");
+			this.bytesSent = entry.getBytesSent();
+		}
+
+		@Override
+		public long getRequestTimestamp() {
+			return requestTimestamp;
+		}
+		@Override
+		public String getRequestURI() {
+			return requestURI;
+		}
+		@Override
+		public String getRequestMethod() {
+			return requestMethod;
+		}
+		@Override
+		public int getResponseStatus() {
+			return responseStatus;
+		}
+		@Override
+		public long getResponseTimestamp() {
+			return responseTimestamp;
+		}
+		@Override
+		public String getResponseHeader(String header) {
+			return "Content-Length".equalsIgnoreCase(header) ? contentLength : null;
+		}
+		@Override
+		public long getBytesSent() {
+			return bytesSent;
+		}
+	}
+
+	private final RingBuffer<Snapshot> buffer;
+	private final int sampleThreshold;
+	private final int sampleRate;
+	private final AtomicLong sampleCount = new AtomicLong();
+	private final AtomicLong skippedCount = new AtomicLong();
+	private final AtomicReference<Thread> drainThread = new AtomicReference<>();
+	private final Object drainLock = new Object(); // single consumer, even if restarted while flushing
+	private long reportedCount; // guarded by drainLock
+
+	protected AsyncAccessLog() {
+		this(DEFAULT_CAPACITY, DEFAULT_SAMPLE_RATE);
+	}
+
+	/**
+	 * @param capacity ring buffer capacity
+	 * @param sampleRate accept every n-th entry when the buffer is half full (<code>1</code> to disable sampling)
+	 */
+	protected AsyncAccessLog(int capacity, int sampleRate) {
+		if (sampleRate < 1) {
+			throw new IllegalArgumentException("Invalid sample rate: " + sampleRate);
+		}
+		this.buffer = new RingBuffer<>(capacity);
+		this.sampleThreshold = buffer.capacity() / 2;
+		this.sampleRate = sampleRate;
+	}
+
+	/**
+	 * Checked on the request thread; no entry is copied if this returns <code>false</code>.
+	 * @return whether entries are logged at all
+	 */
+	protected boolean isEnabled() {
+		return true;
+	}
+
+	/**
+	 * Write entry (called on the background thread).
+	 * @param entry entry copy
+	 */
+	protected abstract void write(Entry entry);
+
+	/**
+	 * Report skipped entries (called on the background thread).
+	 * @param count number of entries skipped due to sampling or a full buffer
+	 */
+	protected void skipped(long count) {
+		LOGGER.info(String.format("Access log skipped %d entries", count));
+	}
+
+	/**
+	 * @return total number of entries skipped so far
+	 */
+	public long getSkippedCount() {
+		return skippedCount.get();
+	}
+
+	@Override
+	public final void log(Entry entry) {
+		if (!isEnabled()) {
+			return;
+		}
+		if (buffer.size() >= sampleThreshold && sampleCount.incrementAndGet() % sampleRate != 0) {
+			skippedCount.incrementAndGet();
+			return;
+		}
+		if (!buffer.offer(new Snapshot(entry))) {
+			skippedCount.incrementAndGet();
+			return;
+		}
+		if (drainThread.get() == null) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					drain();
+				}
+			}, "musicmount-access-log");
+			thread.setDaemon(true);
+			if (drainThread.compareAndSet(null, thread)) {
+				thread.start();
+			}
+		}
+	}
+
+	/**
+	 * Stop the background thread after it has written the remaining entries.
+	 * Waits up to a few seconds for the thread to finish. Logging again restarts the thread.
+	 */
+	public void close() {
+		Thread thread = drainThread.getAndSet(null);
+		if (thread == null) {
+			return;
+		}
+		LockSupport.unpark(thread);
+		try {
+			thread.join(CLOSE_MILLIS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (thread.isAlive()) {
+			LOGGER.warning("Access log thread did not finish in time");
+		}
+	}
+
+	/**
+	 * Background loop: write entries and periodically report skipped entries.
+	 * When closed, write the remaining entries and report skipped entries.
+	 */
+	void drain() {
+		synchronized (drainLock) {
+			long reportTime = System.currentTimeMillis();
+			while (drainThread.get() == Thread.currentThread()) {
+				Snapshot entry = buffer.poll();
+				if (entry != null) {
+					writeEntry(entry);
+				} else {
+					long now = System.currentTimeMillis();
+					if (now - reportTime >= REPORT_MILLIS) {
+						report();
+						reportTime = now;
+					}
+					LockSupport.parkNanos(IDLE_NANOS);
+				}
+			}
+			for (Snapshot entry = buffer.poll(); entry != null; entry = buffer.poll()) {
+				writeEntry(entry);
+			}
+			report();
+		}
+	}
+
+	private void writeEntry(Snapshot entry) {
+		try {
+			write(entry);
+		} catch (RuntimeException e) {
+			LOGGER.log(Level.WARNING, "Could not write access log entry", e);
+		}
+	}
+
+	private void report() {
+		long count = skippedCount.get();
+		if (count > reportedCount) {
+			skipped(count - reportedCount);
+			reportedCount = count;
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.musicmount.util.LatencyHistogram;
+
+/**
+ * Request counters and latencies of an endpoint (latencies in milliseconds).
+ */
+public class EndpointMetrics implements EndpointMetricsMBean {
+	private final String name;
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong errorCount = new AtomicLong();
+	private final AtomicLong notModifiedCount = new AtomicLong();
+	private final AtomicLong bytesSent = new AtomicLong();
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	EndpointMetrics(String name) {
+		this.name = name;
+	}
+
+	void record(int status, long contentLength, long millis) {
+		requestCount.incrementAndGet();
+		if (status >= 400) {
+			errorCount.incrementAndGet();
+		} else if (status == 304) {
+			notModifiedCount.incrementAndGet();
+		}
+		if (contentLength > 0) {
+			bytesSent.addAndGet(contentLength);
+		}
+		latency.record(millis);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+
+	/**
+	 * @return number of responses with status 4xx/5xx
+	 */
+	@Override
+	public long getErrorCount() {
+		return errorCount.get();
+	}
+
+	/**
+	 * @return number of conditional requests answered from the client's cache (status 304)
+	 */
+	@Override
+	public long getNotModifiedCount() {
+		return notModifiedCount.get();
+	}
+
+	/**
+	 * @return sum of response content lengths (as far as known)
+	 */
+	@Override
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	@Override
+	public double getMeanLatency() {
+		return latency.getMean();
+	}
+
+	@Override
+	public long getMaxLatency() {
+		return latency.getMax();
+	}
+
+	@Override
+	public long getLatency50() {
+		return latency.getPercentile(50.0);
+	}
+
+	@Override
+	public long getLatency95() {
+		return latency.getPercentile(95.0);
+	}
+
+	@Override
+	public long getLatency99() {
+		return latency.getPercentile(99.0);
+	}
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.server;
+
+/**
+ * JMX view of {@link EndpointMetrics}.
+ */
+public interface EndpointMetricsMBean {
+	long getRequestCount();
+	long getErrorCount();
+	long getNotModifiedCount();
+	long getBytesSent();
+	double getMeanLatency();
+	long getMaxLatency();
+	long getLatency50();
+	long getLatency95();
+	long getLatency99();
+}
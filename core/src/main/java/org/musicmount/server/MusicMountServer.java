@@ -28,6 +28,7 @@ public interface MusicMountServer {
 			int getResponseStatus();
 			long getResponseTimestamp();
 			String getResponseHeader(String header);
+			long getBytesSent(); // -1 if unknown (use Content-Length)
 		}
 		void log(Entry entry);
 	}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.server;
+
+/**
+ * Connector and thread pool settings of the embedded servers.
+ * Zero values leave the server's defaults in place.
+ */
+public final class MusicMountServerConfig implements Cloneable {
+	public enum ConnectorType {
+		/**
+		 * non-blocking connector
+		 */
+		NIO,
+		/**
+		 * blocking connector (one thread per connection)
+		 */
+		BIO
+	}
+
+	private ConnectorType connectorType = null;
+	private int acceptors = 0;
+	private int minThreads = 0;
+	private int maxThreads = 0;
+	private int queueSize = 0;
+	private int idleTimeout = 0;
+	private int musicLimit = 0;
+	private int mountLimit = 0;
+
+	@Override
+	public MusicMountServerConfig clone() {
+		try {
+			return (MusicMountServerConfig)super.clone();
+		} catch (CloneNotSupportedException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return connector type or <code>null</code> for the server's default connector
+	 */
+	public ConnectorType getConnectorType() {
+		return connectorType;
+	}
+	public void setConnectorType(ConnectorType connectorType) {
+		this.connectorType = connectorType;
+	}
+
+	/**
+	 * @return number of acceptor threads
+	 */
+	public int getAcceptors() {
+		return acceptors;
+	}
+	public void setAcceptors(int acceptors) {
+		this.acceptors = acceptors;
+	}
+
+	/**
+	 * @return minimum number of worker threads
+	 */
+	public int getMinThreads() {
+		return minThreads;
+	}
+	public void setMinThreads(int minThreads) {
+		this.minThreads = minThreads;
+	}
+
+	/**
+	 * @return maximum number of worker threads (including acceptor and selector threads for Jetty)
+	 */
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+	public void setMaxThreads(int maxThreads) {
+		this.maxThreads = maxThreads;
+	}
+
+	/**
+	 * @return maximum number of requests waiting for a worker thread
+	 */
+	public int getQueueSize() {
+		return queueSize;
+	}
+	public void setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+	}
+
+	/**
+	 * @return idle connection timeout in seconds
+	 */
+	public int getIdleTimeout() {
+		return idleTimeout;
+	}
+	public void setIdleTimeout(int idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * @return maximum number of concurrent requests to the music context
+	 */
+	public int getMusicLimit() {
+		return musicLimit;
+	}
+	public void setMusicLimit(int musicLimit) {
+		this.musicLimit = musicLimit;
+	}
+
+	/**
+	 * @return maximum number of concurrent requests to the mount context
+	 */
+	public int getMountLimit() {
+		return mountLimit;
+	}
+	public void setMountLimit(int mountLimit) {
+		this.mountLimit = mountLimit;
+	}
+}
@@ -15,32 +15,41 @@
  */
 package org.musicmount.server;
 
+import java.util.EnumSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.servlet.DispatcherType;
+
 import org.eclipse.jetty.http.MimeTypes;
 import org.eclipse.jetty.security.ConstraintMapping;
 import org.eclipse.jetty.security.ConstraintSecurityHandler;
 import org.eclipse.jetty.security.HashLoginService;
 import org.eclipse.jetty.security.SecurityHandler;
 import org.eclipse.jetty.security.authentication.BasicAuthenticator;
+import org.eclipse.jetty.server.AbstractConnector;
 import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.RequestLog;
 import org.eclipse.jetty.server.Response;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.bio.SocketConnector;
 import org.eclipse.jetty.server.handler.ContextHandlerCollection;
 import org.eclipse.jetty.server.handler.DefaultHandler;
 import org.eclipse.jetty.server.handler.GzipHandler;
 import org.eclipse.jetty.server.handler.HandlerCollection;
 import org.eclipse.jetty.server.handler.RequestLogHandler;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
 import org.eclipse.jetty.servlet.DefaultServlet;
+import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.util.component.AbstractLifeCycle;
 import org.eclipse.jetty.util.resource.Resource;
 import org.eclipse.jetty.util.security.Constraint;
 import org.eclipse.jetty.util.security.Credential;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.musicmount.server.MusicMountServerConfig.ConnectorType;
 import org.musicmount.util.LoggingUtil;
 
 public class MusicMountServerJetty implements MusicMountServer {
@@ -70,6 +79,10 @@ public class MusicMountServerJetty implements MusicMountServer {
 						return response.getHeader(header);
 					}
 					@Override
+					public long getBytesSent() {
+						return response.getContentCount();
+					}
+					@Override
 					public String getRequestURI() {
 						return request.getRequestURI();
 					}
@@ -111,9 +124,50 @@ public class MusicMountServerJetty implements MusicMountServer {
 
 	private Server server;
 	private final AccessLog accessLog;
+	private final MusicMountServerConfig config;
 	
 	public MusicMountServerJetty(AccessLog accessLog) {
+		this(accessLog, new MusicMountServerConfig());
+	}
+
+	public MusicMountServerJetty(AccessLog accessLog, MusicMountServerConfig config) {
 		this.accessLog = accessLog;
+		this.config = config;
+	}
+
+	private Server createServer(int port) {
+		AbstractConnector connector = config.getConnectorType() == ConnectorType.BIO ? new SocketConnector() : new SelectChannelConnector();
+		connector.setPort(port);
+		if (config.getAcceptors() > 0) {
+			connector.setAcceptors(config.getAcceptors());
+		}
+		if (config.getIdleTimeout() > 0) {
+			connector.setMaxIdleTime(config.getIdleTimeout() * 1000);
+		}
+
+		QueuedThreadPool threadPool = new QueuedThreadPool();
+		if (config.getMinThreads() > 0) {
+			threadPool.setMinThreads(config.getMinThreads());
+		}
+		if (config.getMaxThreads() > 0) {
+			threadPool.setMaxThreads(config.getMaxThreads());
+		}
+		if (config.getQueueSize() > 0) {
+			threadPool.setMaxQueued(config.getQueueSize());
+		}
+
+		Server server = new Server();
+		server.setThreadPool(threadPool);
+		server.addConnector(connector);
+		return server;
+	}
+
+	private void addRequestLimit(ServletContextHandler context, int limit) {
+		if (limit > 0) {
+			FilterHolder limitFilter = new FilterHolder(new RequestLimitFilter(limit));
+			limitFilter.setAsyncSupported(true);
+			context.addFilter(limitFilter, "/*", EnumSet.of(DispatcherType.REQUEST));
+		}
 	}
 		
 	@Override
@@ -142,6 +196,9 @@ public class MusicMountServerJetty implements MusicMountServer {
         musicServlet.setInitParameter("dirAllowed", "false");
         musicContext.addServlet(musicServlet, "/*");
 
+        addRequestLimit(mountContext, config.getMountLimit());
+        addRequestLimit(musicContext, config.getMusicLimit());
+
         GzipHandler gzipMountContext = new GzipHandler();
         gzipMountContext.setMimeTypes(MimeTypes.TEXT_JSON);
         gzipMountContext.setHandler(mountContext);
@@ -155,7 +212,7 @@ public class MusicMountServerJetty implements MusicMountServer {
         HandlerCollection handlers = new HandlerCollection();
         handlers.setHandlers(new Handler[]{ contexHandlers, new DefaultHandler(), requestLogHandler });
 
-        server = new Server(port);
+        server = createServer(port);
         server.setHandler(handlers);
         server.setGracefulShutdown(1000);
         server.setStopAtShutdown(true);
@@ -168,6 +225,7 @@ public class MusicMountServerJetty implements MusicMountServer {
         mountContext.setContextPath(mount.getPath());
         mountContext.setSecurityHandler(user == null ? null : basicAuthentication("MusicMount", user, password));
         ServletHolder mountServlet = new ServletHolder(mount.getServlet());
+        mountServlet.setAsyncSupported(true);
         mountContext.addServlet(mountServlet, "/*");
 
         ServletContextHandler musicContext = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
@@ -182,12 +240,11 @@ public class MusicMountServerJetty implements MusicMountServer {
         musicServlet.setInitParameter("dirAllowed", "false");
         musicContext.addServlet(musicServlet, "/*");
 
-        GzipHandler gzipMountContext = new GzipHandler();
-        gzipMountContext.setMimeTypes(MimeTypes.TEXT_JSON);
-        gzipMountContext.setHandler(mountContext);
+        addRequestLimit(mountContext, config.getMountLimit());
+        addRequestLimit(musicContext, config.getMusicLimit());
 
         ContextHandlerCollection contexHandlers = new ContextHandlerCollection();
-        contexHandlers.setHandlers(new Handler[] { gzipMountContext, musicContext });
+        contexHandlers.setHandlers(new Handler[] { mountContext, musicContext }); // live mount servlet sends pre-compressed documents
         
         RequestLogHandler requestLogHandler = new RequestLogHandler();
         requestLogHandler.setRequestLog(new ConsoleRequestLog());   
@@ -195,7 +252,7 @@ public class MusicMountServerJetty implements MusicMountServer {
         HandlerCollection handlers = new HandlerCollection();
         handlers.setHandlers(new Handler[]{ contexHandlers, new DefaultHandler(), requestLogHandler });
 
-        server = new Server(port);
+        server = createServer(port);
         server.setHandler(handlers);
         server.setGracefulShutdown(1000);
         server.setStopAtShutdown(true);
@@ -24,20 +24,26 @@ import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
 
 import org.apache.catalina.Context;
 import org.apache.catalina.LifecycleState;
 import org.apache.catalina.Wrapper;
 import org.apache.catalina.authenticator.BasicAuthenticator;
+import org.apache.catalina.connector.Connector;
 import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.core.StandardThreadExecutor;
 import org.apache.catalina.deploy.FilterDef;
 import org.apache.catalina.deploy.FilterMap;
 import org.apache.catalina.deploy.LoginConfig;
@@ -47,6 +53,10 @@ import org.apache.catalina.realm.GenericPrincipal;
 import org.apache.catalina.realm.RealmBase;
 import org.apache.catalina.servlets.DefaultServlet;
 import org.apache.catalina.startup.Tomcat;
+import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.http11.Http11NioProtocol;
+import org.apache.coyote.http11.Http11Protocol;
+import org.musicmount.server.MusicMountServerConfig.ConnectorType;
 import org.musicmount.util.LoggingUtil;
 
 public class MusicMountServerTomcat implements MusicMountServer {
@@ -57,54 +67,139 @@ public class MusicMountServerTomcat implements MusicMountServer {
 		LoggingUtil.configure("org.apache", Level.INFO);
 	}
 	
-	final Filter AccessLogFilter = new Filter() {
-		@Override
-		public void init(FilterConfig filterConfig) throws ServletException {
+	/*
+	 * Response counting the bytes written to its output stream (by one thread at a time, possibly an async thread)
+	 */
+	static class CountingResponse extends HttpServletResponseWrapper {
+		private ServletOutputStream output;
+		private long count;
+
+		CountingResponse(HttpServletResponse response) {
+			super(response);
 		}
 
 		@Override
-		public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
-			final long requestTimestamp = System.currentTimeMillis();
-			chain.doFilter(request, response); // serve request
-			if (accessLog != null) {
-				response.flushBuffer();
-
-				final HttpServletRequest httpRequest = (HttpServletRequest) request;
-				final HttpServletResponse httpResponse = (HttpServletResponse) response;			
-				final long responseTimestamp = System.currentTimeMillis();
-				accessLog.log(new AccessLog.Entry() {
+		public ServletOutputStream getOutputStream() throws IOException {
+			if (output == null) {
+				final ServletOutputStream delegate = super.getOutputStream();
+				output = new ServletOutputStream() {
 					@Override
-					public long getResponseTimestamp() {
-						return responseTimestamp;
+					public void write(int b) throws IOException {
+						delegate.write(b);
+						count++;
 					}
 					@Override
-					public int getResponseStatus() {
-						return httpResponse.getStatus();
+					public void write(byte[] b, int off, int len) throws IOException {
+						delegate.write(b, off, len);
+						count += len;
 					}
 					@Override
-					public String getResponseHeader(String header) {
-						return httpResponse.getHeader(header);
+					public void flush() throws IOException {
+						delegate.flush();
 					}
 					@Override
-					public String getRequestURI() {
-						return httpRequest.getRequestURI();
+					public void close() throws IOException {
+						delegate.close();
 					}
-					@Override
-					public long getRequestTimestamp() {
-						return requestTimestamp;
-					}
-					@Override
-					public String getRequestMethod() {
-						return httpRequest.getMethod();
-					}
-				});
+				};
 			}
+			return output;
+		}
+
+		/**
+		 * @return number of bytes written to the output stream or <code>-1</code> if nothing has been written
+		 */
+		long getCount() {
+			return count > 0 ? count : -1;
+		}
+	}
+
+	/*
+	 * Access log filter; bytes are counted for chunked responses, which have no Content-Length.
+	 * Counting wraps the response, which disables sendfile for static files, so it's used for the mount context only.
+	 * Requests put into async mode (live mount) are logged when the response completes.
+	 */
+	class AccessLogFilter implements Filter {
+		private final boolean countBytes;
+
+		AccessLogFilter(boolean countBytes) {
+			this.countBytes = countBytes;
+		}
+
+		@Override
+		public void init(FilterConfig filterConfig) throws ServletException {
+		}
+
+		@Override
+		public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+			final long requestTimestamp = System.currentTimeMillis();
+			final CountingResponse countingResponse = countBytes && accessLog != null ? new CountingResponse((HttpServletResponse) response) : null;
+			chain.doFilter(request, countingResponse != null ? countingResponse : response); // serve request
+			if (accessLog != null) {
+				final HttpServletRequest httpRequest = (HttpServletRequest) request;
+				final HttpServletResponse httpResponse = (HttpServletResponse) response;
+				if (request.isAsyncStarted()) { // response is not complete yet -> log on completion
+					request.getAsyncContext().addListener(new AsyncListener() {
+						@Override
+						public void onStartAsync(AsyncEvent event) throws IOException {
+							event.getAsyncContext().addListener(this);
+						}
+						@Override
+						public void onComplete(AsyncEvent event) throws IOException {
+							log(httpRequest, httpResponse, requestTimestamp, countingResponse);
+						}
+						@Override
+						public void onTimeout(AsyncEvent event) throws IOException {
+						}
+						@Override
+						public void onError(AsyncEvent event) throws IOException {
+						}
+					});
+				} else {
+					response.flushBuffer();
+					log(httpRequest, httpResponse, requestTimestamp, countingResponse);
+				}
+			}
+		}
+
+		private void log(final HttpServletRequest httpRequest, final HttpServletResponse httpResponse, final long requestTimestamp, final CountingResponse countingResponse) {
+			final long responseTimestamp = System.currentTimeMillis();
+			accessLog.log(new AccessLog.Entry() {
+				@Override
+				public long getResponseTimestamp() {
+					return responseTimestamp;
+				}
+				@Override
+				public int getResponseStatus() {
+					return httpResponse.getStatus();
+				}
+				@Override
+				public String getResponseHeader(String header) {
+					return httpResponse.getHeader(header);
+				}
+				@Override
+				public long getBytesSent() {
+					return countingResponse != null ? countingResponse.getCount() : -1;
+				}
+				@Override
+				public String getRequestURI() {
+					return httpRequest.getRequestURI();
+				}
+				@Override
+				public long getRequestTimestamp() {
+					return requestTimestamp;
+				}
+				@Override
+				public String getRequestMethod() {
+					return httpRequest.getMethod();
+				}
+			});
 		}
 
 		@Override
 		public void destroy() {
 		}
-	};
+	}
 
 	static final Filter UTF8Filter = new Filter() {
 		@Override
@@ -144,6 +239,7 @@ public class MusicMountServerTomcat implements MusicMountServer {
 		FilterDef utf8FilterDef = new FilterDef();
 		utf8FilterDef.setFilterName("utf8-filter");
 		utf8FilterDef.setFilter(UTF8Filter);
+		utf8FilterDef.setAsyncSupported("true"); // must not block async servlets (live mount)
 		FilterMap utf8FilterMap = new FilterMap();
 		utf8FilterMap.setFilterName("utf8-filter");
 		utf8FilterMap.addURLPattern("*");
@@ -201,9 +297,52 @@ public class MusicMountServerTomcat implements MusicMountServer {
 	private Tomcat tomcat;
 	private Path workDir;
 	private final AccessLog accessLog;
+	private final MusicMountServerConfig config;
 	
 	public MusicMountServerTomcat(AccessLog accessLog) {
+		this(accessLog, new MusicMountServerConfig());
+	}
+
+	public MusicMountServerTomcat(AccessLog accessLog, MusicMountServerConfig config) {
 		this.accessLog = accessLog;
+		this.config = config;
+	}
+
+	private Connector createConnector(Tomcat tomcat, int port) {
+		Connector connector;
+		if (config.getConnectorType() == null) {
+			connector = tomcat.getConnector(); // default connector
+		} else {
+			connector = new Connector(config.getConnectorType() == ConnectorType.BIO ? Http11Protocol.class.getName() : Http11NioProtocol.class.getName());
+			connector.setPort(port);
+			tomcat.getService().addConnector(connector);
+			tomcat.setConnector(connector);
+		}
+		if (config.getAcceptors() > 0) {
+			connector.setProperty("acceptorThreadCount", String.valueOf(config.getAcceptors()));
+		}
+		if (config.getIdleTimeout() > 0) {
+			connector.setProperty("connectionTimeout", String.valueOf(config.getIdleTimeout() * 1000));
+			connector.setProperty("keepAliveTimeout", String.valueOf(config.getIdleTimeout() * 1000));
+		}
+
+		if (config.getMinThreads() > 0 || config.getMaxThreads() > 0 || config.getQueueSize() > 0) {
+			StandardThreadExecutor executor = new StandardThreadExecutor();
+			executor.setName("musicmount-exec");
+			executor.setNamePrefix("musicmount-exec-");
+			if (config.getMinThreads() > 0) {
+				executor.setMinSpareThreads(config.getMinThreads());
+			}
+			if (config.getMaxThreads() > 0) {
+				executor.setMaxThreads(config.getMaxThreads());
+			}
+			if (config.getQueueSize() > 0) {
+				executor.setMaxQueueSize(config.getQueueSize());
+			}
+			tomcat.getService().addExecutor(executor);
+			((AbstractProtocol) connector.getProtocolHandler()).setExecutor(executor);
+		}
+		return connector;
 	}
 
 	private Tomcat createTomcat(int port) throws IOException {
@@ -219,10 +358,11 @@ public class MusicMountServerTomcat implements MusicMountServer {
 		tomcat = new Tomcat();
 		tomcat.setBaseDir(workDir.toFile().getAbsolutePath());
 		tomcat.setPort(port);
-		tomcat.getConnector().setURIEncoding("UTF-8");
-		tomcat.getConnector().setProperty("compression", "on");
-		tomcat.getConnector().setProperty("compressionMinSize", "1024");
-		tomcat.getConnector().setProperty("compressableMimeType", "text/json");
+		Connector connector = createConnector(tomcat, port);
+		connector.setURIEncoding("UTF-8");
+		connector.setProperty("compression", "on");
+		connector.setProperty("compressionMinSize", "1024");
+		connector.setProperty("compressableMimeType", "text/json");
 		tomcat.setSilent(true);
 
 		// TODO: this fixes a resource-loading problem in WebappClassLoader when running through com.javafx.main.Main
@@ -230,19 +370,33 @@ public class MusicMountServerTomcat implements MusicMountServer {
 		return tomcat;
 	}
 	
-	private void addLogFilter(Context... contexts) {
+	private void addLogFilter(Context context, boolean countBytes) {
 		FilterDef logFilterDef = new FilterDef();
 		logFilterDef.setFilterName("log-filter");
-		logFilterDef.setFilter(AccessLogFilter);
+		logFilterDef.setFilter(new AccessLogFilter(countBytes));
+		logFilterDef.setAsyncSupported("true");
 		FilterMap logFilterMap = new FilterMap();
 		logFilterMap.setFilterName("log-filter");
 		logFilterMap.addURLPattern("*");
-		for (Context context : contexts) {
-			context.addFilterDef(logFilterDef);
-			context.addFilterMap(logFilterMap);
-		}
+		context.addFilterDef(logFilterDef);
+		context.addFilterMap(logFilterMap);
 	}
 	
+	private static void addRequestLimit(Context context, int limit) {
+		if (limit > 0) {
+			FilterDef limitFilterDef = new FilterDef();
+			limitFilterDef.setFilterName("limit-filter");
+			limitFilterDef.setFilter(new RequestLimitFilter(limit));
+			limitFilterDef.setAsyncSupported("true");
+			FilterMap limitFilterMap = new FilterMap();
+			limitFilterMap.setFilterName("limit-filter");
+			limitFilterMap.addURLPattern("*");
+
+			context.addFilterDef(limitFilterDef);
+			context.addFilterMap(limitFilterMap);
+		}
+	}
+
 	@Override
 	public void start(FolderContext music, FolderContext mount, int port, final String user, final String password) throws Exception {
 		Tomcat tomcat = createTomcat(port);
@@ -256,7 +410,10 @@ public class MusicMountServerTomcat implements MusicMountServer {
 		musicContext.addMimeMapping("mp3", "audio/mpeg");
 		
 		addUTF8Filter(mountContext);
-		addLogFilter(mountContext, musicContext);
+		addLogFilter(mountContext, true);
+		addLogFilter(musicContext, false);
+		addRequestLimit(mountContext, config.getMountLimit());
+		addRequestLimit(musicContext, config.getMusicLimit());
 
 		if (user != null && password != null) {
 			tomcat.getEngine().setRealm(createRealm(user, password));
@@ -276,6 +433,7 @@ public class MusicMountServerTomcat implements MusicMountServer {
 		mountServlet.setName("mount");
 		mountServlet.setServlet(mount.getServlet());
 		mountServlet.setLoadOnStartup(1);
+		mountServlet.setAsyncSupported(true);
 		mountContext.addChild(mountServlet);
 		mountContext.addServletMapping("/*", "mount");
 
@@ -284,7 +442,10 @@ public class MusicMountServerTomcat implements MusicMountServer {
 		musicContext.addMimeMapping("mp3", "audio/mpeg");
 		
 		addUTF8Filter(mountContext);
-		addLogFilter(mountContext, musicContext);
+		addLogFilter(mountContext, true);
+		addLogFilter(musicContext, false);
+		addRequestLimit(mountContext, config.getMountLimit());
+		addRequestLimit(musicContext, config.getMusicLimit());
 
 		if (user != null && password != null) {
 			tomcat.getEngine().setRealm(createRealm(user, password));
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.server;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Limit the number of requests served concurrently by a context.
+ * Requests exceeding the limit are rejected with <code>503 Service Unavailable</code>,
+ * so that one context cannot occupy all worker threads of the server.
+ * A request counts until the filter chain returns (asynchronous processing is not counted).
+ */
+class RequestLimitFilter implements Filter {
+	private static final int RETRY_AFTER_SECONDS = 1;
+
+	private final Semaphore permits;
+
+	/**
+	 * @param limit maximum number of concurrent requests
+	 */
+	RequestLimitFilter(int limit) {
+		this.permits = new Semaphore(limit);
+	}
+
+	@Override
+	public void init(FilterConfig filterConfig) throws ServletException {
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+		if (!permits.tryAcquire()) {
+			HttpServletResponse httpResponse = (HttpServletResponse) response;
+			httpResponse.setIntHeader("Retry-After", RETRY_AFTER_SECONDS);
+			httpResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return;
+		}
+		try {
+			chain.doFilter(request, response);
+		} finally {
+			permits.release();
+		}
+	}
+
+	@Override
+	public void destroy() {
+	}
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.musicmount.server.MusicMountServer.AccessLog;
+
+/**
+ * Request metrics of a server, fed by its access log hook.
+ * Requests are classified into endpoints by request URI: live mount documents by name,
+ * static site documents by location, music files by the music context path.
+ * Counters are lock-free and cheap to update on the request thread; log lines are left to a delegate access log.
+ */
+public class ServerMetrics implements AccessLog, ServerMetricsMBean {
+	static final Logger LOGGER = Logger.getLogger(ServerMetrics.class.getName());
+
+	/**
+	 * Hit/miss counts of a cache
+	 */
+	public interface CacheCounts {
+		long getHitCount();
+		long getMissCount();
+	}
+
+	public static final String SERVICE_INDEX = "serviceIndex";
+	public static final String ARTIST_INDEX = "artistIndex";
+	public static final String ALBUM_COLLECTION = "albumCollection";
+	public static final String ALBUM_INDEX = "albumIndex";
+	public static final String TRACK_INDEX = "trackIndex";
+	public static final String ALBUM = "album";
+	public static final String ALBUMS = "albums";
+	public static final String ALBUM_IMAGE = "albumImage";
+	public static final String SEARCH = "search";
+	public static final String CHANGES = "changes";
+	public static final String GENRE_INDEX = "genreIndex";
+	public static final String GENRE_COLLECTION = "genreCollection";
+	public static final String METRICS = "metrics";
+	public static final String MUSIC = "music";
+	public static final String OTHER = "other";
+
+	private static final String[] ENDPOINTS = {
+		SERVICE_INDEX, ARTIST_INDEX, ALBUM_COLLECTION, ALBUM_INDEX, TRACK_INDEX, ALBUM, ALBUMS, ALBUM_IMAGE,
+		SEARCH, CHANGES, GENRE_INDEX, GENRE_COLLECTION, METRICS, MUSIC, OTHER
+	};
+
+	private static String contextPath(String path) {
+		return path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+	}
+
+	private static boolean isInContext(String uri, String contextPath) {
+		return uri.startsWith(contextPath) && (uri.length() == contextPath.length() || uri.charAt(contextPath.length()) == '/');
+	}
+
+	private final AccessLog delegate;
+	private final Map<String, EndpointMetrics> endpoints; // fixed set of endpoints, never modified
+	private final long startTime = System.currentTimeMillis();
+	private final List<ObjectName> registeredNames = new ArrayList<>();
+
+	private volatile String musicPath = "/music";
+	private volatile String mountPath = "/musicmount";
+	private volatile CacheCounts responseCache;
+
+	/**
+	 * @param delegate access log receiving all entries after they have been recorded (may be <code>null</code>)
+	 */
+	public ServerMetrics(AccessLog delegate) {
+		this.delegate = delegate;
+		Map<String, EndpointMetrics> endpoints = new LinkedHashMap<>();
+		for (String endpoint : ENDPOINTS) {
+			endpoints.put(endpoint, new EndpointMetrics(endpoint));
+		}
+		this.endpoints = Collections.unmodifiableMap(endpoints);
+	}
+
+	/**
+	 * Set context paths used to classify requests.
+	 * @param musicPath music context path (e.g. "/music")
+	 * @param mountPath mount context path (e.g. "/musicmount")
+	 */
+	public void setContextPaths(String musicPath, String mountPath) {
+		this.musicPath = contextPath(musicPath);
+		this.mountPath = contextPath(mountPath);
+	}
+
+	/**
+	 * @param responseCache counts of the server's response cache (<code>null</code> if there's none)
+	 */
+	public void setResponseCache(CacheCounts responseCache) {
+		this.responseCache = responseCache;
+	}
+
+	@Override
+	public void log(Entry entry) {
+		long contentLength = entry.getBytesSent(); // chunked responses have no Content-Length
+		String contentLengthHeader = contentLength < 0 ? entry.getResponseHeader("Content-Length") : null;
+		if (contentLengthHeader != null) {
+			try {
+				contentLength = Long.parseLong(contentLengthHeader);
+			} catch (NumberFormatException e) {
+				// ignore
+			}
+		}
+		long millis = entry.getResponseTimestamp() - entry.getRequestTimestamp();
+		endpoints.get(getEndpoint(entry.getRequestURI())).record(entry.getResponseStatus(), contentLength, millis);
+		if (delegate != null) {
+			delegate.log(entry);
+		}
+	}
+
+	String getEndpoint(String uri) {
+		String musicPath = this.musicPath;
+		String mountPath = this.mountPath;
+		if (isInContext(uri, musicPath)) { // check first, music may be located inside mount context
+			return MUSIC;
+		}
+		if (!isInContext(uri, mountPath)) {
+			return OTHER;
+		}
+		String path = uri.length() > mountPath.length() ? uri.substring(mountPath.length() + 1) : "";
+		int slash = path.indexOf('/');
+		if (slash < 0) { // live mount document or static service index
+			if (path.isEmpty() || path.startsWith("index.")) {
+				return SERVICE_INDEX;
+			}
+			return endpoints.containsKey(path) && !MUSIC.equals(path) ? path : OTHER;
+		}
+		String file = path.substring(path.lastIndexOf('/') + 1);
+		boolean index = file.isEmpty() || file.startsWith("index");
+		switch (path.substring(0, slash)) { // static site document, see SimpleResourceLocator
+		case "albumArtists":
+		case "artists":
+			return index ? ARTIST_INDEX : ALBUM_COLLECTION;
+		case "albums":
+			return index ? ALBUM_INDEX : file.startsWith("album.") ? ALBUM : ALBUM_IMAGE;
+		case "tracks":
+			return TRACK_INDEX;
+		case "search":
+			return SEARCH;
+		case "genres":
+			return index ? GENRE_INDEX : GENRE_COLLECTION;
+		default:
+			return OTHER;
+		}
+	}
+
+	public EndpointMetrics getEndpointMetrics(String endpoint) {
+		return endpoints.get(endpoint);
+	}
+
+	public Collection<EndpointMetrics> getEndpointMetrics() {
+		return endpoints.values();
+	}
+
+	@Override
+	public long getUptime() {
+		return System.currentTimeMillis() - startTime;
+	}
+
+	@Override
+	public long getRequestCount() {
+		long result = 0;
+		for (EndpointMetrics endpoint : endpoints.values()) {
+			result += endpoint.getRequestCount();
+		}
+		return result;
+	}
+
+	@Override
+	public long getErrorCount() {
+		long result = 0;
+		for (EndpointMetrics endpoint : endpoints.values()) {
+			result += endpoint.getErrorCount();
+		}
+		return result;
+	}
+
+	@Override
+	public long getBytesSent() {
+		long result = 0;
+		for (EndpointMetrics endpoint : endpoints.values()) {
+			result += endpoint.getBytesSent();
+		}
+		return result;
+	}
+
+	/**
+	 * @return requests per second since creation
+	 */
+	@Override
+	public double getThroughput() {
+		return getRequestCount() * 1000.0 / Math.max(1, getUptime());
+	}
+
+	/**
+	 * @return fraction of requests answered from the client's cache (status 304)
+	 */
+	@Override
+	public double getNotModifiedRate() {
+		long notModifiedCount = 0;
+		long requestCount = 0;
+		for (EndpointMetrics endpoint : endpoints.values()) {
+			notModifiedCount += endpoint.getNotModifiedCount();
+			requestCount += endpoint.getRequestCount();
+		}
+		return requestCount == 0 ? 0.0 : (double) notModifiedCount / requestCount;
+	}
+
+	/**
+	 * @return fraction of cache lookups answered from the server's response cache
+	 */
+	@Override
+	public double getResponseCacheHitRate() {
+		CacheCounts responseCache = this.responseCache;
+		if (responseCache == null) {
+			return 0.0;
+		}
+		long hitCount = responseCache.getHitCount();
+		long lookupCount = hitCount + responseCache.getMissCount();
+		return lookupCount == 0 ? 0.0 : (double) hitCount / lookupCount;
+	}
+
+	/**
+	 * Register server and endpoint MBeans with the platform MBean server.
+	 * @param name server name (e.g. "live")
+	 * @throws JMException registration failed
+	 */
+	public synchronized void register(String name) throws JMException {
+		MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		ObjectName serverName = new ObjectName(String.format("org.musicmount:type=ServerMetrics,server=%s", ObjectName.quote(name)));
+		mbeanServer.registerMBean(this, serverName);
+		registeredNames.add(serverName);
+		for (EndpointMetrics endpoint : endpoints.values()) {
+			ObjectName endpointName = new ObjectName(String.format("org.musicmount:type=EndpointMetrics,server=%s,endpoint=%s", ObjectName.quote(name), endpoint.getName()));
+			mbeanServer.registerMBean(endpoint, endpointName);
+			registeredNames.add(endpointName);
+		}
+	}
+
+	/**
+	 * Unregister MBeans registered by {@link #register(String)}.
+	 */
+	public synchronized void unregister() {
+		MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		for (ObjectName name : registeredNames) {
+			try {
+				mbeanServer.unregisterMBean(name);
+			} catch (JMException e) {
+				LOGGER.log(Level.FINE, "Could not unregister MBean: " + name, e);
+			}
+		}
+		registeredNames.clear();
+	}
+
+	private static String number(double value) {
+		return String.format(Locale.ENGLISH, "%.3f", value);
+	}
+
+	/**
+	 * Write metrics as JSON object. Endpoints without requests are omitted.
+	 * @param output output stream
+	 * @throws IOException
+	 */
+	public void writeJSON(OutputStream output) throws IOException {
+		Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+		writer.write("{");
+		writer.write("\"uptime\":" + getUptime());
+		writer.write(",\"requestCount\":" + getRequestCount());
+		writer.write(",\"errorCount\":" + getErrorCount());
+		writer.write(",\"bytesSent\":" + getBytesSent());
+		writer.write(",\"throughput\":" + number(getThroughput()));
+		writer.write(",\"notModifiedRate\":" + number(getNotModifiedRate()));
+		CacheCounts responseCache = this.responseCache;
+		if (responseCache != null) {
+			writer.write(",\"responseCache\":{");
+			writer.write("\"hitCount\":" + responseCache.getHitCount());
+			writer.write(",\"missCount\":" + responseCache.getMissCount());
+			writer.write(",\"hitRate\":" + number(getResponseCacheHitRate()));
+			writer.write("}");
+		}
+		writer.write(",\"endpoints\":{");
+		boolean first = true;
+		for (EndpointMetrics endpoint : endpoints.values()) {
+			if (endpoint.getRequestCount() == 0) {
+				continue;
+			}
+			writer.write(first ? "\"" : ",\"");
+			writer.write(endpoint.getName()); // endpoint names need no escaping
+			writer.write("\":{");
+			writer.write("\"requestCount\":" + endpoint.getRequestCount());
+			writer.write(",\"errorCount\":" + endpoint.getErrorCount());
+			writer.write(",\"notModifiedCount\":" + endpoint.getNotModifiedCount());
+			writer.write(",\"bytesSent\":" + endpoint.getBytesSent());
+			writer.write(",\"latency\":{");
+			writer.write("\"mean\":" + number(endpoint.getMeanLatency()));
+			writer.write(",\"p50\":" + endpoint.getLatency50());
+			writer.write(",\"p95\":" + endpoint.getLatency95());
+			writer.write(",\"p99\":" + endpoint.getLatency99());
+			writer.write(",\"max\":" + endpoint.getMaxLatency());
+			writer.write("}}");
+			first = false;
+		}
+		writer.write("}}");
+		writer.flush();
+	}
+}
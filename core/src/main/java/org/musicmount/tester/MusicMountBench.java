@@ -0,0 +1,478 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.tester;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.bind.DatatypeConverter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.musicmount.server.ServerMetrics;
+import org.musicmount.util.LatencyHistogram;
+
+import de.odysseus.staxon.json.JsonXMLConfigBuilder;
+import de.odysseus.staxon.json.JsonXMLInputFactory;
+
+/**
+ * Load generator for a running MusicMount site (live mount or static site).
+ * Each simulated client repeatedly browses the site like the MusicMount app does:
+ * it loads the service index, picks an index, follows sections, collections and albums,
+ * loads album images on the way and finally reads a few ranged chunks of a track.
+ * Latencies are recorded per endpoint type (using the endpoint names of {@link ServerMetrics}).
+ */
+public class MusicMountBench {
+	static final Logger LOGGER = Logger.getLogger(MusicMountBench.class.getName());
+
+	private static final String[] INDEX_PATH_KEYS = {
+		"albumArtistIndexPath", "artistIndexPath", "albumIndexPath", "trackIndexPath", "genreIndexPath"
+	};
+	private static final String[] INDEX_ENDPOINTS = {
+		ServerMetrics.ARTIST_INDEX, ServerMetrics.ARTIST_INDEX, ServerMetrics.ALBUM_INDEX, ServerMetrics.TRACK_INDEX, ServerMetrics.GENRE_INDEX
+	};
+	private static final Pattern CONTENT_RANGE_PATTERN = Pattern.compile("bytes \\d+-\\d+/(\\d+)");
+
+	/**
+	 * Request statistics of an endpoint type
+	 */
+	public static class Stats {
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final AtomicLong errorCount = new AtomicLong();
+		private final AtomicLong byteCount = new AtomicLong();
+
+		void record(boolean error, long bytes, long millis) {
+			latency.record(millis);
+			if (error) {
+				errorCount.incrementAndGet();
+			}
+			byteCount.addAndGet(bytes);
+		}
+
+		public long getRequestCount() {
+			return latency.getCount();
+		}
+		public long getErrorCount() {
+			return errorCount.get();
+		}
+		public long getByteCount() {
+			return byteCount.get();
+		}
+		public LatencyHistogram getLatency() {
+			return latency;
+		}
+	}
+
+	/**
+	 * Parsed document: distinct links by property name (e.g. <code>"albumPath"</code>)
+	 */
+	static class Document {
+		final String endpoint;
+		final Map<String, Set<String>> links;
+
+		Document(String endpoint, Map<String, Set<String>> links) {
+			this.endpoint = endpoint;
+			this.links = links;
+		}
+
+		List<String> get(String key) {
+			Collection<String> result = links.get(key);
+			return result != null ? new ArrayList<>(result) : new ArrayList<String>();
+		}
+	}
+
+	/**
+	 * Collect all <code>...Path</code> properties of a document.
+	 * @param reader document reader
+	 * @return distinct links by property name
+	 * @throws XMLStreamException parse error
+	 */
+	static Map<String, Set<String>> parseLinks(XMLStreamReader reader) throws XMLStreamException {
+		Map<String, Set<String>> links = new LinkedHashMap<>();
+		while (reader.hasNext()) {
+			if (reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().endsWith("Path")) {
+				String key = reader.getLocalName();
+				Set<String> values = links.get(key);
+				if (values == null) {
+					links.put(key, values = new LinkedHashSet<>());
+				}
+				values.add(reader.getElementText());
+			}
+		}
+		return links;
+	}
+
+	private final URL siteURL;
+	private final String authorization;
+	private final Map<String, Stats> stats = new LinkedHashMap<>();
+	private int imagesPerPage = 10;
+	private int rangeSize = 64 * 1024;
+	private int rangeCount = 2;
+	private int timeoutMillis = 10000;
+	private long elapsedMillis;
+
+	/**
+	 * @param siteURL service index URL (e.g. <code>http://localhost:8080/musicmount/</code>)
+	 * @param user login user (may be <code>null</code>)
+	 * @param password login password
+	 */
+	public MusicMountBench(URL siteURL, String user, String password) {
+		this.siteURL = siteURL;
+		this.authorization = user != null ? "Basic " + DatatypeConverter.printBase64Binary((user + ":" + password).getBytes(StandardCharsets.UTF_8)) : null;
+		for (String endpoint : Arrays.asList(ServerMetrics.SERVICE_INDEX, ServerMetrics.ARTIST_INDEX, ServerMetrics.ALBUM_INDEX,
+				ServerMetrics.TRACK_INDEX, ServerMetrics.GENRE_INDEX, ServerMetrics.ALBUM_COLLECTION, ServerMetrics.ALBUM,
+				ServerMetrics.ALBUM_IMAGE, ServerMetrics.MUSIC)) {
+			stats.put(endpoint, new Stats());
+		}
+	}
+
+	/**
+	 * @return number of images loaded per index page or album (default <code>10</code>)
+	 */
+	public int getImagesPerPage() {
+		return imagesPerPage;
+	}
+	public void setImagesPerPage(int imagesPerPage) {
+		this.imagesPerPage = imagesPerPage;
+	}
+
+	/**
+	 * @return size of a ranged audio read in bytes (default <code>65536</code>)
+	 */
+	public int getRangeSize() {
+		return rangeSize;
+	}
+	public void setRangeSize(int rangeSize) {
+		this.rangeSize = rangeSize;
+	}
+
+	/**
+	 * @return number of ranged reads per track (default <code>2</code>)
+	 */
+	public int getRangeCount() {
+		return rangeCount;
+	}
+	public void setRangeCount(int rangeCount) {
+		this.rangeCount = rangeCount;
+	}
+
+	/**
+	 * Connect and read timeout of requests; a request timing out is recorded as an error.
+	 * @return timeout in milliseconds (default <code>10000</code>)
+	 */
+	public int getTimeoutMillis() {
+		return timeoutMillis;
+	}
+	public void setTimeoutMillis(int timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * @return statistics by endpoint type
+	 */
+	public Map<String, Stats> getStats() {
+		return stats;
+	}
+
+	/**
+	 * @return duration of last run
+	 */
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	/**
+	 * Run simulated clients.
+	 * @param clientCount number of concurrent clients
+	 * @param durationMillis run duration
+	 * @throws InterruptedException interrupted while waiting for clients
+	 */
+	public void run(int clientCount, long durationMillis) throws InterruptedException {
+		final long startTime = System.currentTimeMillis();
+		final long endTime = startTime + durationMillis;
+		ExecutorService executor = Executors.newFixedThreadPool(clientCount);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < clientCount; i++) {
+			final Random random = new Random(i);
+			futures.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					while (System.currentTimeMillis() < endTime && !Thread.currentThread().isInterrupted()) {
+						try {
+							browse(random, endTime);
+						} catch (IOException | XMLStreamException e) {
+							LOGGER.log(Level.FINE, "Client request failed", e);
+						}
+					}
+				}
+			}));
+		}
+		executor.shutdown();
+		long deadline = endTime + 2L * timeoutMillis; // a client may be within a request at end time
+		try {
+			for (Future<?> future : futures) {
+				try {
+					future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+				} catch (ExecutionException e) {
+					LOGGER.log(Level.WARNING, "Client failed", e.getCause());
+				} catch (TimeoutException e) {
+					LOGGER.warning("Client did not finish in time");
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+			executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+			elapsedMillis = System.currentTimeMillis() - startTime;
+		}
+	}
+
+	/**
+	 * Browse from service index down to an album and play a track.
+	 * @param random random generator
+	 * @param endTime stop browsing after this time
+	 * @throws IOException request failed
+	 * @throws XMLStreamException bad document
+	 */
+	void browse(Random random, long endTime) throws IOException, XMLStreamException {
+		Document document = fetchDocument(ServerMetrics.SERVICE_INDEX, siteURL);
+		if (document == null) {
+			return;
+		}
+		List<Integer> indexes = new ArrayList<>();
+		for (int i = 0; i < INDEX_PATH_KEYS.length; i++) {
+			if (document.links.containsKey(INDEX_PATH_KEYS[i])) {
+				indexes.add(i);
+			}
+		}
+		if (indexes.isEmpty()) {
+			return;
+		}
+		int index = indexes.get(random.nextInt(indexes.size()));
+		document = fetchDocument(INDEX_ENDPOINTS[index], document.get(INDEX_PATH_KEYS[index]).get(0));
+		while (document != null && System.currentTimeMillis() < endTime) {
+			List<String> imagePaths = document.get("imagePath");
+			for (int i = 0; i < imagesPerPage && !imagePaths.isEmpty(); i++) {
+				fetch(ServerMetrics.ALBUM_IMAGE, imagePaths.remove(random.nextInt(imagePaths.size())), null);
+			}
+			if (ServerMetrics.ALBUM.equals(document.endpoint)) {
+				List<String> assetPaths = document.get("assetPath");
+				if (!assetPaths.isEmpty()) {
+					play(random, assetPaths.get(random.nextInt(assetPaths.size())));
+				}
+				return;
+			}
+			List<String> sectionPaths = document.get("sectionPath");
+			List<String> collectionPaths = document.get("albumCollectionPath");
+			List<String> albumPaths = document.get("albumPath");
+			if (!sectionPaths.isEmpty()) { // sharded index
+				document = fetchDocument(document.endpoint, sectionPaths.get(random.nextInt(sectionPaths.size())));
+			} else if (!collectionPaths.isEmpty()) {
+				document = fetchDocument(ServerMetrics.ALBUM_COLLECTION, collectionPaths.get(random.nextInt(collectionPaths.size())));
+			} else if (!albumPaths.isEmpty()) {
+				document = fetchDocument(ServerMetrics.ALBUM, albumPaths.get(random.nextInt(albumPaths.size())));
+			} else {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Read a few chunks of a track: first chunk, then chunks at random offsets.
+	 */
+	void play(Random random, String assetPath) throws IOException {
+		long length = -1;
+		for (int i = 0; i < rangeCount; i++) {
+			long offset = length > rangeSize ? (long) (random.nextDouble() * (length - rangeSize)) : 0;
+			HttpURLConnection connection = fetch(ServerMetrics.MUSIC, assetPath, String.format("bytes=%d-%d", offset, offset + rangeSize - 1));
+			if (connection == null) {
+				return;
+			}
+			String contentRange = connection.getHeaderField("Content-Range");
+			Matcher matcher = contentRange != null ? CONTENT_RANGE_PATTERN.matcher(contentRange) : null;
+			if (matcher == null || !matcher.matches()) {
+				return; // range not supported
+			}
+			length = Long.parseLong(matcher.group(1));
+		}
+	}
+
+	Document fetchDocument(String endpoint, String path) throws IOException, XMLStreamException {
+		return fetchDocument(endpoint, new URL(siteURL, path));
+	}
+
+	Document fetchDocument(String endpoint, URL url) throws IOException, XMLStreamException {
+		long startTime = System.currentTimeMillis();
+		boolean error = true;
+		long count = 0;
+		try {
+			HttpURLConnection connection = open(url, null);
+			if (connection.getResponseCode() >= 400) {
+				InputStream errorInput = connection.getErrorStream();
+				if (errorInput != null) {
+					try {
+						count = drain(errorInput);
+					} finally {
+						errorInput.close();
+					}
+				}
+				return null;
+			}
+			byte[] content;
+			try (InputStream input = connection.getInputStream()) {
+				content = read(input);
+			}
+			count = content.length;
+			InputStream input = new ByteArrayInputStream(content); // parse after transfer
+			if ("gzip".equals(connection.getContentEncoding())) {
+				input = new GZIPInputStream(input);
+			}
+			String contentType = connection.getContentType();
+			XMLInputFactory factory = contentType != null && contentType.contains("xml") ? XMLInputFactory.newInstance() : new JsonXMLInputFactory(new JsonXMLConfigBuilder().build());
+			XMLStreamReader reader = factory.createXMLStreamReader(input);
+			Map<String, Set<String>> links;
+			try {
+				links = parseLinks(reader);
+			} finally {
+				reader.close();
+			}
+			error = false;
+			return new Document(endpoint, links);
+		} finally {
+			stats.get(endpoint).record(error, count, System.currentTimeMillis() - startTime);
+		}
+	}
+
+	/**
+	 * Fetch and discard resource.
+	 * @return connection or <code>null</code> on error
+	 */
+	HttpURLConnection fetch(String endpoint, String path, String range) throws IOException {
+		long startTime = System.currentTimeMillis();
+		boolean error = true;
+		long count = 0;
+		try {
+			HttpURLConnection connection = open(new URL(siteURL, path), range);
+			boolean success = connection.getResponseCode() < 400;
+			InputStream input = success ? connection.getInputStream() : connection.getErrorStream();
+			if (input != null) {
+				try {
+					count = drain(input);
+				} finally {
+					input.close();
+				}
+			}
+			error = !success;
+			return success ? connection : null;
+		} finally {
+			stats.get(endpoint).record(error, count, System.currentTimeMillis() - startTime);
+		}
+	}
+
+	private HttpURLConnection open(URL url, String range) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setConnectTimeout(timeoutMillis);
+		connection.setReadTimeout(timeoutMillis);
+		connection.setRequestProperty("Accept-Encoding", "gzip");
+		if (authorization != null) {
+			connection.setRequestProperty("Authorization", authorization);
+		}
+		if (range != null) {
+			connection.setRequestProperty("Range", range);
+		}
+		return connection;
+	}
+
+	private static byte[] read(InputStream input) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = input.read(buffer)) > 0) {
+			output.write(buffer, 0, n);
+		}
+		return output.toByteArray();
+	}
+
+	private static long drain(InputStream input) throws IOException {
+		byte[] buffer = new byte[8192];
+		long count = 0;
+		int n;
+		while ((n = input.read(buffer)) > 0) {
+			count += n;
+		}
+		return count;
+	}
+
+	/**
+	 * Log results: throughput and latency percentiles per endpoint type.
+	 */
+	public void report() {
+		long totalCount = 0;
+		long totalErrors = 0;
+		long totalBytes = 0;
+		for (Stats endpointStats : stats.values()) {
+			totalCount += endpointStats.getRequestCount();
+			totalErrors += endpointStats.getErrorCount();
+			totalBytes += endpointStats.getByteCount();
+		}
+		double seconds = Math.max(1, elapsedMillis) / 1000.0;
+		LOGGER.info(String.format("Benchmark Results"));
+		LOGGER.info(String.format("-----------------"));
+		LOGGER.info(String.format(Locale.ENGLISH, "Duration:   %.1fs", seconds));
+		LOGGER.info(String.format(Locale.ENGLISH, "Requests:   %d (%d errors)", totalCount, totalErrors));
+		LOGGER.info(String.format(Locale.ENGLISH, "Throughput: %.1f req/s, %.2f MB/s", totalCount / seconds, totalBytes / seconds / (1024 * 1024)));
+		LOGGER.info(String.format("-----------------"));
+		LOGGER.info(String.format("%-16s%9s%8s%10s%8s%8s%8s%8s", "endpoint", "requests", "errors", "req/s", "p50", "p95", "p99", "max"));
+		for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+			Stats endpointStats = entry.getValue();
+			if (endpointStats.getRequestCount() > 0) {
+				LatencyHistogram latency = endpointStats.getLatency();
+				LOGGER.info(String.format(Locale.ENGLISH, "%-16s%9d%8d%10.1f%6dms%6dms%6dms%6dms", entry.getKey(),
+						endpointStats.getRequestCount(), endpointStats.getErrorCount(), endpointStats.getRequestCount() / seconds,
+						latency.getPercentile(50), latency.getPercentile(95), latency.getPercentile(99), latency.getMax()));
+			}
+		}
+		LOGGER.info(String.format("-----------------"));
+	}
+}
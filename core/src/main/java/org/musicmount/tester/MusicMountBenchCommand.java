@@ -0,0 +1,209 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.tester;
+
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.musicmount.util.LoggingUtil;
+
+public class MusicMountBenchCommand {
+	static final Logger LOGGER = Logger.getLogger(MusicMountBenchCommand.class.getName());
+
+	static void exitWithError(String command, String error) {
+		System.err.println();
+		System.err.println("*** " + (error == null ? "internal error" : error));
+		System.err.println();
+		System.err.println(String.format("Usage: %s [options] <site_url>", command));
+		System.err.println();
+		System.err.println("Run simulated MusicMount clients against the site at <site_url>");
+		System.err.println();
+		System.err.println("         <site_url>       site URL (e.g. http://localhost:8080/musicmount/)");
+		System.err.println();
+		System.err.println("Server must be local.");
+		System.err.println();
+		System.err.println("Options:");
+		System.err.println("       --clients <n>      number of concurrent clients (default 4)");
+		System.err.println("       --duration <s>     run duration in seconds (default 30)");
+		System.err.println("       --images <n>       number of images loaded per page (default 10)");
+		System.err.println("       --rangeSize <n>    bytes per ranged audio read (default 65536)");
+		System.err.println("       --ranges <n>       number of ranged audio reads per track (default 2)");
+		System.err.println("       --timeout <s>      request timeout in seconds (default 10)");
+		System.err.println("       --user <user>      login user");
+		System.err.println("       --password <pass>  login password");
+		System.err.println("       --verbose          more detailed console output");
+		System.err.close();
+		System.exit(1);
+	}
+
+	static boolean isLocal(String host) {
+		try {
+			for (InetAddress address : InetAddress.getAllByName(host)) {
+				if (!address.isLoopbackAddress() && NetworkInterface.getByInetAddress(address) == null) {
+					return false;
+				}
+			}
+			return true;
+		} catch (UnknownHostException | SocketException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Run benchmark
+	 * @param command command name (e.g. "bench")
+	 * @param args options, siteURL
+	 * @throws Exception something went wrong...
+	 */
+	public static void execute(String command, String... args) throws Exception {
+		int optionClients = 4;
+		int optionDuration = 30;
+		int optionImages = 10;
+		int optionRangeSize = 64 * 1024;
+		int optionRanges = 2;
+		int optionTimeout = 10;
+		String optionUser = null;
+		String optionPassword = null;
+		boolean optionVerbose = false;
+
+		int optionsLength = 0;
+		boolean optionsDone = false;
+		while (optionsLength < args.length && !optionsDone) {
+			switch (args[optionsLength]) {
+			case "--clients":
+				if (++optionsLength == args.length) {
+					exitWithError(command, "invalid arguments");
+				}
+				optionClients = Integer.parseInt(args[optionsLength]);
+				break;
+			case "--duration":
+				if (++optionsLength == args.length) {
+					exitWithError(command, "invalid arguments");
+				}
+				optionDuration = Integer.parseInt(args[optionsLength]);
+				break;
+			case "--images":
+				if (++optionsLength == args.length) {
+					exitWithError(command, "invalid arguments");
+				}
+				optionImages = Integer.parseInt(args[optionsLength]);
+				break;
+			case "--rangeSize":
+				if (++optionsLength == args.length) {
+					exitWithError(command, "invalid arguments");
+				}
+				optionRangeSize = Integer.parseInt(args[optionsLength]);
+				break;
+			case "--ranges":
+				if (++optionsLength == args.length) {
+					exitWithError(command, "invalid arguments");
+				}
+				optionRanges = Integer.parseInt(args[optionsLength]);
+				break;
+			case "--timeout":
+				if (++optionsLength == args.length) {
+					exitWithError(command, "invalid arguments");
+				}
+				optionTimeout = Integer.parseInt(args[optionsLength]);
+				break;
+			case "--user":
+				if (++optionsLength == args.length) {
+					exitWithError(command, "invalid arguments");
+				}
+				optionUser = args[optionsLength];
+				break;
+			case "--password":
+				if (++optionsLength == args.length) {
+					exitWithError(command, "invalid arguments");
+				}
+				optionPassword = args[optionsLength];
+				break;
+			case "--verbose":
+				optionVerbose = true;
+				break;
+			default:
+				if (args[optionsLength].startsWith("-")) {
+					exitWithError(command, "unknown option: " + args[optionsLength]);
+				} else {
+					optionsDone = true;
+				}
+			}
+			if (!optionsDone) {
+				optionsLength++;
+			}
+		}
+		for (int i = optionsLength; i < args.length; i++) {
+			if (args[i].startsWith("-")) {
+				exitWithError(command, "invalid arguments");
+			}
+		}
+
+		URL siteURL = null;
+		switch (args.length - optionsLength) {
+		case 0:
+			exitWithError(command, "missing arguments");
+			break;
+		case 1:
+			try {
+				siteURL = new URL(args[optionsLength]);
+			} catch (MalformedURLException e) {
+				exitWithError(command, "invalid site URL: " + args[optionsLength]);
+			}
+			break;
+		default:
+			exitWithError(command, "bad arguments");
+		}
+		if (!"http".equals(siteURL.getProtocol())) {
+			exitWithError(command, "site URL must use http: " + siteURL);
+		}
+		if (!isLocal(siteURL.getHost())) {
+			exitWithError(command, "site URL must refer to a local server: " + siteURL);
+		}
+		if ((optionUser == null) != (optionPassword == null)) {
+			exitWithError(command, String.format("either both or none of user/password must be given: %s/%s", optionUser, optionPassword));
+		}
+		if (optionClients < 1 || optionDuration < 1 || optionImages < 0 || optionRangeSize < 1 || optionRanges < 0 || optionTimeout < 1) {
+			exitWithError(command, "invalid arguments");
+		}
+
+		/*
+		 * Configure logging
+		 */
+		LoggingUtil.configure(MusicMountBenchCommand.class.getPackage().getName(), optionVerbose ? Level.FINER : Level.INFO);
+
+		/*
+		 * Run clients
+		 */
+		MusicMountBench bench = new MusicMountBench(siteURL, optionUser, optionPassword);
+		bench.setImagesPerPage(optionImages);
+		bench.setRangeSize(optionRangeSize);
+		bench.setRangeCount(optionRanges);
+		bench.setTimeoutMillis(optionTimeout * 1000);
+		LOGGER.info(String.format("Running %d clients for %d seconds against %s...", optionClients, optionDuration, siteURL));
+		bench.run(optionClients, optionDuration * 1000L);
+		bench.report();
+	}
+
+	public static void main(String[] args) throws Exception {
+		execute(MusicMountBenchCommand.class.getSimpleName(), args);
+	}
+}
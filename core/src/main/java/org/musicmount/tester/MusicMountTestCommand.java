@@ -22,6 +22,8 @@ import java.util.logging.Logger;
 
 import org.musicmount.io.file.FileResource;
 import org.musicmount.io.file.FileResourceProvider;
+import org.musicmount.server.MusicMountServerConfig;
+import org.musicmount.server.MusicMountServerConfig.ConnectorType;
 import org.musicmount.util.BonjourService;
 import org.musicmount.util.LoggingUtil;
 
@@ -46,6 +48,14 @@ public class MusicMountTestCommand {
 		System.err.println("       --port <port>      launch HTTP server on specified port (default 8080)");
 		System.err.println("       --user <user>      login user");
 		System.err.println("       --password <pass>  login password");
+		System.err.println("       --connector <type> connector type ('nio' or 'bio', default depends on server)");
+		System.err.println("       --acceptors <n>    number of acceptor threads");
+		System.err.println("       --minThreads <n>   minimum number of worker threads");
+		System.err.println("       --maxThreads <n>   maximum number of worker threads");
+		System.err.println("       --queueSize <n>    maximum number of requests waiting for a worker thread");
+		System.err.println("       --idleTimeout <s>  idle connection timeout in seconds");
+		System.err.println("       --musicLimit <n>   maximum number of concurrent requests for music files");
+		System.err.println("       --mountLimit <n>   maximum number of concurrent requests for mount documents");
 		System.err.println("       --bonjour          publish as Bonjour service ('Test @ <hostName>')");
 		System.err.println("       --verbose          more detailed console output");
 		System.err.close();
@@ -59,6 +69,8 @@ public class MusicMountTestCommand {
 	 * @throws Exception something went wrong...
 	 */
 	public static void execute(String command, String... args) throws Exception {
+		MusicMountServerConfig serverConfig = new MusicMountServerConfig();
+
 		String optionMusic = null;
 		int optionPort = 8080;
 		String optionUser = null;
@@ -94,6 +106,58 @@ public class MusicMountTestCommand {
 				}
 				optionPassword = args[optionsLength];
 				break;
+			case "--connector":
+				if (++optionsLength == args.length) {
+					exitWithError(command, "invalid arguments");
+				}
+				try {
+					serverConfig.setConnectorType(ConnectorType.valueOf(args[optionsLength].toUpperCase()));
+				} catch (IllegalArgumentException e) {
+					exitWithError(command, "unknown connector type: " + args[optionsLength]);
+				}
+				break;
+			case "--acceptors":
+				if (++optionsLength == args.length) {
+					exitWithError(command, "invalid arguments");
+				}
+				serverConfig.setAcceptors(Integer.parseInt(args[optionsLength]));
+				break;
+			case "--minThreads":
+				if (++optionsLength == args.length) {
+					exitWithError(command, "invalid arguments");
+				}
+				serverConfig.setMinThreads(Integer.parseInt(args[optionsLength]));
+				break;
+			case "--maxThreads":
+				if (++optionsLength == args.length) {
+					exitWithError(command, "invalid arguments");
+				}
+				serverConfig.setMaxThreads(Integer.parseInt(args[optionsLength]));
+				break;
+			case "--queueSize":
+				if (++optionsLength == args.length) {
+					exitWithError(command, "invalid arguments");
+				}
+				serverConfig.setQueueSize(Integer.parseInt(args[optionsLength]));
+				break;
+			case "--idleTimeout":
+				if (++optionsLength == args.length) {
+					exitWithError(command, "invalid arguments");
+				}
+				serverConfig.setIdleTimeout(Integer.parseInt(args[optionsLength]));
+				break;
+			case "--musicLimit":
+				if (++optionsLength == args.length) {
+					exitWithError(command, "invalid arguments");
+				}
+				serverConfig.setMusicLimit(Integer.parseInt(args[optionsLength]));
+				break;
+			case "--mountLimit":
+				if (++optionsLength == args.length) {
+					exitWithError(command, "invalid arguments");
+				}
+				serverConfig.setMountLimit(Integer.parseInt(args[optionsLength]));
+				break;
 			case "--bonjour":
 				optionBonjour = true;
 				break;
@@ -148,6 +212,9 @@ public class MusicMountTestCommand {
 		if ((optionUser == null) != (optionPassword == null)) {
 			exitWithError(command, String.format("either both or none of user/password must be given: %s/%s", optionUser, optionPassword));
 		}
+		if (serverConfig.getMinThreads() > 0 && serverConfig.getMaxThreads() > 0 && serverConfig.getMinThreads() > serverConfig.getMaxThreads()) {
+			exitWithError(command, String.format("minimum number of threads exceeds maximum: %d/%d", serverConfig.getMinThreads(), serverConfig.getMaxThreads()));
+		}
 
 		/**
 		 * Configure logging
@@ -166,7 +233,7 @@ public class MusicMountTestCommand {
 		}
 		optionMusic = optionMusic.replace(FileSystems.getDefault().getSeparator(), "/");
 
-		MusicMountTester tester = new MusicMountTester();
+		MusicMountTester tester = new MusicMountTester(serverConfig);
 		tester.start(musicFolder, mountFolder, optionMusic, optionPort, optionUser, optionPassword);
 
 		/*
@@ -27,54 +27,84 @@ import java.util.Locale;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.management.JMException;
+
 import org.musicmount.io.file.FileResource;
+import org.musicmount.server.AsyncAccessLog;
 import org.musicmount.server.MusicMountServer;
+import org.musicmount.server.MusicMountServerConfig;
 import org.musicmount.server.MusicMountServerJetty;
+import org.musicmount.server.ServerMetrics;
 import org.musicmount.server.MusicMountServer.AccessLog;
 import org.musicmount.server.MusicMountServer.FolderContext;
 
 public class MusicMountTester {
 	protected static final Logger LOGGER = Logger.getLogger(MusicMountTester.class.getName());
 	
-	public static final AccessLog LOGGER_ACCESS_LOG = new AccessLog() {
+	public static final AsyncAccessLog LOGGER_ACCESS_LOG = new AsyncAccessLog() {
+		@Override
+		protected boolean isEnabled() {
+			return LOGGER.isLoggable(Level.FINE);
+		}
 		@Override
-		public void log(AccessLog.Entry entry) {
-			if (LOGGER.isLoggable(Level.FINE)) {
-				StringBuilder builder = new StringBuilder();
-				String uri = entry.getRequestURI();
+		protected void write(AccessLog.Entry entry) {
+			StringBuilder builder = new StringBuilder();
+			String uri = entry.getRequestURI();
+			if (uri.indexOf('%') >= 0) {
 				try {
 					uri = URLDecoder.decode(uri, StandardCharsets.UTF_8.name());
 				} catch (UnsupportedEncodingException e) {
 					// should not happen
 				}
-				final int methodAndURIFormatLength = 39; // magic... log line length = 100
-				int maxURILength = methodAndURIFormatLength - 1 - entry.getRequestMethod().length();
-				if (uri.length() > maxURILength) {
-					uri = "..." + uri.substring(uri.length() - maxURILength + 3);
-				}
-				String methodAndURI = String.format("%s %s", entry.getRequestMethod(), uri);
-				builder.append(String.format(String.format("%%-%ds", methodAndURIFormatLength), methodAndURI));
-				builder.append(String.format("%4d", entry.getResponseStatus()));
-				String contentLengthHeader = entry.getResponseHeader("Content-Length");
-				if (contentLengthHeader != null) {
-					builder.append(String.format(Locale.ENGLISH, "%,11dB", Long.valueOf(contentLengthHeader)));
-				} else {
-					builder.append("            ");
-				}
-				builder.append(String.format(Locale.ENGLISH, "%,7dms", entry.getResponseTimestamp() - entry.getRequestTimestamp()));
-				LOGGER.log(Level.FINE, builder.toString());
 			}
+			final int methodAndURIFormatLength = 39; // magic... log line length = 100
+			int maxURILength = methodAndURIFormatLength - 1 - entry.getRequestMethod().length();
+			if (uri.length() > maxURILength) {
+				uri = "..." + uri.substring(uri.length() - maxURILength + 3);
+			}
+			String methodAndURI = String.format("%s %s", entry.getRequestMethod(), uri);
+			builder.append(String.format(String.format("%%-%ds", methodAndURIFormatLength), methodAndURI));
+			builder.append(String.format("%4d", entry.getResponseStatus()));
+			String contentLengthHeader = entry.getResponseHeader("Content-Length");
+			if (contentLengthHeader != null) {
+				builder.append(String.format(Locale.ENGLISH, "%,11dB", Long.valueOf(contentLengthHeader)));
+			} else {
+				builder.append("            ");
+			}
+			builder.append(String.format(Locale.ENGLISH, "%,7dms", entry.getResponseTimestamp() - entry.getRequestTimestamp()));
+			LOGGER.log(Level.FINE, builder.toString());
 		}
 	};
 	
 	private final MusicMountServer engine;
+	private final ServerMetrics metrics;
 	
 	public MusicMountTester() {
-		this(new MusicMountServerJetty(LOGGER_ACCESS_LOG));
+		this(new MusicMountServerConfig());
+	}
+
+	public MusicMountTester(MusicMountServerConfig serverConfig) {
+		this(serverConfig, new ServerMetrics(LOGGER_ACCESS_LOG));
+	}
+
+	private MusicMountTester(MusicMountServerConfig serverConfig, ServerMetrics metrics) {
+		this(new MusicMountServerJetty(metrics, serverConfig), metrics);
 	}
 	
 	public MusicMountTester(MusicMountServer engine) {
+		this(engine, null);
+	}
+
+	private MusicMountTester(MusicMountServer engine, ServerMetrics metrics) {
 		this.engine = engine;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return request metrics, or <code>null</code> if the server has been provided by the caller
+	 */
+	public ServerMetrics getMetrics() {
+		return metrics;
 	}
 
 	public void start(
@@ -94,6 +124,14 @@ public class MusicMountTester {
 		LOGGER.info("Music folder: " + musicFolder.getPath());
 		LOGGER.info("Mount folder: " + mountFolder.getPath());
 		LOGGER.info("Music path  : " + musicPath);
+		if (metrics != null) {
+			metrics.setContextPaths(musicContext.getPath(), mountContext.getPath());
+			try {
+				metrics.register("test");
+			} catch (JMException e) {
+				LOGGER.log(Level.WARNING, "Could not register metrics MBeans", e);
+			}
+		}
 		engine.start(musicContext, mountContext, port, user, password);
 		LOGGER.info(String.format("Mount Settings"));
 		LOGGER.info(String.format("--------------"));
@@ -117,6 +155,10 @@ public class MusicMountTester {
 	public void stop() throws Exception {
 		LOGGER.info("Stopping Server...");
 		engine.stop();
+		if (metrics != null) {
+			metrics.unregister();
+		}
+		LOGGER_ACCESS_LOG.close(); // flush pending entries
 		LOGGER.info("Done.");
 	}
 
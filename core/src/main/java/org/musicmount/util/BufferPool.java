@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pool of byte buffers of equal size.
+ * At most <code>maxBuffers</code> released buffers are kept for reuse, others are left to the garbage collector.
+ */
+public class BufferPool {
+	/**
+	 * Buffered output stream using a pooled buffer.
+	 * The buffer is returned to the pool when the stream is closed.
+	 */
+	private class PooledBufferedOutputStream extends FilterOutputStream {
+		private byte[] buffer = acquire();
+		private int count = 0;
+
+		PooledBufferedOutputStream(OutputStream output) {
+			super(output);
+		}
+
+		private void flushBuffer() throws IOException {
+			if (count > 0) {
+				out.write(buffer, 0, count);
+				count = 0;
+			}
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (count == buffer.length) {
+				flushBuffer();
+			}
+			buffer[count++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (len >= buffer.length) {
+				flushBuffer();
+				out.write(b, off, len);
+				return;
+			}
+			if (len > buffer.length - count) {
+				flushBuffer();
+			}
+			System.arraycopy(b, off, buffer, count, len);
+			count += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			flushBuffer();
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (buffer != null) {
+				try {
+					flushBuffer();
+					out.close();
+				} finally {
+					release(buffer);
+					buffer = null;
+				}
+			}
+		}
+	}
+
+	private final int bufferSize;
+	private final BlockingQueue<byte[]> buffers;
+
+	/**
+	 * @param bufferSize buffer size
+	 * @param maxBuffers maximum number of buffers kept for reuse
+	 */
+	public BufferPool(int bufferSize, int maxBuffers) {
+		this.bufferSize = bufferSize;
+		this.buffers = new ArrayBlockingQueue<>(maxBuffers);
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * @return number of buffers available for reuse
+	 */
+	public int size() {
+		return buffers.size();
+	}
+
+	/**
+	 * Take buffer from the pool or create a new one if the pool is empty.
+	 * @return buffer
+	 */
+	public byte[] acquire() {
+		byte[] buffer = buffers.poll();
+		return buffer != null ? buffer : new byte[bufferSize];
+	}
+
+	/**
+	 * Return buffer to the pool.
+	 * @param buffer buffer obtained from {@link #acquire()}
+	 */
+	public void release(byte[] buffer) {
+		if (buffer.length == bufferSize) {
+			buffers.offer(buffer);
+		}
+	}
+
+	/**
+	 * Create buffered output stream using a pooled buffer, which is released when the stream is closed.
+	 * @param output underlying stream
+	 * @return buffered stream
+	 */
+	public OutputStream buffered(OutputStream output) {
+		return new PooledBufferedOutputStream(output);
+	}
+}
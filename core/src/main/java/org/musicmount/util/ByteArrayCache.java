@@ -0,0 +1,198 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Memory-bounded LRU cache of byte arrays.
+ * Each entry carries the checksum of its bytes, so it can be used for validation without rehashing.
+ * When the total number of cached bytes exceeds the limit, least recently used entries are evicted.
+ * Values larger than the limit are not cached.
+ * 
+ * @param <K> key type
+ */
+public class ByteArrayCache<K> {
+	/**
+	 * Cached bytes with their checksum, computed once when the entry is created.
+	 */
+	public static final class Entry {
+		private final byte[] bytes;
+		private final long checksum;
+
+		/**
+		 * @param bytes bytes, must not be modified afterwards
+		 */
+		public Entry(byte[] bytes) {
+			this.bytes = bytes;
+			CRC32 crc = new CRC32();
+			crc.update(bytes);
+			this.checksum = crc.getValue();
+		}
+
+		public byte[] getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * @return CRC32 checksum of bytes
+		 */
+		public long getChecksum() {
+			return checksum;
+		}
+	}
+
+	private final long maxBytes;
+	private final LinkedHashMap<K, Entry> entries = new LinkedHashMap<K, Entry>(16, 0.75f, true); // access order
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+
+	private long bytes = 0;
+
+	/**
+	 * @param maxBytes maximum number of cached bytes
+	 */
+	public ByteArrayCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Get cached value and count hit/miss.
+	 * @param key key
+	 * @return cached bytes or <code>null</code>
+	 */
+	public byte[] get(K key) {
+		Entry entry = getEntry(key);
+		return entry != null ? entry.bytes : null;
+	}
+
+	/**
+	 * Get cached entry and count hit/miss.
+	 * @param key key
+	 * @return cached entry or <code>null</code>
+	 */
+	public Entry getEntry(K key) {
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(key);
+		}
+		if (entry != null) {
+			hitCount.incrementAndGet();
+		} else {
+			missCount.incrementAndGet();
+		}
+		return entry;
+	}
+
+	/**
+	 * Test if key is cached without touching hit/miss counters or access order.
+	 * @param key key
+	 * @return <code>true</code> if a value is cached for the key
+	 */
+	public synchronized boolean contains(K key) {
+		return entries.containsKey(key);
+	}
+
+	/**
+	 * Put value, evicting least recently used entries if necessary.
+	 * Values must not be modified after putting them into the cache.
+	 * @param key key
+	 * @param value bytes
+	 * @return <code>true</code> if the value has been cached
+	 */
+	public boolean put(K key, byte[] value) {
+		return value.length <= maxBytes && put(key, new Entry(value));
+	}
+
+	/**
+	 * Put entry, evicting least recently used entries if necessary.
+	 * @param key key
+	 * @param entry entry
+	 * @return <code>true</code> if the entry has been cached
+	 */
+	public synchronized boolean put(K key, Entry entry) {
+		if (entry.bytes.length > maxBytes) {
+			return false;
+		}
+		Entry previous = entries.put(key, entry);
+		if (previous != null) {
+			bytes -= previous.bytes.length;
+		}
+		bytes += entry.bytes.length;
+		Iterator<Map.Entry<K, Entry>> iterator = entries.entrySet().iterator();
+		while (bytes > maxBytes && iterator.hasNext()) {
+			Map.Entry<K, Entry> eldest = iterator.next();
+			if (eldest.getValue() != entry) {
+				bytes -= eldest.getValue().bytes.length;
+				iterator.remove();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Remove value.
+	 * @param key key
+	 * @return <code>true</code> if a value has been removed
+	 */
+	public synchronized boolean remove(K key) {
+		Entry previous = entries.remove(key);
+		if (previous != null) {
+			bytes -= previous.bytes.length;
+		}
+		return previous != null;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * @return number of cached entries
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return number of cached bytes
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s(entries=%d, bytes=%d, hits=%d, misses=%d)", getClass().getSimpleName(), size(), getBytes(), getHitCount(), getMissCount());
+	}
+}
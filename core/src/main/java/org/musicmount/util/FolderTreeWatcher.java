@@ -106,7 +106,10 @@ public class FolderTreeWatcher implements Runnable {
 				LOGGER.finer(String.format("%s: %s", kind.name(), event.context()));
 			}
 
-			if (kind != OVERFLOW) {
+			if (kind == OVERFLOW) {
+				// events may have been lost: report the whole directory as modified
+				delegate.pathModified(dir);
+			} else {
 				// Context for directory entry event is the file name of entry
 				Path path = dir.resolve((Path) event.context());
 
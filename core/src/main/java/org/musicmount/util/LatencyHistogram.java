@@ -0,0 +1,111 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with fixed, roughly exponential buckets (milliseconds).
+ * Percentiles are answered as upper bounds of the containing bucket, capped by the maximum recorded value.
+ */
+public class LatencyHistogram {
+	/*
+	 * upper bucket bounds; values exceeding the last bound are counted in an extra bucket
+	 */
+	private static final long[] BOUNDS = {
+		1, 2, 3, 5, 7, 10, 15, 20, 30, 50, 70, 100, 150, 200, 300, 500, 700, 1000, 1500, 2000, 3000, 5000, 10000
+	};
+
+	private static int bucket(long millis) {
+		int low = 0;
+		int high = BOUNDS.length;
+		while (low < high) { // find first bound >= millis
+			int mid = (low + high) >>> 1;
+			if (BOUNDS[mid] < millis) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Record latency.
+	 * @param millis latency in milliseconds (negative values are recorded as zero)
+	 */
+	public void record(long millis) {
+		if (millis < 0) {
+			millis = 0;
+		}
+		counts.incrementAndGet(bucket(millis));
+		count.incrementAndGet();
+		sum.addAndGet(millis);
+		long current = max.get();
+		while (millis > current && !max.compareAndSet(current, millis)) {
+			current = max.get();
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return mean latency or <code>0</code> if nothing has been recorded
+	 */
+	public double getMean() {
+		long count = this.count.get();
+		return count == 0 ? 0.0 : (double) sum.get() / count;
+	}
+
+	/**
+	 * Estimate percentile.
+	 * @param percentile percentile (e.g. <code>95.0</code>)
+	 * @return latency, which is not exceeded by <code>percentile</code> percent of the recorded values
+	 */
+	public long getPercentile(double percentile) {
+		long total = 0;
+		long[] snapshot = new long[counts.length()];
+		for (int i = 0; i < snapshot.length; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * percentile / 100.0);
+		long max = this.max.get();
+		long seen = 0;
+		for (int i = 0; i < BOUNDS.length; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(BOUNDS[i], max);
+			}
+		}
+		return max;
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free ring buffer for multiple producers and a single consumer.
+ * Producers never block: {@link #offer(Object)} fails if the buffer is full.
+ * @param <E> element type
+ */
+public class RingBuffer<E> {
+	private final AtomicReferenceArray<E> slots;
+	private final int mask;
+	private final AtomicLong tail = new AtomicLong(); // next slot to be claimed by a producer
+	private final AtomicLong head = new AtomicLong(); // next slot to be consumed
+
+	/**
+	 * @param capacity minimum capacity (rounded up to a power of two)
+	 */
+	public RingBuffer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		this.slots = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+	}
+
+	public int capacity() {
+		return slots.length();
+	}
+
+	/**
+	 * @return number of elements (approximate while producers or consumer are active)
+	 */
+	public int size() {
+		return (int) Math.max(0, tail.get() - head.get());
+	}
+
+	/**
+	 * Add element (any thread).
+	 * @param element element (not <code>null</code>)
+	 * @return <code>false</code> if the buffer is full
+	 */
+	public boolean offer(E element) {
+		while (true) {
+			long index = tail.get();
+			if (index - head.get() >= slots.length()) {
+				return false;
+			}
+			if (tail.compareAndSet(index, index + 1)) {
+				slots.lazySet((int) (index & mask), element);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Remove element (consumer thread only).
+	 * @return next element or <code>null</code> if the buffer is empty or the next element is not yet published
+	 */
+	public E poll() {
+		long index = head.get();
+		int slot = (int) (index & mask);
+		E element = slots.get(slot);
+		if (element == null) {
+			return null;
+		}
+		slots.lazySet(slot, null);
+		head.set(index + 1); // free slot after clearing it
+		return element;
+	}
+}
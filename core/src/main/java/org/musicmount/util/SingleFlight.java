@@ -0,0 +1,72 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Coalesce concurrent computations for the same key.
+ * While a computation for a key is in progress, further calls for that key wait
+ * for its result instead of computing it again.
+ * 
+ * @param <K> key type
+ * @param <V> result type
+ */
+public class SingleFlight<K, V> {
+	private final ConcurrentMap<K, FutureTask<V>> calls = new ConcurrentHashMap<>();
+
+	/**
+	 * Compute value for key or join a computation in progress.
+	 * @param key key
+	 * @param callable computation, run on the calling thread if no computation for the key is in progress
+	 * @return computed value
+	 * @throws Exception exception thrown by the computation
+	 */
+	public V execute(K key, Callable<V> callable) throws Exception {
+		FutureTask<V> task = new FutureTask<>(callable);
+		FutureTask<V> call = calls.putIfAbsent(key, task);
+		if (call == null) {
+			call = task;
+			try {
+				task.run();
+			} finally {
+				calls.remove(key, task);
+			}
+		}
+		try {
+			return call.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * @return number of computations in progress
+	 */
+	public int size() {
+		return calls.size();
+	}
+}
@@ -17,7 +17,10 @@ package org.musicmount.builder;
 
 import java.io.File;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
 
+import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -55,6 +58,102 @@ public class MusicMountBuilderTest {
 		builder.build(musicFolder, mountFolder, musicPath);
 	}
 	
+	@Test
+	public void testShardedIndex() throws Exception {
+		ResourceProvider resourceProvider = new FileResourceProvider();
+		Resource musicFolder = resourceProvider.newResource(new File(inputFolder.toURI()).toPath());
+		Resource mountFolder = resourceProvider.newResource(outputFolder.getRoot().toPath());
+		String musicPath = mountFolder.getPath().relativize(musicFolder.getPath()).toString();
+
+		MusicMountBuilder builder = new MusicMountBuilder();
+		builder.getConfig().setShardedIndex(true);
+		builder.getConfig().setFull(true);
+		builder.build(musicFolder, mountFolder, musicPath);
+
+		Assert.assertTrue(mountFolder.resolve("albums/index.json").exists());
+		Assert.assertTrue(mountFolder.resolve("albums/index-a.json").exists()); // "Album Artist - Album"
+		Assert.assertTrue(mountFolder.resolve("albums/index-v.json").exists()); // "Various Artists - Album"
+		Assert.assertFalse(mountFolder.resolve("albums/index-b.json").exists());
+		Assert.assertTrue(mountFolder.resolve("tracks/index.json").exists());
+
+		Resource staleSection = mountFolder.resolve("albums/index-b.json");
+		Files.write(staleSection.getPath(), new byte[0]);
+		builder.getConfig().setFull(false);
+		builder.build(musicFolder, mountFolder, musicPath);
+		Assert.assertFalse(staleSection.exists()); // section without albums deleted
+		Assert.assertTrue(mountFolder.resolve("albums/index-a.json").exists());
+
+		builder.getConfig().setShardedIndex(false);
+		builder.build(musicFolder, mountFolder, musicPath);
+		Assert.assertFalse(mountFolder.resolve("albums/index-a.json").exists()); // sharding turned off
+		Assert.assertTrue(mountFolder.resolve("albums/index.json").exists());
+	}
+
+	@Test
+	public void testSearchIndex() throws Exception {
+		ResourceProvider resourceProvider = new FileResourceProvider();
+		Resource musicFolder = resourceProvider.newResource(new File(inputFolder.toURI()).toPath());
+		Resource mountFolder = resourceProvider.newResource(outputFolder.getRoot().toPath());
+		String musicPath = mountFolder.getPath().relativize(musicFolder.getPath()).toString();
+
+		MusicMountBuilder builder = new MusicMountBuilder();
+		builder.getConfig().setSearchIndex(true);
+		builder.getConfig().setFull(true);
+		builder.build(musicFolder, mountFolder, musicPath);
+
+		Assert.assertTrue(mountFolder.resolve("search/index.json").exists());
+		Assert.assertTrue(mountFolder.resolve("search/al.json").exists()); // "Album"
+		Assert.assertTrue(mountFolder.resolve(MusicMountBuilder.SEARCH_INDEX_DIGESTS).exists());
+
+		FileTime lastModified = FileTime.fromMillis(0);
+		Files.setLastModifiedTime(mountFolder.resolve("search/al.json").getPath(), lastModified);
+		builder.getConfig().setFull(false);
+		builder.build(musicFolder, mountFolder, musicPath);
+		Assert.assertEquals(lastModified, Files.getLastModifiedTime(mountFolder.resolve("search/al.json").getPath())); // unchanged shard kept
+
+		Resource staleShard = mountFolder.resolve("search/zz.json");
+		Files.write(staleShard.getPath(), new byte[0]);
+		mountFolder.resolve(MusicMountBuilder.SEARCH_INDEX_DIGESTS).delete(); // orphan shards are found without digests, too
+		builder.build(musicFolder, mountFolder, musicPath);
+		Assert.assertTrue(staleShard.exists()); // stale shards are only deleted with --deleteStale
+
+		builder.getConfig().setDeleteStale(true);
+		builder.build(musicFolder, mountFolder, musicPath);
+		Assert.assertFalse(staleShard.exists());
+		Assert.assertTrue(mountFolder.resolve("search/al.json").exists());
+	}
+
+	@Test
+	public void testBuildManifest() throws Exception {
+		ResourceProvider resourceProvider = new FileResourceProvider();
+		Resource musicFolder = resourceProvider.newResource(new File(inputFolder.toURI()).toPath());
+		Resource mountFolder = resourceProvider.newResource(outputFolder.getRoot().toPath());
+		String musicPath = mountFolder.getPath().relativize(musicFolder.getPath()).toString();
+
+		MusicMountBuilder builder = new MusicMountBuilder();
+		builder.getConfig().setFull(true);
+		builder.build(musicFolder, mountFolder, musicPath);
+
+		Assert.assertTrue(mountFolder.resolve(MusicMountBuilder.BUILD_MANIFEST + ".json").exists());
+		Assert.assertTrue(mountFolder.resolve(MusicMountBuilder.BUILD_FILES).exists());
+
+		FileTime lastModified = FileTime.fromMillis(0);
+		Files.setLastModifiedTime(mountFolder.resolve("albums/index.json").getPath(), lastModified);
+		Resource staleFile = mountFolder.resolve("albums/ff/ff/album.json");
+		staleFile.getParent().mkdirs();
+		Files.write(staleFile.getPath(), new byte[0]);
+
+		builder.getConfig().setFull(false);
+		builder.build(musicFolder, mountFolder, musicPath);
+		Assert.assertEquals(lastModified, Files.getLastModifiedTime(mountFolder.resolve("albums/index.json").getPath())); // unchanged response kept
+		Assert.assertTrue(staleFile.exists());
+
+		builder.getConfig().setDeleteStale(true);
+		builder.build(musicFolder, mountFolder, musicPath);
+		Assert.assertFalse(staleFile.exists());
+		Assert.assertFalse(mountFolder.resolve("albums/ff").exists());
+	}
+
 	@Test
 	public void testGenerateResponseFiles() throws Exception {
 		ResourceProvider resourceProvider = new FileResourceProvider();
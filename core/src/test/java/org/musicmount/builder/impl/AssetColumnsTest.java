@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.builder.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.musicmount.io.ResourceProvider;
+import org.musicmount.io.file.FileResourceProvider;
+
+public class AssetColumnsTest {
+	ResourceProvider resourceProvider = new FileResourceProvider();
+
+	Asset asset(String path, String album, Integer trackNumber) {
+		Asset asset = new Asset(resourceProvider.newResource("/music", path));
+		asset.setName(path);
+		asset.setAlbum(album);
+		asset.setArtist("Artist");
+		asset.setTrackNumber(trackNumber);
+		asset.setYear(2014);
+		asset.setCompilation(trackNumber == null);
+		asset.setArtworkAvailable(true);
+		return asset;
+	}
+
+	@Test
+	public void testAddGet() {
+		AssetColumns columns = new AssetColumns(1); // force growing
+		int row1 = columns.add(asset("1.mp3", "Album", 1));
+		int row2 = columns.add(asset("2.mp3", "Album", null));
+		Assert.assertEquals(2, columns.size());
+		Assert.assertEquals(2, columns.dictionarySize()); // "Album", "Artist"
+
+		Asset asset1 = columns.get(row1);
+		Assert.assertEquals(resourceProvider.newResource("/music", "1.mp3"), asset1.getResource());
+		Assert.assertEquals("1.mp3", asset1.getName());
+		Assert.assertEquals("Album", asset1.getAlbum());
+		Assert.assertNull(asset1.getAlbumArtist());
+		Assert.assertEquals(Integer.valueOf(1), asset1.getTrackNumber());
+		Assert.assertEquals(Integer.valueOf(2014), asset1.getYear());
+		Assert.assertNull(asset1.getDiscNumber());
+		Assert.assertFalse(asset1.isCompilation());
+		Assert.assertTrue(asset1.isArtworkAvailable());
+
+		Asset asset2 = columns.get(row2);
+		Assert.assertSame(asset1.getAlbum(), asset2.getAlbum());
+		Assert.assertNull(asset2.getTrackNumber());
+		Assert.assertTrue(asset2.isCompilation());
+	}
+
+	@Test
+	public void testRemove() {
+		AssetColumns columns = new AssetColumns();
+		int row1 = columns.add(asset("1.mp3", "Album", 1));
+		columns.add(asset("2.mp3", "Album", 2));
+		columns.remove(row1);
+		Assert.assertEquals(1, columns.size());
+		Assert.assertNull(columns.getResource(row1));
+
+		int row3 = columns.add(asset("3.mp3", "Album", 3));
+		Assert.assertEquals(row1, row3);
+		Assert.assertEquals(2, columns.size());
+		Assert.assertEquals(Integer.valueOf(3), columns.get(row3).getTrackNumber());
+	}
+}
@@ -18,18 +18,29 @@ package org.musicmount.builder.impl;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.Set;
 
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.musicmount.builder.model.Album;
 import org.musicmount.builder.model.Library;
+import org.musicmount.io.Resource;
 import org.musicmount.io.ResourceProvider;
 import org.musicmount.io.file.FileResourceProvider;
 import org.musicmount.util.ProgressHandler;
 
 public class AssetStoreTest {
+	@Rule
+	public TemporaryFolder musicFolder = new TemporaryFolder();
+
 	@Test
 	public void test() throws Exception {
 		ResourceProvider resourceProvider = new FileResourceProvider();
@@ -59,6 +70,16 @@ public class AssetStoreTest {
 		Assert.assertEquals(3, assetStore.size());
 		assetStore.update(new SimpleAssetParser(), 4, ProgressHandler.NOOP);
 
+		// assets may be iterated more than once
+		Iterable<Asset> assets = assetStore.assets();
+		for (int pass = 0; pass < 2; pass++) {
+			int count = 0;
+			for (Iterator<Asset> iterator = assets.iterator(); iterator.hasNext(); iterator.next()) {
+				count++;
+			}
+			Assert.assertEquals(3, count);
+		}
+
 		library = new LibraryParser(true).parse(assetStore.assets());
 		Assert.assertEquals(1, library.getAlbumArtists().size());
 		Assert.assertEquals(1, library.getTrackArtists().size());
@@ -73,4 +94,91 @@ public class AssetStoreTest {
 		Assert.assertEquals("Sample - MP3", asset.getName());
 		Assert.assertTrue(asset.getResource().exists());
 	}
+
+	@Test
+	public void testCompact() throws Exception {
+		ResourceProvider resourceProvider = new FileResourceProvider();
+
+		File assetDir = new File(getClass().getResource("/sample-library").toURI());
+		AssetStore assetStore = new AssetStore("test", resourceProvider.newResource(assetDir.toPath()));
+		assetStore.update(new SimpleAssetParser(), 1, ProgressHandler.NOOP);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		assetStore.save(output);
+		output.close();
+
+		AssetStore compactAssetStore = new AssetStore("test", resourceProvider.newResource(assetDir.toPath()), true);
+		Assert.assertTrue(compactAssetStore.isCompact());
+		compactAssetStore.load(new ByteArrayInputStream(output.toByteArray()));
+		Assert.assertEquals(assetStore.size(), compactAssetStore.size());
+		for (Asset asset : assetStore.assets()) {
+			Asset compactAsset = compactAssetStore.getAsset(asset.getResource());
+			Assert.assertEquals(asset.getName(), compactAsset.getName());
+			Assert.assertEquals(asset.getAlbum(), compactAsset.getAlbum());
+			Assert.assertEquals(asset.getAlbumArtist(), compactAsset.getAlbumArtist());
+			Assert.assertEquals(asset.getArtist(), compactAsset.getArtist());
+			Assert.assertEquals(asset.getGenre(), compactAsset.getGenre());
+			Assert.assertEquals(asset.getDiscNumber(), compactAsset.getDiscNumber());
+			Assert.assertEquals(asset.getTrackNumber(), compactAsset.getTrackNumber());
+			Assert.assertEquals(asset.getYear(), compactAsset.getYear());
+			Assert.assertEquals(asset.getDuration(), compactAsset.getDuration());
+			Assert.assertEquals(asset.isCompilation(), compactAsset.isCompilation());
+			Assert.assertEquals(asset.isArtworkAvailable(), compactAsset.isArtworkAvailable());
+		}
+
+		ByteArrayOutputStream compactOutput = new ByteArrayOutputStream();
+		compactAssetStore.save(compactOutput);
+		compactOutput.close();
+		Assert.assertArrayEquals(output.toByteArray(), compactOutput.toByteArray());
+
+		Library library = new LibraryParser(true).parse(compactAssetStore.assets());
+		Assert.assertEquals(5, library.getAlbums().size());
+	}
+
+	@Test
+	public void testUpdatePaths() throws Exception {
+		Path sampleDir = Paths.get(getClass().getResource("/sample-album/sample.mp3").toURI()).getParent();
+		Path musicDir = musicFolder.getRoot().toPath();
+		Path albumDir = Files.createDirectory(musicDir.resolve("album"));
+		Files.copy(sampleDir.resolve("sample.mp3"), albumDir.resolve("sample.mp3"));
+		Files.copy(sampleDir.resolve("sample-aac.m4a"), albumDir.resolve("sample-aac.m4a"));
+
+		ResourceProvider resourceProvider = new FileResourceProvider();
+		AssetStore assetStore = new AssetStore("test", resourceProvider.newResource(musicDir));
+		assetStore.update(new SimpleAssetParser(), 1, ProgressHandler.NOOP);
+		Assert.assertEquals(2, assetStore.size());
+		Library library = new LibraryParser(true).parse(assetStore.assets());
+		assetStore.sync(library.getAlbums());
+		long albumId = library.getAlbums().get(0).getAlbumId();
+
+		// nothing changed
+		Assert.assertTrue(assetStore.update(new SimpleAssetParser(), Collections.<Path>emptySet(), ProgressHandler.NOOP).isEmpty());
+
+		// add file, delete file, ignore hidden folder
+		Files.copy(sampleDir.resolve("sample-alac.m4a"), albumDir.resolve("sample-alac.m4a"));
+		Files.delete(albumDir.resolve("sample.mp3"));
+		Path hiddenDir = Files.createDirectory(musicDir.resolve(".hidden"));
+		Files.copy(sampleDir.resolve("sample.mp3"), hiddenDir.resolve("sample.mp3"));
+		Set<Resource> changedResources = assetStore.update(new SimpleAssetParser(), Arrays.asList(albumDir.resolve("sample-alac.m4a"), albumDir.resolve("sample.mp3"), hiddenDir.resolve("sample.mp3")), ProgressHandler.NOOP);
+		Assert.assertEquals(2, changedResources.size());
+		Assert.assertTrue(changedResources.contains(resourceProvider.newResource(albumDir.resolve("sample.mp3"))));
+		Assert.assertTrue(changedResources.contains(resourceProvider.newResource(albumDir.resolve("sample-alac.m4a"))));
+		Assert.assertEquals(2, assetStore.size());
+		Assert.assertNull(assetStore.getAsset(resourceProvider.newResource(albumDir.resolve("sample.mp3"))));
+		Assert.assertNotNull(assetStore.getAsset(resourceProvider.newResource(albumDir.resolve("sample-alac.m4a"))));
+
+		// patch library
+		new LibraryParser(true).update(library, assetStore.assets(), changedResources);
+		Assert.assertEquals(2, library.getTracks().size());
+		Assert.assertEquals(1, library.getAlbums().size());
+		Assert.assertEquals(1, assetStore.sync(library.getAlbums()).size());
+		Assert.assertEquals(albumId, library.getAlbums().get(0).getAlbumId());
+
+		// delete folder
+		Files.delete(albumDir.resolve("sample-aac.m4a"));
+		Files.delete(albumDir.resolve("sample-alac.m4a"));
+		Files.delete(albumDir);
+		changedResources = assetStore.update(new SimpleAssetParser(), Collections.singleton(albumDir), ProgressHandler.NOOP);
+		Assert.assertEquals(2, changedResources.size());
+		Assert.assertEquals(0, assetStore.size());
+	}
 }
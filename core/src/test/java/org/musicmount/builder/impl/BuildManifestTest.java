@@ -0,0 +1,109 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.builder.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.musicmount.io.Resource;
+import org.musicmount.io.file.FileResourceProvider;
+
+public class BuildManifestTest {
+	@Rule
+	public TemporaryFolder mountFolder = new TemporaryFolder();
+
+	private void write(BuildManifest manifest, String path, String content) throws Exception {
+		try (OutputStream output = manifest.createOutputStream(path)) {
+			output.write(content.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	private BuildManifest reload(BuildManifest manifest, String updateToken) throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		manifest.save(output);
+		BuildManifest result = new BuildManifest(manifest.getFolder(), updateToken, false);
+		result.load(new ByteArrayInputStream(output.toByteArray()));
+		return result;
+	}
+
+	@Test
+	public void test() throws Exception {
+		Resource folder = new FileResourceProvider().newResource(mountFolder.getRoot().toPath());
+
+		BuildManifest manifest = new BuildManifest(folder, "token1", false);
+		write(manifest, "index.json", "{token1}");
+		write(manifest, "albums/00/01/album.json", "{token1,foo}");
+		write(manifest, "albums/00/02/album.json", "{token1,bar}");
+		manifest.removeStaleFiles(false);
+		Assert.assertEquals(3, manifest.getCreated().size());
+		Assert.assertEquals(0, manifest.getModified().size());
+		Assert.assertEquals(3, manifest.getFiles().size());
+
+		FileTime lastModified = FileTime.fromMillis(0);
+		Files.setLastModifiedTime(folder.resolve("index.json").getPath(), lastModified);
+		Resource staleFile = folder.resolve("albums/00/03/album.json");
+		staleFile.getParent().mkdirs();
+		Files.write(staleFile.getPath(), new byte[1]);
+
+		manifest = reload(manifest, "token2");
+		write(manifest, "index.json", "{token2}"); // same content
+		write(manifest, "albums/00/01/album.json", "{token2,foo2}"); // modified content
+		manifest.removeStaleFiles(false);
+		Assert.assertEquals(0, manifest.getCreated().size());
+		Assert.assertEquals(1, manifest.getModified().size());
+		Assert.assertEquals("albums/00/01/album.json", manifest.getModified().iterator().next().getPath());
+		Assert.assertEquals(lastModified, Files.getLastModifiedTime(folder.resolve("index.json").getPath())); // kept
+		Assert.assertEquals("{token1}", new String(Files.readAllBytes(folder.resolve("index.json").getPath()), StandardCharsets.UTF_8));
+		Assert.assertEquals(2, manifest.getStale().size()); // previous build's file and unknown file
+		Assert.assertTrue(staleFile.exists());
+		Assert.assertEquals(0, manifest.getDeleted().size());
+
+		manifest = reload(manifest, "token3");
+		write(manifest, "index.json", "{token3}");
+		write(manifest, "albums/00/01/album.json", "{token3,foo2}");
+		manifest.removeStaleFiles(true);
+		Assert.assertEquals(2, manifest.getDeleted().size());
+		Assert.assertEquals(0, manifest.getStale().size());
+		Assert.assertFalse(staleFile.exists());
+		Assert.assertFalse(folder.resolve("albums/00/03").exists()); // empty folder deleted
+		Assert.assertTrue(folder.resolve("albums/00/01/album.json").exists());
+	}
+
+	@Test
+	public void testRewrite() throws Exception {
+		Resource folder = new FileResourceProvider().newResource(mountFolder.getRoot().toPath());
+
+		BuildManifest manifest = new BuildManifest(folder, "token1", false);
+		write(manifest, "index.json", "{token1}");
+		manifest.removeStaleFiles(false);
+
+		manifest = reload(manifest, "token2");
+		try (OutputStream output = manifest.createOutputStream("index.json", true)) {
+			output.write("{token2}".getBytes(StandardCharsets.UTF_8));
+		}
+		manifest.removeStaleFiles(false);
+		Assert.assertEquals(1, manifest.getModified().size());
+		Assert.assertEquals("{token2}", new String(Files.readAllBytes(folder.resolve("index.json").getPath()), StandardCharsets.UTF_8));
+	}
+}
@@ -77,6 +77,14 @@ public class CollectionSectionTest {
 		Assert.assertFalse(sections.hasNext());
 	}
 
+	@Test
+	public void testGetKey() {
+		Assert.assertEquals("b", new CollectionSection<Titled>("B").getKey());
+		Assert.assertEquals("num", new CollectionSection<Titled>("#").getKey());
+		Assert.assertEquals("none", new CollectionSection<Titled>("?").getKey());
+		Assert.assertNull(new CollectionSection<Titled>(null).getKey());
+	}
+
 	@Test
 	public void testSecondary() {
 		List<Titled> items = items(null, null, null, null, null);
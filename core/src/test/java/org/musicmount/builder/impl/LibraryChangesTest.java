@@ -0,0 +1,109 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.builder.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.musicmount.builder.model.Album;
+import org.musicmount.builder.model.Library;
+import org.musicmount.io.ResourceProvider;
+import org.musicmount.io.file.FileResourceProvider;
+
+public class LibraryChangesTest {
+	ResourceProvider resourceProvider = new FileResourceProvider();
+
+	Asset asset(String artist, String album) {
+		Asset asset = new Asset(resourceProvider.newResource("/music", artist + "-" + album + ".m4a"));
+		asset.setName(album);
+		asset.setArtist(artist);
+		asset.setAlbum(album);
+		return asset;
+	}
+
+	/*
+	 * parse library, use album ids from given map
+	 */
+	Library library(Map<String, Long> albumIds, Asset... assets) {
+		Library library = new LibraryParser(false).parse(Arrays.asList(assets));
+		for (Album album : library.getAlbums()) {
+			album.setAlbumId(albumIds.get(album.getTitle()));
+		}
+		return library;
+	}
+
+	Album album(Library library, String title) {
+		for (Album album : library.getAlbums()) {
+			if (album.getTitle().equals(title)) {
+				return album;
+			}
+		}
+		return null;
+	}
+
+	@Test
+	public void testCompute() {
+		Map<String, Long> albumIds = new TreeMap<>();
+		albumIds.put("X", 1L);
+		albumIds.put("Y", 2L);
+		albumIds.put("Z", 3L);
+		albumIds.put("W", 4L);
+
+		Library previous = library(albumIds, asset("P", "X"), asset("Q", "Y"), asset("P", "W"));
+		Library current = library(albumIds, asset("P", "X"), asset("P", "Z"), asset("Q", "Y"));
+
+		LibraryChanges changes = LibraryChanges.compute(previous, current, Collections.singleton(album(current, "X")));
+		Assert.assertEquals(Arrays.asList(3L), new ArrayList<>(changes.getAlbums().getAdded()));
+		Assert.assertEquals(Arrays.asList(4L), new ArrayList<>(changes.getAlbums().getRemoved()));
+		Assert.assertEquals(Arrays.asList(1L), new ArrayList<>(changes.getAlbums().getModified()));
+
+		long artistP = current.getAlbumArtists().get("P").getArtistId();
+		Assert.assertEquals(Arrays.asList(artistP), new ArrayList<>(changes.getAlbumArtists().getModified())); // "Z" instead of "W", modified "X"
+		Assert.assertTrue(changes.getAlbumArtists().getAdded().isEmpty());
+		Assert.assertTrue(changes.getAlbumArtists().getRemoved().isEmpty());
+
+		changes = LibraryChanges.compute(current, current, Collections.<Album>emptyList());
+		Assert.assertEquals(0, changes.size());
+	}
+
+	@Test
+	public void testMerge() {
+		Map<String, Long> albumIds = new TreeMap<>();
+		albumIds.put("X", 1L);
+		albumIds.put("Y", 2L);
+
+		Library library1 = library(albumIds, asset("P", "X"));
+		Library library2 = library(albumIds, asset("P", "X"), asset("Q", "Y"));
+		Library library3 = library(albumIds, asset("Q", "Y"));
+
+		LibraryChanges changes = LibraryChanges.compute(library1, library2, Collections.<Album>emptyList()); // add "Y"
+		changes.merge(LibraryChanges.compute(library2, library3, Collections.singleton(album(library3, "Y")))); // remove "X", modify "Y"
+		Assert.assertEquals(Arrays.asList(2L), new ArrayList<>(changes.getAlbums().getAdded()));
+		Assert.assertEquals(Arrays.asList(1L), new ArrayList<>(changes.getAlbums().getRemoved()));
+		Assert.assertTrue(changes.getAlbums().getModified().isEmpty()); // added anyway
+
+		changes.merge(LibraryChanges.compute(library3, library1, Collections.<Album>emptyList())); // add "X", remove "Y"
+		Assert.assertTrue(changes.getAlbums().getAdded().isEmpty());
+		Assert.assertTrue(changes.getAlbums().getRemoved().isEmpty());
+		Assert.assertEquals(Arrays.asList(1L), new ArrayList<>(changes.getAlbums().getModified())); // removed and added again
+	}
+}
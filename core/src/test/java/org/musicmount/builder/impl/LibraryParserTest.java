@@ -15,20 +15,42 @@
  */
 package org.musicmount.builder.impl;
 
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.musicmount.builder.model.Album;
 import org.musicmount.builder.model.AlbumArtist;
+import org.musicmount.builder.model.Disc;
+import org.musicmount.builder.model.Genre;
 import org.musicmount.builder.model.Library;
+import org.musicmount.builder.model.Track;
 import org.musicmount.builder.model.TrackArtist;
+import org.musicmount.io.Resource;
 import org.musicmount.io.ResourceProvider;
 import org.musicmount.io.file.FileResourceProvider;
 import org.musicmount.util.ProgressHandler;
 
 public class LibraryParserTest {
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
 	ResourceProvider resourceProvider = new FileResourceProvider();
+	Resource musicFolder = resourceProvider.newResource("/music");
 
 	@Test
 	public void testSampleAlbum() throws Exception {
@@ -51,25 +73,30 @@ public class LibraryParserTest {
 		Assert.assertEquals(3, album.getDiscs().get(1).getTracks().size());
 
 		Assert.assertEquals("Sample - M4A (AAC)", album.getDiscs().get(1).getTracks().get(0).getTitle());
-		Assert.assertEquals(Integer.valueOf(1), album.getDiscs().get(1).getTracks().get(0).getTrackNumber());
-		Assert.assertEquals(Integer.valueOf(2013), album.getDiscs().get(1).getTracks().get(0).getYear());
+		Assert.assertEquals(1, album.getDiscs().get(1).getTracks().get(0).getTrackNumber());
+		Assert.assertEquals(2013, album.getDiscs().get(1).getTracks().get(0).getYear());
 		Assert.assertEquals(album, album.getDiscs().get(1).getTracks().get(0).getAlbum());
 		Assert.assertTrue(album.getDiscs().get(1).getTracks().get(0).isArtworkAvailable());
 		Assert.assertFalse(album.getDiscs().get(1).getTracks().get(0).isCompilation());
 		
 		Assert.assertEquals("Sample - M4A (ALAC)", album.getDiscs().get(1).getTracks().get(1).getTitle());
-		Assert.assertEquals(Integer.valueOf(2), album.getDiscs().get(1).getTracks().get(1).getTrackNumber());
-		Assert.assertEquals(Integer.valueOf(2013), album.getDiscs().get(1).getTracks().get(1).getYear());
+		Assert.assertEquals(2, album.getDiscs().get(1).getTracks().get(1).getTrackNumber());
+		Assert.assertEquals(2013, album.getDiscs().get(1).getTracks().get(1).getYear());
 		Assert.assertEquals(album, album.getDiscs().get(1).getTracks().get(1).getAlbum());
 		Assert.assertTrue(album.getDiscs().get(1).getTracks().get(1).isArtworkAvailable());
 		Assert.assertFalse(album.getDiscs().get(1).getTracks().get(1).isCompilation());
 		
 		Assert.assertEquals("Sample - MP3", album.getDiscs().get(1).getTracks().get(2).getTitle());
-		Assert.assertEquals(Integer.valueOf(3), album.getDiscs().get(1).getTracks().get(2).getTrackNumber());
-		Assert.assertEquals(Integer.valueOf(2013), album.getDiscs().get(1).getTracks().get(2).getYear());
+		Assert.assertEquals(3, album.getDiscs().get(1).getTracks().get(2).getTrackNumber());
+		Assert.assertEquals(2013, album.getDiscs().get(1).getTracks().get(2).getYear());
 		Assert.assertEquals(album, album.getDiscs().get(1).getTracks().get(1).getAlbum());
 		Assert.assertTrue(album.getDiscs().get(1).getTracks().get(2).isArtworkAvailable());
 		Assert.assertFalse(album.getDiscs().get(1).getTracks().get(2).isCompilation());
+
+		// aggregates
+		Assert.assertEquals(Integer.valueOf(2013), album.getYear());
+		Assert.assertFalse(album.isCompilation());
+		Assert.assertEquals(album.getTracks().get(0).getResource(), album.artworkAssetResource());
 	}
 
 	@Test
@@ -158,4 +185,288 @@ public class LibraryParserTest {
 		Assert.assertTrue(trackArtist6.getAlbums().contains(variousArtistsAlbum));
 		Assert.assertTrue(trackArtist6.getAlbums().contains(unknownArtistAlbum));
 	}
+
+	@Test
+	public void testSampleLibraryAggregates() throws Exception {
+		File inputFolder = new File(getClass().getResource("/sample-library").toURI());
+		AssetStore assetStore = new AssetStore("test", resourceProvider.newResource(inputFolder.toPath()));
+		assetStore.update(new SimpleAssetParser(), 1, ProgressHandler.NOOP);
+		Library library = new LibraryParser(true).parse(assetStore.assets());
+
+		Album albumArtistAlbum = library.getAlbumArtists().get("Album Artist").getAlbums().get("Album Artist - Album");
+		Assert.assertEquals(Integer.valueOf(2012), albumArtistAlbum.getYear());
+		Assert.assertEquals(4, albumArtistAlbum.getGenres().getUnknownCount());
+		Assert.assertTrue(albumArtistAlbum.getGenres().getGenres().isEmpty());
+		Assert.assertEquals(Arrays.asList("Unknown"), albumArtistAlbum.getGenres().getGenres("Unknown"));
+
+		Album someArtistCompilation = library.getAlbumArtists().get("Some Artist").getAlbums().get("Some Artist - Compilation");
+		Assert.assertEquals(Integer.valueOf(2010), someArtistCompilation.getYear());
+		Assert.assertTrue(someArtistCompilation.isCompilation());
+
+		Album variousArtistsAlbum = library.getAlbumArtists().get(null).getAlbums().get("Various Artists - Album");
+		Assert.assertEquals(Integer.valueOf(2011), variousArtistsAlbum.getYear());
+		Assert.assertTrue(variousArtistsAlbum.isCompilation());
+
+		/*
+		 * artist genre counts cover the artist's tracks only (album artist: all album tracks)
+		 */
+		Assert.assertEquals(4, library.getAlbumArtists().get("Album Artist").getGenres().getUnknownCount());
+		Assert.assertEquals(2, library.getTrackArtists().get("Some Artist").getGenres().getUnknownCount());
+	}
+
+	@Test
+	public void testGenres() throws Exception {
+		List<Asset> assets = Arrays.asList(
+				asset("a1.mp3", "A1", "Artist A", null, "Album A", null, 1, "Rock", false),
+				asset("a2.mp3", "A2", "Artist A", null, "Album A", null, 2, "Pop", false),
+				asset("b1.mp3", "B1", "Artist B", null, "Album B", null, 1, "Rock", false),
+				asset("c1.mp3", "C1", "Artist C", null, "Album C", null, 1, null, false),
+				asset("c2.mp3", "C2", "Artist C", null, "Album C", null, 2, "Pop", false));
+		Library library = new LibraryParser(true).parse(assets);
+		Assert.assertEquals(new HashSet<>(Arrays.asList("Rock", "Pop", null)), library.getGenres().keySet());
+
+		Set<Long> genreIds = new HashSet<>();
+		for (Map.Entry<String, Genre> entry : library.getGenres().entrySet()) {
+			Assert.assertEquals(entry.getKey(), entry.getValue().getTitle());
+			Assert.assertTrue(genreIds.add(entry.getValue().getGenreId()));
+		}
+
+		Genre rock = library.getGenres().get("Rock");
+		Assert.assertEquals(2, rock.albumsCount());
+		Assert.assertTrue(rock.getAlbums().contains(library.getAlbumArtists().get("Artist A").getAlbums().get("Album A")));
+		Assert.assertTrue(rock.getAlbums().contains(library.getAlbumArtists().get("Artist B").getAlbums().get("Album B")));
+		Assert.assertEquals(2, library.getGenres().get("Pop").albumsCount());
+
+		Genre unknown = library.getGenres().get(null);
+		Assert.assertEquals(1, unknown.albumsCount());
+		Assert.assertEquals("Album C", unknown.getAlbums().iterator().next().getTitle());
+	}
+
+	Asset asset(String path, String name, String artist, String albumArtist, String album, Integer discNumber, Integer trackNumber, String genre, boolean compilation) {
+		Asset asset = new Asset(musicFolder.resolve(path));
+		asset.setName(name);
+		asset.setArtist(artist);
+		asset.setAlbumArtist(albumArtist);
+		asset.setAlbum(album);
+		asset.setDiscNumber(discNumber);
+		asset.setTrackNumber(trackNumber);
+		asset.setGenre(genre);
+		asset.setCompilation(compilation);
+		asset.setYear(2000 + trackNumber);
+		return asset;
+	}
+
+	List<String> resources(List<Track> tracks) {
+		List<String> resources = new ArrayList<>();
+		for (Track track : tracks) {
+			resources.add(track.getResource().toString());
+		}
+		return resources;
+	}
+
+	/*
+	 * order-independent description of library contents (ignoring ids)
+	 */
+	String describe(Library library) {
+		StringBuilder builder = new StringBuilder();
+		Map<String, String> albumArtists = new TreeMap<>();
+		for (AlbumArtist artist : library.getAlbumArtists().values()) {
+			Map<String, String> albums = new TreeMap<>();
+			for (Album album : artist.getAlbums().values()) {
+				StringBuilder albumBuilder = new StringBuilder();
+				albumBuilder.append(album.getYear()).append(" ").append(album.isCompilation()).append(" ");
+				albumBuilder.append(album.getGenres().getGenres()).append(album.getGenres().getUnknownCount()).append(" ");
+				albumBuilder.append(resources(album.getTracks()));
+				for (Disc disc : album.getDiscs().values()) {
+					albumBuilder.append(" disc").append(disc.getDiscNumber()).append(resources(disc.getTracks()));
+				}
+				for (Track track : album.getTracks()) {
+					albumBuilder.append(" ").append(track.getArtist()).append("/").append(track.getAlbum());
+				}
+				albums.put(String.valueOf(album.getTitle()), albumBuilder.toString());
+			}
+			albumArtists.put(String.valueOf(artist.getTitle()), albums + " " + artist.getGenres().getGenres() + artist.getGenres().getUnknownCount());
+		}
+		builder.append(albumArtists).append("\n");
+		Map<String, String> trackArtists = new TreeMap<>();
+		for (TrackArtist artist : library.getTrackArtists().values()) {
+			Set<String> albums = new TreeSet<>();
+			for (Album album : artist.getAlbums()) {
+				albums.add(album.getArtist() + "/" + album);
+			}
+			trackArtists.put(String.valueOf(artist.getTitle()), albums + " " + artist.getGenres().getGenres() + artist.getGenres().getUnknownCount());
+		}
+		builder.append(trackArtists).append("\n");
+		Set<String> albums = new TreeSet<>();
+		for (Album album : library.getAlbums()) {
+			albums.add(album.getArtist() + "/" + album);
+		}
+		builder.append(albums).append("\n");
+		Map<String, Set<String>> genres = new TreeMap<>();
+		for (Genre genre : library.getGenres().values()) {
+			Set<String> genreAlbums = new TreeSet<>();
+			for (Album album : genre.getAlbums()) {
+				genreAlbums.add(album.getArtist() + "/" + album);
+			}
+			genres.put(String.valueOf(genre.getTitle()), genreAlbums);
+		}
+		builder.append(genres).append("\n");
+		Set<String> tracks = new TreeSet<>();
+		for (Track track : library.getTracks()) {
+			tracks.add(track.getResource().toString());
+		}
+		builder.append(tracks).append("\n");
+		return builder.toString();
+	}
+
+	/*
+	 * asset parser serving the given assets
+	 */
+	AssetParser assetParser(final Map<Resource, Asset> assets) {
+		return new AssetParser() {
+			@Override
+			public boolean isAssetPath(Path path) {
+				return path.getFileName().toString().endsWith(".mp3");
+			}
+			@Override
+			public Asset parse(Resource resource) throws Exception {
+				return assets.get(resource);
+			}
+			@Override
+			public BufferedImage extractArtwork(Resource resource) throws Exception {
+				return null;
+			}
+		};
+	}
+
+	/*
+	 * update asset files from old to new assets, rescan store and update library
+	 */
+	void assertUpdate(Library library, AssetStore assetStore, Map<Resource, Asset> oldAssets, Map<Resource, Asset> newAssets) throws Exception {
+		Set<Resource> changedResources = new HashSet<>();
+		for (Asset asset : oldAssets.values()) {
+			if (newAssets.get(asset.getResource()) != asset) {
+				changedResources.add(asset.getResource());
+			}
+		}
+		for (Asset asset : newAssets.values()) {
+			if (oldAssets.get(asset.getResource()) != asset) {
+				changedResources.add(asset.getResource());
+			}
+		}
+		for (Resource resource : changedResources) {
+			File file = resource.getPath().toFile();
+			if (newAssets.containsKey(resource)) {
+				file.createNewFile();
+				file.setLastModified(System.currentTimeMillis() + 60000L); // modified after store timestamp
+			} else {
+				file.delete();
+			}
+		}
+		assertUpdate(library, assetStore, assetParser(newAssets), changedResources);
+	}
+
+	/*
+	 * rescan store and update library from its assets
+	 */
+	void assertUpdate(Library library, AssetStore assetStore, AssetParser assetParser, Set<Resource> changedResources) throws Exception {
+		assetStore.update(assetParser, 1, ProgressHandler.NOOP);
+		new LibraryParser(true).update(library, assetStore.assets(), changedResources);
+		Assert.assertEquals(describe(new LibraryParser(true).parse(assetStore.assets())), describe(library));
+	}
+
+	@Test
+	public void testUpdate() throws Exception {
+		musicFolder = resourceProvider.newResource(tempFolder.newFolder("music").toPath());
+		AssetStore assetStore = new AssetStore("test", musicFolder);
+		Map<Resource, Asset> assets = new LinkedHashMap<>();
+		for (Asset asset : Arrays.asList(
+				asset("a1.mp3", "A1", "Artist A", null, "Album A", null, 1, "Rock", false),
+				asset("a2.mp3", "A2", "Artist A", null, "Album A", null, 2, "Pop", false),
+				asset("b1.mp3", "B1", "Artist B", null, "Mix", 1, 1, null, true),
+				asset("b2.mp3", "B2", "Artist B", null, "Mix", 1, 2, null, true),
+				asset("c1.mp3", "C1", "Artist C", null, "Mix", null, 1, "Rock", false),
+				asset("v1.mp3", "V1", "Artist C", null, "Hits", null, 1, "Pop", true),
+				asset("v2.mp3", "V2", "Artist D", null, "Hits", null, 2, "Pop", true),
+				asset("u1.mp3", "U1", null, null, "Loose", null, 1, null, true),
+				asset("x1.mp3", "X1", "Artist B", "Artist B", "Merged", 1, 1, "Rock", false),
+				asset("x2.mp3", "X2", "Artist B", null, "Merged", 2, 1, "Pop", true),
+				asset("z1.mp3", "Z1", "Artist Z", null, "Untouched", null, 1, "Blues", false))) {
+			assets.put(asset.getResource(), asset);
+			asset.getResource().getPath().toFile().createNewFile();
+		}
+		assetStore.update(assetParser(assets), 1, ProgressHandler.NOOP);
+		Library library = new LibraryParser(true).parse(assetStore.assets());
+		long artistAId = library.getAlbumArtists().get("Artist A").getArtistId();
+		long trackArtistBId = library.getTrackArtists().get("Artist B").getArtistId();
+		long rockGenreId = library.getGenres().get("Rock").getGenreId();
+
+		/*
+		 * move, remove and add tracks
+		 */
+		Map<Resource, Asset> newAssets = new LinkedHashMap<>(assets);
+		for (Asset asset : Arrays.asList(
+				asset("a1.mp3", "A1", "Artist A", null, "Album A", null, 1, "Jazz", false), // modify genre
+				asset("a2.mp3", "A2", "Artist A", null, "Album A2", null, 2, "Pop", false), // move to another album
+				asset("b3.mp3", "B3", "Artist F", null, "Mix", 1, 3, null, true), // "Mix" compilation now has various artists
+				asset("x3.mp3", "X3", "Artist B", null, "Merged", 2, 2, "Rock", true), // merged into existing disc
+				asset("n1.mp3", "N1", "Artist N", null, "New", null, 1, null, false))) { // new artist
+			newAssets.put(asset.getResource(), asset);
+		}
+		for (String path : Arrays.asList("c1.mp3", "v2.mp3", "u1.mp3")) { // "Hits" compilation now has unique artist
+			newAssets.remove(musicFolder.resolve(path));
+		}
+		Library snapshot = library.snapshot();
+		String snapshotDescription = describe(snapshot);
+		assertUpdate(library, assetStore, assets, newAssets);
+		Assert.assertEquals(snapshotDescription, describe(snapshot)); // snapshots are not affected by updates
+		Library newSnapshot = library.snapshot();
+		Assert.assertEquals(describe(library), describe(newSnapshot));
+		Assert.assertNotSame(library.getAlbumArtists().get("Artist A"), newSnapshot.getAlbumArtists().get("Artist A"));
+		Assert.assertNotSame(snapshot.getAlbumArtists().get("Artist A"), newSnapshot.getAlbumArtists().get("Artist A"));
+		Assert.assertSame(snapshot.getAlbumArtists().get("Artist Z"), newSnapshot.getAlbumArtists().get("Artist Z")); // untouched copies are shared
+		Assert.assertSame(snapshot.getGenres().get("Blues"), newSnapshot.getGenres().get("Blues"));
+		Assert.assertSame(library.getAlbumArtists().get("Artist Z").getAlbums().get("Untouched"), newSnapshot.getAlbumArtists().get("Artist Z").getAlbums().get("Untouched"));
+		Assert.assertNull(library.getTrackArtists().get(null));
+		Assert.assertEquals(artistAId, library.getAlbumArtists().get("Artist A").getArtistId());
+		Assert.assertEquals(trackArtistBId, library.getTrackArtists().get("Artist B").getArtistId());
+		Assert.assertEquals(Arrays.asList("Jazz"), library.getAlbumArtists().get("Artist A").getAlbums().get("Album A").getGenres().getGenres());
+		Assert.assertNotNull(library.getAlbumArtists().get("Artist C").getAlbums().get("Hits"));
+		Assert.assertFalse(library.getGenres().get("Jazz").getGenreId() == rockGenreId);
+		Assert.assertEquals(rockGenreId, library.getGenres().get("Rock").getGenreId());
+
+		/*
+		 * ... and back again
+		 */
+		assertUpdate(library, assetStore, newAssets, assets);
+		Assert.assertNotNull(library.getTrackArtists().get(null));
+		Assert.assertEquals(artistAId, library.getAlbumArtists().get("Artist A").getArtistId());
+		Assert.assertNull(library.getAlbumArtists().get("Artist N"));
+
+		/*
+		 * sample library: remove and add all tracks one by one
+		 */
+		File sampleFolder = new File(getClass().getResource("/sample-library").toURI());
+		musicFolder = resourceProvider.newResource(tempFolder.newFolder("sample").toPath());
+		Path removedFolder = tempFolder.newFolder("removed").toPath();
+		List<Path> samplePaths = new ArrayList<>();
+		for (File file : sampleFolder.listFiles()) {
+			if (file.isFile()) {
+				samplePaths.add(Files.copy(file.toPath(), musicFolder.getPath().resolve(file.getName())));
+			}
+		}
+		AssetParser sampleParser = new SimpleAssetParser();
+		assetStore = new AssetStore("test", musicFolder);
+		assetStore.update(sampleParser, 1, ProgressHandler.NOOP);
+		library = new LibraryParser(true).parse(assetStore.assets());
+		for (Path path : samplePaths) {
+			if (sampleParser.isAssetPath(path)) {
+				Set<Resource> changedResources = new HashSet<>(Arrays.asList(resourceProvider.newResource(path)));
+				Files.move(path, removedFolder.resolve(path.getFileName()));
+				assertUpdate(library, assetStore, sampleParser, changedResources);
+				Files.move(removedFolder.resolve(path.getFileName()), path);
+				assertUpdate(library, assetStore, sampleParser, changedResources);
+			}
+		}
+	}
 }
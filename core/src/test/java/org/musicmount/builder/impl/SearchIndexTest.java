@@ -0,0 +1,121 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.builder.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.musicmount.builder.model.Titled;
+
+public class SearchIndexTest {
+	static class Item implements Titled {
+		final String title;
+
+		Item(String title) {
+			this.title = title;
+		}
+
+		@Override
+		public String getTitle() {
+			return title;
+		}
+	}
+
+	private final LocalStrings localStrings = new LocalStrings(Locale.ENGLISH);
+
+	private SearchIndex<Item> createIndex(String... titles) {
+		List<Item> items = new ArrayList<>();
+		for (String title : titles) {
+			items.add(new Item(title));
+		}
+		return new SearchIndex<Item>(items, new TitledComparator<Item>(localStrings, "Unknown", null), Locale.ENGLISH);
+	}
+
+	private List<String> titles(SearchIndex.Result<Item> result) {
+		List<String> titles = new ArrayList<>();
+		for (Item item : result.getItems()) {
+			titles.add(item.getTitle());
+		}
+		return titles;
+	}
+
+	@Test
+	public void testNormalize() {
+		Assert.assertEquals("elephant", SearchIndex.normalize("Éléphant", Locale.ENGLISH));
+		Assert.assertEquals(Arrays.asList("beatles", "the"), new ArrayList<>(SearchIndex.words("beatles, the")));
+	}
+
+	@Test
+	public void testSearch() {
+		SearchIndex<Item> index = createIndex("The Beatles", "Bob Dylan", "Beastie Boys", "Éléphant", "Abbey Road");
+		Assert.assertEquals(5, index.size());
+
+		Assert.assertEquals(Arrays.asList("Beastie Boys", "The Beatles"), titles(index.search("bea", 0, 10))); // index order
+		Assert.assertEquals(Arrays.asList("The Beatles"), titles(index.search("BEATL", 0, 10)));
+		Assert.assertEquals(Arrays.asList("The Beatles"), titles(index.search("the", 0, 10)));
+		Assert.assertEquals(Arrays.asList("Éléphant"), titles(index.search("ele", 0, 10)));
+		Assert.assertEquals(Arrays.asList("Abbey Road"), titles(index.search("ro ab", 0, 10))); // all words
+		Assert.assertEquals(0, index.search("road beatles", 0, 10).getTotal());
+		Assert.assertEquals(0, index.search("  ", 0, 10).getTotal());
+	}
+
+	@Test
+	public void testWithItems() {
+		SearchIndex<Item> index = createIndex("The Beatles", "Bob Dylan", "Beastie Boys");
+		List<Item> copies = new ArrayList<>();
+		for (Item item : index.getItems()) {
+			copies.add(new Item(item.getTitle()));
+		}
+		SearchIndex<Item> copy = index.withItems(copies);
+		Assert.assertEquals(3, copy.size());
+		Assert.assertSame(copies.get(0), copy.getItems().get(0));
+		Item item = copy.search("beatl", 0, 10).getItems().get(0);
+		Assert.assertEquals("The Beatles", item.getTitle());
+		Assert.assertTrue(copies.contains(item));
+	}
+
+	@Test
+	public void testPaging() {
+		SearchIndex<Item> index = createIndex("Track 1", "Track 2", "Track 3", "Track 4", "Track 5");
+		SearchIndex.Result<Item> result = index.search("track", 1, 2);
+		Assert.assertEquals(5, result.getTotal());
+		Assert.assertEquals(Arrays.asList("Track 2", "Track 3"), titles(result));
+		Assert.assertEquals(Arrays.asList("Track 5"), titles(index.search("track", 4, 2)));
+		Assert.assertTrue(index.search("track", 5, 2).getItems().isEmpty());
+	}
+
+	@Test
+	public void testShards() {
+		SearchIndex<Item> index = createIndex("The Beatles", "Beastie Boys", "Bob Dylan", "U2");
+		Map<String, List<Item>> shards = index.shards(2);
+		Assert.assertEquals(Arrays.asList("be", "bo", "dy", "th", "u2"), new ArrayList<>(shards.keySet()));
+		List<String> titles = new ArrayList<>();
+		for (Item item : shards.get("be")) {
+			titles.add(item.getTitle());
+		}
+		Assert.assertEquals(Arrays.asList("Beastie Boys", "The Beatles"), titles); // index order
+		Assert.assertEquals(2, shards.get("bo").size()); // "Boys", "Bob"
+
+		shards = createIndex("A Day", "Abbey Road").shards(2);
+		Assert.assertEquals(Arrays.asList("a", "ab", "da", "ro"), new ArrayList<>(shards.keySet())); // short words
+	}
+}
@@ -23,6 +23,7 @@ import org.junit.Test;
 import org.musicmount.builder.model.Album;
 import org.musicmount.builder.model.AlbumArtist;
 import org.musicmount.builder.model.ArtistType;
+import org.musicmount.builder.model.Genre;
 import org.musicmount.builder.model.Track;
 import org.musicmount.io.Resource;
 import org.musicmount.io.ResourceProvider;
@@ -37,6 +38,13 @@ public class SimpleResourceLocatorTest {
 		Assert.assertEquals("albumArtists/10/01-albums.json", resourceLocator.getAlbumCollectionPath(new AlbumArtist(0x1001, "foo")));
 	}
 
+	@Test
+	public void testGetGenrePaths() {
+		SimpleResourceLocator resourceLocator = new SimpleResourceLocator(null, false, false, false);
+		Assert.assertEquals("genres/index.json", resourceLocator.getGenreIndexPath());
+		Assert.assertEquals("genres/10/01-albums.json", resourceLocator.getGenreCollectionPath(new Genre(0x1001, "foo")));
+	}
+
 	Album createAlbum(long albumId, AlbumArtist artist, boolean artworkAvailable) {
 		Resource dummyFile = resourceProvider.newResource(String.format("%d.mp3", albumId));
 		Track track = new Track(null, dummyFile, artworkAvailable, false, null, null, null, null, null, null, null);
@@ -102,6 +110,31 @@ public class SimpleResourceLocatorTest {
 		Assert.assertNull(resourceLocator.getTrackIndexPath());
 	}
 
+	@Test
+	public void testGetIndexSectionPath() {
+		CollectionSection<Album> albumSection = new CollectionSection<Album>("A");
+		CollectionSection<Track> trackSection = new CollectionSection<Track>("#");
+		SimpleResourceLocator resourceLocator = new SimpleResourceLocator(null, false, false, false);
+		Assert.assertNull(resourceLocator.getAlbumIndexSectionPath(albumSection));
+		Assert.assertNull(resourceLocator.getTrackIndexSectionPath(trackSection));
+		resourceLocator = new SimpleResourceLocator(null, false, false, false, true);
+		Assert.assertEquals("albums/index-a.json", resourceLocator.getAlbumIndexSectionPath(albumSection));
+		Assert.assertEquals("tracks/index-num.json", resourceLocator.getTrackIndexSectionPath(trackSection));
+		resourceLocator = new SimpleResourceLocator(null, false, false, true, true);
+		Assert.assertNull(resourceLocator.getTrackIndexSectionPath(trackSection));
+	}
+
+	@Test
+	public void testGetSearchIndexPath() {
+		SimpleResourceLocator resourceLocator = new SimpleResourceLocator(null, false, false, false);
+		Assert.assertNull(resourceLocator.getSearchIndexPath());
+		Assert.assertNull(resourceLocator.getSearchIndexShardPath("ab"));
+		resourceLocator = new SimpleResourceLocator(null, false, false, false, false, true);
+		Assert.assertEquals("search/index.json", resourceLocator.getSearchIndexPath());
+		Assert.assertEquals("search/ab.json", resourceLocator.getSearchIndexShardPath("ab"));
+		Assert.assertEquals("search/4_00e9.json", resourceLocator.getSearchIndexShardPath("4\u00e9"));
+	}
+
 	@Test
 	public void testFile() throws URISyntaxException {
 		Resource outputFolder = resourceProvider.newResource(new File(getClass().getResource("/sample-assets").toURI()).toPath());
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.builder.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.Locale;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class TitleSortKeysTest {
+	@Test
+	public void testSharedInstance() {
+		TitleSortKeys sortKeys = TitleSortKeys.getInstance(new LocalStrings(Locale.ENGLISH));
+		Assert.assertSame(sortKeys, TitleSortKeys.getInstance(new LocalStrings(Locale.ENGLISH)));
+		Assert.assertSame(sortKeys.getSortKey("The Beatles"), sortKeys.getSortKey("The Beatles"));
+	}
+
+	@Test
+	public void testSortKey() {
+		TitleSortKeys sortKeys = new TitleSortKeys(new LocalStrings(Locale.ENGLISH));
+		Assert.assertEquals("Beatles, The", sortKeys.getSortKey("The Beatles").getSortTitle());
+		Assert.assertEquals('B', sortKeys.getSortKey("The Beatles").getSectionChar());
+		Assert.assertEquals('E', sortKeys.getSortKey("Éléphant").getSectionChar());
+		Assert.assertTrue(sortKeys.getSortKey("Bob Dylan").compareTo(sortKeys.getSortKey("The Beatles")) > 0);
+		Assert.assertTrue(sortKeys.getSortKey("bob dylan").compareTo(sortKeys.getSortKey("Bob Dylan")) == 0);
+		Assert.assertTrue(sortKeys.isModified());
+	}
+
+	@Test
+	public void testSaveLoad() throws Exception {
+		TitleSortKeys sortKeys = new TitleSortKeys(new LocalStrings(Locale.ENGLISH));
+		TitleSortKeys.SortKey beatles = sortKeys.getSortKey("The Beatles");
+		TitleSortKeys.SortKey dylan = sortKeys.getSortKey("Bob Dylan");
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		sortKeys.save(output);
+		Assert.assertFalse(sortKeys.isModified());
+
+		TitleSortKeys loadedSortKeys = new TitleSortKeys(new LocalStrings(Locale.ENGLISH));
+		loadedSortKeys.load(new ByteArrayInputStream(output.toByteArray()));
+		Assert.assertEquals(2, loadedSortKeys.size());
+		Assert.assertFalse(loadedSortKeys.isModified());
+		TitleSortKeys.SortKey loadedBeatles = loadedSortKeys.getSortKey("The Beatles");
+		Assert.assertEquals(beatles.getSortTitle(), loadedBeatles.getSortTitle());
+		Assert.assertEquals(beatles.getSectionChar(), loadedBeatles.getSectionChar());
+		Assert.assertEquals(0, beatles.compareTo(loadedBeatles));
+		Assert.assertEquals(0, dylan.compareTo(loadedSortKeys.getSortKey("Bob Dylan")));
+		Assert.assertFalse(loadedSortKeys.isModified());
+	}
+
+	@Test
+	public void testSaveKeepsConcurrentAdditions() throws Exception {
+		final TitleSortKeys sortKeys = new TitleSortKeys(new LocalStrings(Locale.ENGLISH));
+		sortKeys.getSortKey("The Beatles");
+		sortKeys.save(new ByteArrayOutputStream() {
+			@Override
+			public synchronized void write(byte[] b, int off, int len) {
+				sortKeys.getSortKey("Bob Dylan"); // added while saving
+				super.write(b, off, len);
+			}
+		});
+		Assert.assertTrue(sortKeys.isModified());
+	}
+
+	@Test
+	public void testPrune() {
+		TitleSortKeys sortKeys = new TitleSortKeys(new LocalStrings(Locale.ENGLISH));
+		TitleSortKeys.SortKey beatles = sortKeys.getSortKey("The Beatles");
+		sortKeys.getSortKey("Bob Dylan");
+		for (int i = 0; i < TitleSortKeys.MAX_IDLE_PERIODS; i++) {
+			Assert.assertEquals(0, sortKeys.prune());
+			sortKeys.getSortKey("The Beatles");
+		}
+		Assert.assertEquals(1, sortKeys.prune());
+		Assert.assertEquals(1, sortKeys.size());
+		Assert.assertSame(beatles, sortKeys.getSortKey("The Beatles"));
+	}
+
+	@Test
+	public void testPruneSaved() throws Exception {
+		byte[] saved = null;
+		for (int build = 0; build <= TitleSortKeys.MAX_IDLE_PERIODS; build++) { // one instance per build
+			TitleSortKeys sortKeys = new TitleSortKeys(new LocalStrings(Locale.ENGLISH));
+			if (saved != null) {
+				sortKeys.load(new ByteArrayInputStream(saved));
+			}
+			sortKeys.getSortKey("The Beatles");
+			if (build == 0) {
+				sortKeys.getSortKey("Bob Dylan");
+			}
+			Assert.assertEquals(build < TitleSortKeys.MAX_IDLE_PERIODS ? 0 : 1, sortKeys.prune());
+			Assert.assertTrue(sortKeys.isModified());
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			sortKeys.save(output);
+			saved = output.toByteArray();
+		}
+		TitleSortKeys loadedSortKeys = new TitleSortKeys(new LocalStrings(Locale.ENGLISH));
+		loadedSortKeys.load(new ByteArrayInputStream(saved));
+		Assert.assertEquals(1, loadedSortKeys.size());
+		loadedSortKeys.getSortKey("The Beatles");
+		Assert.assertFalse(loadedSortKeys.isModified());
+	}
+
+	@Test(expected = java.io.IOException.class)
+	public void testLoadIncompatible() throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		new DataOutputStream(output).writeUTF("0;unknown");
+		new TitleSortKeys(new LocalStrings(Locale.ENGLISH)).load(new ByteArrayInputStream(output.toByteArray()));
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.live;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.musicmount.builder.impl.ImageType;
+
+public class ImageCacheTest {
+	@Test
+	public void testActivate() {
+		ImageCache cache = new ImageCache(1000);
+		cache.activate(1, null);
+		Assert.assertTrue(cache.put(1, 10, ImageType.Tile, new byte[10]));
+		Assert.assertTrue(cache.put(1, 20, ImageType.Tile, new byte[10]));
+		Assert.assertTrue(cache.put(1, 20, ImageType.Thumbnail, new byte[10]));
+
+		cache.activate(2, Arrays.asList(20L)); // album 20 changed
+		Assert.assertNotNull(cache.get(10, ImageType.Tile));
+		Assert.assertNull(cache.get(20, ImageType.Tile));
+		Assert.assertFalse(cache.contains(20, ImageType.Thumbnail));
+
+		Assert.assertFalse(cache.put(1, 20, ImageType.Tile, new byte[10])); // replaced mount
+		Assert.assertNull(cache.get(20, ImageType.Tile));
+		Assert.assertTrue(cache.put(2, 20, ImageType.Tile, new byte[10]));
+
+		cache.activate(3, null);
+		Assert.assertEquals(0, cache.size());
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.live;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.musicmount.builder.MusicMountBuildConfig;
+import org.musicmount.builder.impl.AssetStore;
+import org.musicmount.builder.impl.AssetStoreRepository;
+import org.musicmount.builder.model.Album;
+import org.musicmount.io.Resource;
+import org.musicmount.io.file.FileResource;
+import org.musicmount.io.file.FileResourceProvider;
+
+public class LiveMountBuilderTest {
+	@Rule
+	public TemporaryFolder repositoryFolder = new TemporaryFolder();
+
+	@Test
+	public void testUpdate() throws Exception {
+		File inputFolder = new File(getClass().getResource("/sample-album").toURI());
+		FileResource musicFolder = new FileResourceProvider().newResource(inputFolder.toPath());
+		Resource repository = new FileResourceProvider().newResource(repositoryFolder.getRoot().toPath());
+		LiveMountBuilder builder = new LiveMountBuilder(new MusicMountBuildConfig(), repository);
+
+		LiveMount mount1 = builder.update(musicFolder, "/music", null);
+		Assert.assertEquals(1, mount1.getLibrary().getAlbums().size());
+
+		// incremental update without changes
+		LiveMount mount2 = builder.update(musicFolder, "/music", Collections.<Path>emptySet(), null);
+		Assert.assertNotSame(mount1.getLibrary(), mount2.getLibrary());
+		Album album1 = mount1.getLibrary().getAlbums().get(0);
+		Assert.assertSame(album1, mount2.getLibrary().getAlbums().get(0)); // untouched albums are shared
+		Assert.assertSame(mount1.getLibrary().getAlbumArtists().get(album1.getArtist().getTitle()), mount2.getLibrary().getAlbumArtists().get(album1.getArtist().getTitle()));
+		Assert.assertSame(mount1.getImageCache(), mount2.getImageCache()); // images survive the swap
+
+		// asset store is saved in the background
+		builder.close();
+		Resource assetStoreFile = AssetStoreRepository.getAssetStoreResource(repository, musicFolder);
+		Assert.assertTrue(assetStoreFile.exists());
+		Assert.assertFalse(assetStoreFile.getParent().resolve(assetStoreFile.getName() + ".tmp").exists()); // replaced atomically
+		AssetStore assetStore = new AssetStore(LiveMountBuilder.API_VERSION, musicFolder);
+		assetStore.load(assetStoreFile, null);
+		Assert.assertEquals(3, assetStore.size());
+	}
+}
@@ -0,0 +1,634 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.live;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.musicmount.builder.MusicMountBuildConfig;
+import org.musicmount.builder.impl.ImageType;
+import org.musicmount.builder.impl.LocalStrings;
+import org.musicmount.builder.impl.ResourceLocator;
+import org.musicmount.builder.impl.ResponseFormatter;
+import org.musicmount.builder.model.Album;
+import org.musicmount.builder.model.Genre;
+import org.musicmount.io.file.FileResource;
+import org.musicmount.io.file.FileResourceProvider;
+import org.musicmount.server.ServerMetrics;
+
+public class LiveMountServletTest {
+	static HttpServletRequest createRequest(final String pathInfo, final Map<String, String> parameters, final Map<String, Object> headers) {
+		final StringBuilder queryString = new StringBuilder();
+		for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+			if (queryString.length() > 0) {
+				queryString.append('&');
+			}
+			queryString.append(parameter.getKey()).append('=').append(parameter.getValue());
+		}
+		return (HttpServletRequest) Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(), new Class<?>[]{ HttpServletRequest.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				switch (method.getName()) {
+				case "getPathInfo":
+					return pathInfo;
+				case "getQueryString":
+					return queryString.length() > 0 ? queryString.toString() : null;
+				case "getParameter":
+					return parameters.get(args[0]);
+				case "getHeader":
+					return headers.get(args[0]);
+				case "getDateHeader":
+					return headers.containsKey(args[0]) ? headers.get(args[0]) : Long.valueOf(-1);
+				default:
+					return null;
+				}
+			}
+		});
+	}
+
+	static HttpServletResponse createResponse(final Map<String, Object> status, final OutputStream content) {
+		final ServletOutputStream output = new ServletOutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				content.write(b);
+			}
+		};
+		return (HttpServletResponse) Proxy.newProxyInstance(HttpServletResponse.class.getClassLoader(), new Class<?>[]{ HttpServletResponse.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				switch (method.getName()) {
+				case "getOutputStream":
+					return output;
+				case "isCommitted":
+					return Boolean.FALSE;
+				case "setHeader":
+				case "setDateHeader":
+					status.put((String) args[0], args[1]);
+					return null;
+				default:
+					if (args != null && args.length == 1) {
+						status.put(method.getName(), args[0]);
+					}
+					return null;
+				}
+			}
+		});
+	}
+
+	static HttpServletRequest createAsyncRequest(final HttpServletRequest request, final HttpServletResponse response, final CountDownLatch completed) {
+		final AsyncContext asyncContext = (AsyncContext) Proxy.newProxyInstance(AsyncContext.class.getClassLoader(), new Class<?>[]{ AsyncContext.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				switch (method.getName()) {
+				case "getRequest":
+					return request;
+				case "getResponse":
+					return response;
+				case "complete":
+					completed.countDown();
+					return null;
+				default:
+					return null;
+				}
+			}
+		});
+		return (HttpServletRequest) Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(), new Class<?>[]{ HttpServletRequest.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				switch (method.getName()) {
+				case "isAsyncSupported":
+					return Boolean.TRUE;
+				case "startAsync":
+					return asyncContext;
+				default:
+					return method.invoke(request, args);
+				}
+			}
+		});
+	}
+
+	private FileResource musicFolder;
+	private LiveMountBuilder builder;
+
+	@Before
+	public void setUp() throws Exception {
+		File inputFolder = new File(getClass().getResource("/sample-album").toURI());
+		musicFolder = new FileResourceProvider().newResource(inputFolder.toPath());
+		builder = new LiveMountBuilder(new MusicMountBuildConfig(), null);
+	}
+
+	private LiveMount update() throws IOException {
+		return builder.update(musicFolder, "/music", null);
+	}
+
+	/*
+	 * wait until the given threads are blocked, e.g. joining a rendering in progress
+	 */
+	static void awaitWaiting(Collection<Thread> threads) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + 5000;
+		for (Thread thread : threads) {
+			while (thread.getState() != Thread.State.WAITING && System.currentTimeMillis() < timeout) {
+				Thread.yield();
+			}
+		}
+	}
+
+	@Test
+	public void testConcurrentRequests() throws Exception {
+		final int numberOfRequests = 8;
+		final CountDownLatch entered = new CountDownLatch(numberOfRequests);
+		final Collection<Thread> requestThreads = new ConcurrentLinkedQueue<>();
+		final AtomicInteger formatImageCount = new AtomicInteger();
+		final LiveMount mount = new LiveMount(update().getLibrary(), new ResponseFormatter.JSON("test", new LocalStrings(), false, false, false, false), null, null, false, false) {
+			@Override
+			public void formatImage(OutputStream output, ImageType type, Album album) throws IOException {
+				formatImageCount.incrementAndGet();
+				try {
+					Assert.assertTrue(entered.await(5, TimeUnit.SECONDS)); // let other requests arrive...
+					requestThreads.remove(Thread.currentThread());
+					awaitWaiting(requestThreads); // ...and join this rendering
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				output.write(new byte[]{ 1, 2, 3 });
+			}
+		};
+		final LiveMountServlet servlet = new LiveMountServlet(mount);
+		Album album = mount.getLibrary().getAlbums().get(0);
+		final Map<String, String> parameters = new HashMap<>();
+		parameters.put("imageType", ImageType.Tile.name());
+		parameters.put("albumId", String.valueOf(album.getAlbumId()));
+
+		ExecutorService executor = Executors.newFixedThreadPool(numberOfRequests);
+		List<Future<Map<String, Object>>> results = new ArrayList<>();
+		for (int i = 0; i < numberOfRequests; i++) {
+			results.add(executor.submit(new Callable<Map<String, Object>>() {
+				@Override
+				public Map<String, Object> call() throws Exception {
+					Map<String, Object> status = new HashMap<>();
+					ByteArrayOutputStream content = new ByteArrayOutputStream();
+					requestThreads.add(Thread.currentThread());
+					entered.countDown();
+					servlet.doGet(createRequest("/albumImage", parameters, new HashMap<String, Object>()), createResponse(status, content));
+					status.put("content", content.toByteArray());
+					return status;
+				}
+			}));
+		}
+		for (Future<Map<String, Object>> result : results) {
+			Map<String, Object> status = result.get();
+			Assert.assertNull(status.get("sendError"));
+			Assert.assertEquals(ImageType.Tile.getMimeType(), status.get("setContentType"));
+			Assert.assertArrayEquals(new byte[]{ 1, 2, 3 }, (byte[]) status.get("content"));
+		}
+		executor.shutdown();
+
+		Assert.assertEquals(1, formatImageCount.get());
+	}
+
+	private Map<String, Object> get(LiveMountServlet servlet, String pathInfo, Map<String, Object> headers) throws Exception {
+		Map<String, Object> status = new HashMap<>();
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		servlet.doGet(createRequest(pathInfo, new HashMap<String, String>(), headers), createResponse(status, content));
+		status.put("content", content.toByteArray());
+		return status;
+	}
+
+	@Test
+	public void testConditionalGet() throws Exception {
+		LiveMountServlet servlet = new LiveMountServlet(update());
+
+		Map<String, Object> status = get(servlet, "/albumIndex", new HashMap<String, Object>());
+		Assert.assertNull(status.get("setStatus"));
+		String entityTag = (String) status.get("ETag");
+		Assert.assertNotNull(entityTag);
+		Assert.assertEquals(servlet.getMount().getLastModified(), status.get("Last-Modified"));
+		Assert.assertTrue(((byte[]) status.get("content")).length > 0);
+
+		/*
+		 * same mount: not modified, served from cache without formatting
+		 */
+		long misses = servlet.getMount().getResponseCache().getMissCount();
+		long hits = servlet.getMount().getResponseCache().getHitCount();
+		Map<String, Object> headers = new HashMap<>();
+		headers.put("If-None-Match", entityTag);
+		status = get(servlet, "/albumIndex", headers);
+		Assert.assertEquals(304, status.get("setStatus"));
+		Assert.assertEquals(entityTag, status.get("ETag"));
+		Assert.assertEquals(0, ((byte[]) status.get("content")).length);
+		Assert.assertEquals(misses, servlet.getMount().getResponseCache().getMissCount());
+		Assert.assertEquals(hits + 1, servlet.getMount().getResponseCache().getHitCount());
+
+		headers.clear();
+		headers.put("If-Modified-Since", servlet.getMount().getLastModified());
+		Assert.assertEquals(304, get(servlet, "/albumIndex", headers).get("setStatus"));
+
+		/*
+		 * other document
+		 */
+		headers.clear();
+		headers.put("If-None-Match", "\"0.0-0.0\"");
+		Assert.assertNull(get(servlet, "/albumIndex", headers).get("setStatus"));
+
+		/*
+		 * validators of the current mount don't apply to unknown documents
+		 */
+		headers.clear();
+		headers.put("If-None-Match", entityTag);
+		status = get(servlet, "/unknown", headers);
+		Assert.assertNull(status.get("setStatus"));
+		Assert.assertEquals(404, status.get("sendError"));
+		headers.clear();
+		headers.put("If-Modified-Since", servlet.getMount().getLastModified());
+		Assert.assertEquals(404, get(servlet, "/unknown", headers).get("sendError"));
+
+		/*
+		 * new mount, same content: not modified, new entity tag
+		 */
+		servlet.setMount(update());
+		headers.clear();
+		headers.put("If-None-Match", entityTag);
+		status = get(servlet, "/albumIndex", headers);
+		Assert.assertEquals(304, status.get("setStatus"));
+		Assert.assertFalse(entityTag.equals(status.get("ETag")));
+	}
+
+	@Test
+	public void testGzip() throws Exception {
+		LiveMountServlet servlet = new LiveMountServlet(update());
+
+		Map<String, Object> plain = get(servlet, "/albumIndex", new HashMap<String, Object>());
+		Assert.assertNull(plain.get("Content-Encoding"));
+
+		Map<String, Object> headers = new HashMap<>();
+		headers.put("Accept-Encoding", "deflate, gzip");
+		Map<String, Object> gzip = get(servlet, "/albumIndex", headers);
+		Assert.assertEquals("gzip", gzip.get("Content-Encoding"));
+		Assert.assertFalse(plain.get("ETag").equals(gzip.get("ETag")));
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		try (InputStream input = new GZIPInputStream(new ByteArrayInputStream((byte[]) gzip.get("content")))) {
+			int b;
+			while ((b = input.read()) >= 0) {
+				content.write(b);
+			}
+		}
+		Assert.assertArrayEquals((byte[]) plain.get("content"), content.toByteArray());
+		Assert.assertEquals(1, servlet.getMount().getResponseCache().getHitCount());
+
+		headers.put("Accept-Encoding", "gzip;q=0");
+		Assert.assertNull(get(servlet, "/albumIndex", headers).get("Content-Encoding"));
+	}
+
+	@Test
+	public void testRenderPoolOverload() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		LiveMount mount = new LiveMount(update().getLibrary(), new ResponseFormatter.JSON("test", new LocalStrings(), false, false, false, false), null, null, false, false) {
+			@Override
+			public void formatImage(OutputStream output, ImageType type, Album album) throws IOException {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				output.write(new byte[]{ 1, 2, 3 });
+			}
+		};
+		LiveMountServlet servlet = new LiveMountServlet(mount, 1, 1); // one rendering, one waiting
+		servlet.init();
+		try {
+			Album album = mount.getLibrary().getAlbums().get(0);
+			CountDownLatch completed = new CountDownLatch(3);
+			List<Map<String, Object>> results = new ArrayList<>();
+			for (ImageType imageType : ImageType.values()) {
+				Map<String, String> parameters = new HashMap<>();
+				parameters.put("imageType", imageType.name());
+				parameters.put("albumId", String.valueOf(album.getAlbumId()));
+				Map<String, Object> status = new HashMap<>();
+				HttpServletResponse response = createResponse(status, new ByteArrayOutputStream());
+				HttpServletRequest request = createRequest("/albumImage", parameters, new HashMap<String, Object>());
+				servlet.doGet(createAsyncRequest(request, response, completed), response);
+				results.add(status);
+			}
+
+			Assert.assertEquals(503, results.get(2).get("sendError"));
+			Assert.assertEquals("1", results.get(2).get("Retry-After"));
+
+			release.countDown();
+			Assert.assertTrue(completed.await(5, TimeUnit.SECONDS));
+			Assert.assertNull(results.get(0).get("sendError"));
+			Assert.assertEquals(ImageType.values()[0].getMimeType(), results.get(0).get("setContentType"));
+			Assert.assertNull(results.get(1).get("sendError"));
+			Assert.assertEquals(ImageType.values()[1].getMimeType(), results.get(1).get("setContentType"));
+		} finally {
+			servlet.destroy();
+		}
+	}
+
+	@Test
+	public void testDestroy() throws Exception {
+		LiveMountServlet servlet = new LiveMountServlet(update(), 1, 1);
+		servlet.init();
+		servlet.destroy();
+
+		Album album = servlet.getMount().getLibrary().getAlbums().get(0);
+		Map<String, String> parameters = new HashMap<>();
+		parameters.put("imageType", ImageType.Thumbnail.name());
+		parameters.put("albumId", String.valueOf(album.getAlbumId()));
+		Map<String, Object> status = new HashMap<>();
+		HttpServletResponse response = createResponse(status, new ByteArrayOutputStream());
+		HttpServletRequest request = createRequest("/albumImage", parameters, new HashMap<String, Object>());
+		CountDownLatch completed = new CountDownLatch(1);
+		servlet.doGet(createAsyncRequest(request, response, completed), response); // served on the calling thread
+		Assert.assertEquals(1, completed.getCount());
+		Assert.assertNull(status.get("sendError"));
+		Assert.assertEquals(ImageType.Thumbnail.getMimeType(), status.get("setContentType"));
+	}
+
+	@Test
+	public void testSpooling() throws Exception {
+		LiveMountServlet servlet = new LiveMountServlet(update());
+		servlet.maxCachedResponseSize = 0; // spool all documents
+
+		Map<String, Object> rendered = get(servlet, "/trackIndex", new HashMap<String, Object>());
+		Assert.assertNotNull(rendered.get("setContentLength")); // fits into copy buffer
+
+		LiveMount mount = servlet.getMount();
+		Assert.assertEquals(0, mount.getResponseCache().size());
+		LiveMount.SpooledResponse spooled = mount.getSpooledResponse("trackIndex");
+		Assert.assertNotNull(spooled);
+
+		Map<String, Object> streamed = get(servlet, "/trackIndex", new HashMap<String, Object>());
+		Assert.assertNull(streamed.get("setContentLength"));
+		Assert.assertEquals(rendered.get("ETag"), streamed.get("ETag"));
+		Assert.assertArrayEquals((byte[]) rendered.get("content"), (byte[]) streamed.get("content"));
+
+		Map<String, Object> headers = new HashMap<>();
+		headers.put("If-None-Match", streamed.get("ETag"));
+		Assert.assertEquals(304, get(servlet, "/trackIndex", headers).get("setStatus"));
+
+		headers = new HashMap<>();
+		headers.put("Accept-Encoding", "gzip");
+		Assert.assertEquals(spooled.getLength(), get(servlet, "/trackIndex", headers).get("setContentLength"));
+
+		Files.delete(spooled.getFile()); // rendered and spooled again
+		Map<String, Object> rerendered = get(servlet, "/trackIndex", new HashMap<String, Object>());
+		Assert.assertArrayEquals((byte[]) rendered.get("content"), (byte[]) rerendered.get("content"));
+		Assert.assertTrue(Files.exists(mount.getSpooledResponse("trackIndex").getFile()));
+
+		mount.dispose();
+		Assert.assertNull(mount.getSpooledResponse("trackIndex"));
+		Path file = LiveMount.createSpoolFile();
+		Assert.assertFalse(mount.addSpooledResponse("trackIndex", file, 0, 0));
+		Files.delete(file);
+	}
+
+	@Test
+	public void testStreaming() throws Exception {
+		final byte[] document = new byte[100000]; // larger than copy buffer
+		for (int i = 0; i < document.length; i++) {
+			document[i] = (byte) ('a' + i % 26);
+		}
+		final AtomicInteger formatCount = new AtomicInteger();
+		LiveMount mount = new LiveMount(update().getLibrary(), new ResponseFormatter.JSON("test", new LocalStrings(), false, false, false, false), null, null, false, false) {
+			@Override
+			public void formatAlbumIndex(ResourceLocator resourceLocator, OutputStream output) throws IOException {
+				formatCount.incrementAndGet();
+				output.write(document);
+			}
+		};
+		LiveMountServlet servlet = new LiveMountServlet(mount);
+
+		Map<String, Object> status = get(servlet, "/albumIndex", new HashMap<String, Object>());
+		Assert.assertNull(status.get("setContentLength")); // sent chunked
+		Assert.assertArrayEquals(document, (byte[]) status.get("content"));
+		String entityTag = (String) status.get("ETag");
+		Assert.assertNotNull(entityTag);
+		Assert.assertEquals(1, mount.getResponseCache().size());
+
+		/*
+		 * cached, decoded while sent
+		 */
+		status = get(servlet, "/albumIndex", new HashMap<String, Object>());
+		Assert.assertNull(status.get("setContentLength"));
+		Assert.assertArrayEquals(document, (byte[]) status.get("content"));
+		Assert.assertEquals(1, formatCount.get());
+
+		/*
+		 * validator of the first response matches
+		 */
+		Map<String, Object> headers = new HashMap<>();
+		headers.put("If-None-Match", entityTag);
+		Assert.assertEquals(304, get(servlet, "/albumIndex", headers).get("setStatus"));
+		Assert.assertEquals(1, formatCount.get());
+
+		/*
+		 * not cached: validators of the current mount are answered without formatting
+		 */
+		mount.getResponseCache().clear();
+		Assert.assertEquals(304, get(servlet, "/albumIndex", headers).get("setStatus"));
+		headers.clear();
+		headers.put("If-Modified-Since", mount.getLastModified());
+		Assert.assertEquals(304, get(servlet, "/albumIndex", headers).get("setStatus"));
+		Assert.assertEquals(1, formatCount.get());
+		Assert.assertEquals(0, mount.getResponseCache().size());
+	}
+
+	@Test
+	public void testMountVersions() throws Exception {
+		LiveMount mount1 = update();
+		LiveMount mount2 = update();
+		Assert.assertTrue(mount2.getVersion() > mount1.getVersion());
+
+		LiveMountServlet servlet = new LiveMountServlet(mount1);
+		servlet.warmUp(mount2);
+		Assert.assertSame(mount1, servlet.getMount());
+		Assert.assertTrue(mount2.getResponseCache().contains("serviceIndex"));
+		Assert.assertTrue(mount2.getResponseCache().contains("albumIndex"));
+		Assert.assertTrue(mount2.getResponseCache().contains("artistIndex?artistType=AlbumArtist"));
+
+		Assert.assertTrue(servlet.setMount(mount2));
+		Assert.assertFalse(servlet.setMount(mount1)); // older mount
+		Assert.assertSame(mount2, servlet.getMount());
+
+		long misses = mount2.getResponseCache().getMissCount();
+		Assert.assertNull(get(servlet, "/albumIndex", new HashMap<String, Object>()).get("sendError"));
+		Assert.assertEquals(misses, mount2.getResponseCache().getMissCount());
+	}
+
+	@Test
+	public void testSearch() throws Exception {
+		LiveMountServlet servlet = new LiveMountServlet(update());
+
+		Map<String, String> parameters = new HashMap<>();
+		parameters.put("query", "sample alb");
+		parameters.put("type", "Album");
+		Map<String, Object> status = new HashMap<>();
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		servlet.doGet(createRequest("/search", parameters, new HashMap<String, Object>()), createResponse(status, content));
+		Assert.assertNull(status.get("sendError"));
+		String result = new String(content.toByteArray(), "UTF-8");
+		Assert.assertTrue(result.contains("Sample Album"));
+		Assert.assertFalse(result.contains("tracks"));
+		Assert.assertEquals(0, servlet.getMount().getResponseCache().size()); // search results are not cached
+
+		parameters.put("type", "Genre");
+		status.clear();
+		servlet.doGet(createRequest("/search", parameters, new HashMap<String, Object>()), createResponse(status, new ByteArrayOutputStream()));
+		Assert.assertEquals(404, status.get("sendError"));
+	}
+
+	@Test
+	public void testChanges() throws Exception {
+		LiveMount mount1 = update();
+		LiveMount mount2 = update();
+		Assert.assertEquals(0, mount2.getChangesSince(mount1.getVersionToken()).size());
+		Assert.assertEquals(0, mount2.getChangesSince(mount2.getVersionToken()).size());
+		Assert.assertNull(mount1.getChangesSince(mount2.getVersionToken())); // unknown version
+		Assert.assertNull(mount2.getChangesSince("foo"));
+
+		LiveMountServlet servlet = new LiveMountServlet(mount2);
+		Map<String, String> parameters = new HashMap<>();
+		parameters.put("since", mount1.getVersionToken());
+		Map<String, Object> status = new HashMap<>();
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		servlet.doGet(createRequest("/changes", parameters, new HashMap<String, Object>()), createResponse(status, content));
+		Assert.assertNull(status.get("sendError"));
+		Assert.assertTrue(new String(content.toByteArray(), "UTF-8").contains(mount2.getVersionToken()));
+		Assert.assertEquals(0, mount2.getResponseCache().size()); // changes are not cached
+	}
+
+	@Test
+	public void testAlbums() throws Exception {
+		LiveMountServlet servlet = new LiveMountServlet(update());
+		long albumId = servlet.getMount().getLibrary().getAlbums().get(0).getAlbumId();
+
+		Map<String, String> parameters = new HashMap<>();
+		parameters.put("albumIds", albumId + ",9999");
+		Map<String, Object> status = new HashMap<>();
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		servlet.doGet(createRequest("/albums", parameters, new HashMap<String, Object>()), createResponse(status, content));
+		Assert.assertNull(status.get("sendError"));
+		Assert.assertTrue(new String(content.toByteArray(), "UTF-8").contains("Sample Album")); // unknown id skipped
+
+		parameters.put("albumIds", "9999," + albumId); // same batch, other order
+		servlet.doGet(createRequest("/albums", parameters, new HashMap<String, Object>()), createResponse(status, new ByteArrayOutputStream()));
+		Assert.assertEquals(1, servlet.getMount().getResponseCache().size());
+		Assert.assertEquals(1, servlet.getMount().getResponseCache().getMissCount());
+
+		StringBuilder albumIds = new StringBuilder();
+		for (int i = 0; i <= LiveMountServlet.MAX_BATCH_SIZE; i++) {
+			albumIds.append(i).append(',');
+		}
+		parameters.put("albumIds", albumIds.toString());
+		status.clear();
+		servlet.doGet(createRequest("/albums", parameters, new HashMap<String, Object>()), createResponse(status, new ByteArrayOutputStream()));
+		Assert.assertEquals(404, status.get("sendError"));
+	}
+
+	@Test
+	public void testEmptyAlbumIds() throws Exception {
+		LiveMountServlet servlet = new LiveMountServlet(update());
+		Map<String, String> parameters = new HashMap<>();
+		for (String albumIds : Arrays.asList("", ",", " , ")) {
+			parameters.put("albumIds", albumIds);
+			Map<String, Object> status = new HashMap<>();
+			servlet.doGet(createRequest("/albums", parameters, new HashMap<String, Object>()), createResponse(status, new ByteArrayOutputStream()));
+			Assert.assertEquals(404, status.get("sendError"));
+		}
+		Assert.assertEquals(0, servlet.getMount().getResponseCache().size());
+	}
+
+	@Test
+	public void testGenres() throws Exception {
+		LiveMountServlet servlet = new LiveMountServlet(update());
+		Assert.assertFalse(servlet.getMount().getLibrary().getGenres().isEmpty());
+
+		Map<String, Object> status = new HashMap<>();
+		servlet.doGet(createRequest("/genreIndex", new HashMap<String, String>(), new HashMap<String, Object>()), createResponse(status, new ByteArrayOutputStream()));
+		Assert.assertNull(status.get("sendError"));
+
+		Map<String, String> parameters = new HashMap<>();
+		for (Genre genre : servlet.getMount().getLibrary().getGenres().values()) {
+			parameters.put("genreId", String.valueOf(genre.getGenreId()));
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			servlet.doGet(createRequest("/genreCollection", parameters, new HashMap<String, Object>()), createResponse(status, content));
+			Assert.assertNull(status.get("sendError"));
+			Assert.assertTrue(new String(content.toByteArray(), "UTF-8").contains("Sample Album"));
+		}
+
+		parameters.put("genreId", "9999");
+		servlet.doGet(createRequest("/genreCollection", parameters, new HashMap<String, Object>()), createResponse(status, new ByteArrayOutputStream()));
+		Assert.assertEquals(404, status.get("sendError"));
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		LiveMountServlet servlet = new LiveMountServlet(update());
+
+		Map<String, Object> status = new HashMap<>();
+		servlet.doGet(createRequest("/metrics", new HashMap<String, String>(), new HashMap<String, Object>()), createResponse(status, new ByteArrayOutputStream()));
+		Assert.assertEquals(404, status.get("sendError")); // no metrics
+
+		servlet.setMetrics(new ServerMetrics(null));
+		status.clear();
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		servlet.doGet(createRequest("/metrics", new HashMap<String, String>(), new HashMap<String, Object>()), createResponse(status, content));
+		Assert.assertNull(status.get("sendError"));
+		Assert.assertTrue(new String(content.toByteArray(), "UTF-8").contains("\"requestCount\""));
+		Assert.assertEquals(0, servlet.getMount().getResponseCache().size()); // not cached
+		Assert.assertEquals("no-cache", status.get("Cache-Control"));
+		Assert.assertNull(status.get("ETag"));
+
+		Map<String, Object> headers = new HashMap<>();
+		headers.put("If-Modified-Since", System.currentTimeMillis());
+		headers.put("If-None-Match", "*");
+		status.clear();
+		servlet.doGet(createRequest("/metrics", new HashMap<String, String>(), headers), createResponse(status, new ByteArrayOutputStream()));
+		Assert.assertNull(status.get("setStatus")); // not validated
+	}
+}
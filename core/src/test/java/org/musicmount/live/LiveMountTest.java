@@ -0,0 +1,60 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.live;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.musicmount.builder.MusicMountBuildConfig;
+import org.musicmount.builder.impl.ImageType;
+import org.musicmount.builder.model.Album;
+import org.musicmount.io.file.FileResource;
+import org.musicmount.io.file.FileResourceProvider;
+
+public class LiveMountTest {
+	private LiveMount createMount() throws Exception {
+		File inputFolder = new File(getClass().getResource("/sample-album").toURI()); // has an image
+		FileResource musicFolder = new FileResourceProvider().newResource(inputFolder.toPath());
+		return new LiveMountBuilder(new MusicMountBuildConfig(), null).update(musicFolder, "/music", null);
+	}
+
+	@Test
+	public void testImageCache() throws Exception {
+		LiveMount mount = createMount();
+		Album album = mount.getLibrary().getAlbums().get(0);
+		Assert.assertTrue(mount.isArtworkPresent(album));
+
+		ByteArrayOutputStream output1 = new ByteArrayOutputStream();
+		mount.formatImage(output1, ImageType.Tile, album);
+		Assert.assertEquals(1, mount.getImageCache().size());
+		Assert.assertEquals(0, mount.getImageCache().getHitCount());
+
+		ByteArrayOutputStream output2 = new ByteArrayOutputStream();
+		mount.formatImage(output2, ImageType.Tile, album);
+		Assert.assertEquals(1, mount.getImageCache().getHitCount());
+		Assert.assertArrayEquals(output1.toByteArray(), output2.toByteArray());
+	}
+
+	@Test
+	public void testPrerenderImages() throws Exception {
+		LiveMount mount = createMount();
+		Assert.assertEquals(1, mount.prerenderImages(ImageType.Thumbnail));
+		Assert.assertEquals(1, mount.getImageCache().size());
+		Assert.assertEquals(0, mount.prerenderImages(ImageType.Thumbnail));
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.musicmount.server.MusicMountServer.AccessLog;
+
+public class AsyncAccessLogTest {
+	static class Recorder extends AsyncAccessLog {
+		final List<String> uris = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch writing = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		volatile CountDownLatch written;
+
+		Recorder(int capacity, int sampleRate, int expectedCount) {
+			super(capacity, sampleRate);
+			this.written = new CountDownLatch(expectedCount);
+		}
+
+		@Override
+		protected void write(Entry entry) {
+			writing.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			uris.add(entry.getRequestURI() + " " + entry.getResponseHeader("Content-Length"));
+			written.countDown();
+		}
+	}
+
+	static AccessLog.Entry entry(final String uri) {
+		return new AccessLog.Entry() {
+			@Override
+			public long getRequestTimestamp() {
+				return 1000L;
+			}
+			@Override
+			public String getRequestURI() {
+				return uri;
+			}
+			@Override
+			public String getRequestMethod() {
+				return "GET";
+			}
+			@Override
+			public int getResponseStatus() {
+				return 200;
+			}
+			@Override
+			public long getResponseTimestamp() {
+				return 1005L;
+			}
+			@Override
+			public String getResponseHeader(String header) {
+				return "Content-Length".equals(header) ? "42" : "other";
+			}
+			@Override
+			public long getBytesSent() {
+				return -1;
+			}
+		};
+	}
+
+	@Test
+	public void testWrite() throws InterruptedException {
+		Recorder log = new Recorder(16, 1, 3);
+		log.release.countDown();
+		for (int i = 0; i < 3; i++) {
+			log.log(entry("/" + i));
+		}
+		Assert.assertTrue(log.written.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals("[/0 42, /1 42, /2 42]", log.uris.toString());
+		Assert.assertEquals(0, log.getSkippedCount());
+	}
+
+	@Test
+	public void testSkip() throws InterruptedException {
+		Recorder log = new Recorder(8, 2, 9);
+		log.log(entry("/first"));
+		Assert.assertTrue(log.writing.await(5, TimeUnit.SECONDS)); // background thread is blocked now
+
+		for (int i = 0; i < 100; i++) { // must not block
+			log.log(entry("/" + i));
+		}
+		// 4 entries until half full, then every 2nd entry until full (8)
+		Assert.assertEquals(92, log.getSkippedCount());
+
+		log.release.countDown();
+		Assert.assertTrue(log.written.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(9, log.uris.size());
+		Assert.assertEquals("/first 42", log.uris.get(0));
+		Assert.assertEquals("/0 42", log.uris.get(1));
+		Assert.assertEquals("/3 42", log.uris.get(4));
+	}
+
+	@Test
+	public void testClose() throws InterruptedException {
+		Recorder log = new Recorder(16, 1, 3);
+		log.log(entry("/first"));
+		Assert.assertTrue(log.writing.await(5, TimeUnit.SECONDS)); // background thread is blocked now
+		log.log(entry("/second"));
+		log.log(entry("/third"));
+		log.release.countDown();
+		log.close(); // flushes remaining entries
+		Assert.assertEquals(3, log.uris.size());
+		Assert.assertEquals("/third 42", log.uris.get(2));
+
+		log.written = new CountDownLatch(1);
+		log.log(entry("/again")); // restarts background thread
+		Assert.assertTrue(log.written.await(5, TimeUnit.SECONDS));
+		log.close();
+		Assert.assertEquals(4, log.uris.size());
+		log.close(); // no-op
+	}
+
+	@Test
+	public void testDisabled() {
+		AsyncAccessLog log = new AsyncAccessLog() {
+			@Override
+			protected boolean isEnabled() {
+				return false;
+			}
+			@Override
+			protected void write(Entry entry) {
+				Assert.fail();
+			}
+		};
+		log.log(entry("/"));
+		Assert.assertEquals(0, log.getSkippedCount());
+	}
+}
@@ -147,6 +147,10 @@ public class MusicMountServerNano implements MusicMountServer {
 							return null;
 						}
 						@Override
+						public long getBytesSent() {
+							return -1;
+						}
+						@Override
 						public String getRequestURI() {
 							return session.getUri();
 						}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.server;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RequestLimitFilterTest {
+	static HttpServletResponse createResponse(final Map<String, Object> status) {
+		return (HttpServletResponse) Proxy.newProxyInstance(HttpServletResponse.class.getClassLoader(), new Class<?>[]{ HttpServletResponse.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				switch (method.getName()) {
+				case "setIntHeader":
+					status.put((String) args[0], args[1]);
+					return null;
+				case "sendError":
+					status.put("sendError", args[0]);
+					return null;
+				default:
+					return null;
+				}
+			}
+		});
+	}
+
+	@Test
+	public void testLimit() throws Exception {
+		final RequestLimitFilter filter = new RequestLimitFilter(1);
+		final HttpServletRequest request = (HttpServletRequest) Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(), new Class<?>[]{ HttpServletRequest.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				return null;
+			}
+		});
+		final Map<String, Object> outerStatus = new HashMap<>();
+		final Map<String, Object> innerStatus = new HashMap<>();
+		final Map<String, Object> chainStatus = new HashMap<>();
+
+		/*
+		 * second request while the first is being served is rejected
+		 */
+		filter.doFilter(request, createResponse(outerStatus), new FilterChain() {
+			@Override
+			public void doFilter(ServletRequest req, ServletResponse res) throws IOException, ServletException {
+				filter.doFilter(request, createResponse(innerStatus), new FilterChain() {
+					@Override
+					public void doFilter(ServletRequest req, ServletResponse res) throws IOException, ServletException {
+						chainStatus.put("served", Boolean.TRUE);
+					}
+				});
+			}
+		});
+		Assert.assertNull(outerStatus.get("sendError"));
+		Assert.assertEquals(503, innerStatus.get("sendError"));
+		Assert.assertEquals(1, innerStatus.get("Retry-After"));
+		Assert.assertNull(chainStatus.get("served"));
+
+		/*
+		 * permit is released after the first request
+		 */
+		filter.doFilter(request, createResponse(innerStatus), new FilterChain() {
+			@Override
+			public void doFilter(ServletRequest req, ServletResponse res) throws IOException, ServletException {
+				chainStatus.put("served", Boolean.TRUE);
+			}
+		});
+		Assert.assertEquals(Boolean.TRUE, chainStatus.get("served"));
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.server;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.musicmount.server.MusicMountServer.AccessLog;
+
+public class ServerMetricsTest {
+	static AccessLog.Entry entry(final String uri, final int status, final String contentLength, final long millis) {
+		return entry(uri, status, contentLength, -1, millis);
+	}
+
+	static AccessLog.Entry entry(final String uri, final int status, final String contentLength, final long bytesSent, final long millis) {
+		return new AccessLog.Entry() {
+			@Override
+			public long getResponseTimestamp() {
+				return 1000 + millis;
+			}
+			@Override
+			public int getResponseStatus() {
+				return status;
+			}
+			@Override
+			public String getResponseHeader(String header) {
+				return "Content-Length".equals(header) ? contentLength : null;
+			}
+			@Override
+			public long getBytesSent() {
+				return bytesSent;
+			}
+			@Override
+			public String getRequestURI() {
+				return uri;
+			}
+			@Override
+			public long getRequestTimestamp() {
+				return 1000;
+			}
+			@Override
+			public String getRequestMethod() {
+				return "GET";
+			}
+		};
+	}
+
+	@Test
+	public void testGetEndpoint() {
+		ServerMetrics metrics = new ServerMetrics(null);
+		metrics.setContextPaths("/musicmount/music", "/musicmount/");
+
+		// live mount
+		Assert.assertEquals(ServerMetrics.SERVICE_INDEX, metrics.getEndpoint("/musicmount"));
+		Assert.assertEquals(ServerMetrics.SERVICE_INDEX, metrics.getEndpoint("/musicmount/"));
+		Assert.assertEquals(ServerMetrics.SERVICE_INDEX, metrics.getEndpoint("/musicmount/serviceIndex"));
+		Assert.assertEquals(ServerMetrics.ALBUM, metrics.getEndpoint("/musicmount/album"));
+		Assert.assertEquals(ServerMetrics.ALBUM_IMAGE, metrics.getEndpoint("/musicmount/albumImage"));
+		Assert.assertEquals(ServerMetrics.OTHER, metrics.getEndpoint("/musicmount/foo"));
+
+		// static site
+		Assert.assertEquals(ServerMetrics.SERVICE_INDEX, metrics.getEndpoint("/musicmount/index.json"));
+		Assert.assertEquals(ServerMetrics.ARTIST_INDEX, metrics.getEndpoint("/musicmount/albumArtists/index.json"));
+		Assert.assertEquals(ServerMetrics.ALBUM_COLLECTION, metrics.getEndpoint("/musicmount/artists/10/01-albums.json"));
+		Assert.assertEquals(ServerMetrics.ALBUM_INDEX, metrics.getEndpoint("/musicmount/albums/"));
+		Assert.assertEquals(ServerMetrics.ALBUM_INDEX, metrics.getEndpoint("/musicmount/albums/index-A.json"));
+		Assert.assertEquals(ServerMetrics.ALBUM, metrics.getEndpoint("/musicmount/albums/10/01/album.json"));
+		Assert.assertEquals(ServerMetrics.ALBUM_IMAGE, metrics.getEndpoint("/musicmount/albums/10/01/artwork-thumbnail.jpg"));
+		Assert.assertEquals(ServerMetrics.GENRE_COLLECTION, metrics.getEndpoint("/musicmount/genres/00/01-albums.json"));
+
+		// music (inside mount context) and unrelated paths
+		Assert.assertEquals(ServerMetrics.MUSIC, metrics.getEndpoint("/musicmount/music/foo/bar.m4a"));
+		Assert.assertEquals(ServerMetrics.OTHER, metrics.getEndpoint("/musicmountain"));
+		Assert.assertEquals(ServerMetrics.OTHER, metrics.getEndpoint("/favicon.ico"));
+	}
+
+	@Test
+	public void testLogBytesSent() {
+		ServerMetrics metrics = new ServerMetrics(null);
+		metrics.log(entry("/musicmount/trackIndex", 200, null, 2000, 3)); // chunked
+		metrics.log(entry("/musicmount/trackIndex", 200, "100", 100, 3));
+		Assert.assertEquals(2100, metrics.getEndpointMetrics(ServerMetrics.TRACK_INDEX).getBytesSent());
+	}
+
+	@Test
+	public void testLog() throws Exception {
+		final int[] delegated = { 0 };
+		ServerMetrics metrics = new ServerMetrics(new AccessLog() {
+			@Override
+			public void log(Entry entry) {
+				delegated[0]++;
+			}
+		});
+		metrics.log(entry("/musicmount/album", 200, "1000", 5));
+		metrics.log(entry("/musicmount/album", 304, null, 1));
+		metrics.log(entry("/musicmount/album", 404, "10", 1));
+		metrics.log(entry("/music/foo.mp3", 206, "4096", 50));
+		Assert.assertEquals(4, delegated[0]);
+
+		EndpointMetrics album = metrics.getEndpointMetrics(ServerMetrics.ALBUM);
+		Assert.assertEquals(3, album.getRequestCount());
+		Assert.assertEquals(1, album.getErrorCount());
+		Assert.assertEquals(1, album.getNotModifiedCount());
+		Assert.assertEquals(1010, album.getBytesSent());
+		Assert.assertEquals(5, album.getMaxLatency());
+		Assert.assertEquals(1, metrics.getEndpointMetrics(ServerMetrics.MUSIC).getRequestCount());
+		Assert.assertEquals(4, metrics.getRequestCount());
+		Assert.assertEquals(5106, metrics.getBytesSent());
+		Assert.assertEquals(0.25, metrics.getNotModifiedRate(), 0.0);
+
+		metrics.setResponseCache(new ServerMetrics.CacheCounts() {
+			@Override
+			public long getHitCount() {
+				return 3;
+			}
+			@Override
+			public long getMissCount() {
+				return 1;
+			}
+		});
+		Assert.assertEquals(0.75, metrics.getResponseCacheHitRate(), 0.0);
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		metrics.writeJSON(output);
+		String json = new String(output.toByteArray(), "UTF-8");
+		Assert.assertTrue(json.contains("\"requestCount\":4"));
+		Assert.assertTrue(json.contains("\"hitRate\":0.750"));
+		Assert.assertTrue(json.contains("\"album\":{\"requestCount\":3"));
+		Assert.assertFalse(json.contains("\"search\"")); // no requests
+	}
+
+	@Test
+	public void testRegister() throws Exception {
+		ServerMetrics metrics = new ServerMetrics(null);
+		metrics.register("test");
+		ObjectName name = new ObjectName("org.musicmount:type=EndpointMetrics,server=\"test\",endpoint=album");
+		try {
+			Assert.assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+			Assert.assertEquals(0L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "RequestCount"));
+		} finally {
+			metrics.unregister();
+		}
+		Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+	}
+}
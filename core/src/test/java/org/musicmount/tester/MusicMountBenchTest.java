@@ -0,0 +1,167 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.tester;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.musicmount.server.ServerMetrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class MusicMountBenchTest {
+	static final String SERVICE_INDEX = "<response><apiVersion>1.0</apiVersion><serviceIndex>"
+			+ "<albumIndexPath>albums.xml</albumIndexPath></serviceIndex></response>";
+	static final String ALBUM_INDEX = "<response><albumCollection><section><item>"
+			+ "<imagePath>image.jpg</imagePath><albumPath>album.xml</albumPath>"
+			+ "</item></section></albumCollection></response>";
+	static final String ALBUM = "<response><album><imagePath>image.jpg</imagePath><trackCollection><section>"
+			+ "<item><imagePath>image.jpg</imagePath><assetPath>../music/track.mp3</assetPath></item>"
+			+ "<item><imagePath>image.jpg</imagePath><assetPath>../music/missing.mp3</assetPath></item>"
+			+ "</section></trackCollection></album></response>";
+	static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d+)-(\\d+)");
+	static final int TRACK_LENGTH = 100000;
+
+	HttpServer server;
+	final CountDownLatch release = new CountDownLatch(1);
+
+	static void send(HttpExchange exchange, int status, String contentType, byte[] content) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, content.length);
+		try (OutputStream output = exchange.getResponseBody()) {
+			output.write(content);
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/site/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String path = exchange.getRequestURI().getPath();
+				String content = null;
+				if (path.endsWith("/index.xml")) {
+					content = SERVICE_INDEX;
+				} else if (path.endsWith("/albums.xml")) {
+					content = ALBUM_INDEX;
+				} else if (path.endsWith("/album.xml")) {
+					content = ALBUM;
+				}
+				if (content != null) {
+					send(exchange, 200, "application/xml", content.getBytes(StandardCharsets.UTF_8));
+				} else {
+					send(exchange, 200, "image/jpeg", new byte[100]);
+				}
+			}
+		});
+		server.createContext("/music/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				Matcher matcher = RANGE_PATTERN.matcher(String.valueOf(exchange.getRequestHeaders().getFirst("Range")));
+				if (!exchange.getRequestURI().getPath().endsWith("/track.mp3") || !matcher.matches()) {
+					send(exchange, 404, "text/plain", new byte[0]);
+					return;
+				}
+				int start = Integer.parseInt(matcher.group(1));
+				int end = Math.min(Integer.parseInt(matcher.group(2)), TRACK_LENGTH - 1);
+				exchange.getResponseHeaders().set("Content-Range", String.format("bytes %d-%d/%d", start, end, TRACK_LENGTH));
+				send(exchange, 206, "audio/mpeg", new byte[end - start + 1]);
+			}
+		});
+		server.createContext("/slow/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				send(exchange, 200, "application/xml", SERVICE_INDEX.getBytes(StandardCharsets.UTF_8));
+			}
+		});
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		server.stop(0);
+	}
+
+	@Test
+	public void testParseLinks() throws XMLStreamException {
+		Map<String, Set<String>> links = MusicMountBench.parseLinks(XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(ALBUM)));
+		Assert.assertEquals(Arrays.asList("imagePath", "assetPath"), Arrays.asList(links.keySet().toArray()));
+		Assert.assertEquals(Arrays.asList("image.jpg"), Arrays.asList(links.get("imagePath").toArray()));
+		Assert.assertEquals(Arrays.asList("../music/track.mp3", "../music/missing.mp3"), Arrays.asList(links.get("assetPath").toArray()));
+	}
+
+	@Test
+	public void testRun() throws Exception {
+		URL siteURL = new URL("http", "localhost", server.getAddress().getPort(), "/site/index.xml");
+		MusicMountBench bench = new MusicMountBench(siteURL, null, null);
+		bench.setRangeSize(1000);
+		bench.run(2, 500);
+		bench.report();
+
+		Map<String, MusicMountBench.Stats> stats = bench.getStats();
+		for (String endpoint : Arrays.asList(ServerMetrics.SERVICE_INDEX, ServerMetrics.ALBUM_INDEX, ServerMetrics.ALBUM, ServerMetrics.ALBUM_IMAGE)) {
+			Assert.assertTrue(endpoint, stats.get(endpoint).getRequestCount() > 0);
+			Assert.assertEquals(endpoint, 0, stats.get(endpoint).getErrorCount());
+		}
+		Assert.assertEquals(0, stats.get(ServerMetrics.ARTIST_INDEX).getRequestCount());
+
+		// each album: one image, then two reads of track.mp3 or one (failed) read of missing.mp3
+		MusicMountBench.Stats music = stats.get(ServerMetrics.MUSIC);
+		Assert.assertTrue(music.getRequestCount() > music.getErrorCount());
+		Assert.assertTrue(music.getErrorCount() > 0);
+		Assert.assertEquals(1000 * (music.getRequestCount() - music.getErrorCount()), music.getByteCount());
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		URL siteURL = new URL("http", "localhost", server.getAddress().getPort(), "/slow/index.xml");
+		MusicMountBench bench = new MusicMountBench(siteURL, null, null);
+		bench.setTimeoutMillis(200);
+		bench.run(1, 100);
+
+		Assert.assertTrue(bench.getElapsedMillis() < 2000);
+		MusicMountBench.Stats serviceIndex = bench.getStats().get(ServerMetrics.SERVICE_INDEX);
+		Assert.assertTrue(serviceIndex.getRequestCount() > 0);
+		Assert.assertEquals(serviceIndex.getRequestCount(), serviceIndex.getErrorCount());
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class BufferPoolTest {
+	@Test
+	public void testAcquireRelease() {
+		BufferPool pool = new BufferPool(16, 1);
+		byte[] buffer = pool.acquire();
+		Assert.assertEquals(16, buffer.length);
+		pool.release(buffer);
+		Assert.assertEquals(1, pool.size());
+		Assert.assertSame(buffer, pool.acquire());
+		Assert.assertEquals(0, pool.size());
+
+		pool.release(new byte[16]);
+		pool.release(new byte[16]); // pool is full
+		pool.release(new byte[8]); // wrong size
+		Assert.assertEquals(1, pool.size());
+	}
+
+	@Test
+	public void testBuffered() throws Exception {
+		BufferPool pool = new BufferPool(16, 1);
+		ByteArrayOutputStream target = new ByteArrayOutputStream();
+		OutputStream output = pool.buffered(target);
+		Assert.assertEquals(0, pool.size());
+
+		output.write(1);
+		output.write(new byte[10], 0, 10);
+		Assert.assertEquals(0, target.size());
+		output.write(new byte[10], 0, 10); // exceeds buffer
+		Assert.assertEquals(11, target.size());
+		output.write(new byte[20], 0, 20); // larger than buffer
+		Assert.assertEquals(41, target.size());
+		output.flush();
+		Assert.assertEquals(41, target.size());
+		output.write(2);
+		output.close();
+		Assert.assertEquals(42, target.size());
+		Assert.assertEquals(2, target.toByteArray()[41]);
+		Assert.assertEquals(1, pool.size());
+	}
+}
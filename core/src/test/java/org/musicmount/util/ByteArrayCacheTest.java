@@ -0,0 +1,71 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.util;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class ByteArrayCacheTest {
+	@Test
+	public void testGetPut() {
+		ByteArrayCache<String> cache = new ByteArrayCache<>(100);
+		Assert.assertNull(cache.get("a"));
+		Assert.assertTrue(cache.put("a", new byte[10]));
+		Assert.assertTrue(cache.contains("a"));
+		Assert.assertEquals(0, cache.getHitCount());
+		Assert.assertNotNull(cache.get("a"));
+		Assert.assertEquals(1, cache.getHitCount());
+		Assert.assertEquals(1, cache.getMissCount());
+		Assert.assertEquals(1, cache.size());
+		Assert.assertEquals(10, cache.getBytes());
+
+		Assert.assertTrue(cache.put("a", new byte[20]));
+		Assert.assertEquals(1, cache.size());
+		Assert.assertEquals(20, cache.getBytes());
+
+		Assert.assertTrue(cache.remove("a"));
+		Assert.assertFalse(cache.remove("a"));
+		Assert.assertEquals(0, cache.getBytes());
+		cache.put("a", new byte[20]);
+
+		cache.clear();
+		Assert.assertEquals(0, cache.size());
+		Assert.assertEquals(0, cache.getBytes());
+		Assert.assertNull(cache.get("a"));
+	}
+
+	@Test
+	public void testEviction() {
+		ByteArrayCache<String> cache = new ByteArrayCache<>(100);
+		cache.put("a", new byte[40]);
+		cache.put("b", new byte[40]);
+		cache.get("a"); // "b" is now least recently used
+		cache.put("c", new byte[40]);
+		Assert.assertNotNull(cache.get("a"));
+		Assert.assertNull(cache.get("b"));
+		Assert.assertNotNull(cache.get("c"));
+		Assert.assertEquals(80, cache.getBytes());
+
+		Assert.assertTrue(cache.put("d", new byte[100]));
+		Assert.assertEquals(1, cache.size());
+		Assert.assertEquals(100, cache.getBytes());
+
+		Assert.assertFalse(cache.put("e", new byte[101]));
+		Assert.assertNull(cache.get("e"));
+		Assert.assertNotNull(cache.get("d"));
+	}
+}
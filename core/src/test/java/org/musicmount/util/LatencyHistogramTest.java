@@ -0,0 +1,58 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+	@Test
+	public void testEmpty() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		Assert.assertEquals(0, histogram.getCount());
+		Assert.assertEquals(0.0, histogram.getMean(), 0.0);
+		Assert.assertEquals(0, histogram.getPercentile(50.0));
+	}
+
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 90; i++) {
+			histogram.record(4); // bucket (3, 5]
+		}
+		for (int i = 0; i < 9; i++) {
+			histogram.record(80); // bucket (70, 100]
+		}
+		histogram.record(12345); // overflow bucket
+		Assert.assertEquals(100, histogram.getCount());
+		Assert.assertEquals(12345, histogram.getMax());
+		Assert.assertEquals((90 * 4 + 9 * 80 + 12345) / 100.0, histogram.getMean(), 0.001);
+		Assert.assertEquals(5, histogram.getPercentile(50.0));
+		Assert.assertEquals(5, histogram.getPercentile(90.0));
+		Assert.assertEquals(100, histogram.getPercentile(95.0));
+		Assert.assertEquals(100, histogram.getPercentile(99.0));
+		Assert.assertEquals(12345, histogram.getPercentile(100.0));
+	}
+
+	@Test
+	public void testMaxCapsPercentile() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(8); // bucket (7, 10]
+		histogram.record(-1); // recorded as zero
+		Assert.assertEquals(8, histogram.getPercentile(99.0));
+		Assert.assertEquals(1, histogram.getPercentile(50.0)); // bucket [0, 1]
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2013-2014 Odysseus Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.musicmount.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RingBufferTest {
+	@Test
+	public void testOfferPoll() {
+		RingBuffer<Integer> buffer = new RingBuffer<>(3);
+		Assert.assertEquals(4, buffer.capacity());
+		Assert.assertNull(buffer.poll());
+		for (int i = 0; i < 4; i++) {
+			Assert.assertTrue(buffer.offer(i));
+		}
+		Assert.assertFalse(buffer.offer(4)); // full
+		Assert.assertEquals(4, buffer.size());
+		Assert.assertEquals(Integer.valueOf(0), buffer.poll());
+		Assert.assertTrue(buffer.offer(4)); // wraps around
+		for (int i = 1; i <= 4; i++) {
+			Assert.assertEquals(Integer.valueOf(i), buffer.poll());
+		}
+		Assert.assertNull(buffer.poll());
+		Assert.assertEquals(0, buffer.size());
+	}
+
+	@Test
+	public void testConcurrentProducers() throws Exception {
+		final RingBuffer<Integer> buffer = new RingBuffer<>(64);
+		final int producerCount = 4;
+		final int elementCount = 10000;
+		final CountDownLatch done = new CountDownLatch(producerCount);
+		List<Thread> producers = new ArrayList<>();
+		for (int p = 0; p < producerCount; p++) {
+			producers.add(new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < elementCount; i++) {
+						while (!buffer.offer(i)) {
+							Thread.yield();
+						}
+					}
+					done.countDown();
+				}
+			});
+		}
+		for (Thread producer : producers) {
+			producer.start();
+		}
+		long sum = 0;
+		int count = 0;
+		while (count < producerCount * elementCount) {
+			Integer element = buffer.poll();
+			if (element != null) {
+				sum += element;
+				count++;
+			} else {
+				Thread.yield();
+			}
+		}
+		done.await();
+		Assert.assertNull(buffer.poll());
+		Assert.assertEquals(producerCount * (long) elementCount * (elementCount - 1) / 2, sum);
+	}
+}